@@ -30,11 +30,14 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.commons.jcs3.auxiliary.AbstractAuxiliaryCacheEventLogging;
 import org.apache.commons.jcs3.auxiliary.AuxiliaryCache;
 import org.apache.commons.jcs3.auxiliary.disk.behavior.IDiskCacheAttributes;
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CacheElementLazy;
 import org.apache.commons.jcs3.engine.CacheEventQueueFactory;
 import org.apache.commons.jcs3.engine.CacheInfo;
 import org.apache.commons.jcs3.engine.CacheStatus;
 import org.apache.commons.jcs3.engine.behavior.ICache;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElementSerialized;
 import org.apache.commons.jcs3.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs3.engine.behavior.ICacheListener;
 import org.apache.commons.jcs3.engine.stats.StatElement;
@@ -43,6 +46,7 @@ import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs3.engine.stats.behavior.IStats;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.serialization.SerializationConversionUtil;
 import org.apache.commons.jcs3.utils.struct.LRUMap;
 
 /**
@@ -278,7 +282,7 @@ public abstract class AbstractDiskCache<K, V>
         // it from the cache.
         try
         {
-            return doGet( key );
+            return deSerializeStored( doGet( key ) );
         }
         catch ( Exception e )
         {
@@ -290,6 +294,61 @@ public abstract class AbstractDiskCache<K, V>
         return null;
     }
 
+    /**
+     * @return true if the values are stored serialized, so that getSerialized hands on the bytes
+     *         read from the disk
+     */
+    public boolean isStoreSerializedValues()
+    {
+        return diskCacheAttributes.isStoreSerializedValues();
+    }
+
+    /**
+     * Gets an element to hand on to a peer, with its value in serialized form. If the values are
+     * stored serialized, the value is not de-serialized at all, so the peer gets the bytes that
+     * were read from the disk. Otherwise the value is serialized with the element serializer.
+     * <p>
+     * The serialized value can only be read by a peer that uses the same element serializer.
+     *
+     * @param key
+     * @return the serialized element, or null
+     * @throws IOException if the value cannot be serialized
+     */
+    public ICacheElementSerialized<K, V> getSerialized( K key )
+        throws IOException
+    {
+        if ( !alive )
+        {
+            log.debug( "getSerialized was called, but the disk cache is not alive." );
+            return null;
+        }
+
+        PurgatoryElement<K, V> pe = null;
+        synchronized ( purgatory )
+        {
+            pe = purgatory.get( key );
+        }
+
+        if ( pe != null )
+        {
+            purgHits++;
+            return SerializationConversionUtil.getSerializedCacheElement( pe.getCacheElement(), getElementSerializer() );
+        }
+
+        try
+        {
+            return SerializationConversionUtil.getSerializedCacheElement( doGet( key ), getElementSerializer() );
+        }
+        catch ( IOException e )
+        {
+            log.error( e );
+
+            cacheEventQueue.destroy();
+        }
+
+        return null;
+    }
+
     /**
      * Gets items from the cache matching the given pattern. Items from memory will replace those
      * from remote sources.
@@ -325,7 +384,17 @@ public abstract class AbstractDiskCache<K, V>
         // Get the keys from disk
         Map<K, ICacheElement<K, V>> diskMatches = doGetMatching( pattern );
 
-        result.putAll( diskMatches );
+        for ( Map.Entry<K, ICacheElement<K, V>> entry : diskMatches.entrySet() )
+        {
+            try
+            {
+                result.put( entry.getKey(), deSerializeStored( entry.getValue() ) );
+            }
+            catch ( ClassNotFoundException e )
+            {
+                throw new IOException( e );
+            }
+        }
 
         return result;
     }
@@ -627,7 +696,7 @@ public abstract class AbstractDiskCache<K, V>
                             // If the element is still eligible, spool it.
                             if ( pe.isSpoolable() )
                             {
-                                doUpdate( element );
+                                doUpdate( toStoredForm( element ) );
                             }
                         }
                         finally
@@ -646,7 +715,7 @@ public abstract class AbstractDiskCache<K, V>
                 else
                 {
                     // call the child's implementation
-                    doUpdate( element );
+                    doUpdate( toStoredForm( element ) );
                 }
             }
             else
@@ -722,6 +791,55 @@ public abstract class AbstractDiskCache<K, V>
      * ex. doGet calls getWithEventLogging, which calls processGet
      */
 
+    /**
+     * Wraps the element in a CacheElementSerialized if the values are stored serialized. Otherwise
+     * a lazy element read from another disk gets its value first, as it would be written as a
+     * CacheElementSerialized.
+     *
+     * @param element the element to store
+     * @return the element as it is written to the persistent store
+     * @throws IOException if the value cannot be serialized
+     */
+    private ICacheElement<K, V> toStoredForm( ICacheElement<K, V> element )
+        throws IOException
+    {
+        if ( diskCacheAttributes.isStoreSerializedValues() )
+        {
+            return SerializationConversionUtil.getSerializedCacheElement( element, getElementSerializer() );
+        }
+        if ( element instanceof CacheElementLazy )
+        {
+            return new CacheElement<>( element.getCacheName(), element.getKey(), element.getVal(),
+                                       element.getElementAttributes() );
+        }
+        return element;
+    }
+
+    /**
+     * Restores the value of an element that was stored serialized, even if this disk does not
+     * store serialized values. With lazy de-serialization the value is restored on the first call
+     * to getVal() instead.
+     *
+     * @param element the element read from the persistent store, may be null
+     * @return the element with its value
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private ICacheElement<K, V> deSerializeStored( ICacheElement<K, V> element )
+        throws IOException, ClassNotFoundException
+    {
+        if ( element instanceof ICacheElementSerialized )
+        {
+            if ( diskCacheAttributes.isStoreSerializedValues() && diskCacheAttributes.isLazyDeserialization() )
+            {
+                return new CacheElementLazy<>( (ICacheElementSerialized<K, V>) element, getElementSerializer() );
+            }
+            return SerializationConversionUtil.getDeSerializedCacheElement(
+                    (ICacheElementSerialized<K, V>) element, getElementSerializer() );
+        }
+        return element;
+    }
+
     /**
      * Get a value from the persistent store.
      *
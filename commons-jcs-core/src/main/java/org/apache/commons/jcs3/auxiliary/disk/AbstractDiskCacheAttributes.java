@@ -43,6 +43,12 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
     /** if this is false, we will not execute remove all */
     private boolean allowRemoveAll = true;
 
+    /** Store the values serialized, for peers. */
+    private boolean storeSerializedValues = false;
+
+    /** De-serialize stored values on first access. */
+    private boolean lazyDeserialization = false;
+
     /** default to 5000 */
     private int maxPurgatorySize = MAX_PURGATORY_SIZE_DEFAULT;
 
@@ -180,6 +186,44 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
         return allowRemoveAll;
     }
 
+    /**
+     * @param storeSerializedValues
+     *            The storeSerializedValues to set.
+     */
+    @Override
+    public void setStoreSerializedValues(boolean storeSerializedValues)
+    {
+        this.storeSerializedValues = storeSerializedValues;
+    }
+
+    /**
+     * @return Returns the storeSerializedValues.
+     */
+    @Override
+    public boolean isStoreSerializedValues()
+    {
+        return storeSerializedValues;
+    }
+
+    /**
+     * @param lazyDeserialization
+     *            The lazyDeserialization to set.
+     */
+    @Override
+    public void setLazyDeserialization(boolean lazyDeserialization)
+    {
+        this.lazyDeserialization = lazyDeserialization;
+    }
+
+    /**
+     * @return Returns the lazyDeserialization.
+     */
+    @Override
+    public boolean isLazyDeserialization()
+    {
+        return lazyDeserialization;
+    }
+
     /**
      * Includes the common attributes for a debug message.
      * <p>
@@ -194,6 +238,8 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
         str.append("\n diskPath = " + getDiskPath());
         str.append("\n maxPurgatorySize   = " + getMaxPurgatorySize());
         str.append("\n allowRemoveAll   = " + isAllowRemoveAll());
+        str.append("\n storeSerializedValues   = " + isStoreSerializedValues());
+        str.append("\n lazyDeserialization   = " + isLazyDeserialization());
         str.append("\n ShutdownSpoolTimeLimit   = " + getShutdownSpoolTimeLimit());
         return str.toString();
     }
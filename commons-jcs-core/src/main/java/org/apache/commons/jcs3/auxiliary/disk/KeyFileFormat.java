@@ -0,0 +1,501 @@
+package org.apache.commons.jcs3.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+
+/**
+ * The binary format of the key files of the disk caches. The keys are written one by one, each
+ * followed by the primitive fields of its descriptor, so that a key file can be streamed into the
+ * key map without building an intermediate map or object graph.
+ * <p>
+ * The file starts with a magic number and a version. Each record is a tag, the length prefixed
+ * key and the value. String keys are stored as UTF-8, other keys are serialized with the element
+ * serializer of the region. The records are followed by an end tag, the number of records and a
+ * CRC32 checksum of everything after the header.
+ */
+public final class KeyFileFormat
+{
+    /** Marks a binary key file, "JCSK" */
+    public static final int MAGIC = 0x4A43534B;
+
+    /** The current version of the format */
+    public static final byte VERSION = 1;
+
+    /** Tag for the end of the records */
+    private static final byte TAG_END = 0;
+
+    /** Tag for a String key */
+    private static final byte TAG_STRING = 1;
+
+    /** Tag for a serialized key */
+    private static final byte TAG_SERIALIZED = 2;
+
+    /** Buffer size for the streams */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** The number of chunks handed to the decoder before the reader waits for the oldest one */
+    private static final int MAX_CHUNKS_IN_FLIGHT = 16;
+
+    /**
+     * Writes and reads the value stored with each key.
+     * <p>
+     * @param <T> the type of the value
+     */
+    public interface ValueCodec<T>
+    {
+        /**
+         * @param out the output
+         * @param value the value to write
+         * @throws IOException
+         */
+        void write( DataOutput out, T value )
+            throws IOException;
+
+        /**
+         * @param in the input
+         * @return the value read
+         * @throws IOException
+         */
+        T read( DataInput in )
+            throws IOException;
+    }
+
+    /** Utility class */
+    private KeyFileFormat()
+    {
+    }
+
+    /**
+     * Checks whether a file starts with the header of the binary format. Files written by older
+     * versions return false and must be read the old way.
+     * <p>
+     * @param file the key file
+     * @return true if the file is a binary key file
+     * @throws IOException
+     */
+    public static boolean isBinaryFormat( File file )
+        throws IOException
+    {
+        if ( file.length() < 5 )
+        {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream( new FileInputStream( file ) ))
+        {
+            return in.readInt() == MAGIC && in.readByte() == VERSION;
+        }
+    }
+
+    /**
+     * Writes all entries to the file, replacing its content. The entries are written to a
+     * temporary file first, which is then renamed, so the old file stays intact if writing fails.
+     * <p>
+     * @param file the key file
+     * @param entries the entries to write
+     * @param keySerializer serializes keys that are not Strings
+     * @param codec writes the values
+     * @return the number of entries written
+     * @throws IOException
+     */
+    public static <K, T> long write( File file, Iterable<? extends Map.Entry<K, T>> entries,
+            IElementSerializer keySerializer, ValueCodec<T> codec )
+        throws IOException
+    {
+        File tempFile = new File( file.getPath() + ".tmp" );
+        long count;
+
+        try (BufferedOutputStream bos = new BufferedOutputStream( new FileOutputStream( tempFile ), BUFFER_SIZE ))
+        {
+            DataOutputStream header = new DataOutputStream( bos );
+            header.writeInt( MAGIC );
+            header.writeByte( VERSION );
+
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream( new CheckedOutputStream( bos, crc ) );
+
+            count = 0;
+            for ( Map.Entry<K, T> entry : entries )
+            {
+                writeKey( out, entry.getKey(), keySerializer );
+                codec.write( out, entry.getValue() );
+                count++;
+            }
+
+            out.writeByte( TAG_END );
+            out.writeLong( count );
+            out.flush();
+
+            header.writeLong( crc.getValue() );
+            header.flush();
+        }
+
+        // replace the old file only once the new one is complete
+        try
+        {
+            Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( AtomicMoveNotSupportedException e )
+        {
+            Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+
+        return count;
+    }
+
+    /**
+     * Streams all entries of a binary key file to the consumer. The checksum is verified at the
+     * end, so the caller must discard what it received if an exception is thrown.
+     * <p>
+     * @param file the key file
+     * @param keySerializer de-serializes keys that are not Strings
+     * @param codec reads the values
+     * @param consumer receives the entries in file order
+     * @return the number of entries read
+     * @throws IOException if the file is not a valid binary key file
+     * @throws ClassNotFoundException if a key class cannot be found
+     */
+    public static <K, T> long read( File file, IElementSerializer keySerializer, ValueCodec<T> codec,
+            BiConsumer<K, T> consumer )
+        throws IOException, ClassNotFoundException
+    {
+        try (BufferedInputStream bis = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ))
+        {
+            DataInputStream header = new DataInputStream( bis );
+            if ( header.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a binary key file: " + file );
+            }
+            byte version = header.readByte();
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unsupported key file version " + version + ": " + file );
+            }
+
+            CRC32 crc = new CRC32();
+            DataInputStream in = new DataInputStream( new CheckedInputStream( bis, crc ) );
+
+            long count = 0;
+            byte tag;
+            while ( ( tag = in.readByte() ) != TAG_END )
+            {
+                K key = readKey( in, tag, keySerializer );
+                consumer.accept( key, codec.read( in ) );
+                count++;
+            }
+
+            long expectedCount = in.readLong();
+            long checksum = crc.getValue();
+            if ( expectedCount != count || header.readLong() != checksum )
+            {
+                throw new IOException( "Corrupt key file, checksum mismatch: " + file );
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Streams all entries of a binary key file to the consumer in chunks. The calling thread only
+     * splits the file into records; the keys of each chunk are decoded by the executor, so several
+     * chunks are decoded in parallel. The chunks are handed to the consumer on the calling thread,
+     * in file order. The checksum is verified at the end, so the caller must discard what it
+     * received if an exception is thrown.
+     * <p>
+     * @param file the key file
+     * @param keySerializer de-serializes keys that are not Strings
+     * @param codec reads the values
+     * @param chunkSize the number of entries per chunk
+     * @param decoder decodes the keys of the chunks
+     * @param consumer receives the chunks in file order
+     * @return the number of entries read
+     * @throws IOException if the file is not a valid binary key file
+     * @throws ClassNotFoundException if a key class cannot be found
+     */
+    public static <K, T> long read( File file, IElementSerializer keySerializer, ValueCodec<T> codec,
+            int chunkSize, ExecutorService decoder, Consumer<List<Map.Entry<K, T>>> consumer )
+        throws IOException, ClassNotFoundException
+    {
+        Deque<Future<List<Map.Entry<K, T>>>> inFlight = new ArrayDeque<>();
+
+        try (BufferedInputStream bis = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ))
+        {
+            DataInputStream header = new DataInputStream( bis );
+            if ( header.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a binary key file: " + file );
+            }
+            byte version = header.readByte();
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unsupported key file version " + version + ": " + file );
+            }
+
+            CRC32 crc = new CRC32();
+            DataInputStream in = new DataInputStream( new CheckedInputStream( bis, crc ) );
+
+            long count = 0;
+            byte[] tags = new byte[chunkSize];
+            byte[][] keys = new byte[chunkSize][];
+            List<T> values = new ArrayList<>( chunkSize );
+            byte tag;
+            while ( ( tag = in.readByte() ) != TAG_END )
+            {
+                tags[values.size()] = tag;
+                keys[values.size()] = new byte[readLength( in, 1 )];
+                in.readFully( keys[values.size()] );
+                values.add( codec.read( in ) );
+                count++;
+
+                if ( values.size() == chunkSize )
+                {
+                    inFlight.add( submitChunk( decoder, tags, keys, values, keySerializer ) );
+                    tags = new byte[chunkSize];
+                    keys = new byte[chunkSize][];
+                    values = new ArrayList<>( chunkSize );
+
+                    while ( inFlight.size() >= MAX_CHUNKS_IN_FLIGHT || !inFlight.isEmpty() && inFlight.peek().isDone() )
+                    {
+                        consumer.accept( await( inFlight.poll() ) );
+                    }
+                }
+            }
+            if ( !values.isEmpty() )
+            {
+                inFlight.add( submitChunk( decoder, tags, keys, values, keySerializer ) );
+            }
+            while ( !inFlight.isEmpty() )
+            {
+                consumer.accept( await( inFlight.poll() ) );
+            }
+
+            long expectedCount = in.readLong();
+            long checksum = crc.getValue();
+            if ( expectedCount != count || header.readLong() != checksum )
+            {
+                throw new IOException( "Corrupt key file, checksum mismatch: " + file );
+            }
+
+            return count;
+        }
+        finally
+        {
+            inFlight.forEach( future -> future.cancel( false ) );
+        }
+    }
+
+    /**
+     * Hands the decoding of the keys of a chunk to the executor.
+     * <p>
+     * @param decoder the executor
+     * @param tags the tags of the keys
+     * @param keys the key bytes
+     * @param values the values
+     * @param keySerializer de-serializes keys that are not Strings
+     * @return the decoded entries
+     */
+    private static <K, T> Future<List<Map.Entry<K, T>>> submitChunk( ExecutorService decoder,
+            byte[] tags, byte[][] keys, List<T> values, IElementSerializer keySerializer )
+    {
+        return decoder.submit( () -> {
+            List<Map.Entry<K, T>> entries = new ArrayList<>( values.size() );
+            for ( int i = 0; i < values.size(); i++ )
+            {
+                K key = decodeKey( tags[i], keys[i], keySerializer );
+                entries.add( new AbstractMap.SimpleImmutableEntry<>( key, values.get( i ) ) );
+            }
+            return entries;
+        } );
+    }
+
+    /**
+     * Waits for a decoded chunk, passing on the failure of the decoding.
+     * <p>
+     * @param future the chunk
+     * @return the entries
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static <E> E await( Future<E> future )
+        throws IOException, ClassNotFoundException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while decoding keys", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            if ( e.getCause() instanceof ClassNotFoundException )
+            {
+                throw (ClassNotFoundException) e.getCause();
+            }
+            throw new IOException( "Failure decoding keys", e.getCause() );
+        }
+    }
+
+    /**
+     * Writes a key as a tag followed by the length prefixed key bytes.
+     * <p>
+     * @param out the output
+     * @param key the key
+     * @param keySerializer serializes keys that are not Strings
+     * @throws IOException
+     */
+    public static void writeKey( DataOutput out, Object key, IElementSerializer keySerializer )
+        throws IOException
+    {
+        byte[] keyBytes;
+        if ( key instanceof String )
+        {
+            out.writeByte( TAG_STRING );
+            keyBytes = ( (String) key ).getBytes( StandardCharsets.UTF_8 );
+        }
+        else
+        {
+            out.writeByte( TAG_SERIALIZED );
+            keyBytes = keySerializer.serialize( key );
+        }
+        out.writeInt( keyBytes.length );
+        out.write( keyBytes );
+    }
+
+    /**
+     * Reads a key written by writeKey.
+     * <p>
+     * @param in the input
+     * @param keySerializer de-serializes keys that are not Strings
+     * @return the key
+     * @throws IOException
+     * @throws ClassNotFoundException if the key class cannot be found
+     */
+    public static <K> K readKey( DataInput in, IElementSerializer keySerializer )
+        throws IOException, ClassNotFoundException
+    {
+        return readKey( in, in.readByte(), keySerializer );
+    }
+
+    /**
+     * Reads the rest of a key after its tag.
+     * <p>
+     * @param in the input
+     * @param tag the tag already read
+     * @param keySerializer de-serializes keys that are not Strings
+     * @return the key
+     * @throws IOException
+     * @throws ClassNotFoundException if the key class cannot be found
+     */
+    private static <K> K readKey( DataInput in, byte tag, IElementSerializer keySerializer )
+        throws IOException, ClassNotFoundException
+    {
+        byte[] keyBytes = new byte[readLength( in, 1 )];
+        in.readFully( keyBytes );
+        return decodeKey( tag, keyBytes, keySerializer );
+    }
+
+    /**
+     * Reads a length prefix and checks it before anything is allocated for it, so a corrupt file
+     * fails with an IOException. The length must not be negative, and when the input is a stream
+     * it must fit into the bytes left in the stream.
+     * <p>
+     * @param in the input
+     * @param elementSize the number of bytes of each of the counted elements
+     * @return the length
+     * @throws IOException if the length is not valid
+     */
+    public static int readLength( DataInput in, int elementSize )
+        throws IOException
+    {
+        int length = in.readInt();
+        long left = in instanceof InputStream ? ( (InputStream) in ).available() : Long.MAX_VALUE;
+        if ( length < 0 || (long) length * elementSize > left )
+        {
+            throw new IOException( "Corrupt key file, invalid length " + length );
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the bytes of a key.
+     * <p>
+     * @param tag the tag of the key
+     * @param keyBytes the key bytes
+     * @param keySerializer de-serializes keys that are not Strings
+     * @return the key
+     * @throws IOException
+     * @throws ClassNotFoundException if the key class cannot be found
+     */
+    private static <K> K decodeKey( byte tag, byte[] keyBytes, IElementSerializer keySerializer )
+        throws IOException, ClassNotFoundException
+    {
+        if ( tag == TAG_STRING )
+        {
+            @SuppressWarnings("unchecked") // String keys are written for K = String only
+            K stringKey = (K) new String( keyBytes, StandardCharsets.UTF_8 );
+            return stringKey;
+        }
+        else if ( tag == TAG_SERIALIZED )
+        {
+            return keySerializer.deSerialize( keyBytes, null );
+        }
+
+        throw new IOException( "Corrupt key record, unknown tag " + tag );
+    }
+}
@@ -0,0 +1,228 @@
+package org.apache.commons.jcs3.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+
+/**
+ * Reads a file through read-only memory mapped regions. The file is mapped lazily in regions of a
+ * fixed size. A region at the end of the file is mapped only up to the current file length and is
+ * mapped again once a read goes past it, so the file may grow while it is being read.
+ * <p>
+ * Writes still go through the file channel. On the usual platforms the mapping shares the page
+ * cache with the channel, so written data can be read right away.
+ * <p>
+ * Reads may run concurrently. The caller must make sure that no read is in progress while the file
+ * is truncated, and call unmap() before doing so.
+ */
+public class MappedFileReader
+{
+    /** The logger */
+    private static final Log log = LogManager.getLog( MappedFileReader.class );
+
+    /** The default size of the mapped regions, 64MB */
+    public static final int DEFAULT_REGION_SIZE_BYTES = 64 * 1024 * 1024;
+
+    /** The file channel */
+    private final FileChannel fc;
+
+    /** The size of the mapped regions */
+    private final int regionSizeBytes;
+
+    /** The mapped regions, null where not mapped yet */
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    /**
+     * Creates a reader with the default region size.
+     * <p>
+     * @param fc the file channel, must be opened for reading
+     */
+    public MappedFileReader( FileChannel fc )
+    {
+        this( fc, DEFAULT_REGION_SIZE_BYTES );
+    }
+
+    /**
+     * Creates a reader.
+     * <p>
+     * @param fc the file channel, must be opened for reading
+     * @param regionSizeBytes the size of the mapped regions
+     */
+    public MappedFileReader( FileChannel fc, int regionSizeBytes )
+    {
+        if ( regionSizeBytes <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid region size " + regionSizeBytes );
+        }
+        this.fc = fc;
+        this.regionSizeBytes = regionSizeBytes;
+    }
+
+    /**
+     * Reads a big-endian int, as written by ByteBuffer.putInt().
+     * <p>
+     * @param position the position in the file
+     * @return the int
+     * @throws IOException if the position is past the end of the file
+     */
+    public int getInt( long position )
+        throws IOException
+    {
+        int offset = (int) ( position % regionSizeBytes );
+        if ( offset + 4 <= regionSizeBytes )
+        {
+            return region( position, 4 ).getInt( offset );
+        }
+
+        // straddles two regions
+        byte[] bytes = new byte[4];
+        read( position, bytes, 0, 4 );
+        return ByteBuffer.wrap( bytes ).getInt();
+    }
+
+    /**
+     * Copies bytes from the file.
+     * <p>
+     * @param position the position in the file
+     * @param dst the destination array
+     * @param off the offset in the destination array
+     * @param len the number of bytes to copy
+     * @throws IOException if the range is past the end of the file
+     */
+    public void read( long position, byte[] dst, int off, int len )
+        throws IOException
+    {
+        long pos = position;
+        int done = 0;
+
+        while ( done < len )
+        {
+            int offset = (int) ( pos % regionSizeBytes );
+            int length = Math.min( len - done, regionSizeBytes - offset );
+
+            ByteBuffer region = region( pos, length ).duplicate();
+            region.position( offset );
+            region.get( dst, off + done, length );
+
+            pos += length;
+            done += length;
+        }
+    }
+
+    /**
+     * Returns a range of the file as a buffer. A range inside one region is a read only view of
+     * the mapped region, so nothing is copied. A range that straddles two regions is copied.
+     * <p>
+     * @param position the position in the file
+     * @param len the length of the range
+     * @return a buffer from position 0 to len
+     * @throws IOException if the range is past the end of the file
+     */
+    public ByteBuffer slice( long position, int len )
+        throws IOException
+    {
+        int offset = (int) ( position % regionSizeBytes );
+        if ( offset + len <= regionSizeBytes )
+        {
+            ByteBuffer region = region( position, len ).asReadOnlyBuffer();
+            region.position( offset );
+            region.limit( offset + len );
+            return region.slice();
+        }
+
+        byte[] bytes = new byte[len];
+        read( position, bytes, 0, len );
+        return ByteBuffer.wrap( bytes );
+    }
+
+    /**
+     * Drops all mapped regions. This must be called before the file is truncated or closed.
+     */
+    public synchronized void unmap()
+    {
+        regions = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Returns the region holding the range, mapping it if needed.
+     * <p>
+     * @param position the start of the range
+     * @param length the length of the range, which may not cross the end of the region
+     * @return the mapped region
+     * @throws IOException if the range is past the end of the file
+     */
+    private MappedByteBuffer region( long position, int length )
+        throws IOException
+    {
+        int index = (int) ( position / regionSizeBytes );
+        int end = (int) ( position % regionSizeBytes ) + length;
+
+        MappedByteBuffer[] current = regions;
+        if ( index < current.length && current[index] != null && current[index].capacity() >= end )
+        {
+            return current[index];
+        }
+
+        return map( index, end );
+    }
+
+    /**
+     * Maps a region up to the current end of the file.
+     * <p>
+     * @param index the region number
+     * @param end the offset in the region that must be mapped
+     * @return the mapped region
+     * @throws IOException if the file is too short
+     */
+    private synchronized MappedByteBuffer map( int index, int end )
+        throws IOException
+    {
+        MappedByteBuffer[] current = regions;
+        if ( index < current.length && current[index] != null && current[index].capacity() >= end )
+        {
+            // mapped by another thread
+            return current[index];
+        }
+
+        long start = (long) index * regionSizeBytes;
+        int size = (int) Math.max( 0, Math.min( regionSizeBytes, fc.size() - start ) );
+        if ( size < end )
+        {
+            throw new IOException( "Read past the end of the file at " + ( start + end ) );
+        }
+
+        log.debug( "Mapping region {0}, size {1}", index, size );
+        MappedByteBuffer region = fc.map( FileChannel.MapMode.READ_ONLY, start, size );
+
+        MappedByteBuffer[] updated = index < current.length ? current.clone()
+                : Arrays.copyOf( current, index + 1 );
+        updated[index] = region;
+        regions = updated;
+
+        return region;
+    }
+}
@@ -109,6 +109,38 @@ public interface IDiskCacheAttributes
      */
     void setAllowRemoveAll( boolean allowRemoveAll );
 
+    /**
+     * If this is true, the value of each element is stored in its serialized form, in a
+     * CacheElementSerialized. Gets then de-serialize the value, while gets for peers can hand the
+     * serialized value on without de-serializing it.
+     * <p>
+     * @return boolean
+     */
+    boolean isStoreSerializedValues();
+
+    /**
+     * Store the values in their serialized form.
+     * <p>
+     * @param storeSerializedValues
+     */
+    void setStoreSerializedValues( boolean storeSerializedValues );
+
+    /**
+     * If this is true and the values are stored serialized, gets return elements that
+     * de-serialize their value on the first call to getVal(). Elements that are copied to memory
+     * but never read are then never de-serialized.
+     * <p>
+     * @return boolean
+     */
+    boolean isLazyDeserialization();
+
+    /**
+     * De-serialize the values on first access.
+     * <p>
+     * @param lazyDeserialization
+     */
+    void setLazyDeserialization( boolean lazyDeserialization );
+
     /**
      * set the type of the limit of the cache size
      * @param diskLimitType COUNT - limit by count of the elements, SIZE, limit by sum of element's size
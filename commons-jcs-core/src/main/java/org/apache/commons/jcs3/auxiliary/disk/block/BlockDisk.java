@@ -24,11 +24,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.BitSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.jcs3.auxiliary.disk.MappedFileReader;
 import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.io.ByteBufferOutputStream;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
 import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
@@ -49,7 +51,7 @@ public class BlockDisk implements AutoCloseable
     // N.B. 4 bytes is the size used for ByteBuffer.putInt(int value) and ByteBuffer.getInt()
 
     /** defaults to 4kb */
-    private static final int DEFAULT_BLOCK_SIZE_BYTES = 4 * 1024;
+    static final int DEFAULT_BLOCK_SIZE_BYTES = 4 * 1024;
 
     /** Size of the blocks */
     private final int blockSizeBytes;
@@ -60,8 +62,20 @@ public class BlockDisk implements AutoCloseable
      */
     private final AtomicInteger numberOfBlocks = new AtomicInteger(0);
 
-    /** Empty blocks that can be reused. */
-    private final ConcurrentLinkedQueue<Integer> emptyBlocks = new ConcurrentLinkedQueue<>();
+    /**
+     * Empty blocks that can be reused, one bit per block. Guarded by its own monitor, which also
+     * covers the changes to numberOfBlocks made while allocating.
+     */
+    private final BitSet emptyBlocks = new BitSet();
+
+    /** The number of bits set in emptyBlocks. */
+    private int emptyBlockCount;
+
+    /** No block below this one is free, so the searches in emptyBlocks start here. */
+    private int lowestFreeHint;
+
+    /** The number of free runs looked at for a contiguous allocation before giving up. */
+    private static final int MAX_RUNS_SCANNED = 64;
 
     /** The serializer. */
     private final IElementSerializer elementSerializer;
@@ -72,6 +86,15 @@ public class BlockDisk implements AutoCloseable
     /** File channel for multiple concurrent reads and writes */
     private final FileChannel fc;
 
+    /**
+     * Guards the position of the file channel, which is moved by the gathering writes and the
+     * scattering reads. FileChannel has no positional variant of those.
+     */
+    private final Object positionLock = new Object();
+
+    /** Reads through memory mapped regions if enabled, null otherwise. */
+    private final MappedFileReader mappedReader;
+
     /** How many bytes have we put to disk */
     private final AtomicLong putBytes = new AtomicLong(0);
 
@@ -114,6 +137,22 @@ public class BlockDisk implements AutoCloseable
      */
     public BlockDisk(File file, int blockSizeBytes, IElementSerializer elementSerializer)
         throws IOException
+    {
+        this(file, blockSizeBytes, elementSerializer, false);
+    }
+
+    /**
+     * Creates the file and set the block size in bytes.
+     * <p>
+     * @param file
+     * @param blockSizeBytes
+     * @param elementSerializer
+     * @param memoryMapped whether reads should go through memory mapped regions of the file
+     * @throws IOException
+     */
+    public BlockDisk(File file, int blockSizeBytes, IElementSerializer elementSerializer,
+            boolean memoryMapped)
+        throws IOException
     {
         this.filepath = file.getAbsolutePath();
         this.fc = FileChannel.open(file.toPath(),
@@ -126,10 +165,15 @@ public class BlockDisk implements AutoCloseable
 
         this.blockSizeBytes = blockSizeBytes;
         this.elementSerializer = elementSerializer;
+        this.mappedReader = memoryMapped ? new MappedFileReader(fc) : null;
     }
 
     /**
      * Allocate a given number of blocks from the available set
+     * <p>
+     * A run of free blocks long enough for the element is preferred, so that it is written
+     * sequentially. A free run at the end of the file is extended by new blocks. Only if neither
+     * is found are the free blocks taken one by one, lowest first.
      *
      * @param numBlocksNeeded
      * @return an array of allocated blocks
@@ -139,31 +183,94 @@ public class BlockDisk implements AutoCloseable
         assert numBlocksNeeded >= 1;
 
         int[] blocks = new int[numBlocksNeeded];
-        // get them from the empty list or take the next one
-        for (int i = 0; i < numBlocksNeeded; i++)
+
+        synchronized (emptyBlocks)
         {
-            Integer emptyBlock = emptyBlocks.poll();
-            if (emptyBlock == null)
+            int start = findFreeRun(numBlocksNeeded);
+            if (start >= 0)
+            {
+                int end = Math.min(start + numBlocksNeeded, numberOfBlocks.get());
+                emptyBlocks.clear(start, end);
+                emptyBlockCount -= end - start;
+                // the run may end at the end of the file
+                numberOfBlocks.set(Math.max(numberOfBlocks.get(), start + numBlocksNeeded));
+                for (int i = 0; i < numBlocksNeeded; i++)
+                {
+                    blocks[i] = start + i;
+                }
+                return blocks;
+            }
+
+            // get them from the empty set or take the next one
+            int emptyBlock = lowestFreeHint - 1;
+            for (int i = 0; i < numBlocksNeeded; i++)
             {
-                emptyBlock = Integer.valueOf(numberOfBlocks.getAndIncrement());
+                if (emptyBlockCount > 0)
+                {
+                    emptyBlock = emptyBlocks.nextSetBit(emptyBlock + 1);
+                    emptyBlocks.clear(emptyBlock);
+                    emptyBlockCount--;
+                    lowestFreeHint = emptyBlock + 1;
+                    blocks[i] = emptyBlock;
+                }
+                else
+                {
+                    blocks[i] = numberOfBlocks.getAndIncrement();
+                }
             }
-            blocks[i] = emptyBlock.intValue();
         }
 
         return blocks;
     }
 
+    /**
+     * Looks for the first run of free blocks that can hold the given number of blocks, either
+     * because it is long enough or because it ends at the end of the file. Must be called while
+     * holding the emptyBlocks monitor.
+     * <p>
+     * @param numBlocksNeeded
+     * @return the first block of the run, or -1 if there is none
+     */
+    private int findFreeRun(int numBlocksNeeded)
+    {
+        int endOfFile = numberOfBlocks.get();
+        if (emptyBlockCount == 0)
+        {
+            return -1;
+        }
+
+        int start = emptyBlocks.nextSetBit(lowestFreeHint);
+        lowestFreeHint = start;
+        for (int runs = 0; start >= 0 && runs < MAX_RUNS_SCANNED; runs++)
+        {
+            int end = emptyBlocks.nextClearBit(start);
+            if (end - start >= numBlocksNeeded || end >= endOfFile)
+            {
+                return start;
+            }
+            start = emptyBlocks.nextSetBit(end);
+        }
+
+        // a free run at the end of the file can still be extended
+        if (emptyBlocks.get(endOfFile - 1))
+        {
+            return emptyBlocks.previousClearBit(endOfFile - 1) + 1;
+        }
+
+        return -1;
+    }
+
     /**
      * This writes an object to disk and returns the blocks it was stored in.
      * <p>
      * The program flow is as follows:
      * <ol>
-     * <li>Serialize the object.</li>
+     * <li>Serialize the object into a growable buffer, without copying it into an array of its exact size.</li>
      * <li>Determine the number of blocks needed.</li>
      * <li>Look for free blocks in the emptyBlock list.</li>
      * <li>If there were not enough in the empty list. Take the nextBlock and increment it.</li>
-     * <li>If the data will not fit in one block, create sub arrays.</li>
-     * <li>Write the subarrays to disk.</li>
+     * <li>If the data will not fit in one block, slice it without copying.</li>
+     * <li>Write the headers and slices of each run of adjacent blocks with one gathering write.</li>
      * <li>If the process fails we should decrement the block count if we took from it.</li>
      * </ol>
      * @param object
@@ -174,46 +281,58 @@ public class BlockDisk implements AutoCloseable
         throws IOException
     {
         // serialize the object
-        byte[] data = elementSerializer.serialize(object);
+        ByteBufferOutputStream out = new ByteBufferOutputStream();
+        elementSerializer.serializeTo(object, out);
+        ByteBuffer data = out.toByteBuffer();
+        int dataLength = data.remaining();
 
-        log.debug("write, total pre-chunking data.length = {0}", data.length);
+        log.debug("write, total pre-chunking data.length = {0}", dataLength);
 
-        this.putBytes.addAndGet(data.length);
+        this.putBytes.addAndGet(dataLength);
         this.putCount.incrementAndGet();
 
         // figure out how many blocks we need.
-        int numBlocksNeeded = calculateTheNumberOfBlocksNeeded(data);
+        int numBlocksNeeded = calculateTheNumberOfBlocksNeeded(dataLength);
 
         log.debug("numBlocksNeeded = {0}", numBlocksNeeded);
 
         // allocate blocks
         int[] blocks = allocateBlocks(numBlocksNeeded);
 
-        int offset = 0;
         final int maxChunkSize = blockSizeBytes - HEADER_SIZE_BYTES;
-        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
-
-        for (int i = 0; i < numBlocksNeeded; i++)
+        int start = 0;
+        while (start < numBlocksNeeded)
         {
-            headerBuffer.clear();
-            int length = Math.min(maxChunkSize, data.length - offset);
-            headerBuffer.putInt(length);
-            headerBuffer.flip();
+            int end = endOfRun(blocks, start);
 
-            dataBuffer.position(offset).limit(offset + length);
-            ByteBuffer slice = dataBuffer.slice();
-
-            long position = calculateByteOffsetForBlockAsLong(blocks[i]);
-            // write the header
-            int written = fc.write(headerBuffer, position);
-            assert written == HEADER_SIZE_BYTES;
+            // the headers and slices of the data for the adjacent blocks, in file order
+            ByteBuffer[] buffers = new ByteBuffer[2 * (end - start)];
+            long remaining = 0;
+            for (int i = start; i < end; i++)
+            {
+                int offset = i * maxChunkSize;
+                int length = Math.min(maxChunkSize, dataLength - offset);
+                ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+                headerBuffer.putInt(length);
+                headerBuffer.flip();
+                buffers[2 * (i - start)] = headerBuffer;
+                ByteBuffer chunk = data.duplicate();
+                chunk.position(offset);
+                chunk.limit(offset + length);
+                buffers[2 * (i - start) + 1] = chunk;
+                remaining += HEADER_SIZE_BYTES + length;
+            }
 
-            //write the data
-            written = fc.write(slice, position + HEADER_SIZE_BYTES);
-            assert written == length;
+            synchronized (positionLock)
+            {
+                fc.position(calculateByteOffsetForBlockAsLong(blocks[start]));
+                while (remaining > 0)
+                {
+                    remaining -= fc.write(buffers);
+                }
+            }
 
-            offset += length;
+            start = end;
         }
 
         //fc.force(false);
@@ -221,6 +340,23 @@ public class BlockDisk implements AutoCloseable
         return blocks;
     }
 
+    /**
+     * Finds the end of the run of adjacent blocks starting at the given index.
+     * <p>
+     * @param blocks the block numbers
+     * @param start the index of the first block of the run
+     * @return the index after the last block of the run
+     */
+    private static int endOfRun(int[] blocks, int start)
+    {
+        int end = start + 1;
+        while (end < blocks.length && blocks[end] == blocks[end - 1] + 1)
+        {
+            end++;
+        }
+        return end;
+    }
+
     /**
      * Return the amount to put in each block. Fill them all the way, minus the header.
      * <p>
@@ -269,83 +405,196 @@ public class BlockDisk implements AutoCloseable
     protected <T> T read(int[] blockNumbers)
         throws IOException, ClassNotFoundException
     {
-        final ByteBuffer data;
-
-        if (blockNumbers.length == 1)
+        if (mappedReader != null)
         {
-            data = readBlock(blockNumbers[0]);
+            return elementSerializer.deSerializeFrom(readMapped(blockNumbers), null);
         }
-        else
+
+        final byte[] data = readBlocks(blockNumbers);
+
+        log.debug("read, total post combination data.length = {0}", () -> data.length);
+
+        return elementSerializer.deSerialize(data, null);
+    }
+
+    /**
+     * Reads the occupied data of the blocks straight into one array.
+     * <p>
+     * All blocks but the last are full, so only the header of the last block is needed to size
+     * the result. Adjacent blocks are then read with a single scattering read of their headers and
+     * data, and a block on its own with a single read of its data.
+     * <p>
+     * @param blockNumbers
+     * @return the data of all blocks
+     * @throws IOException
+     */
+    private byte[] readBlocks(int[] blockNumbers)
+        throws IOException
+    {
+        final int maxChunkSize = blockSizeBytes - HEADER_SIZE_BYTES;
+        final int last = blockNumbers.length - 1;
+        int lastLength = readBlockLength(blockNumbers[last]);
+        byte[] data = new byte[last * maxChunkSize + lastLength];
+
+        int start = 0;
+        while (start < blockNumbers.length)
         {
-            data = ByteBuffer.allocate(blockNumbers.length * getBlockSizeBytes());
-            // get all the blocks into data
-            for (short i = 0; i < blockNumbers.length; i++)
+            int end = endOfRun(blockNumbers, start);
+            long position = calculateByteOffsetForBlockAsLong(blockNumbers[start]);
+
+            if (end - start == 1)
             {
-                ByteBuffer chunk = readBlock(blockNumbers[i]);
-                data.put(chunk);
+                int offset = start * maxChunkSize;
+                ByteBuffer chunk = ByteBuffer.wrap(data, offset, start == last ? lastLength : maxChunkSize);
+                readFully(chunk, position + HEADER_SIZE_BYTES);
+            }
+            else
+            {
+                ByteBuffer[] buffers = new ByteBuffer[2 * (end - start)];
+                long remaining = 0;
+                for (int i = start; i < end; i++)
+                {
+                    int length = i == last ? lastLength : maxChunkSize;
+                    buffers[2 * (i - start)] = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+                    buffers[2 * (i - start) + 1] = ByteBuffer.wrap(data, i * maxChunkSize, length);
+                    remaining += HEADER_SIZE_BYTES + length;
+                }
+
+                synchronized (positionLock)
+                {
+                    fc.position(position);
+                    while (remaining > 0)
+                    {
+                        long read = fc.read(buffers);
+                        if (read < 0)
+                        {
+                            break;
+                        }
+                        remaining -= read;
+                    }
+                }
+
+                for (int i = start; i < end; i++)
+                {
+                    ByteBuffer header = buffers[2 * (i - start)];
+                    header.flip();
+                    int expected = i == last ? lastLength : maxChunkSize;
+                    if (remaining > 0 || header.getInt() != expected)
+                    {
+                        log.warn("\n The file is corrupt: \n {0}",
+                                "Block " + blockNumbers[i] + " does not hold " + expected + " bytes.");
+                        throw new IOException("The File Is Corrupt, need to reset");
+                    }
+                }
             }
 
-            data.flip();
+            start = end;
         }
 
-        log.debug("read, total post combination data.length = {0}", () -> data.limit());
+        return data;
+    }
 
-        return elementSerializer.deSerialize(data.array(), null);
+    /**
+     * Reads the given buffer full from the given position.
+     * <p>
+     * @param buffer
+     * @param position
+     * @throws IOException
+     */
+    private void readFully(ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = fc.read(buffer, position);
+            if (read < 0)
+            {
+                log.warn("\n The file is corrupt: \n {0}", "Record " + position + " exceeds file length.");
+                throw new IOException("The File Is Corrupt, need to reset");
+            }
+            position += read;
+        }
     }
 
     /**
-     * This reads the occupied data in a block.
+     * This reads the length of the occupied data in a block.
      * <p>
-     * The first four bytes of the record should tell us how long it is. The data is read into a
-     * byte array and then an object is constructed from the byte array.
+     * The first four bytes of the record should tell us how long it is.
      * <p>
-     * @return byte[]
+     * @return the length of the data
      * @param block
      * @throws IOException
      */
-    private ByteBuffer readBlock(int block)
+    private int readBlockLength(int block)
         throws IOException
     {
-        int datalen = 0;
+        long position = calculateByteOffsetForBlockAsLong(block);
+        ByteBuffer datalength = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+        readFully(datalength, position);
+        datalength.flip();
+        int datalen = datalength.getInt();
 
-        String message = null;
-        boolean corrupted = false;
-        long fileLength = fc.size();
+        if (datalen < 0 || datalen > blockSizeBytes - HEADER_SIZE_BYTES
+                || position + HEADER_SIZE_BYTES + datalen > fc.size())
+        {
+            log.warn("\n The file is corrupt: \n {0}", "Record " + position + " exceeds file length.");
+            throw new IOException("The File Is Corrupt, need to reset");
+        }
 
-        long position = calculateByteOffsetForBlockAsLong(block);
-//        if (position > fileLength)
-//        {
-//            corrupted = true;
-//            message = "Record " + position + " starts past EOF.";
-//        }
-//        else
+        return datalen;
+    }
+
+    /**
+     * Reads the occupied data of the blocks through the memory mapped regions. The headers are read
+     * first to size the result, then the data is copied straight from the page cache. The data of
+     * a single block is not copied at all, but returned as a view of the mapped region.
+     * <p>
+     * @param blockNumbers
+     * @return the data of all blocks
+     * @throws IOException
+     */
+    private ByteBuffer readMapped(int[] blockNumbers)
+        throws IOException
+    {
+        try
         {
-            ByteBuffer datalength = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-            fc.read(datalength, position);
-            datalength.flip();
-            datalen = datalength.getInt();
-            if (position + datalen > fileLength)
+            int[] lengths = new int[blockNumbers.length];
+            int total = 0;
+            for (int i = 0; i < blockNumbers.length; i++)
             {
-                corrupted = true;
-                message = "Record " + position + " exceeds file length.";
+                lengths[i] = mappedReader.getInt(calculateByteOffsetForBlockAsLong(blockNumbers[i]));
+                if (lengths[i] < 0 || lengths[i] > blockSizeBytes - HEADER_SIZE_BYTES)
+                {
+                    throw new IOException("Block " + blockNumbers[i] + " has an invalid length " + lengths[i]);
+                }
+                total += lengths[i];
             }
-        }
 
-        if (corrupted)
+            if (blockNumbers.length == 1)
+            {
+                return mappedReader.slice(calculateByteOffsetForBlockAsLong(blockNumbers[0]) + HEADER_SIZE_BYTES, total);
+            }
+
+            byte[] data = new byte[total];
+            int offset = 0;
+            for (int i = 0; i < blockNumbers.length; i++)
+            {
+                long position = calculateByteOffsetForBlockAsLong(blockNumbers[i]);
+                mappedReader.read(position + HEADER_SIZE_BYTES, data, offset, lengths[i]);
+                offset += lengths[i];
+            }
+
+            return ByteBuffer.wrap(data);
+        }
+        catch (IOException e)
         {
-            log.warn("\n The file is corrupt: \n {0}", message);
+            log.warn("\n The file is corrupt: \n {0}", e.getMessage());
             throw new IOException("The File Is Corrupt, need to reset");
         }
-
-        ByteBuffer data = ByteBuffer.allocate(datalen);
-        fc.read(data, position + HEADER_SIZE_BYTES);
-        data.flip();
-
-        return data;
     }
 
     /**
-     * Add these blocks to the emptyBlock list.
+     * Add these blocks to the emptyBlock set.
      * <p>
      * @param blocksToFree
      */
@@ -353,9 +602,19 @@ public class BlockDisk implements AutoCloseable
     {
         if (blocksToFree != null)
         {
-            for (short i = 0; i < blocksToFree.length; i++)
+            synchronized (emptyBlocks)
             {
-                emptyBlocks.offer(Integer.valueOf(blocksToFree[i]));
+                for (short i = 0; i < blocksToFree.length; i++)
+                {
+                    // freeing a block twice must not count it twice, and blocks of a file
+                    // that has been reset since are gone
+                    if (blocksToFree[i] < numberOfBlocks.get() && !emptyBlocks.get(blocksToFree[i]))
+                    {
+                        emptyBlocks.set(blocksToFree[i]);
+                        emptyBlockCount++;
+                        lowestFreeHint = Math.min(lowestFreeHint, blocksToFree[i]);
+                    }
+                }
             }
         }
     }
@@ -380,8 +639,17 @@ public class BlockDisk implements AutoCloseable
      */
     protected int calculateTheNumberOfBlocksNeeded(byte[] data)
     {
-        int dataLength = data.length;
+        return calculateTheNumberOfBlocksNeeded(data.length);
+    }
 
+    /**
+     * The number of blocks needed.
+     * <p>
+     * @param dataLength the number of bytes to store
+     * @return the number of blocks needed to store the data
+     */
+    protected int calculateTheNumberOfBlocksNeeded(int dataLength)
+    {
         int oneBlock = blockSizeBytes - HEADER_SIZE_BYTES;
 
         // takes care of 0 = HEADER_SIZE_BYTES + blockSizeBytes
@@ -420,8 +688,14 @@ public class BlockDisk implements AutoCloseable
     public void close()
         throws IOException
     {
-        this.numberOfBlocks.set(0);
-        this.emptyBlocks.clear();
+        synchronized (emptyBlocks)
+        {
+            this.numberOfBlocks.set(0);
+            this.emptyBlocks.clear();
+            this.emptyBlockCount = 0;
+            this.lowestFreeHint = 0;
+        }
+        unmap();
         fc.close();
     }
 
@@ -433,12 +707,29 @@ public class BlockDisk implements AutoCloseable
     protected synchronized void reset()
         throws IOException
     {
-        this.numberOfBlocks.set(0);
-        this.emptyBlocks.clear();
+        synchronized (emptyBlocks)
+        {
+            this.numberOfBlocks.set(0);
+            this.emptyBlocks.clear();
+            this.emptyBlockCount = 0;
+            this.lowestFreeHint = 0;
+        }
+        unmap();
         fc.truncate(0);
         fc.force(true);
     }
 
+    /**
+     * Drops the memory mapped regions, if any, before the file shrinks.
+     */
+    private void unmap()
+    {
+        if (mappedReader != null)
+        {
+            mappedReader.unmap();
+        }
+    }
+
     /**
      * @return Returns the numberOfBlocks.
      */
@@ -474,7 +765,10 @@ public class BlockDisk implements AutoCloseable
      */
     protected int getEmptyBlocks()
     {
-        return this.emptyBlocks.size();
+        synchronized (emptyBlocks)
+        {
+            return this.emptyBlockCount;
+        }
     }
 
     /**
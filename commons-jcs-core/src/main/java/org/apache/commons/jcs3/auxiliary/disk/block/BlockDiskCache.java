@@ -85,6 +85,9 @@ public class BlockDiskCache<K, V>
 
     private ScheduledFuture<?> future;
 
+    /** Loads the keys in the background if AsyncKeyLoad is set, null otherwise. */
+    private Thread keyLoader;
+
     /**
      * Constructs the BlockDisk after setting up the root directory.
      * <p>
@@ -123,21 +126,34 @@ public class BlockDiskCache<K, V>
             {
                 this.dataFile = new BlockDisk( new File( rootDirectory, fileName + ".data" ),
                                                this.blockDiskCacheAttributes.getBlockSizeBytes(),
-                                               getElementSerializer() );
+                                               getElementSerializer(),
+                                               this.blockDiskCacheAttributes.isMemoryMapped() );
             }
             else
             {
                 this.dataFile = new BlockDisk( new File( rootDirectory, fileName + ".data" ),
-                                               getElementSerializer() );
+                                               BlockDisk.DEFAULT_BLOCK_SIZE_BYTES,
+                                               getElementSerializer(),
+                                               this.blockDiskCacheAttributes.isMemoryMapped() );
             }
 
             keyStore = new BlockDiskKeyStore<>( this.blockDiskCacheAttributes, this );
 
-            boolean alright = verifyDisk();
-
-            if ( keyStore.size() == 0 || !alright )
+            if ( keyStore.isWarming() )
             {
-                this.reset();
+                // serve what is loaded so far until all keys are there
+                keyLoader = new Thread( this::loadKeys, "BlockDiskCache-KeyLoader-" + fileName );
+                keyLoader.setDaemon( true );
+                keyLoader.start();
+            }
+            else
+            {
+                boolean alright = verifyDisk();
+
+                if ( keyStore.size() == 0 || !alright )
+                {
+                    this.reset();
+                }
             }
 
             // Initialization finished successfully, so set alive to true.
@@ -161,13 +177,63 @@ public class BlockDiskCache<K, V>
         // TODO we might need to stagger this a bit.
         if ( this.blockDiskCacheAttributes.getKeyPersistenceIntervalSeconds() > 0 )
         {
-            future = scheduledExecutor.scheduleAtFixedRate(keyStore::saveKeys,
+            future = scheduledExecutor.scheduleAtFixedRate(this::saveKeys,
                     this.blockDiskCacheAttributes.getKeyPersistenceIntervalSeconds(),
                     this.blockDiskCacheAttributes.getKeyPersistenceIntervalSeconds(),
                     TimeUnit.SECONDS);
         }
     }
 
+    /**
+     * Saves the keys holding the read lock, so no update changes the key map while it is written.
+     */
+    private void saveKeys()
+    {
+        storageLock.readLock().lock();
+        try
+        {
+            keyStore.saveKeys();
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the keys of a warming key store and verifies them, resetting the cache if they can't
+     * be trusted.
+     */
+    private void loadKeys()
+    {
+        boolean alright = keyStore.loadKeysWarming( storageLock.writeLock() ) && verifyDisk();
+
+        if ( !alright )
+        {
+            log.warn("{0}: Loaded keys are invalid. Resetting cache.", logCacheName);
+            this.reset();
+        }
+    }
+
+    /**
+     * Waits until the keys have been loaded in the background, if they are loading.
+     */
+    private void awaitKeyLoader()
+    {
+        if ( keyLoader != null )
+        {
+            try
+            {
+                keyLoader.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                log.error("{0}: Interrupted while waiting for the keys to load.", logCacheName, e );
+            }
+        }
+    }
+
     /**
      * We need to verify that the file on disk uses the same block size and that the file is the
      * proper size.
@@ -563,6 +629,8 @@ public class BlockDiskCache<K, V>
             log.error("{0}: Not alive and dispose was called, filename: {1}", logCacheName, fileName);
             return;
         }
+        // the keys must be complete before they are saved
+        awaitKeyLoader();
         storageLock.writeLock().lock();
         try
         {
@@ -665,6 +733,7 @@ public class BlockDiskCache<K, V>
 
         elems.add(new StatElement<>( "Is Alive", Boolean.valueOf(isAlive()) ) );
         elems.add(new StatElement<>( "Key Map Size", Integer.valueOf(this.keyStore.size()) ) );
+        elems.add(new StatElement<>( "Keys Loading", Boolean.valueOf(this.keyStore.isWarming()) ) );
 
         if (this.dataFile != null)
         {
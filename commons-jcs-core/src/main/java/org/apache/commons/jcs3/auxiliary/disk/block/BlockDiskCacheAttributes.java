@@ -47,6 +47,21 @@ public class BlockDiskCacheAttributes
     /** The keys will be persisted at this interval.  -1 mean never. */
     private long keyPersistenceIntervalSeconds = DEFAULT_KEY_PERSISTENCE_INTERVAL_SECONDS;
 
+    /** Read the data file through memory mapped regions instead of file channel reads. */
+    private boolean memoryMapped = false;
+
+    /** Keep unlimited keys in a CompactBlockMap instead of a HashMap. */
+    private boolean compactKeyStore = false;
+
+    /** Keep the block lists of the CompactBlockMap in direct memory. */
+    private boolean compactKeyStoreOffHeap = false;
+
+    /** Load the keys in the background while the region is already usable. */
+    private boolean asyncKeyLoad = false;
+
+    /** The number of threads decoding the keys of the key file in the background. */
+    private int keyLoadThreads = Runtime.getRuntime().availableProcessors();
+
     /**
      * The size of the blocks. All blocks are the same size.
      * <p>
@@ -97,6 +112,92 @@ public class BlockDiskCacheAttributes
         return keyPersistenceIntervalSeconds;
     }
 
+    /**
+     * @param memoryMapped The memoryMapped to set.
+     */
+    public void setMemoryMapped( boolean memoryMapped )
+    {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return Returns the memoryMapped.
+     */
+    public boolean isMemoryMapped()
+    {
+        return memoryMapped;
+    }
+
+    /**
+     * Whether an unlimited key store (MaxKeySize -1) uses a CompactBlockMap, which stores the
+     * block numbers in a shared int pool instead of an int[] per key.
+     * <p>
+     * @param compactKeyStore The compactKeyStore to set.
+     */
+    public void setCompactKeyStore( boolean compactKeyStore )
+    {
+        this.compactKeyStore = compactKeyStore;
+    }
+
+    /**
+     * @return Returns the compactKeyStore.
+     */
+    public boolean isCompactKeyStore()
+    {
+        return compactKeyStore;
+    }
+
+    /**
+     * @param compactKeyStoreOffHeap The compactKeyStoreOffHeap to set.
+     */
+    public void setCompactKeyStoreOffHeap( boolean compactKeyStoreOffHeap )
+    {
+        this.compactKeyStoreOffHeap = compactKeyStoreOffHeap;
+    }
+
+    /**
+     * @return Returns the compactKeyStoreOffHeap.
+     */
+    public boolean isCompactKeyStoreOffHeap()
+    {
+        return compactKeyStoreOffHeap;
+    }
+
+    /**
+     * Whether the keys are loaded in the background. Until they are all loaded, gets of keys
+     * that have not been loaded yet are misses.
+     * <p>
+     * @param asyncKeyLoad The asyncKeyLoad to set.
+     */
+    public void setAsyncKeyLoad( boolean asyncKeyLoad )
+    {
+        this.asyncKeyLoad = asyncKeyLoad;
+    }
+
+    /**
+     * @return Returns the asyncKeyLoad.
+     */
+    public boolean isAsyncKeyLoad()
+    {
+        return asyncKeyLoad;
+    }
+
+    /**
+     * @param keyLoadThreads The keyLoadThreads to set.
+     */
+    public void setKeyLoadThreads( int keyLoadThreads )
+    {
+        this.keyLoadThreads = keyLoadThreads;
+    }
+
+    /**
+     * @return Returns the keyLoadThreads.
+     */
+    public int getKeyLoadThreads()
+    {
+        return keyLoadThreads;
+    }
+
     /**
      * Write out the values for debugging purposes.
      * <p>
@@ -113,6 +214,11 @@ public class BlockDiskCacheAttributes
         str.append( "\n BlockSizeBytes [" + this.getBlockSizeBytes() + "]" );
         str.append( "\n KeyPersistenceIntervalSeconds [" + this.getKeyPersistenceIntervalSeconds() + "]" );
         str.append( "\n DiskLimitType [" + this.getDiskLimitType() + "]" );
+        str.append( "\n MemoryMapped [" + this.isMemoryMapped() + "]" );
+        str.append( "\n CompactKeyStore [" + this.isCompactKeyStore() + "]" );
+        str.append( "\n CompactKeyStoreOffHeap [" + this.isCompactKeyStoreOffHeap() + "]" );
+        str.append( "\n AsyncKeyLoad [" + this.isAsyncKeyLoad() + "]" );
+        str.append( "\n KeyLoadThreads [" + this.getKeyLoadThreads() + "]" );
         return str.toString();
     }
 }
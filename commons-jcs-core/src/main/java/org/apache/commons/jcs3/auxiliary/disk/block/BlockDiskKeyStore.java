@@ -20,28 +20,37 @@ package org.apache.commons.jcs3.auxiliary.disk.block;
  */
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
+import org.apache.commons.jcs3.auxiliary.disk.KeyFileFormat;
 import org.apache.commons.jcs3.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs3.io.ObjectInputStreamClassLoaderAware;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
 import org.apache.commons.jcs3.utils.struct.AbstractLRUMap;
 import org.apache.commons.jcs3.utils.struct.LRUMap;
+import org.apache.commons.jcs3.utils.threadpool.DaemonThreadFactory;
 import org.apache.commons.jcs3.utils.timing.ElapsedTimer;
 
 /**
@@ -83,6 +92,40 @@ public class BlockDiskKeyStore<K>
 
     private final int blockSize;
 
+    /** The number of keys decoded and added to the map at a time when warming. */
+    private static final int KEY_LOAD_CHUNK_SIZE = 4096;
+
+    /** True until the keys of the key file have been loaded in the background. */
+    private volatile boolean warming;
+
+    /** The keys put or removed while warming. Their entries in the key file are out of date. */
+    private Set<K> touchedWhileWarming;
+
+    /** Writes the block numbers of a key as a count followed by the numbers */
+    private static final KeyFileFormat.ValueCodec<int[]> BLOCKS_CODEC = new KeyFileFormat.ValueCodec<int[]>()
+    {
+        @Override
+        public void write(DataOutput out, int[] blocks) throws IOException
+        {
+            out.writeInt(blocks.length);
+            for (int block : blocks)
+            {
+                out.writeInt(block);
+            }
+        }
+
+        @Override
+        public int[] read(DataInput in) throws IOException
+        {
+            int[] blocks = new int[KeyFileFormat.readLength(in, Integer.BYTES)];
+            for (int i = 0; i < blocks.length; i++)
+            {
+                blocks[i] = in.readInt();
+            }
+            return blocks;
+        }
+    };
+
     /**
      * Set the configuration options.
      * <p>
@@ -109,7 +152,14 @@ public class BlockDiskKeyStore<K>
 
         log.info("{0}: Key File [{1}]", logCacheName, this.keyFile.getAbsolutePath());
 
-        if (keyFile.length() > 0)
+        if (keyFile.length() > 0 && cacheAttributes.isAsyncKeyLoad() && isBinaryKeyFile())
+        {
+            // the keys are loaded later by loadKeysWarming
+            initKeyMap();
+            touchedWhileWarming = new HashSet<>();
+            warming = true;
+        }
+        else if (keyFile.length() > 0)
         {
             loadKeys();
             if (!verify())
@@ -126,11 +176,18 @@ public class BlockDiskKeyStore<K>
     }
 
     /**
-     * Saves key file to disk. This gets the LRUMap entry set and write the
-     * entries out one by one after putting them in a wrapper.
+     * Saves key file to disk. This gets the LRUMap entry set and writes the
+     * entries out one by one in the binary key file format.
      */
     protected void saveKeys()
     {
+        if (warming)
+        {
+            // the map doesn't hold all keys yet
+            log.info("{0}: Not saving keys while they are loading.", logCacheName);
+            return;
+        }
+
         try
         {
             ElapsedTimer timer = new ElapsedTimer();
@@ -140,33 +197,19 @@ public class BlockDiskKeyStore<K>
 
             synchronized (keyFile)
             {
-                FileOutputStream fos = new FileOutputStream(keyFile);
-                BufferedOutputStream bos = new BufferedOutputStream(fos, 65536);
-
-                try (ObjectOutputStream oos = new ObjectOutputStream(bos))
+                if (!verify())
                 {
-                    if (!verify())
-                    {
-                        throw new IOException("Inconsistent key file");
-                    }
-                    // don't need to synchronize, since the underlying
-                    // collection makes a copy
-                    for (Map.Entry<K, int[]> entry : keyHash.entrySet())
-                    {
-                        BlockDiskElementDescriptor<K> descriptor = new BlockDiskElementDescriptor<>();
-                        descriptor.setKey(entry.getKey());
-                        descriptor.setBlocks(entry.getValue());
-                        // stream these out in the loop.
-                        oos.writeUnshared(descriptor);
-                    }
+                    throw new IOException("Inconsistent key file");
                 }
+                // the cache holds its storage lock, a change anyway makes the iterator fail
+                KeyFileFormat.write(keyFile, keyHash.entrySet(), getKeySerializer(), BLOCKS_CODEC);
             }
 
             log.info("{0}: Finished saving keys. It took {1} to store {2} keys. Key file length [{3}]",
                     () -> logCacheName, () -> timer.getElapsedTimeString(), () -> numKeys,
                     () -> keyFile.length());
         }
-        catch (IOException e)
+        catch (IOException | ConcurrentModificationException e)
         {
             log.error("{0}: Problem storing keys.", logCacheName, e);
         }
@@ -179,6 +222,9 @@ public class BlockDiskKeyStore<K>
     {
         synchronized (keyFile)
         {
+            // stops the loading of the keys, if they are still loading
+            warming = false;
+            touchedWhileWarming = null;
             clearMemoryMap();
             saveKeys();
         }
@@ -211,6 +257,12 @@ public class BlockDiskKeyStore<K>
             }
             log.info("{0}: Set maxKeySize to: \"{1}\"", logCacheName, maxKeySize);
         }
+        else if (blockDiskCacheAttributes.isCompactKeyStore())
+        {
+            // no per key int[] and entry objects, for very large stores
+            keyHash = new CompactBlockMap<>(blockDiskCacheAttributes.isCompactKeyStoreOffHeap());
+            log.info("{0}: Set maxKeySize to unlimited, using a compact key map", logCacheName);
+        }
         else
         {
             // If no max size, use a plain map for memory and processing
@@ -223,7 +275,8 @@ public class BlockDiskKeyStore<K>
 
     /**
      * Loads the keys from the .key file. The keys are stored individually on
-     * disk. They are added one by one to an LRUMap..
+     * disk. They are added one by one to an LRUMap. Key files written in the
+     * old format of serialized descriptors are still read.
      */
     protected void loadKeys()
     {
@@ -234,37 +287,23 @@ public class BlockDiskKeyStore<K>
             // create a key map to use.
             initKeyMap();
 
-            HashMap<K, int[]> keys = new HashMap<>();
-
             synchronized (keyFile)
             {
-                FileInputStream fis = new FileInputStream(keyFile);
-                BufferedInputStream bis = new BufferedInputStream(fis, 65536);
-
-                try (ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bis, null))
+                if (KeyFileFormat.isBinaryFormat(keyFile))
                 {
-                    while (true)
-                    {
-                        @SuppressWarnings("unchecked")
-                        // Need to cast from Object
-                        BlockDiskElementDescriptor<K> descriptor = (BlockDiskElementDescriptor<K>) ois.readObject();
-                        if (descriptor != null)
-                        {
-                            keys.put(descriptor.getKey(), descriptor.getBlocks());
-                        }
-                    }
+                    ElapsedTimer timer = new ElapsedTimer();
+                    long count = KeyFileFormat.read(keyFile, getKeySerializer(), BLOCKS_CODEC, keyHash::put);
+                    log.debug("{0}: Read {1} keys in {2}", () -> logCacheName, () -> count,
+                            () -> timer.getElapsedTimeString());
                 }
-                catch (EOFException eof)
+                else
                 {
-                    // nothing
+                    loadLegacyKeys();
                 }
             }
 
-            if (!keys.isEmpty())
+            if (!keyHash.isEmpty())
             {
-                keyHash.putAll(keys);
-
-                log.debug("{0}: Found {1} in keys file.", logCacheName, keys.size());
                 log.info("{0}: Loaded keys from [{1}], key count: {2}; up to {3} will be available.",
                         () -> logCacheName, () -> fileName, () -> keyHash.size(),
                         () -> maxKeySize);
@@ -272,10 +311,182 @@ public class BlockDiskKeyStore<K>
         }
         catch (Exception e)
         {
+            // whatever was read before the failure can't be trusted
+            keyHash.clear();
             log.error("{0}: Problem loading keys for file {1}", logCacheName, fileName, e);
         }
     }
 
+    /**
+     * Checks whether the key file can be loaded in the background.
+     * <p>
+     *
+     * @return true if the key file is in the binary format
+     */
+    private boolean isBinaryKeyFile()
+    {
+        try
+        {
+            return KeyFileFormat.isBinaryFormat(keyFile);
+        }
+        catch (IOException e)
+        {
+            log.warn("{0}: Problem reading key file header, loading keys now", logCacheName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the keys of a warming key store while the region is in use. The keys are decoded in
+     * parallel and added to the map a chunk at a time while holding the given lock, which must be
+     * the lock the cache takes for changes to the key store. Keys that were put or removed in the
+     * meantime are skipped, and the blocks of their out of date entries are freed. Loading stops
+     * if the key store is reset.
+     * <p>
+     *
+     * @param lock the write lock of the cache
+     * @return false if the keys could not be loaded and the cache must be reset
+     */
+    protected boolean loadKeysWarming(Lock lock)
+    {
+        log.info("{0}: Loading keys for {1} in the background", () -> logCacheName, () -> keyFile.toString());
+
+        ExecutorService decoder = Executors.newFixedThreadPool(
+                Math.max(1, blockDiskCacheAttributes.getKeyLoadThreads()),
+                new DaemonThreadFactory("JCS-BlockDiskKeyStore-KeyLoader-"));
+        try
+        {
+            ElapsedTimer timer = new ElapsedTimer();
+            long count = KeyFileFormat.read(keyFile, getKeySerializer(), BLOCKS_CODEC,
+                    KEY_LOAD_CHUNK_SIZE, decoder, (List<Map.Entry<K, int[]>> chunk) -> addWarmingChunk(chunk, lock));
+
+            lock.lock();
+            try
+            {
+                if (!warming)
+                {
+                    throw new CancellationException();
+                }
+                warming = false;
+                touchedWhileWarming = null;
+
+                log.info("{0}: Loaded {1} keys from [{2}] in {3}, key count: {4}", () -> logCacheName,
+                        () -> count, () -> fileName, () -> timer.getElapsedTimeString(), () -> keyHash.size());
+                return verify();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        catch (CancellationException e)
+        {
+            log.info("{0}: Loading keys stopped, the key store has been reset", logCacheName);
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.error("{0}: Problem loading keys for file {1}", logCacheName, fileName, e);
+            return false;
+        }
+        finally
+        {
+            decoder.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds a chunk of loaded keys to the map.
+     * <p>
+     *
+     * @param chunk the entries from the key file
+     * @param lock the write lock of the cache
+     */
+    private void addWarmingChunk(List<Map.Entry<K, int[]>> chunk, Lock lock)
+    {
+        lock.lock();
+        try
+        {
+            if (!warming)
+            {
+                throw new CancellationException();
+            }
+
+            for (Map.Entry<K, int[]> entry : chunk)
+            {
+                if (!touchedWhileWarming.contains(entry.getKey()))
+                {
+                    keyHash.put(entry.getKey(), entry.getValue());
+                }
+                else if (blockDiskCache != null)
+                {
+                    blockDiskCache.freeBlocks(entry.getValue());
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true while the keys are being loaded in the background
+     */
+    public boolean isWarming()
+    {
+        return warming;
+    }
+
+    /**
+     * Loads a key file written as a stream of serialized descriptors.
+     * <p>
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void loadLegacyKeys()
+        throws IOException, ClassNotFoundException
+    {
+        HashMap<K, int[]> keys = new HashMap<>();
+
+        FileInputStream fis = new FileInputStream(keyFile);
+        BufferedInputStream bis = new BufferedInputStream(fis, 65536);
+
+        try (ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bis, null))
+        {
+            while (true)
+            {
+                @SuppressWarnings("unchecked")
+                // Need to cast from Object
+                BlockDiskElementDescriptor<K> descriptor = (BlockDiskElementDescriptor<K>) ois.readObject();
+                if (descriptor != null)
+                {
+                    keys.put(descriptor.getKey(), descriptor.getBlocks());
+                }
+            }
+        }
+        catch (EOFException eof)
+        {
+            // nothing
+        }
+
+        log.debug("{0}: Found {1} in legacy keys file.", logCacheName, keys.size());
+        keyHash.putAll(keys);
+    }
+
+    /**
+     * The serializer for keys that aren't Strings. This is the one of the
+     * cache, if there is one.
+     * <p>
+     *
+     * @return the serializer
+     */
+    private IElementSerializer getKeySerializer()
+    {
+        return blockDiskCache != null ? blockDiskCache.getElementSerializer() : new StandardSerializer();
+    }
+
     /**
      * Gets the entry set.
      * <p>
@@ -330,6 +541,10 @@ public class BlockDiskKeyStore<K>
      */
     public void put(K key, int[] value)
     {
+        if (warming)
+        {
+            touchedWhileWarming.add(key);
+        }
         this.keyHash.put(key, value);
     }
 
@@ -342,6 +557,10 @@ public class BlockDiskKeyStore<K>
      */
     public int[] remove(K key)
     {
+        if (warming)
+        {
+            touchedWhileWarming.add(key);
+        }
         return this.keyHash.remove(key);
     }
 
@@ -0,0 +1,542 @@
+package org.apache.commons.jcs3.auxiliary.disk.block;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from keys to block numbers that does not keep an entry object and an int[] per key.
+ * <p>
+ * The keys live in an open addressing table with linear probing, next to their hash codes and
+ * the offset of their block list in a shared pool of ints. A block list is stored as its length
+ * followed by the block numbers. The pool can live off heap. The space of replaced and removed
+ * block lists is reclaimed by compacting the pool once half of it is garbage.
+ * <p>
+ * The arrays returned by get are copies. Like HashMap, this is not synchronized: a single writer
+ * may not run concurrently with readers. The iterators of the entry set fail fast with a
+ * ConcurrentModificationException, as a change may move the block lists they read.
+ */
+public class CompactBlockMap<K>
+    extends AbstractMap<K, int[]>
+{
+    /** The initial number of slots of the table. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The initial number of ints of the pool. */
+    private static final int INITIAL_POOL_SIZE = 256;
+
+    /** The largest number of ints of a pool on the heap, the largest array size most VMs allow. */
+    private static final int MAX_POOL_SIZE = Integer.MAX_VALUE - 8;
+
+    /** The largest number of ints of a pool off the heap, whose bytes must fit a ByteBuffer. */
+    private static final int MAX_OFF_HEAP_POOL_SIZE = Integer.MAX_VALUE / Integer.BYTES;
+
+    /** Whether the pool is allocated outside of the heap. */
+    private final boolean offHeap;
+
+    /** The keys, null for an empty slot. */
+    private Object[] keys;
+
+    /** The hash codes of the keys. */
+    private int[] hashes;
+
+    /** The offsets of the block lists in the pool. */
+    private int[] offsets;
+
+    /** The number of keys. */
+    private int size;
+
+    /** The block lists. */
+    private IntBuffer pool;
+
+    /** The number of ints used in the pool, including garbage. */
+    private int poolUsed;
+
+    /** The number of ints of the pool held by block lists that have been replaced or removed. */
+    private int poolGarbage;
+
+    /** The number of changes, checked by the iterators. */
+    private int modCount;
+
+    /** The entry set view. */
+    private final Set<Map.Entry<K, int[]>> entrySet = new EntrySet();
+
+    /**
+     * Creates an empty map with the block lists on the heap.
+     */
+    public CompactBlockMap()
+    {
+        this(false);
+    }
+
+    /**
+     * Creates an empty map.
+     * <p>
+     * @param offHeap whether the block lists are stored in direct memory
+     */
+    public CompactBlockMap(boolean offHeap)
+    {
+        this.offHeap = offHeap;
+        clear();
+    }
+
+    /**
+     * @see java.util.Map#size()
+     */
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @see java.util.Map#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key != null && indexOf(key) >= 0;
+    }
+
+    /**
+     * @see java.util.Map#get(java.lang.Object)
+     */
+    @Override
+    public int[] get(Object key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+
+        int index = indexOf(key);
+        return index >= 0 ? readBlocks(offsets[index]) : null;
+    }
+
+    /**
+     * @see java.util.Map#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public int[] put(K key, int[] blocks)
+    {
+        if (key == null || blocks == null)
+        {
+            throw new NullPointerException("Keys and blocks must not be null");
+        }
+
+        modCount++;
+        int offset = writeBlocks(blocks);
+        int hash = hash(key);
+        int mask = keys.length - 1;
+        for (int index = hash & mask; ; index = (index + 1) & mask)
+        {
+            if (keys[index] == null)
+            {
+                keys[index] = key;
+                hashes[index] = hash;
+                offsets[index] = offset;
+                if (++size > keys.length * 3 / 4)
+                {
+                    resize(keys.length * 2);
+                }
+                return null;
+            }
+            if (hashes[index] == hash && keys[index].equals(key))
+            {
+                int[] old = readBlocks(offsets[index]);
+                offsets[index] = offset;
+                release(old.length);
+                return old;
+            }
+        }
+    }
+
+    /**
+     * @see java.util.Map#remove(java.lang.Object)
+     */
+    @Override
+    public int[] remove(Object key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+
+        int index = indexOf(key);
+        if (index < 0)
+        {
+            return null;
+        }
+
+        modCount++;
+        int[] old = readBlocks(offsets[index]);
+        removeAt(index);
+        release(old.length);
+        return old;
+    }
+
+    /**
+     * @see java.util.Map#clear()
+     */
+    @Override
+    public void clear()
+    {
+        modCount++;
+        keys = new Object[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY];
+        offsets = new int[INITIAL_CAPACITY];
+        size = 0;
+        pool = allocatePool(INITIAL_POOL_SIZE);
+        poolUsed = 0;
+        poolGarbage = 0;
+    }
+
+    /**
+     * @see java.util.Map#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<K, int[]>> entrySet()
+    {
+        return entrySet;
+    }
+
+    /**
+     * Spreads the hash code of the key, like HashMap does.
+     * <p>
+     * @param key
+     * @return the hash
+     */
+    private static int hash(Object key)
+    {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the slot of the key.
+     * <p>
+     * @param key
+     * @return the index of the slot, or -1 if the key is not present
+     */
+    private int indexOf(Object key)
+    {
+        int hash = hash(key);
+        int mask = keys.length - 1;
+        for (int index = hash & mask; keys[index] != null; index = (index + 1) & mask)
+        {
+            if (hashes[index] == hash && keys[index].equals(key))
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, and moves back the keys of the same probe sequence that follow it so that
+     * no tombstone is needed.
+     * <p>
+     * @param index
+     */
+    private void removeAt(int index)
+    {
+        int mask = keys.length - 1;
+        int free = index;
+        for (int next = (free + 1) & mask; keys[next] != null; next = (next + 1) & mask)
+        {
+            int home = hashes[next] & mask;
+            // move the key if its home slot is not between the free slot and its current slot
+            if (((next - home) & mask) >= ((next - free) & mask))
+            {
+                keys[free] = keys[next];
+                hashes[free] = hashes[next];
+                offsets[free] = offsets[next];
+                free = next;
+            }
+        }
+        keys[free] = null;
+        size--;
+    }
+
+    /**
+     * Rehashes the table into the given number of slots.
+     * <p>
+     * @param capacity a power of two
+     */
+    private void resize(int capacity)
+    {
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldOffsets = offsets;
+
+        keys = new Object[capacity];
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != null)
+            {
+                int index = oldHashes[i] & mask;
+                while (keys[index] != null)
+                {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                hashes[index] = oldHashes[i];
+                offsets[index] = oldOffsets[i];
+            }
+        }
+    }
+
+    /**
+     * Copies a block list out of the pool.
+     * <p>
+     * @param offset
+     * @return the block numbers
+     */
+    private int[] readBlocks(int offset)
+    {
+        int[] blocks = new int[pool.get(offset)];
+        for (int i = 0; i < blocks.length; i++)
+        {
+            blocks[i] = pool.get(offset + 1 + i);
+        }
+        return blocks;
+    }
+
+    /**
+     * Appends a block list to the pool, compacting or growing it first if needed.
+     * <p>
+     * @param blocks
+     * @return the offset of the list
+     */
+    private int writeBlocks(int[] blocks)
+    {
+        int needed = blocks.length + 1;
+        if ((long) poolUsed + needed > pool.capacity())
+        {
+            if (poolGarbage > poolUsed / 2)
+            {
+                compact((long) poolUsed - poolGarbage + needed);
+            }
+            else
+            {
+                IntBuffer grown = allocatePool(growCapacity((long) poolUsed + needed));
+                for (int i = 0; i < poolUsed; i++)
+                {
+                    grown.put(i, pool.get(i));
+                }
+                pool = grown;
+            }
+        }
+
+        int offset = poolUsed;
+        pool.put(offset, blocks.length);
+        for (int i = 0; i < blocks.length; i++)
+        {
+            pool.put(offset + 1 + i, blocks[i]);
+        }
+        poolUsed += needed;
+        return offset;
+    }
+
+    /**
+     * Doubles the capacity of the pool, but not beyond the largest pool.
+     * <p>
+     * @param minimum the number of ints the pool must be able to hold
+     * @return the new capacity
+     * @throws IllegalStateException if no pool can hold the minimum
+     */
+    private int growCapacity(long minimum)
+    {
+        return capacityFor(minimum, 2L * pool.capacity());
+    }
+
+    /**
+     * @param minimum the number of ints the pool must be able to hold
+     * @param wanted the number of ints the pool should hold
+     * @return the wanted capacity, but at least the minimum and at most the largest pool
+     * @throws IllegalStateException if no pool can hold the minimum
+     */
+    private int capacityFor(long minimum, long wanted)
+    {
+        int max = offHeap ? MAX_OFF_HEAP_POOL_SIZE : MAX_POOL_SIZE;
+        if (minimum > max)
+        {
+            throw new IllegalStateException("The block lists need " + minimum
+                    + " ints, the largest pool holds " + max);
+        }
+        return (int) Math.min(max, Math.max(wanted, minimum));
+    }
+
+    /**
+     * Marks the space of a block list as garbage.
+     * <p>
+     * @param length the number of blocks of the list
+     */
+    private void release(int length)
+    {
+        poolGarbage += length + 1;
+    }
+
+    /**
+     * Copies the live block lists into a new pool.
+     * <p>
+     * @param minimum the number of ints the new pool must be able to hold
+     */
+    private void compact(long minimum)
+    {
+        IntBuffer compacted = allocatePool(capacityFor(minimum, Math.max(INITIAL_POOL_SIZE, 2L * minimum)));
+        int used = 0;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] != null)
+            {
+                int offset = offsets[i];
+                int length = pool.get(offset) + 1;
+                for (int j = 0; j < length; j++)
+                {
+                    compacted.put(used + j, pool.get(offset + j));
+                }
+                offsets[i] = used;
+                used += length;
+            }
+        }
+        pool = compacted;
+        poolUsed = used;
+        poolGarbage = 0;
+    }
+
+    /**
+     * Allocates a pool on or off the heap.
+     * <p>
+     * @param capacity the number of ints
+     * @return the pool
+     * @throws IllegalStateException if the pool would be larger than a buffer can be
+     */
+    private IntBuffer allocatePool(int capacity)
+    {
+        if (offHeap)
+        {
+            long bytes = (long) capacity * Integer.BYTES;
+            if (bytes > Integer.MAX_VALUE)
+            {
+                throw new IllegalStateException("Cannot allocate an off heap pool of " + bytes
+                        + " bytes, the limit is " + Integer.MAX_VALUE + " bytes");
+            }
+            return ByteBuffer.allocateDirect((int) bytes).asIntBuffer();
+        }
+        return IntBuffer.allocate(capacity);
+    }
+
+    /**
+     * The entries of the table, in slot order. The values are copied out of the pool as they are
+     * visited.
+     */
+    private class EntrySet
+        extends AbstractSet<Map.Entry<K, int[]>>
+    {
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public void clear()
+        {
+            CompactBlockMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, int[]>> iterator()
+        {
+            return new Iterator<Map.Entry<K, int[]>>()
+            {
+                private final int expectedModCount = modCount;
+
+                private int next = advance(0);
+
+                private int advance(int from)
+                {
+                    int index = from;
+                    while (index < keys.length && keys[index] == null)
+                    {
+                        index++;
+                    }
+                    return index;
+                }
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next < keys.length;
+                }
+
+                @Override
+                public Map.Entry<K, int[]> next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+
+                    checkForComodification();
+                    @SuppressWarnings("unchecked")
+                    K key = (K) keys[next];
+                    int[] blocks = readBlocks(offsets[next]);
+                    checkForComodification();
+                    next = advance(next + 1);
+                    return new SimpleImmutableEntry<>(key, blocks);
+                }
+
+                private void checkForComodification()
+                {
+                    if (modCount != expectedModCount)
+                    {
+                        throw new ConcurrentModificationException();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * For debugging only.
+     * <p>
+     * @return String with details.
+     */
+    @Override
+    public String toString()
+    {
+        return "CompactBlockMap size [" + size + "] slots [" + keys.length + "] pool used ["
+                + poolUsed + "] pool garbage [" + poolGarbage + "] off heap [" + offHeap + "]";
+    }
+}
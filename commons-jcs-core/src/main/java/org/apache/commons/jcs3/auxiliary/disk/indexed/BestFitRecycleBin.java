@@ -0,0 +1,79 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The default recycle bin. The slots are kept sorted by length and a record takes the smallest
+ * slot it fits in, as a whole. The space the record does not use stays lost until the file is
+ * optimized.
+ */
+public class BestFitRecycleBin
+    implements RecycleBin
+{
+    /** The free slots, sorted by length */
+    private final ConcurrentSkipListSet<IndexedDiskElementDescriptor> recycle = new ConcurrentSkipListSet<>();
+
+    /**
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#add(IndexedDiskElementDescriptor)
+     */
+    @Override
+    public void add( IndexedDiskElementDescriptor ded )
+    {
+        recycle.add( ded );
+    }
+
+    /**
+     * Takes the smallest slot the record fits in. The descriptor of the slot is reused.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#take(int)
+     */
+    @Override
+    public IndexedDiskElementDescriptor take( int length )
+    {
+        // slots of the same length sort after this one
+        IndexedDiskElementDescriptor rep = recycle.ceiling( new IndexedDiskElementDescriptor( Long.MAX_VALUE, length ) );
+        if ( rep != null && recycle.remove( rep ) )
+        {
+            rep.len = length;
+            return rep;
+        }
+        return null;
+    }
+
+    /**
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#size()
+     */
+    @Override
+    public int size()
+    {
+        return recycle.size();
+    }
+
+    /**
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#clear()
+     */
+    @Override
+    public void clear()
+    {
+        recycle.clear();
+    }
+}
@@ -24,8 +24,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
+import org.apache.commons.jcs3.auxiliary.disk.MappedFileReader;
 import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.io.ByteBufferOutputStream;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
 
@@ -47,6 +50,9 @@ public class IndexedDisk implements AutoCloseable
     /** The data file. */
     private final FileChannel fc;
 
+    /** Reads through memory mapped regions if enabled, null otherwise. */
+    private final MappedFileReader mappedReader;
+
     /**
      * Constructor for the Disk object
      * <p>
@@ -56,6 +62,20 @@ public class IndexedDisk implements AutoCloseable
      */
     public IndexedDisk(File file, IElementSerializer elementSerializer)
         throws IOException
+    {
+        this(file, elementSerializer, false);
+    }
+
+    /**
+     * Constructor for the Disk object
+     * <p>
+     * @param file
+     * @param elementSerializer
+     * @param memoryMapped whether reads should go through memory mapped regions of the file
+     * @throws IOException
+     */
+    public IndexedDisk(File file, IElementSerializer elementSerializer, boolean memoryMapped)
+        throws IOException
     {
         this.filepath = file.getAbsolutePath();
         this.elementSerializer = elementSerializer;
@@ -63,6 +83,7 @@ public class IndexedDisk implements AutoCloseable
                 StandardOpenOption.CREATE,
                 StandardOpenOption.READ,
                 StandardOpenOption.WRITE);
+        this.mappedReader = memoryMapped ? new MappedFileReader(fc) : null;
     }
 
     /**
@@ -79,6 +100,11 @@ public class IndexedDisk implements AutoCloseable
     protected <T> T readObject(IndexedDiskElementDescriptor ded)
         throws IOException, ClassNotFoundException
     {
+        if (mappedReader != null)
+        {
+            return readMappedObject(ded);
+        }
+
         String message = null;
         boolean corrupted = false;
         long fileLength = fc.size();
@@ -115,7 +141,68 @@ public class IndexedDisk implements AutoCloseable
         fc.read(data, ded.pos + HEADER_SIZE_BYTES);
         data.flip();
 
-        return elementSerializer.deSerialize(data.array(), null);
+        return elementSerializer.deSerializeFrom(data, null);
+    }
+
+    /**
+     * Reads an object through the memory mapped regions. The header and the data are read
+     * straight from the page cache without a system call, and the data is de-serialized in place
+     * unless it straddles two regions.
+     * <p>
+     * @return Serializable
+     * @param ded
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private <T> T readMappedObject(IndexedDiskElementDescriptor ded)
+        throws IOException, ClassNotFoundException
+    {
+        ByteBuffer data;
+        try
+        {
+            int datalen = mappedReader.getInt(ded.pos);
+            if (ded.len != datalen)
+            {
+                throw new IOException("Record " + ded + " does not match data length on disk (" + datalen + ")");
+            }
+            data = mappedReader.slice(ded.pos + HEADER_SIZE_BYTES, ded.len);
+        }
+        catch (IOException e)
+        {
+            log.warn("\n The file is corrupt: \n {0}", e.getMessage());
+            throw new IOException("The File Is Corrupt, need to reset");
+        }
+
+        return elementSerializer.deSerializeFrom(data, null);
+    }
+
+    /**
+     * Reads the serialized data of a record without de-serializing it.
+     * <p>
+     * @param ded
+     * @return the data, without the header
+     * @throws IOException if the record does not match the descriptor
+     */
+    protected byte[] readBytes(IndexedDiskElementDescriptor ded)
+        throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE_BYTES + ded.len);
+        while (record.hasRemaining())
+        {
+            if (fc.read(record, ded.pos + record.position()) < 0)
+            {
+                throw new IOException("Record " + ded + " exceeds file length.");
+            }
+        }
+        record.flip();
+
+        int datalen = record.getInt();
+        if (ded.len != datalen)
+        {
+            throw new IOException("Record " + ded + " does not match data length on disk (" + datalen + ")");
+        }
+
+        return Arrays.copyOfRange(record.array(), HEADER_SIZE_BYTES, record.limit());
     }
 
     /**
@@ -175,31 +262,132 @@ public class IndexedDisk implements AutoCloseable
      */
     protected boolean write(IndexedDiskElementDescriptor ded, byte[] data)
         throws IOException
+    {
+        return write(ded, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to the Disk at the specified position. The
+     * position of the buffer is not changed.
+     * <p>
+     * @param ded
+     * @param data the serialized data
+     * @return true if we wrote successfully
+     * @throws IOException
+     */
+    protected boolean write(IndexedDiskElementDescriptor ded, ByteBuffer data)
+        throws IOException
     {
         long pos = ded.pos;
+        int length = data.remaining();
         if (log.isTraceEnabled())
         {
             log.trace("write> pos={0}", pos);
-            log.trace("{0} -- data.length = {1}", fc, data.length);
+            log.trace("{0} -- data.length = {1}", fc, length);
         }
 
-        if (data.length != ded.len)
+        if (length != ded.len)
         {
             throw new IOException("Mismatched descriptor and data lengths");
         }
 
         ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-        headerBuffer.putInt(data.length);
+        headerBuffer.putInt(length);
         // write the header
         headerBuffer.flip();
         int written = fc.write(headerBuffer, pos);
         assert written == HEADER_SIZE_BYTES;
 
         //write the data
-        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
-        written = fc.write(dataBuffer, pos + HEADER_SIZE_BYTES);
+        ByteBuffer dataBuffer = data.duplicate();
+        written = 0;
+        while (dataBuffer.hasRemaining())
+        {
+            written += fc.write(dataBuffer, pos + HEADER_SIZE_BYTES + written);
+        }
 
-        return written == data.length;
+        return written == length;
+    }
+
+    /**
+     * Writes a batch of records. Records that are adjacent on disk are written with a single
+     * gathering write of all their headers and data.
+     * <p>
+     * This moves the position of the channel, so the caller must make sure no other batch is
+     * written at the same time.
+     * <p>
+     * @param deds the descriptors
+     * @param data the data for each descriptor
+     * @throws IOException
+     */
+    protected void write(IndexedDiskElementDescriptor[] deds, byte[][] data)
+        throws IOException
+    {
+        ByteBuffer[] buffers = new ByteBuffer[data.length];
+        for (int i = 0; i < data.length; i++)
+        {
+            buffers[i] = ByteBuffer.wrap(data[i]);
+        }
+        write(deds, buffers);
+    }
+
+    /**
+     * Writes a batch of records held in buffers, like the byte array variant. The remaining bytes
+     * of each buffer are written and the positions of the buffers are not changed.
+     * <p>
+     * @param deds the descriptors
+     * @param data the data for each descriptor
+     * @throws IOException
+     */
+    protected void write(IndexedDiskElementDescriptor[] deds, ByteBuffer[] data)
+        throws IOException
+    {
+        Integer[] order = new Integer[deds.length];
+        for (int i = 0; i < deds.length; i++)
+        {
+            if (data[i].remaining() != deds[i].len)
+            {
+                throw new IOException("Mismatched descriptor and data lengths");
+            }
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(deds[a.intValue()].pos, deds[b.intValue()].pos));
+
+        int start = 0;
+        while (start < order.length)
+        {
+            // find the run of adjacent records
+            long startPos = deds[order[start].intValue()].pos;
+            long endPos = startPos;
+            int end = start;
+            while (end < order.length && deds[order[end].intValue()].pos == endPos)
+            {
+                endPos += HEADER_SIZE_BYTES + deds[order[end].intValue()].len;
+                end++;
+            }
+
+            ByteBuffer[] buffers = new ByteBuffer[2 * (end - start)];
+            for (int i = start; i < end; i++)
+            {
+                ByteBuffer record = data[order[i].intValue()];
+                ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+                headerBuffer.putInt(record.remaining());
+                headerBuffer.flip();
+                buffers[2 * (i - start)] = headerBuffer;
+                buffers[2 * (i - start) + 1] = record.duplicate();
+            }
+
+            log.trace("write> pos={0}, records={1}, bytes={2}", startPos, end - start, endPos - startPos);
+
+            fc.position(startPos);
+            long remaining = endPos - startPos;
+            while (remaining > 0)
+            {
+                remaining -= fc.write(buffers);
+            }
+
+            start = end;
+        }
     }
 
     /**
@@ -213,8 +401,9 @@ public class IndexedDisk implements AutoCloseable
     protected <T> void writeObject(T obj, long pos)
         throws IOException
     {
-        byte[] data = elementSerializer.serialize(obj);
-        write(new IndexedDiskElementDescriptor(pos, data.length), data);
+        ByteBufferOutputStream out = new ByteBufferOutputStream();
+        elementSerializer.serializeTo(obj, out);
+        write(new IndexedDiskElementDescriptor(pos, out.size()), out.toByteBuffer());
     }
 
     /**
@@ -238,6 +427,7 @@ public class IndexedDisk implements AutoCloseable
     public void close()
         throws IOException
     {
+        unmap();
         fc.close();
     }
 
@@ -250,6 +440,7 @@ public class IndexedDisk implements AutoCloseable
         throws IOException
     {
         log.debug("Resetting Indexed File [{0}]", filepath);
+        unmap();
         fc.truncate(0);
         fc.force(true);
     }
@@ -264,9 +455,21 @@ public class IndexedDisk implements AutoCloseable
         throws IOException
     {
         log.info("Truncating file [{0}] to {1}", filepath, length);
+        unmap();
         fc.truncate(length);
     }
 
+    /**
+     * Drops the memory mapped regions, if any, before the file shrinks.
+     */
+    private void unmap()
+    {
+        if (mappedReader != null)
+        {
+            mappedReader.unmap();
+        }
+    }
+
     /**
      * This is used for debugging.
      * <p>
@@ -19,29 +19,42 @@ package org.apache.commons.jcs3.auxiliary.disk.indexed;
  * under the License.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.jcs3.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs3.auxiliary.disk.KeyFileFormat;
 import org.apache.commons.jcs3.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
 import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.engine.behavior.IRequireScheduler;
 import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
 import org.apache.commons.jcs3.engine.control.group.GroupId;
 import org.apache.commons.jcs3.engine.logging.behavior.ICacheEvent;
@@ -50,8 +63,10 @@ import org.apache.commons.jcs3.engine.stats.StatElement;
 import org.apache.commons.jcs3.engine.stats.Stats;
 import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs3.engine.stats.behavior.IStats;
+import org.apache.commons.jcs3.io.ByteBufferOutputStream;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.config.OptionConverter;
 import org.apache.commons.jcs3.utils.struct.AbstractLRUMap;
 import org.apache.commons.jcs3.utils.struct.LRUMap;
 import org.apache.commons.jcs3.utils.timing.ElapsedTimer;
@@ -62,10 +77,29 @@ import org.apache.commons.jcs3.utils.timing.ElapsedTimer;
  * expansion.
  */
 public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
+    implements IRequireScheduler
 {
     /** The logger */
     private static final Log log = LogManager.getLog(IndexedDiskCache.class);
 
+    /** Stores the position and length of each element in the key file. */
+    private static final KeyFileFormat.ValueCodec<IndexedDiskElementDescriptor> DESCRIPTOR_CODEC =
+        new KeyFileFormat.ValueCodec<IndexedDiskElementDescriptor>()
+    {
+        @Override
+        public void write(DataOutput out, IndexedDiskElementDescriptor ded) throws IOException
+        {
+            out.writeLong(ded.pos);
+            out.writeInt(ded.len);
+        }
+
+        @Override
+        public IndexedDiskElementDescriptor read(DataInput in) throws IOException
+        {
+            return new IndexedDiskElementDescriptor(in.readLong(), in.readInt());
+        }
+    };
+
     /** Cache name used in log messages */
     protected final String logCacheName;
 
@@ -75,8 +109,14 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** The IndexedDisk manages reads and writes to the data file. */
     private IndexedDisk dataFile;
 
-    /** The IndexedDisk manages reads and writes to the key file. */
-    private IndexedDisk keyFile;
+    /** The file where the keys are saved. */
+    private File keyFile;
+
+    /** The journal of the changes to the keys since they were saved, null if disabled. */
+    private IndexedDiskKeyJournal<K> keyJournal;
+
+    /** True while the keys are loaded, so the changes aren't journaled again. */
+    private boolean loadingKeys = false;
 
     /** Map containing the keys and disk offsets. */
     private final Map<K, IndexedDiskElementDescriptor> keyHash;
@@ -99,6 +139,16 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** are we currently optimizing the files */
     private boolean isOptimizing = false;
 
+    /** True while the file is compacted into a new file. */
+    private boolean isCompacting = false;
+
+    /** Descriptors freed while the file is compacted, their copies are outdated. */
+    private final Set<IndexedDiskElementDescriptor> compactionGarbage =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** The amount of data copied per read-lock during compaction. */
+    private static final int COMPACTION_CHUNK_SIZE_BYTES = 1024 * 1024;
+
     /** The number of times the file has been optimized. */
     private int timesOptimized = 0;
 
@@ -115,7 +165,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     private final ConcurrentSkipListSet<IndexedDiskElementDescriptor> queuedPutList;
 
     /** RECYLCE BIN -- array of empty spots */
-    private final ConcurrentSkipListSet<IndexedDiskElementDescriptor> recycle;
+    private final RecycleBin recycle;
 
     /** User configurable parameters */
     private final IndexedDiskCacheAttributes cattr;
@@ -135,6 +185,27 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** simple stat */
     private final AtomicInteger hitCount = new AtomicInteger(0);
 
+    /** The maximum number of puts written in one batch. */
+    private final int maxWriteBatchSize;
+
+    /** Serialized puts waiting to be written in one batch. Guarded by the storage lock. */
+    private final Map<K, PendingWrite<K, V>> pendingWrites = new LinkedHashMap<>();
+
+    /** The number of pending puts, for readers that don't take the storage lock. */
+    private volatile int pendingWriteCount;
+
+    /** When the oldest pending put was queued. */
+    private long oldestPendingWrite;
+
+    /** The future of the scheduled batch writer, if any. */
+    private ScheduledFuture<?> future;
+
+    /** The future of the scheduled key journal compaction, if any. */
+    private ScheduledFuture<?> journalFuture;
+
+    /** How often to check whether the key journal should be compacted. */
+    private static final long KEY_JOURNAL_CHECK_INTERVAL_SECONDS = 10;
+
     /**
      * Use this lock to synchronize reads and writes to the underlying storage mechanism.
      */
@@ -167,6 +238,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
         this.cattr = cattr;
         this.maxKeySize = cattr.getMaxKeySize();
+        this.maxWriteBatchSize = cattr.getMaxWriteBatchSize();
         this.isRealTimeOptimizationEnabled = cattr.getOptimizeAtRemoveCount() > 0;
         this.isShutdownOptimizationEnabled = cattr.isOptimizeOnShutdown();
         this.logCacheName = "Region [" + getCacheName() + "] ";
@@ -175,7 +247,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         this.fileName = getCacheName().replaceAll("[^a-zA-Z0-9-_\\.]", "_");
         this.keyHash = createInitialKeyMap();
         this.queuedPutList = new ConcurrentSkipListSet<>(new PositionComparator());
-        this.recycle = new ConcurrentSkipListSet<>();
+        this.recycle = createRecycleBin(cattr);
 
         try
         {
@@ -200,6 +272,28 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * Schedules the writing of pending batches, if puts are batched, and the compaction of the key
+     * journal, if it is enabled.
+     * <p>
+     * @see org.apache.commons.jcs3.engine.behavior.IRequireScheduler#setScheduledExecutorService(java.util.concurrent.ScheduledExecutorService)
+     */
+    @Override
+    public void setScheduledExecutorService(ScheduledExecutorService scheduledExecutor)
+    {
+        long latency = cattr.getMaxWriteBatchLatencyMillis();
+        if (maxWriteBatchSize > 1 && latency > 0)
+        {
+            future = scheduledExecutor.scheduleAtFixedRate(this::writeBatchIfDue,
+                    latency, latency, TimeUnit.MILLISECONDS);
+        }
+        if (keyJournal != null)
+        {
+            journalFuture = scheduledExecutor.scheduleWithFixedDelay(this::compactKeyJournalIfDue,
+                    KEY_JOURNAL_CHECK_INTERVAL_SECONDS, KEY_JOURNAL_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
     /**
      * Tries to create the root directory if it does not already exist.
      * <p>
@@ -223,8 +317,22 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
      */
     private void initializeKeysAndData(IndexedDiskCacheAttributes cattr) throws IOException
     {
-        this.dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer());
-        this.keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer());
+        this.keyFile = new File(rafDir, fileName + ".key");
+
+        File journalFile = new File(rafDir, fileName + ".journal");
+        if (cattr.isKeyJournalEnabled())
+        {
+            this.keyJournal = new IndexedDiskKeyJournal<>(journalFile, getElementSerializer());
+        }
+        else
+        {
+            // it only makes sense together with the key file it was written for
+            Files.deleteIfExists(journalFile.toPath());
+        }
+
+        recoverCompaction();
+        this.dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer(),
+                cattr.isMemoryMapped());
 
         if (cattr.isClearDiskOnStartup())
         {
@@ -232,10 +340,10 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                     logCacheName);
             initializeEmptyStore();
         }
-        else if (keyFile.length() > 0)
+        else if (keyFile.length() > 0 || keyJournal != null && keyJournal.hasRecords())
         {
-            // If the key file has contents, try to initialize the keys
-            // from it. In no keys are loaded reset the data file.
+            // If the key file or the journal has contents, try to initialize the keys
+            // from them. In no keys are loaded reset the data file.
             initializeStoreFromPersistedData();
         }
         else
@@ -246,6 +354,37 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * Cleans up after a compaction that did not finish. As long as the compacted file exists, it
+     * has not replaced the data file, so it is deleted together with its keys. Once the data file
+     * was replaced, the keys of the compacted file are the only ones that fit it, so they replace
+     * the key file and the key journal.
+     * <p>
+     *
+     * @throws IOException
+     */
+    private void recoverCompaction() throws IOException
+    {
+        File compactFile = new File(rafDir, fileName + ".compact");
+        File compactKeyFile = new File(rafDir, fileName + ".compact.key");
+
+        if (compactFile.exists())
+        {
+            Files.delete(compactFile.toPath());
+            Files.deleteIfExists(compactKeyFile.toPath());
+        }
+        else if (compactKeyFile.exists())
+        {
+            log.info("{0}: Using the keys of the last compaction", logCacheName);
+            if (keyJournal != null)
+            {
+                keyJournal.reset();
+            }
+            Files.move(compactKeyFile.toPath(), keyFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
     /**
      * Initializes an empty disk cache.
      * <p>
@@ -255,6 +394,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     private void initializeEmptyStore() throws IOException
     {
         this.keyHash.clear();
+        resetKeyFiles();
 
         if (dataFile.length() > 0)
         {
@@ -276,6 +416,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         if (keyHash.isEmpty())
         {
             dataFile.reset();
+            resetKeyFiles();
         }
         else
         {
@@ -283,7 +424,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             if (!isOk)
             {
                 keyHash.clear();
-                keyFile.reset();
+                resetKeyFiles();
                 dataFile.reset();
                 log.warn("{0}: Corruption detected. Resetting data and keys files.", logCacheName);
             }
@@ -298,8 +439,9 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * Loads the keys from the .key file. The keys are stored in a HashMap on disk. This is
-     * converted into a LRUMap.
+     * Loads the keys from the .key file. The keys are streamed from the binary key file into the
+     * LRUMap. Key files written by older versions hold a serialized HashMap, which is converted.
+     * The changes recorded in the key journal since the keys were saved are applied afterwards.
      */
     protected void loadKeys()
     {
@@ -309,20 +451,48 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
         try
         {
+            loadingKeys = true;
+
             // clear a key map to use.
             keyHash.clear();
 
-            HashMap<K, IndexedDiskElementDescriptor> keys = keyFile.readObject(
-                new IndexedDiskElementDescriptor(0, (int) keyFile.length() - IndexedDisk.HEADER_SIZE_BYTES));
+            if (KeyFileFormat.isBinaryFormat(keyFile))
+            {
+                ElapsedTimer timer = new ElapsedTimer();
+                long count = KeyFileFormat.read(keyFile, getElementSerializer(), DESCRIPTOR_CODEC, keyHash::put);
 
-            if (keys != null)
+                log.info("{0}: Loaded {1} keys from [{2}] in {3}, key count: {4}; up to {5} will be available.",
+                        () -> logCacheName, () -> count, () -> fileName, () -> timer.getElapsedTimeString(),
+                        () -> keyHash.size(), () -> maxKeySize);
+            }
+            else if (keyFile.length() > 0)
             {
-                log.debug("{0}: Found {1} in keys file.", logCacheName, keys.size());
+                HashMap<K, IndexedDiskElementDescriptor> keys;
+                try (IndexedDisk legacyKeyFile = new IndexedDisk(keyFile, getElementSerializer()))
+                {
+                    keys = legacyKeyFile.readObject(
+                        new IndexedDiskElementDescriptor(0, (int) keyFile.length() - IndexedDisk.HEADER_SIZE_BYTES));
+                }
 
-                keyHash.putAll(keys);
+                if (keys != null)
+                {
+                    log.debug("{0}: Found {1} in keys file.", logCacheName, keys.size());
 
-                log.info("{0}: Loaded keys from [{1}], key count: {2}; up to {3} will be available.",
-                        () -> logCacheName, () -> fileName, () -> keyHash.size(), () -> maxKeySize);
+                    keyHash.putAll(keys);
+
+                    log.info("{0}: Loaded keys from [{1}], key count: {2}; up to {3} will be available.",
+                            () -> logCacheName, () -> fileName, () -> keyHash.size(), () -> maxKeySize);
+                }
+            }
+
+            if (keyJournal != null && keyJournal.hasRecords())
+            {
+                ElapsedTimer timer = new ElapsedTimer();
+                long count = keyJournal.replay(keyHash);
+
+                log.info("{0}: Replayed {1} key journal records in {2}, key count: {3}",
+                        () -> logCacheName, () -> count, () -> timer.getElapsedTimeString(),
+                        () -> keyHash.size());
             }
 
             if (log.isTraceEnabled())
@@ -333,9 +503,11 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         catch (Exception e)
         {
             log.error("{0}: Problem loading keys for file {1}", logCacheName, fileName, e);
+            keyHash.clear();
         }
         finally
         {
+            loadingKeys = false;
             storageLock.writeLock().unlock();
         }
     }
@@ -428,31 +600,153 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * Saves key file to disk. This converts the LRUMap to a HashMap for deserialization.
+     * Saves key file to disk. The entries of the LRUMap are streamed out in the binary key file
+     * format. Afterwards the key journal is emptied, since the key file holds all changes.
      */
     protected void saveKeys()
     {
+        storageLock.readLock().lock();
         try
         {
             log.info("{0}: Saving keys to: {1}, key count: {2}",
                     () -> logCacheName, () -> fileName, () -> keyHash.size());
 
-            keyFile.reset();
-
-            HashMap<K, IndexedDiskElementDescriptor> keys = new HashMap<>();
-            keys.putAll(keyHash);
+            if (keyHash.size() > 0)
+            {
+                ElapsedTimer timer = new ElapsedTimer();
+                long count = KeyFileFormat.write(keyFile, keyHash.entrySet(),
+                        getElementSerializer(), DESCRIPTOR_CODEC);
 
-            if (keys.size() > 0)
+                log.info("{0}: Finished saving {1} keys in {2}.",
+                        () -> logCacheName, () -> count, () -> timer.getElapsedTimeString());
+            }
+            else
             {
-                keyFile.writeObject(keys, 0);
+                Files.deleteIfExists(keyFile.toPath());
             }
 
-            log.info("{0}: Finished saving keys.", logCacheName);
+            if (keyJournal != null)
+            {
+                keyJournal.reset();
+            }
         }
         catch (IOException e)
         {
             log.error("{0}: Problem storing keys.", logCacheName, e);
         }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the keys if the key journal has grown over the configured size. This is run by the
+     * scheduler.
+     */
+    protected void compactKeyJournalIfDue()
+    {
+        storageLock.readLock().lock();
+        try
+        {
+            if (isAlive() && keyJournal != null
+                && keyJournal.length() >= cattr.getKeyJournalCompactionSizeBytes())
+            {
+                log.debug("{0}: Compacting key journal of {1} bytes", () -> logCacheName,
+                        () -> keyJournal.length());
+                saveKeys();
+            }
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the key file and empties the key journal.
+     * <p>
+     *
+     * @throws IOException
+     */
+    private void resetKeyFiles() throws IOException
+    {
+        Files.deleteIfExists(keyFile.toPath());
+        if (keyJournal != null)
+        {
+            keyJournal.reset();
+        }
+    }
+
+    /**
+     * Records a put in the key journal, if there is one. Call this after the data was written.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     * <p>
+     *
+     * @param key
+     * @param ded
+     */
+    private void journalPut(K key, IndexedDiskElementDescriptor ded)
+    {
+        if (keyJournal != null && !loadingKeys)
+        {
+            try
+            {
+                keyJournal.put(key, ded);
+            }
+            catch (IOException e)
+            {
+                log.error("{0}: Failure journaling put of key {1}", logCacheName, key, e);
+            }
+        }
+    }
+
+    /**
+     * Records a removal in the key journal, if there is one.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     * <p>
+     *
+     * @param key
+     */
+    private void journalRemove(K key)
+    {
+        if (keyJournal != null && !loadingKeys)
+        {
+            try
+            {
+                keyJournal.remove(key);
+            }
+            catch (IOException e)
+            {
+                log.error("{0}: Failure journaling removal of key {1}", logCacheName, key, e);
+            }
+        }
+    }
+
+    /**
+     * Records the move of an element in the key journal, if there is one.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     * <p>
+     *
+     * @param oldPos
+     * @param newPos
+     */
+    private void journalMove(long oldPos, long newPos)
+    {
+        if (keyJournal != null)
+        {
+            try
+            {
+                keyJournal.move(oldPos, newPos);
+            }
+            catch (IOException e)
+            {
+                log.error("{0}: Failure journaling move from {1} to {2}", logCacheName, oldPos, newPos, e);
+            }
+        }
     }
 
     /**
@@ -483,78 +777,230 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
         try
         {
-            byte[] data = getElementSerializer().serialize(ce);
+            ByteBufferOutputStream out = new ByteBufferOutputStream();
+            getElementSerializer().serializeTo(ce, out);
+            ByteBuffer data = out.toByteBuffer();
+
+            if (maxWriteBatchSize > 1)
+            {
+                addToWriteBatch(ce, data);
+                return;
+            }
 
             // make sure this only locks for one particular cache region
             storageLock.writeLock().lock();
             try
             {
                 old = keyHash.get(ce.getKey());
+                ded = allocate(ce.getKey(), old, data.remaining(), dataFile.length());
+                dataFile.write(ded, data);
+                journalPut(ce.getKey(), ded);
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+            }
+
+            log.debug("{0}: Put to file: {1}, key: {2}, position: {3}, size: {4}",
+                    logCacheName, fileName, ce.getKey(), ded.pos, ded.len);
+        }
+        catch (IOException e)
+        {
+            log.error("{0}: Failure updating element, key: {1} old: {2}",
+                    logCacheName, ce.getKey(), old, e);
+        }
+    }
+
+    /**
+     * Finds the place on disk for an element and puts it in the key map.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     * <p>
+     *
+     * @param key
+     * @param old the descriptor of the element with the same key, if any
+     * @param length the length of the serialized element
+     * @param endOfFile the position at which new data is appended
+     * @return the descriptor to write the element to
+     */
+    private IndexedDiskElementDescriptor allocate(K key, IndexedDiskElementDescriptor old,
+            int length, long endOfFile)
+    {
+        IndexedDiskElementDescriptor ded;
+
+        // Item with the same key already exists in file.
+        // Try to reuse the location if possible.
+        if (old != null && length <= old.len)
+        {
+            // Reuse the old ded. The defrag relies on ded updates by reference, not
+            // replacement.
+            ded = old;
+            ded.len = length;
+
+            if (isCompacting)
+            {
+                // the copy of the record is outdated
+                queuedPutList.add(ded);
+            }
+        }
+        else
+        {
+            ded = new IndexedDiskElementDescriptor(endOfFile, length);
 
-                // Item with the same key already exists in file.
-                // Try to reuse the location if possible.
-                if (old != null && data.length <= old.len)
+            if (doRecycle)
+            {
+                // take a slot from the recycle bin
+                IndexedDiskElementDescriptor rep = recycle.take(length);
+                if (rep != null)
                 {
-                    // Reuse the old ded. The defrag relies on ded updates by reference, not
-                    // replacement.
-                    ded = old;
-                    ded.len = data.length;
+                    ded = rep;
+                    recycleCnt++;
+                    this.adjustBytesFree(ded, false);
+                    log.debug("{0}: using recycled ded {1} ded.len = {2}",
+                            logCacheName, ded.pos, ded.len);
                 }
-                else
-                {
-                    // we need this to compare in the recycle bin
-                    ded = new IndexedDiskElementDescriptor(dataFile.length(), data.length);
+            }
 
-                    if (doRecycle)
-                    {
-                        IndexedDiskElementDescriptor rep = recycle.ceiling(ded);
-                        if (rep != null)
-                        {
-                            // remove element from recycle bin
-                            recycle.remove(rep);
-                            ded = rep;
-                            ded.len = data.length;
-                            recycleCnt++;
-                            this.adjustBytesFree(ded, false);
-                            log.debug("{0}: using recycled ded {1} rep.len = {2} ded.len = {3}",
-                                    logCacheName, ded.pos, rep.len, ded.len);
-                        }
-                    }
+            // Put it in the map
+            keyHash.put(key, ded);
 
-                    // Put it in the map
-                    keyHash.put(ce.getKey(), ded);
+            if (queueInput)
+            {
+                queuedPutList.add(ded);
+                log.debug("{0}: added to queued put list. {1}",
+                        () -> logCacheName, () -> queuedPutList.size());
+            }
 
-                    if (queueInput)
-                    {
-                        queuedPutList.add(ded);
-                        log.debug("{0}: added to queued put list. {1}",
-                                () -> logCacheName, () -> queuedPutList.size());
-                    }
+            // add the old slot to the recycle bin
+            if (old != null)
+            {
+                addToRecycleBin(old);
+            }
+        }
 
-                    // add the old slot to the recycle bin
-                    if (old != null)
-                    {
-                        addToRecycleBin(old);
-                    }
-                }
+        return ded;
+    }
 
-                dataFile.write(ded, data);
+    /**
+     * Adds a serialized element to the pending batch. The batch is written once it is full or its
+     * oldest put has waited for the maximum latency. Until then the element is served from the
+     * batch.
+     * <p>
+     *
+     * @param ce the element
+     * @param data the serialized element
+     * @throws IOException
+     */
+    private void addToWriteBatch(ICacheElement<K, V> ce, ByteBuffer data) throws IOException
+    {
+        storageLock.writeLock().lock();
+        try
+        {
+            if (pendingWrites.isEmpty())
+            {
+                oldestPendingWrite = System.currentTimeMillis();
             }
-            finally
+            pendingWrites.put(ce.getKey(), new PendingWrite<>(ce, data));
+            pendingWriteCount = pendingWrites.size();
+
+            if (pendingWrites.size() >= maxWriteBatchSize
+                || System.currentTimeMillis() - oldestPendingWrite >= cattr.getMaxWriteBatchLatencyMillis())
             {
-                storageLock.writeLock().unlock();
+                writeBatch();
             }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
 
-            log.debug("{0}: Put to file: {1}, key: {2}, position: {3}, size: {4}",
-                    logCacheName, fileName, ce.getKey(), ded.pos, ded.len);
+    /**
+     * Writes the pending batch if its oldest put has waited for the maximum latency. This is run
+     * by the scheduler.
+     */
+    protected void writeBatchIfDue()
+    {
+        storageLock.writeLock().lock();
+        try
+        {
+            if (isAlive() && !pendingWrites.isEmpty()
+                && System.currentTimeMillis() - oldestPendingWrite >= cattr.getMaxWriteBatchLatencyMillis())
+            {
+                writeBatch();
+            }
         }
         catch (IOException e)
         {
-            log.error("{0}: Failure updating element, key: {1} old: {2}",
-                    logCacheName, ce.getKey(), old, e);
+            log.error("{0}: Failure writing batch", logCacheName, e);
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Writes all pending puts. The places on disk are allocated first, then adjacent records go out
+     * in one gathering write.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     *
+     * @throws IOException
+     */
+    private void writeBatch() throws IOException
+    {
+        if (pendingWrites.isEmpty())
+        {
+            return;
+        }
+
+        int size = pendingWrites.size();
+        List<K> keys = new ArrayList<>(size);
+        IndexedDiskElementDescriptor[] deds = new IndexedDiskElementDescriptor[size];
+        ByteBuffer[] data = new ByteBuffer[size];
+
+        long endOfFile = dataFile.length();
+        int i = 0;
+        for (Map.Entry<K, PendingWrite<K, V>> e : pendingWrites.entrySet())
+        {
+            ByteBuffer record = e.getValue().data;
+            IndexedDiskElementDescriptor ded = allocate(e.getKey(), keyHash.get(e.getKey()), record.remaining(), endOfFile);
+            if (ded.pos >= endOfFile)
+            {
+                endOfFile = ded.pos + IndexedDisk.HEADER_SIZE_BYTES + ded.len;
+            }
+            keys.add(e.getKey());
+            deds[i] = ded;
+            data[i] = record;
+            i++;
+        }
+        pendingWrites.clear();
+        pendingWriteCount = 0;
+
+        // an element pushed out of a small key map may have had its slot reused within the batch
+        int count = 0;
+        for (i = 0; i < size; i++)
+        {
+            if (deds[i].len == data[i].remaining())
+            {
+                keys.set(count, keys.get(i));
+                deds[count] = deds[i];
+                data[count] = data[i];
+                count++;
+            }
+        }
+
+        dataFile.write(Arrays.copyOf(deds, count), Arrays.copyOf(data, count));
+
+        for (i = 0; i < count; i++)
+        {
+            journalPut(keys.get(i), deds[i]);
+        }
+
+        log.debug("{0}: Wrote batch of {1} elements to file: {2}", logCacheName, count, fileName);
+    }
+
     /**
      * Gets the key, then goes to disk to get the object.
      * <p>
@@ -581,7 +1027,8 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             storageLock.readLock().lock();
             try
             {
-                object = readElement(key);
+                PendingWrite<K, V> pending = pendingWrites.get(key);
+                object = pending != null ? pending.element : readElement(key);
             }
             finally
             {
@@ -618,6 +1065,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         try
         {
             keyArray = new HashSet<>(keyHash.keySet());
+            keyArray.addAll(pendingWrites.keySet());
         }
         finally
         {
@@ -692,6 +1140,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         try
         {
             keys.addAll(this.keyHash.keySet());
+            keys.addAll(this.pendingWrites.keySet());
         }
         finally
         {
@@ -786,6 +1235,13 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 itemsToRemove.add(k);
             }
         }
+        for (K k : pendingWrites.keySet())
+        {
+            if (k instanceof String && k.toString().startsWith(key))
+            {
+                itemsToRemove.add(k);
+            }
+        }
 
         // remove matches.
         for (K fullKey : itemsToRemove)
@@ -825,6 +1281,13 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 itemsToRemove.add(k);
             }
         }
+        for (K k : pendingWrites.keySet())
+        {
+            if (k instanceof GroupAttrName && ((GroupAttrName<?>) k).groupId.equals(key))
+            {
+                itemsToRemove.add(k);
+            }
+        }
 
         // remove matches.
         for (K fullKey : itemsToRemove)
@@ -851,10 +1314,17 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     private boolean performSingleKeyRemoval(K key)
     {
         boolean removed;
+        // drop a put still waiting to be written
+        boolean removedPending = pendingWrites.remove(key) != null;
+        pendingWriteCount = pendingWrites.size();
         // remove single item.
         IndexedDiskElementDescriptor ded = keyHash.remove(key);
-        removed = ded != null;
+        removed = ded != null || removedPending;
         addToRecycleBin(ded);
+        if (ded != null)
+        {
+            journalRemove(key);
+        }
 
         log.debug("{0}: Disk removal: Removed from key hash, key [{1}] removed = {2}",
                 logCacheName, key, removed);
@@ -900,18 +1370,14 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             File dataFileTemp = new File(rafDir, fileName + ".data");
             Files.delete(dataFileTemp.toPath());
 
-            if (keyFile != null)
-            {
-                keyFile.close();
-            }
-            File keyFileTemp = new File(rafDir, fileName + ".key");
-            Files.delete(keyFileTemp.toPath());
+            resetKeyFiles();
 
-            dataFile = new IndexedDisk(dataFileTemp, getElementSerializer());
-            keyFile = new IndexedDisk(keyFileTemp, getElementSerializer());
+            dataFile = new IndexedDisk(dataFileTemp, getElementSerializer(), cattr.isMemoryMapped());
 
             this.recycle.clear();
             this.keyHash.clear();
+            this.pendingWrites.clear();
+            this.pendingWriteCount = 0;
         }
         catch (IOException e)
         {
@@ -923,6 +1389,24 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * Creates the configured recycle bin, or the default one if it cannot be created.
+     *
+     * @param cattr
+     * @return a new empty RecycleBin
+     */
+    private RecycleBin createRecycleBin(IndexedDiskCacheAttributes cattr)
+    {
+        RecycleBin bin = OptionConverter.instantiateByClassName(cattr.getRecycleBinClassName(), null);
+        if (bin == null)
+        {
+            log.info("{0}: Using the default recycle bin", logCacheName);
+            bin = new BestFitRecycleBin();
+        }
+
+        return bin;
+    }
+
     /**
      * Create the map for keys that contain the index position on disk.
      *
@@ -1001,6 +1485,31 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         // Prevents any interaction with the cache while we're shutting down.
         setAlive(false);
 
+        // Don't interrupt a running task, that would close the channels. The tasks hold the
+        // storage lock, so taking the write lock below waits for them to finish.
+        if (future != null)
+        {
+            future.cancel(false);
+        }
+        if (journalFuture != null)
+        {
+            journalFuture.cancel(false);
+        }
+
+        storageLock.writeLock().lock();
+        try
+        {
+            writeBatch();
+        }
+        catch (IOException e)
+        {
+            log.error("{0}: Failure writing batch in dispose", logCacheName, e);
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
         Thread optimizationThread = currentOptimizationThread;
         if (isRealTimeOptimizationEnabled && optimizationThread != null)
         {
@@ -1031,8 +1540,10 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                     fileName);
             dataFile.close();
             dataFile = null;
-            keyFile.close();
-            keyFile = null;
+            if (keyJournal != null)
+            {
+                keyJournal.close();
+            }
         }
         catch (IOException e)
         {
@@ -1065,6 +1576,11 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             {
                 adjustBytesFree(ded, true);
 
+                if (isCompacting)
+                {
+                    compactionGarbage.add(ded);
+                }
+
                 if (doRecycle)
                 {
                     recycle.add(ded);
@@ -1119,7 +1635,8 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * File optimization is handled by this method. It works as follows:
+     * File optimization is handled by this method. If ConcurrentOptimization is set, the file is
+     * compacted by {@link #compactFile()}. Otherwise it works as follows:
      * <ol>
      * <li>Shutdown recycling and turn on queuing of puts.</li>
      * <li>Take a snapshot of the current descriptors. If there are any removes, ignore them, as they will be compacted during the
@@ -1144,6 +1661,25 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         timesOptimized++;
         log.info("{0}: Beginning Optimization #{1}", logCacheName, timesOptimized);
 
+        if (cattr.isConcurrentOptimization())
+        {
+            compactFile();
+        }
+        else
+        {
+            optimizeFileInPlace();
+        }
+
+        log.info("{0}: Finished #{1}, Optimization took {2}",
+                logCacheName, timesOptimized, timer.getElapsedTimeString());
+    }
+
+    /**
+     * Optimizes the file by moving the records within the data file, one at a time under the
+     * write-lock.
+     */
+    private void optimizeFileInPlace()
+    {
         // CREATE SNAPSHOT
         IndexedDiskElementDescriptor[] defragList = null;
 
@@ -1201,9 +1737,296 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         {
             storageLock.writeLock().unlock();
         }
+    }
 
-        log.info("{0}: Finished #{1}, Optimization took {2}",
-                logCacheName, timesOptimized, timer.getElapsedTimeString());
+    /**
+     * Log-structured optimization, used if ConcurrentOptimization is set. Instead of moving the
+     * records within the data file, the live records are copied into a new file, which then
+     * replaces the data file. It works as follows:
+     * <ol>
+     * <li>Shutdown recycling, turn on queuing of puts and take a snapshot of the current
+     * descriptors.</li>
+     * <li>Copy the records of the snapshot into the new file. The records are read in chunks
+     * under the read-lock, so gets go on as usual and puts wait for one chunk at most.</li>
+     * <li>Obtain the write-lock.</li>
+     * <li>Append the records put or updated while copying to the new file.</li>
+     * <li>Save the keys with their new positions next to the new file, if the key journal is
+     * enabled, since its records refer to the old positions.</li>
+     * <li>Replace the data file by the new file, then the key file by the new keys and point the
+     * descriptors to the new positions. The copies of records removed while copying go to the
+     * recycle bin. A restart between the two replacements is finished by recoverCompaction().</li>
+     * <li>Restore system to standard operation.</li>
+     * </ol>
+     */
+    private void compactFile()
+    {
+        IndexedDiskElementDescriptor[] snapshot;
+        IndexedDisk source;
+
+        storageLock.writeLock().lock();
+        try
+        {
+            queueInput = true;
+            // shut off recycle while we're optimizing, so no record is overwritten
+            doRecycle = false;
+            isCompacting = true;
+            snapshot = createPositionSortedDescriptorList();
+            source = dataFile;
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        ElapsedTimer timer = new ElapsedTimer();
+        File compactFile = new File(rafDir, fileName + ".compact");
+        File compactKeyFile = new File(rafDir, fileName + ".compact.key");
+        long[] newPositions = new long[snapshot.length];
+        int[] copiedLengths = new int[snapshot.length];
+        boolean swapFailed = false;
+        long preFileSize = 0;
+        long postFileSize = 0;
+
+        try (IndexedDisk target = new IndexedDisk(compactFile, getElementSerializer()))
+        {
+            preFileSize = source.length();
+            target.reset();
+
+            long endOfFile = copyRecords(source, target, snapshot, 0, newPositions, copiedLengths);
+
+            storageLock.writeLock().lock();
+            try
+            {
+                if (dataFile != source)
+                {
+                    throw new IOException("The data file was reset during compaction");
+                }
+
+                // records written since the snapshot, in the order of their position
+                IndexedDiskElementDescriptor[] queued = queuedPutList.stream()
+                    .filter(ded -> !compactionGarbage.contains(ded))
+                    .toArray(IndexedDiskElementDescriptor[]::new);
+                long[] queuedPositions = new long[queued.length];
+                postFileSize = copyRecords(source, target, queued, endOfFile, queuedPositions, new int[queued.length]);
+
+                Set<IndexedDiskElementDescriptor> rewritten =
+                        Collections.newSetFromMap(new IdentityHashMap<>());
+                rewritten.addAll(Arrays.asList(queued));
+
+                if (keyJournal != null)
+                {
+                    saveCompactedKeys(compactKeyFile, snapshot, newPositions, copiedLengths, queued, queuedPositions);
+                }
+
+                // SWAP THE FILES
+                swapFailed = true;
+                source.close();
+                File file = new File(rafDir, fileName + ".data");
+                Files.move(compactFile.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (keyJournal != null)
+                {
+                    keyJournal.reset();
+                    Files.move(compactKeyFile.toPath(), keyFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                dataFile = new IndexedDisk(file, getElementSerializer(), cattr.isMemoryMapped());
+                swapFailed = false;
+
+                // RESTORE NORMAL OPERATION
+                Set<IndexedDiskElementDescriptor> garbage =
+                        Collections.newSetFromMap(new IdentityHashMap<>());
+                garbage.addAll(compactionGarbage);
+                finishCompaction();
+                resetBytesFree();
+                this.recycle.clear();
+
+                for (int i = 0; i < snapshot.length; i++)
+                {
+                    if (newPositions[i] < 0)
+                    {
+                        continue;
+                    }
+                    if (rewritten.contains(snapshot[i]) || garbage.contains(snapshot[i]))
+                    {
+                        // this copy is outdated
+                        addToRecycleBin(new IndexedDiskElementDescriptor(newPositions[i], copiedLengths[i]));
+                    }
+                    else
+                    {
+                        snapshot[i].pos = newPositions[i];
+                    }
+                }
+                for (int i = 0; i < queued.length; i++)
+                {
+                    queued[i].pos = queuedPositions[i];
+                }
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("{0}: Error occurred during compaction.", logCacheName, e);
+        }
+        finally
+        {
+            storageLock.writeLock().lock();
+            try
+            {
+                finishCompaction();
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+            }
+
+            try
+            {
+                Files.deleteIfExists(compactFile.toPath());
+                Files.deleteIfExists(compactKeyFile.toPath());
+            }
+            catch (IOException e)
+            {
+                log.warn("{0}: Could not delete {1}", logCacheName, compactFile, e);
+            }
+
+            log.info("{0}: Compaction took {1}. File Size (before={2}) (after={3})",
+                    logCacheName, timer.getElapsedTimeString(), preFileSize, postFileSize);
+        }
+
+        if (swapFailed)
+        {
+            // the old data file was closed already
+            reset();
+        }
+    }
+
+    /**
+     * Writes the keys with the positions of their records in the compacted file. The descriptors
+     * themselves are only changed once the files are swapped.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     * <p>
+     *
+     * @param file the key file of the compacted file
+     * @param snapshot the descriptors copied first
+     * @param newPositions the positions of their copies, -1 if not copied
+     * @param copiedLengths the lengths of their copies
+     * @param queued the descriptors copied last
+     * @param queuedPositions the positions of their copies
+     * @throws IOException
+     */
+    private void saveCompactedKeys(File file, IndexedDiskElementDescriptor[] snapshot, long[] newPositions,
+            int[] copiedLengths, IndexedDiskElementDescriptor[] queued, long[] queuedPositions)
+        throws IOException
+    {
+        Map<IndexedDiskElementDescriptor, IndexedDiskElementDescriptor> moved = new IdentityHashMap<>();
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            if (newPositions[i] >= 0)
+            {
+                moved.put(snapshot[i], new IndexedDiskElementDescriptor(newPositions[i], copiedLengths[i]));
+            }
+        }
+        // records rewritten while copying replace their first copy
+        for (int i = 0; i < queued.length; i++)
+        {
+            moved.put(queued[i], new IndexedDiskElementDescriptor(queuedPositions[i], queued[i].len));
+        }
+
+        Iterable<Map.Entry<K, IndexedDiskElementDescriptor>> entries = () -> keyHash.entrySet().stream()
+                .<Map.Entry<K, IndexedDiskElementDescriptor>>map(entry -> new AbstractMap.SimpleImmutableEntry<>(
+                        entry.getKey(), moved.getOrDefault(entry.getValue(), entry.getValue())))
+                .iterator();
+
+        ElapsedTimer timer = new ElapsedTimer();
+        long count = KeyFileFormat.write(file, entries, getElementSerializer(), DESCRIPTOR_CODEC);
+
+        log.info("{0}: Saved {1} keys of the compacted file in {2}.",
+                logCacheName, count, timer.getElapsedTimeString());
+    }
+
+    /**
+     * Copies records from the data file to the end of the compacted file. The records are read in
+     * chunks, each under the read-lock, and written outside of it.
+     * <p>
+     * Records removed since the snapshot was taken are skipped, their new position is set to -1.
+     * <p>
+     *
+     * @param source the data file
+     * @param target the compacted file
+     * @param deds the descriptors of the records to copy, sorted by position
+     * @param startingPos the end of the compacted file
+     * @param newPositions receives the position of each copy
+     * @param copiedLengths receives the length of each copy
+     * @return the new end of the compacted file
+     * @throws IOException
+     */
+    private long copyRecords(IndexedDisk source, IndexedDisk target, IndexedDiskElementDescriptor[] deds,
+            long startingPos, long[] newPositions, int[] copiedLengths) throws IOException
+    {
+        long endOfFile = startingPos;
+        int i = 0;
+        while (i < deds.length)
+        {
+            List<IndexedDiskElementDescriptor> copies = new ArrayList<>();
+            List<byte[]> data = new ArrayList<>();
+            long chunkSize = 0;
+
+            storageLock.readLock().lock();
+            try
+            {
+                if (dataFile != source)
+                {
+                    throw new IOException("The data file was reset during compaction");
+                }
+
+                for (; i < deds.length && chunkSize < COMPACTION_CHUNK_SIZE_BYTES; i++)
+                {
+                    if (compactionGarbage.contains(deds[i]))
+                    {
+                        newPositions[i] = -1;
+                        continue;
+                    }
+
+                    byte[] record = source.readBytes(deds[i]);
+                    copies.add(new IndexedDiskElementDescriptor(endOfFile, record.length));
+                    data.add(record);
+                    newPositions[i] = endOfFile;
+                    copiedLengths[i] = record.length;
+                    endOfFile += IndexedDisk.HEADER_SIZE_BYTES + record.length;
+                    chunkSize += IndexedDisk.HEADER_SIZE_BYTES + record.length;
+                }
+            }
+            finally
+            {
+                storageLock.readLock().unlock();
+            }
+
+            target.write(copies.toArray(new IndexedDiskElementDescriptor[0]), data.toArray(new byte[0][]));
+        }
+
+        return endOfFile;
+    }
+
+    /**
+     * Turns the tracking of changes for the compaction off and recycling back on.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     */
+    private void finishCompaction()
+    {
+        removeCount = 0;
+        isCompacting = false;
+        compactionGarbage.clear();
+        queuedPutList.clear();
+        queueInput = false;
+        // turn recycle back on.
+        doRecycle = true;
+        isOptimizing = false;
     }
 
     /**
@@ -1236,7 +2059,9 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 {
                     if (expectedNextPos != defragList[i].pos)
                     {
+                        long oldPos = defragList[i].pos;
                         dataFile.move(defragList[i], expectedNextPos);
+                        journalMove(oldPos, expectedNextPos);
                     }
                     expectedNextPos = defragList[i].pos + IndexedDisk.HEADER_SIZE_BYTES + defragList[i].len;
                 }
@@ -1288,7 +2113,28 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     @Override
     public int getSize()
     {
-        return keyHash.size();
+        if (pendingWriteCount == 0)
+        {
+            return keyHash.size();
+        }
+
+        storageLock.readLock().lock();
+        try
+        {
+            int size = keyHash.size();
+            for (K key : pendingWrites.keySet())
+            {
+                if (!keyHash.containsKey(key))
+                {
+                    size++;
+                }
+            }
+            return size;
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
     }
 
     /**
@@ -1454,6 +2300,11 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
         elems.add(new StatElement<>("Max Key Size", this.maxKeySize));
         elems.add(new StatElement<>("Hit Count", this.hitCount));
+        elems.add(new StatElement<>("Pending Writes", Integer.valueOf(this.pendingWriteCount)));
+        if (this.keyJournal != null)
+        {
+            elems.add(new StatElement<>("Key Journal Length", Long.valueOf(this.keyJournal.length())));
+        }
         elems.add(new StatElement<>("Bytes Free", this.bytesFree));
         elems.add(new StatElement<>("Optimize Operation Count", Integer.valueOf(this.removeCount)));
         elems.add(new StatElement<>("Times Optimized", Integer.valueOf(this.timesOptimized)));
@@ -1493,6 +2344,28 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         return dataFile.getFilePath();
     }
 
+    /**
+     * A serialized put waiting to be written with the next batch.
+     */
+    private static final class PendingWrite<K, V>
+    {
+        /** The element, returned to readers until it is written */
+        final ICacheElement<K, V> element;
+
+        /** The serialized element */
+        final ByteBuffer data;
+
+        /**
+         * @param element the element
+         * @param data the serialized element
+         */
+        PendingWrite(ICacheElement<K, V> element, ByteBuffer data)
+        {
+            this.element = element;
+            this.data = data;
+        }
+    }
+
     /**
      * Compares IndexedDiskElementDescriptor based on their position.
      * <p>
@@ -1632,6 +2505,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             }
 
             addToRecycleBin(value);
+            journalRemove(key);
 
             log.debug("{0}: Removing key: [{1}] from key store.", logCacheName, key);
             log.debug("{0}: Key store size: [{1}].", logCacheName, this.size());
@@ -1671,6 +2545,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         protected void processRemovedLRU(K key, IndexedDiskElementDescriptor value)
         {
             addToRecycleBin(value);
+            journalRemove(key);
             log.debug("{0}: Removing key: [{1}] from key store.", logCacheName, key);
             log.debug("{0}: Key store size: [{1}].", logCacheName, this.size());
 
@@ -51,6 +51,48 @@ public class IndexedDiskCacheAttributes
     /** Should we clear the disk on startup. If true the contents of disk are cleared. */
     private boolean clearDiskOnStartup = DEFAULT_CLEAR_DISK_ON_STARTUP;
 
+    /** Should we read the data file through memory mapped regions by default. */
+    public static final boolean DEFAULT_MEMORY_MAPPED = false;
+
+    /** Read the data file through memory mapped regions instead of file channel reads. */
+    private boolean memoryMapped = DEFAULT_MEMORY_MAPPED;
+
+    /** By default each put is written on its own. */
+    public static final int DEFAULT_MAX_WRITE_BATCH_SIZE = 1;
+
+    /** The maximum number of puts written together in one batch. */
+    private int maxWriteBatchSize = DEFAULT_MAX_WRITE_BATCH_SIZE;
+
+    /** By default a batch is written at the latest after 100 ms. */
+    public static final long DEFAULT_MAX_WRITE_BATCH_LATENCY_MILLIS = 100;
+
+    /** The maximum time a put may wait for its batch to be written. */
+    private long maxWriteBatchLatencyMillis = DEFAULT_MAX_WRITE_BATCH_LATENCY_MILLIS;
+
+    /** By default the keys are only saved on shutdown. */
+    public static final boolean DEFAULT_KEY_JOURNAL_ENABLED = false;
+
+    /** Append every change of the keys to a journal so that they survive a crash. */
+    private boolean keyJournalEnabled = DEFAULT_KEY_JOURNAL_ENABLED;
+
+    /** By default the journal is compacted once it grows over 4 MB. */
+    public static final long DEFAULT_KEY_JOURNAL_COMPACTION_SIZE_BYTES = 4 * 1024 * 1024;
+
+    /** The size of the journal at which the keys are saved and the journal is emptied. */
+    private long keyJournalCompactionSizeBytes = DEFAULT_KEY_JOURNAL_COMPACTION_SIZE_BYTES;
+
+    /** By default the optimization moves the records within the data file. */
+    public static final boolean DEFAULT_CONCURRENT_OPTIMIZATION = false;
+
+    /** Optimize by copying the live records into a new file while the cache stays available. */
+    private boolean concurrentOptimization = DEFAULT_CONCURRENT_OPTIMIZATION;
+
+    /** By default a record takes the smallest free slot it fits in. */
+    public static final String DEFAULT_RECYCLE_BIN_CLASS_NAME = BestFitRecycleBin.class.getName();
+
+    /** The class keeping track of the free slots of the data file. */
+    private String recycleBinClassName = DEFAULT_RECYCLE_BIN_CLASS_NAME;
+
     /**
      * Constructor for the DiskCacheAttributes object
      */
@@ -132,6 +174,127 @@ public class IndexedDiskCacheAttributes
         return clearDiskOnStartup;
     }
 
+    /**
+     * @param memoryMapped the memoryMapped to set
+     */
+    public void setMemoryMapped( boolean memoryMapped )
+    {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return the memoryMapped
+     */
+    public boolean isMemoryMapped()
+    {
+        return memoryMapped;
+    }
+
+    /**
+     * Puts are kept until this many are waiting and then written in one batch. A value of 1 or
+     * less writes each put on its own.
+     * <p>
+     * @param maxWriteBatchSize the maxWriteBatchSize to set
+     */
+    public void setMaxWriteBatchSize( int maxWriteBatchSize )
+    {
+        this.maxWriteBatchSize = maxWriteBatchSize;
+    }
+
+    /**
+     * @return the maxWriteBatchSize
+     */
+    public int getMaxWriteBatchSize()
+    {
+        return maxWriteBatchSize;
+    }
+
+    /**
+     * @param maxWriteBatchLatencyMillis the maxWriteBatchLatencyMillis to set
+     */
+    public void setMaxWriteBatchLatencyMillis( long maxWriteBatchLatencyMillis )
+    {
+        this.maxWriteBatchLatencyMillis = maxWriteBatchLatencyMillis;
+    }
+
+    /**
+     * @return the maxWriteBatchLatencyMillis
+     */
+    public long getMaxWriteBatchLatencyMillis()
+    {
+        return maxWriteBatchLatencyMillis;
+    }
+
+    /**
+     * @param keyJournalEnabled the keyJournalEnabled to set
+     */
+    public void setKeyJournalEnabled( boolean keyJournalEnabled )
+    {
+        this.keyJournalEnabled = keyJournalEnabled;
+    }
+
+    /**
+     * @return the keyJournalEnabled
+     */
+    public boolean isKeyJournalEnabled()
+    {
+        return keyJournalEnabled;
+    }
+
+    /**
+     * @param keyJournalCompactionSizeBytes the keyJournalCompactionSizeBytes to set
+     */
+    public void setKeyJournalCompactionSizeBytes( long keyJournalCompactionSizeBytes )
+    {
+        this.keyJournalCompactionSizeBytes = keyJournalCompactionSizeBytes;
+    }
+
+    /**
+     * @return the keyJournalCompactionSizeBytes
+     */
+    public long getKeyJournalCompactionSizeBytes()
+    {
+        return keyJournalCompactionSizeBytes;
+    }
+
+    /**
+     * If true, the optimization copies the live records into a new data file in the background
+     * and swaps the files at the end, instead of moving each record under the write lock.
+     * <p>
+     * @param concurrentOptimization the concurrentOptimization to set
+     */
+    public void setConcurrentOptimization( boolean concurrentOptimization )
+    {
+        this.concurrentOptimization = concurrentOptimization;
+    }
+
+    /**
+     * @return the concurrentOptimization
+     */
+    public boolean isConcurrentOptimization()
+    {
+        return concurrentOptimization;
+    }
+
+    /**
+     * The class keeping track of the free slots of the data file. It must implement RecycleBin.
+     * SizeClassRecycleBin finds a slot in constant time and merges adjacent free slots.
+     * <p>
+     * @param recycleBinClassName the recycleBinClassName to set
+     */
+    public void setRecycleBinClassName( String recycleBinClassName )
+    {
+        this.recycleBinClassName = recycleBinClassName;
+    }
+
+    /**
+     * @return the recycleBinClassName
+     */
+    public String getRecycleBinClassName()
+    {
+        return recycleBinClassName;
+    }
+
     /**
      * Write out the values for debugging purposes.
      * <p>
@@ -149,6 +312,13 @@ public class IndexedDiskCacheAttributes
         str.append( "\n shutdownSpoolTimeLimit  = " + super.getShutdownSpoolTimeLimit() );
         str.append( "\n optimizeOnShutdown  = " + optimizeOnShutdown );
         str.append( "\n clearDiskOnStartup  = " + clearDiskOnStartup );
+        str.append( "\n memoryMapped  = " + memoryMapped );
+        str.append( "\n maxWriteBatchSize  = " + maxWriteBatchSize );
+        str.append( "\n maxWriteBatchLatencyMillis  = " + maxWriteBatchLatencyMillis );
+        str.append( "\n keyJournalEnabled  = " + keyJournalEnabled );
+        str.append( "\n keyJournalCompactionSizeBytes  = " + keyJournalCompactionSizeBytes );
+        str.append( "\n concurrentOptimization  = " + concurrentOptimization );
+        str.append( "\n recycleBinClassName  = " + recycleBinClassName );
         return str.toString();
     }
 }
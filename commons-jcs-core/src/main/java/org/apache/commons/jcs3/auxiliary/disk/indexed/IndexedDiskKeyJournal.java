@@ -0,0 +1,421 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.jcs3.auxiliary.disk.KeyFileFormat;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+
+/**
+ * An append-only journal of the changes made to the keys of an IndexedDiskCache since the key file
+ * was last saved. Loading the key file and replaying the journal restores the keys after a crash.
+ * <p>
+ * Each record is its length, a CRC32 checksum and the payload. The payload is an operation code
+ * followed by the key and the new position and length for a put, the key for a remove, or the old
+ * and the new position for an element moved by the defragmentation. A record that is incomplete
+ * or fails its checksum ends the replay, and the journal is truncated there.
+ * <p>
+ * The records are handed to the operating system as they are appended, but they are not forced to
+ * the device. They survive a crash of the process, not necessarily one of the machine.
+ */
+public class IndexedDiskKeyJournal<K> implements AutoCloseable
+{
+    /** The logger */
+    private static final Log log = LogManager.getLog(IndexedDiskKeyJournal.class);
+
+    /** Marks a key journal, "JCSJ" */
+    public static final int MAGIC = 0x4A43534A;
+
+    /** The current version of the format */
+    public static final byte VERSION = 1;
+
+    /** The size of the file header */
+    private static final int HEADER_SIZE_BYTES = 5;
+
+    /** The size of the length and checksum before each record */
+    private static final int RECORD_HEADER_SIZE_BYTES = 8;
+
+    /** A key was put */
+    private static final byte OP_PUT = 1;
+
+    /** A key was removed */
+    private static final byte OP_REMOVE = 2;
+
+    /** An element was moved */
+    private static final byte OP_MOVE = 3;
+
+    /** The journal file */
+    private final File file;
+
+    /** The channel of the journal file */
+    private final FileChannel fc;
+
+    /** Serializes keys that are not Strings */
+    private final IElementSerializer keySerializer;
+
+    /** Collects a record before it is appended */
+    private final RecordBuffer buffer = new RecordBuffer();
+
+    /** Writes into the record buffer */
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    /** The checksum of the records */
+    private final CRC32 crc = new CRC32();
+
+    /** The end of the valid records */
+    private long size;
+
+    /**
+     * Opens the journal, creating it if needed. A file without a valid header is emptied.
+     * <p>
+     * @param file the journal file
+     * @param keySerializer serializes keys that are not Strings
+     * @throws IOException
+     */
+    public IndexedDiskKeyJournal(File file, IElementSerializer keySerializer)
+        throws IOException
+    {
+        this.file = file;
+        this.keySerializer = keySerializer;
+        this.fc = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+        fc.read(header, 0);
+        header.flip();
+        if (header.remaining() == HEADER_SIZE_BYTES && header.getInt() == MAGIC && header.get() == VERSION)
+        {
+            size = fc.size();
+        }
+        else
+        {
+            reset();
+        }
+    }
+
+    /**
+     * Records that a key was put at the position of the descriptor. Call this after the data has
+     * been written.
+     * <p>
+     * @param key the key
+     * @param ded where the element is stored
+     * @throws IOException
+     */
+    public synchronized void put(K key, IndexedDiskElementDescriptor ded)
+        throws IOException
+    {
+        startRecord(OP_PUT);
+        KeyFileFormat.writeKey(out, key, keySerializer);
+        out.writeLong(ded.pos);
+        out.writeInt(ded.len);
+        appendRecord();
+    }
+
+    /**
+     * Records that a key was removed.
+     * <p>
+     * @param key the key
+     * @throws IOException
+     */
+    public synchronized void remove(K key)
+        throws IOException
+    {
+        startRecord(OP_REMOVE);
+        KeyFileFormat.writeKey(out, key, keySerializer);
+        appendRecord();
+    }
+
+    /**
+     * Records that the element at one position was moved to another.
+     * <p>
+     * @param oldPosition where the element was
+     * @param newPosition where the element is now
+     * @throws IOException
+     */
+    public synchronized void move(long oldPosition, long newPosition)
+        throws IOException
+    {
+        startRecord(OP_MOVE);
+        out.writeLong(oldPosition);
+        out.writeLong(newPosition);
+        appendRecord();
+    }
+
+    /**
+     * Applies all valid records to the key map, in order. Anything after the last valid record is
+     * cut off, so that new records follow it.
+     * <p>
+     * @param keyHash the keys loaded from the key file
+     * @return the number of records applied
+     * @throws IOException if the journal can't be read or a key can't be de-serialized
+     */
+    public synchronized long replay(Map<K, IndexedDiskElementDescriptor> keyHash)
+        throws IOException
+    {
+        long fileSize = fc.size();
+        long validEnd = HEADER_SIZE_BYTES;
+        long count = 0;
+
+        // built on the first move, the defragmentation doesn't know the keys
+        Map<Long, IndexedDiskElementDescriptor> byPosition = null;
+
+        fc.position(HEADER_SIZE_BYTES);
+        // not closed, this would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(fc), 65536));
+
+        while (validEnd + RECORD_HEADER_SIZE_BYTES <= fileSize)
+        {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || validEnd + RECORD_HEADER_SIZE_BYTES + length > fileSize)
+            {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            try
+            {
+                in.readFully(payload);
+            }
+            catch (EOFException e)
+            {
+                break;
+            }
+
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+            {
+                break;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (record.readByte())
+            {
+                case OP_PUT:
+                {
+                    K key = readKey(record);
+                    IndexedDiskElementDescriptor ded =
+                            new IndexedDiskElementDescriptor(record.readLong(), record.readInt());
+                    IndexedDiskElementDescriptor old = keyHash.put(key, ded);
+                    if (byPosition != null)
+                    {
+                        if (old != null)
+                        {
+                            byPosition.remove(Long.valueOf(old.pos));
+                        }
+                        byPosition.put(Long.valueOf(ded.pos), ded);
+                    }
+                    break;
+                }
+                case OP_REMOVE:
+                {
+                    IndexedDiskElementDescriptor old = keyHash.remove(readKey(record));
+                    if (byPosition != null && old != null)
+                    {
+                        byPosition.remove(Long.valueOf(old.pos));
+                    }
+                    break;
+                }
+                case OP_MOVE:
+                {
+                    if (byPosition == null)
+                    {
+                        byPosition = new HashMap<>();
+                        for (IndexedDiskElementDescriptor ded : keyHash.values())
+                        {
+                            byPosition.put(Long.valueOf(ded.pos), ded);
+                        }
+                    }
+                    IndexedDiskElementDescriptor ded = byPosition.remove(Long.valueOf(record.readLong()));
+                    if (ded != null)
+                    {
+                        ded.pos = record.readLong();
+                        byPosition.put(Long.valueOf(ded.pos), ded);
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown operation in key journal " + file);
+            }
+
+            validEnd += RECORD_HEADER_SIZE_BYTES + length;
+            count++;
+        }
+
+        if (validEnd < fileSize)
+        {
+            log.warn("Truncating key journal {0} after {1} records from {2} to {3} bytes",
+                    file, count, fileSize, validEnd);
+            fc.truncate(validEnd);
+        }
+        size = validEnd;
+
+        return count;
+    }
+
+    /**
+     * Empties the journal. Call this once the keys have been saved.
+     * <p>
+     * @throws IOException
+     */
+    public synchronized void reset()
+        throws IOException
+    {
+        fc.truncate(0);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+        header.putInt(MAGIC).put(VERSION).flip();
+        write(header, 0);
+        size = HEADER_SIZE_BYTES;
+    }
+
+    /**
+     * @return true if there is at least one record in the journal
+     */
+    public synchronized boolean hasRecords()
+    {
+        return size > HEADER_SIZE_BYTES;
+    }
+
+    /**
+     * @return the length of the journal
+     */
+    public synchronized long length()
+    {
+        return size;
+    }
+
+    /**
+     * Closes the journal file.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        fc.close();
+    }
+
+    /**
+     * Clears the record buffer and writes the operation, leaving room for the length and
+     * checksum.
+     * <p>
+     * @param op the operation code
+     * @throws IOException
+     */
+    private void startRecord(byte op)
+        throws IOException
+    {
+        buffer.reset();
+        out.writeLong(0);
+        out.writeByte(op);
+    }
+
+    /**
+     * Fills in the length and checksum of the record in the buffer and appends it to the file.
+     * <p>
+     * @throws IOException
+     */
+    private void appendRecord()
+        throws IOException
+    {
+        out.flush();
+        ByteBuffer record = buffer.toByteBuffer();
+        int length = record.remaining() - RECORD_HEADER_SIZE_BYTES;
+
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_SIZE_BYTES, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+
+        write(record, size);
+        size += record.capacity();
+    }
+
+    /**
+     * Writes the whole buffer at the given position.
+     * <p>
+     * @param data the data
+     * @param position the position in the file
+     * @throws IOException
+     */
+    private void write(ByteBuffer data, long position)
+        throws IOException
+    {
+        long pos = position;
+        while (data.hasRemaining())
+        {
+            pos += fc.write(data, pos);
+        }
+    }
+
+    /**
+     * Reads a key from a record.
+     * <p>
+     * @param record the record
+     * @return the key
+     * @throws IOException
+     */
+    private K readKey(DataInputStream record)
+        throws IOException
+    {
+        try
+        {
+            return KeyFileFormat.readKey(record, keySerializer);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Unable to read key from journal " + file, e);
+        }
+    }
+
+    /** Gives access to the bytes written, without copying. */
+    private static class RecordBuffer extends ByteArrayOutputStream
+    {
+        /**
+         * @return a buffer wrapping the bytes written so far
+         */
+        ByteBuffer toByteBuffer()
+        {
+            return ByteBuffer.wrap(buf, 0, count).slice();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Keeps track of the free slots of the data file of an IndexedDiskCache, so that new records can
+ * reuse the space of removed ones.
+ * <p>
+ * A slot is described by a descriptor: the slot starts at <code>pos</code> and spans the record
+ * header and <code>len</code> bytes of data. Implementations need a public no-argument constructor
+ * and must be thread safe.
+ */
+public interface RecycleBin
+{
+    /**
+     * Adds the slot of a record that is no longer used.
+     * <p>
+     * @param ded the descriptor of the record
+     */
+    void add( IndexedDiskElementDescriptor ded );
+
+    /**
+     * Takes a free slot large enough for a record.
+     * <p>
+     * @param length the length of the serialized data
+     * @return a descriptor at the start of the slot with the given length, or null if no slot fits
+     */
+    IndexedDiskElementDescriptor take( int length );
+
+    /**
+     * @return the number of free slots
+     */
+    int size();
+
+    /**
+     * Forgets all free slots.
+     */
+    void clear();
+}
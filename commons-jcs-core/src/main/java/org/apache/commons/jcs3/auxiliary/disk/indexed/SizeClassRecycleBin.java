@@ -0,0 +1,279 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recycle bin with segregated free lists. Free slots are binned by size class, eight classes per
+ * power of two, and a bit set tells which classes have slots.
+ * <p>
+ * A record first tries a few slots of its own class, then takes the first slot of the next larger
+ * non-empty class, which always fits. Both take constant time. The part of the slot the record
+ * does not use goes back to the bin. Adjacent free slots are merged when they are added, so the
+ * free space does not break up into ever smaller pieces.
+ */
+public class SizeClassRecycleBin
+    implements RecycleBin
+{
+    /** The number of classes per power of two, as a shift. */
+    private static final int SUB_CLASS_BITS = 3;
+
+    /** The number of classes per power of two. */
+    private static final int SUB_CLASSES = 1 << SUB_CLASS_BITS;
+
+    /** Enough classes for any long size. */
+    private static final int CLASS_COUNT = 64 * SUB_CLASSES;
+
+    /** How many slots of the own class are tried before a larger class is used. */
+    private static final int MAX_PROBES = 4;
+
+    /** A free extent of the data file. */
+    private static final class Extent
+    {
+        /** The start of the extent. */
+        final long pos;
+
+        /** The size of the extent, including the record header. */
+        final long size;
+
+        /**
+         * @param pos the start
+         * @param size the size
+         */
+        Extent( long pos, long size )
+        {
+            this.pos = pos;
+            this.size = size;
+        }
+    }
+
+    /** The free extents of each size class. */
+    private final List<LinkedHashSet<Extent>> bins = new ArrayList<>( CLASS_COUNT );
+
+    /** One bit per size class that has extents. */
+    private final long[] nonEmpty = new long[CLASS_COUNT / Long.SIZE];
+
+    /** The free extents by their start. */
+    private final Map<Long, Extent> byStart = new HashMap<>();
+
+    /** The free extents by their end. */
+    private final Map<Long, Extent> byEnd = new HashMap<>();
+
+    /**
+     * Constructs an empty bin.
+     */
+    public SizeClassRecycleBin()
+    {
+        for ( int i = 0; i < CLASS_COUNT; i++ )
+        {
+            bins.add( new LinkedHashSet<>() );
+        }
+    }
+
+    /**
+     * Returns the size class. Sizes below eight have a class each, above that every power of two
+     * is split into eight classes.
+     * <p>
+     * @param size the size
+     * @return the size class, larger sizes never have a smaller class
+     */
+    static int sizeClass( long size )
+    {
+        if ( size < SUB_CLASSES )
+        {
+            return (int) size;
+        }
+
+        int log = 63 - Long.numberOfLeadingZeros( size );
+        int sub = (int) ( size >>> ( log - SUB_CLASS_BITS ) ) & ( SUB_CLASSES - 1 );
+        return ( log - SUB_CLASS_BITS + 1 ) * SUB_CLASSES + sub;
+    }
+
+    /**
+     * Adds the slot, merged with the free slots right before and after it.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#add(IndexedDiskElementDescriptor)
+     */
+    @Override
+    public synchronized void add( IndexedDiskElementDescriptor ded )
+    {
+        if ( byStart.containsKey( Long.valueOf( ded.pos ) ) )
+        {
+            // already free
+            return;
+        }
+
+        long pos = ded.pos;
+        long end = ded.pos + IndexedDisk.HEADER_SIZE_BYTES + ded.len;
+
+        Extent before = byEnd.get( Long.valueOf( pos ) );
+        if ( before != null )
+        {
+            remove( before );
+            pos = before.pos;
+        }
+
+        Extent after = byStart.get( Long.valueOf( end ) );
+        if ( after != null )
+        {
+            remove( after );
+            end = after.pos + after.size;
+        }
+
+        insert( new Extent( pos, end - pos ) );
+    }
+
+    /**
+     * Takes a slot of the own size class if one of the first few fits, else the first slot of the
+     * next larger class. The rest of the slot stays in the bin, unless it is too small for a
+     * record.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#take(int)
+     */
+    @Override
+    public synchronized IndexedDiskElementDescriptor take( int length )
+    {
+        long needed = IndexedDisk.HEADER_SIZE_BYTES + (long) length;
+        int sizeClass = sizeClass( needed );
+
+        Extent extent = null;
+        Iterator<Extent> own = bins.get( sizeClass ).iterator();
+        for ( int i = 0; i < MAX_PROBES && own.hasNext(); i++ )
+        {
+            Extent candidate = own.next();
+            if ( candidate.size >= needed )
+            {
+                extent = candidate;
+                break;
+            }
+        }
+
+        if ( extent == null )
+        {
+            int larger = nextNonEmptyClass( sizeClass + 1 );
+            if ( larger < 0 )
+            {
+                return null;
+            }
+            extent = bins.get( larger ).iterator().next();
+        }
+
+        remove( extent );
+        long rest = extent.size - needed;
+        if ( rest > IndexedDisk.HEADER_SIZE_BYTES )
+        {
+            // the neighbors are in use, otherwise they would have been merged
+            insert( new Extent( extent.pos + needed, rest ) );
+        }
+
+        return new IndexedDiskElementDescriptor( extent.pos, length );
+    }
+
+    /**
+     * Finds the first size class with extents.
+     * <p>
+     * @param from the smallest class to look at
+     * @return the class, or -1 if all classes from there on are empty
+     */
+    private int nextNonEmptyClass( int from )
+    {
+        if ( from >= CLASS_COUNT )
+        {
+            return -1;
+        }
+
+        int word = from / Long.SIZE;
+        long bits = nonEmpty[word] & ( -1L << ( from % Long.SIZE ) );
+        while ( bits == 0 )
+        {
+            if ( ++word == nonEmpty.length )
+            {
+                return -1;
+            }
+            bits = nonEmpty[word];
+        }
+        return word * Long.SIZE + Long.numberOfTrailingZeros( bits );
+    }
+
+    /**
+     * Adds an extent to its bin and the maps.
+     * <p>
+     * @param extent the extent
+     */
+    private void insert( Extent extent )
+    {
+        int sizeClass = sizeClass( extent.size );
+        bins.get( sizeClass ).add( extent );
+        nonEmpty[sizeClass / Long.SIZE] |= 1L << ( sizeClass % Long.SIZE );
+        byStart.put( Long.valueOf( extent.pos ), extent );
+        byEnd.put( Long.valueOf( extent.pos + extent.size ), extent );
+    }
+
+    /**
+     * Removes an extent from its bin and the maps.
+     * <p>
+     * @param extent the extent
+     */
+    private void remove( Extent extent )
+    {
+        int sizeClass = sizeClass( extent.size );
+        LinkedHashSet<Extent> bin = bins.get( sizeClass );
+        bin.remove( extent );
+        if ( bin.isEmpty() )
+        {
+            nonEmpty[sizeClass / Long.SIZE] &= ~( 1L << ( sizeClass % Long.SIZE ) );
+        }
+        byStart.remove( Long.valueOf( extent.pos ) );
+        byEnd.remove( Long.valueOf( extent.pos + extent.size ) );
+    }
+
+    /**
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#size()
+     */
+    @Override
+    public synchronized int size()
+    {
+        return byStart.size();
+    }
+
+    /**
+     * @see org.apache.commons.jcs3.auxiliary.disk.indexed.RecycleBin#clear()
+     */
+    @Override
+    public synchronized void clear()
+    {
+        for ( LinkedHashSet<Extent> bin : bins )
+        {
+            bin.clear();
+        }
+        for ( int i = 0; i < nonEmpty.length; i++ )
+        {
+            nonEmpty[i] = 0;
+        }
+        byStart.clear();
+        byEnd.clear();
+    }
+}
@@ -0,0 +1,458 @@
+package org.apache.commons.jcs3.auxiliary.disk.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.jcs3.auxiliary.AuxiliaryCacheAttributes;
+import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs3.engine.control.group.GroupId;
+import org.apache.commons.jcs3.engine.stats.StatElement;
+import org.apache.commons.jcs3.engine.stats.Stats;
+import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStats;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+
+/**
+ * There is one OffHeapCache per region. It keeps the serialized elements in direct memory outside
+ * of the Java heap, so that very large regions do not add to the garbage collection cost. Only the
+ * keys and small descriptors are kept on the heap.
+ * <p>
+ * It is configured like a disk cache and receives the elements spooled from the memory cache, but
+ * a get is a memory copy followed by de-serialization instead of a disk read. Once MaxBytes is
+ * reached, the least recently used elements are dropped. The content does not survive a restart.
+ */
+public class OffHeapCache<K, V>
+    extends AbstractDiskCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogManager.getLog( OffHeapCache.class );
+
+    /** The name to prefix all log messages with. */
+    private final String logCacheName;
+
+    /** Attributes governing the behavior of the off-heap cache. */
+    private final OffHeapCacheAttributes offHeapCacheAttributes;
+
+    /** The off-heap data store */
+    private final OffHeapStore dataStore;
+
+    /** The key to descriptor map, in access order. Guarded by the lock. */
+    private final LinkedHashMap<K, OffHeapElementDescriptor> keyHash;
+
+    /** Guards the key map and the data store. */
+    private final Lock lock = new ReentrantLock();
+
+    /** Number of elements dropped to make room */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs the off-heap cache.
+     * <p>
+     * @param cacheAttributes
+     */
+    public OffHeapCache( OffHeapCacheAttributes cacheAttributes )
+    {
+        this( cacheAttributes, null );
+    }
+
+    /**
+     * Constructs the off-heap cache.
+     * <p>
+     * @param cacheAttributes
+     * @param elementSerializer used if supplied, the super's super will not set a null
+     */
+    public OffHeapCache( OffHeapCacheAttributes cacheAttributes, IElementSerializer elementSerializer )
+    {
+        super( cacheAttributes );
+        setElementSerializer( elementSerializer );
+
+        this.offHeapCacheAttributes = cacheAttributes;
+        this.logCacheName = "Region [" + getCacheName() + "] ";
+
+        log.info( "{0}: Constructing OffHeapCache with attributes {1}", logCacheName, cacheAttributes );
+
+        this.dataStore = new OffHeapStore( cacheAttributes.getMaxBytes(),
+                cacheAttributes.getSlabSizeBytes(), cacheAttributes.getBlockSizeBytes() );
+        this.keyHash = new LinkedHashMap<>( 16, 0.75f, true );
+
+        setAlive( true );
+        log.info( "{0}: Off-Heap Cache is alive.", logCacheName );
+    }
+
+    /**
+     * Return the keys in this cache.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#getKeySet()
+     */
+    @Override
+    public Set<K> getKeySet()
+    {
+        lock.lock();
+        try
+        {
+            return new HashSet<>( keyHash.keySet() );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets matching items from the cache.
+     * <p>
+     * @param pattern
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if there is no
+     *         data in cache matching keys
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> processGetMatching( String pattern )
+    {
+        Set<K> matchingKeys = getKeyMatcher().getMatchingKeysFromArray( pattern, getKeySet() );
+
+        return matchingKeys.stream()
+            .map( this::processGet )
+            .filter( element -> element != null )
+            .collect( Collectors.toMap(
+                    element -> element.getKey(),
+                    element -> element ) );
+    }
+
+    /**
+     * Returns the number of keys.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#getSize()
+     */
+    @Override
+    public int getSize()
+    {
+        lock.lock();
+        try
+        {
+            return keyHash.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the element for the key. The serialized data is copied to the heap under the lock, the
+     * de-serialization happens outside of it.
+     * <p>
+     * @param key
+     * @return ICacheElement or null
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#get(Object)
+     */
+    @Override
+    protected ICacheElement<K, V> processGet( K key )
+    {
+        if ( !isAlive() )
+        {
+            log.debug( "{0}: No longer alive so returning null for key = {1}", logCacheName, key );
+            return null;
+        }
+
+        byte[] data = null;
+
+        lock.lock();
+        try
+        {
+            OffHeapElementDescriptor descriptor = keyHash.get( key );
+            if ( descriptor != null )
+            {
+                data = dataStore.read( descriptor );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( data == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return getElementSerializer().deSerialize( data, null );
+        }
+        catch ( IOException | ClassNotFoundException e )
+        {
+            log.error( "{0}: Failure getting from off-heap store, key = {1}", logCacheName, key, e );
+            processRemove( key );
+            return null;
+        }
+    }
+
+    /**
+     * Stores an element. The element is serialized outside of the lock. If there is not enough
+     * room, the least recently used elements are dropped.
+     * <p>
+     * @param element
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#update(ICacheElement)
+     */
+    @Override
+    protected void processUpdate( ICacheElement<K, V> element )
+    {
+        if ( !isAlive() )
+        {
+            log.debug( "{0}: No longer alive; aborting put of key = {1}",
+                    () -> logCacheName, () -> element.getKey() );
+            return;
+        }
+
+        byte[] data;
+        try
+        {
+            data = getElementSerializer().serialize( element );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure serializing element, key: {1}", logCacheName, element.getKey(), e );
+            return;
+        }
+
+        int numBlocksNeeded = dataStore.calculateTheNumberOfBlocksNeeded( data.length );
+
+        lock.lock();
+        try
+        {
+            OffHeapElementDescriptor old = keyHash.remove( element.getKey() );
+            if ( old != null )
+            {
+                dataStore.free( old );
+            }
+
+            if ( !dataStore.fits( numBlocksNeeded ) )
+            {
+                log.warn( "{0}: Element too large for the off-heap store, key: {1}, size: {2}",
+                        logCacheName, element.getKey(), data.length );
+                return;
+            }
+
+            Iterator<Map.Entry<K, OffHeapElementDescriptor>> eldest = keyHash.entrySet().iterator();
+            while ( !dataStore.canAllocate( numBlocksNeeded ) && eldest.hasNext() )
+            {
+                Map.Entry<K, OffHeapElementDescriptor> entry = eldest.next();
+                log.debug( "{0}: Dropping least recently used key: {1}", logCacheName, entry.getKey() );
+                dataStore.free( entry.getValue() );
+                eldest.remove();
+                evictionCount.incrementAndGet();
+            }
+
+            keyHash.put( element.getKey(), dataStore.write( data ) );
+
+            log.debug( "{0}: Put off-heap key [{1}]", () -> logCacheName, () -> element.getKey() );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the removal was successful; or false if there is nothing to remove.
+     * <p>
+     * @param key
+     * @return true if removed anything
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#remove(Object)
+     */
+    @Override
+    protected boolean processRemove( K key )
+    {
+        if ( !isAlive() )
+        {
+            log.debug( "{0}: No longer alive so returning false for key = {1}", logCacheName, key );
+            return false;
+        }
+
+        lock.lock();
+        try
+        {
+            if ( key instanceof String && key.toString().endsWith( NAME_COMPONENT_DELIMITER ) )
+            {
+                String prefix = (String) key;
+                return removeIf( k -> k instanceof String && k.toString().startsWith( prefix ) );
+            }
+            else if ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+            {
+                GroupId groupId = ( (GroupAttrName<?>) key ).groupId;
+                return removeIf( k -> k instanceof GroupAttrName
+                        && ( (GroupAttrName<?>) k ).groupId.equals( groupId ) );
+            }
+            else
+            {
+                OffHeapElementDescriptor descriptor = keyHash.remove( key );
+                if ( descriptor != null )
+                {
+                    dataStore.free( descriptor );
+                    return true;
+                }
+                return false;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all matching keys and free their blocks.
+     * (guarded by the lock)
+     * <p>
+     * @param filter selects the keys to remove
+     * @return true if anything was removed
+     */
+    private boolean removeIf( Predicate<K> filter )
+    {
+        return keyHash.entrySet().removeIf( entry -> {
+            if ( filter.test( entry.getKey() ) )
+            {
+                dataStore.free( entry.getValue() );
+                return true;
+            }
+            return false;
+        } );
+    }
+
+    /**
+     * Drops all elements.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#removeAll()
+     */
+    @Override
+    protected void processRemoveAll()
+    {
+        lock.lock();
+        try
+        {
+            keyHash.clear();
+            dataStore.reset();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all elements and releases the direct memory.
+     */
+    @Override
+    public void processDispose()
+    {
+        lock.lock();
+        try
+        {
+            setAlive( false );
+            keyHash.clear();
+            dataStore.close();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        log.info( "{0}: Shutdown complete.", logCacheName );
+    }
+
+    /**
+     * Returns the attributes.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.AuxiliaryCache#getAuxiliaryCacheAttributes()
+     */
+    @Override
+    public AuxiliaryCacheAttributes getAuxiliaryCacheAttributes()
+    {
+        return this.offHeapCacheAttributes;
+    }
+
+    /**
+     * Returns info about the off-heap cache.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.AuxiliaryCache#getStatistics()
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Off-Heap Cache" );
+
+        List<IStatElement<?>> elems = new ArrayList<>();
+
+        elems.add( new StatElement<>( "Is Alive", Boolean.valueOf( isAlive() ) ) );
+        elems.add( new StatElement<>( "Key Map Size", Integer.valueOf( getSize() ) ) );
+        elems.add( new StatElement<>( "Eviction Count", Long.valueOf( evictionCount.get() ) ) );
+
+        lock.lock();
+        try
+        {
+            elems.add( new StatElement<>( "Block Size Bytes",
+                    Integer.valueOf( dataStore.getBlockSizeBytes() ) ) );
+            elems.add( new StatElement<>( "Used Blocks", Integer.valueOf( dataStore.getUsedBlocks() ) ) );
+            elems.add( new StatElement<>( "Max Blocks", Integer.valueOf( dataStore.getMaxBlocks() ) ) );
+            elems.add( new StatElement<>( "Allocated Bytes", Long.valueOf( dataStore.getAllocatedBytes() ) ) );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        // get the stats from the super too
+        IStats sStats = super.getStatistics();
+        elems.addAll( sStats.getStatElements() );
+
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * This is used by the event logging.
+     * <p>
+     * @return the location of the data.
+     */
+    @Override
+    protected String getDiskLocation()
+    {
+        return "off-heap";
+    }
+}
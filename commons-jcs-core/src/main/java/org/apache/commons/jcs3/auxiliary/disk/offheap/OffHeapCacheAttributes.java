@@ -0,0 +1,125 @@
+package org.apache.commons.jcs3.auxiliary.disk.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCacheAttributes;
+
+/**
+ * Configuration class for the Off-Heap Cache.
+ * <p>
+ * The cache uses at most MaxBytes of direct memory. Make sure the JVM is started with a
+ * -XX:MaxDirectMemorySize large enough for all off-heap regions.
+ */
+public class OffHeapCacheAttributes
+    extends AbstractDiskCacheAttributes
+{
+    /** Don't change. */
+    private static final long serialVersionUID = 3171546127370451834L;
+
+    /** Default maximum amount of direct memory, 64 MB */
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Default size of a slab, 16 MB */
+    private static final int DEFAULT_SLAB_SIZE_BYTES = 16 * 1024 * 1024;
+
+    /** Default size of a block, 1 kB */
+    private static final int DEFAULT_BLOCK_SIZE_BYTES = 1024;
+
+    /** The maximum amount of direct memory used by the region. */
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    /** The amount of direct memory allocated at a time. */
+    private int slabSizeBytes = DEFAULT_SLAB_SIZE_BYTES;
+
+    /** The size of the blocks the slabs are divided into. */
+    private int blockSizeBytes = DEFAULT_BLOCK_SIZE_BYTES;
+
+    /**
+     * @return Returns the maxBytes.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * The maximum amount of direct memory used by the region. Least recently used elements are
+     * removed once it is reached.
+     * <p>
+     * @param maxBytes The maxBytes to set.
+     */
+    public void setMaxBytes( long maxBytes )
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return Returns the slabSizeBytes.
+     */
+    public int getSlabSizeBytes()
+    {
+        return slabSizeBytes;
+    }
+
+    /**
+     * The amount of direct memory allocated at a time.
+     * <p>
+     * @param slabSizeBytes The slabSizeBytes to set.
+     */
+    public void setSlabSizeBytes( int slabSizeBytes )
+    {
+        this.slabSizeBytes = slabSizeBytes;
+    }
+
+    /**
+     * @return Returns the blockSizeBytes.
+     */
+    public int getBlockSizeBytes()
+    {
+        return blockSizeBytes;
+    }
+
+    /**
+     * The size of the blocks. All blocks are the same size.
+     * <p>
+     * @param blockSizeBytes The blockSizeBytes to set.
+     */
+    public void setBlockSizeBytes( int blockSizeBytes )
+    {
+        this.blockSizeBytes = blockSizeBytes;
+    }
+
+    /**
+     * Write out the values for debugging purposes.
+     * <p>
+     * @return String
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        str.append( "\nOffHeapCacheAttributes " );
+        str.append( "\n MaxBytes [" + this.getMaxBytes() + "]" );
+        str.append( "\n SlabSizeBytes [" + this.getSlabSizeBytes() + "]" );
+        str.append( "\n BlockSizeBytes [" + this.getBlockSizeBytes() + "]" );
+        str.append( "\n MaxPurgatorySize [" + this.getMaxPurgatorySize() + "]" );
+        return str.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package org.apache.commons.jcs3.auxiliary.disk.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * This represents an element stored off-heap: the blocks holding the serialized data and its
+ * length. Only the descriptors are kept on the heap.
+ */
+public class OffHeapElementDescriptor
+{
+    /** The array of block numbers */
+    private final int[] blocks;
+
+    /** The length of the serialized data */
+    private final int length;
+
+    /**
+     * @param blocks the block numbers
+     * @param length the length of the data
+     */
+    public OffHeapElementDescriptor( int[] blocks, int length )
+    {
+        this.blocks = blocks;
+        this.length = length;
+    }
+
+    /**
+     * This holds the block numbers. An item my be dispersed between multiple blocks.
+     * <p>
+     * @return Returns the blocks.
+     */
+    public int[] getBlocks()
+    {
+        return blocks;
+    }
+
+    /**
+     * @return Returns the length of the data.
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * For debugging.
+     * <p>
+     * @return Info on the descriptor.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "\nOffHeapElementDescriptor" );
+        buf.append( "\n length [" + this.getLength() + "]" );
+        buf.append( "\n blocks " + Arrays.toString( this.getBlocks() ) );
+        return buf.toString();
+    }
+}
@@ -0,0 +1,285 @@
+package org.apache.commons.jcs3.auxiliary.disk.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+
+/**
+ * Manages serialized data in direct (off-heap) memory. The memory is allocated lazily in slabs of
+ * a fixed size, each slab being divided into blocks. Like the BlockDisk, an element is stored in as
+ * many blocks as it needs and the free blocks are kept in a simple list.
+ * <p>
+ * This class is not thread safe. The OffHeapCache guards all access with its lock.
+ */
+public class OffHeapStore
+{
+    /** The logger */
+    private static final Log log = LogManager.getLog( OffHeapStore.class );
+
+    /** Size of the blocks */
+    private final int blockSizeBytes;
+
+    /** Number of blocks in a slab */
+    private final int blocksPerSlab;
+
+    /** Maximum number of blocks */
+    private final int maxBlocks;
+
+    /** The allocated slabs */
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    /** Number of blocks handed out from the slabs so far */
+    private int numberOfBlocks;
+
+    /** Stack of free block numbers */
+    private int[] freeBlocks = new int[64];
+
+    /** Number of entries on the free block stack */
+    private int freeCount;
+
+    /**
+     * Creates a store. No memory is allocated until data is written.
+     * <p>
+     * @param maxBytes the maximum amount of direct memory to use
+     * @param slabSizeBytes the size of a slab, rounded down to a multiple of the block size
+     * @param blockSizeBytes the size of the blocks
+     */
+    public OffHeapStore( long maxBytes, int slabSizeBytes, int blockSizeBytes )
+    {
+        if ( blockSizeBytes <= 0 || slabSizeBytes < blockSizeBytes )
+        {
+            throw new IllegalArgumentException( "Invalid slab size " + slabSizeBytes
+                    + " for block size " + blockSizeBytes );
+        }
+
+        this.blockSizeBytes = blockSizeBytes;
+        this.blocksPerSlab = slabSizeBytes / blockSizeBytes;
+        this.maxBlocks = (int) Math.min( Integer.MAX_VALUE, maxBytes / blockSizeBytes );
+
+        log.info( "Constructing OffHeapStore, maxBytes [{0}], slabSizeBytes [{1}], "
+                + "blockSizeBytes [{2}]", maxBytes, slabSizeBytes, blockSizeBytes );
+    }
+
+    /**
+     * The number of blocks needed to store the given number of bytes.
+     * <p>
+     * @param length the number of bytes
+     * @return the number of blocks, at least one
+     */
+    public int calculateTheNumberOfBlocksNeeded( int length )
+    {
+        return Math.max( 1, ( length + blockSizeBytes - 1 ) / blockSizeBytes );
+    }
+
+    /**
+     * @param numBlocksNeeded the number of blocks
+     * @return true if that many blocks can be allocated without freeing anything
+     */
+    public boolean canAllocate( int numBlocksNeeded )
+    {
+        return freeCount + ( maxBlocks - numberOfBlocks ) >= numBlocksNeeded;
+    }
+
+    /**
+     * @param numBlocksNeeded the number of blocks
+     * @return true if that many blocks could ever be allocated
+     */
+    public boolean fits( int numBlocksNeeded )
+    {
+        return numBlocksNeeded <= maxBlocks;
+    }
+
+    /**
+     * Stores the data. The caller must make sure there is room by checking canAllocate().
+     * <p>
+     * @param data the serialized element
+     * @return the descriptor to read the data back
+     */
+    public OffHeapElementDescriptor write( byte[] data )
+    {
+        int numBlocksNeeded = calculateTheNumberOfBlocksNeeded( data.length );
+        int[] blocks = allocateBlocks( numBlocksNeeded );
+
+        int offset = 0;
+        for ( int block : blocks )
+        {
+            int length = Math.min( blockSizeBytes, data.length - offset );
+            ByteBuffer slab = position( block );
+            slab.put( data, offset, length );
+            offset += length;
+        }
+
+        return new OffHeapElementDescriptor( blocks, data.length );
+    }
+
+    /**
+     * Copies the data of an element back to the heap.
+     * <p>
+     * @param descriptor the descriptor returned by write
+     * @return the serialized element
+     */
+    public byte[] read( OffHeapElementDescriptor descriptor )
+    {
+        byte[] data = new byte[descriptor.getLength()];
+
+        int offset = 0;
+        for ( int block : descriptor.getBlocks() )
+        {
+            int length = Math.min( blockSizeBytes, data.length - offset );
+            ByteBuffer slab = position( block );
+            slab.get( data, offset, length );
+            offset += length;
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns the blocks of an element to the free list.
+     * <p>
+     * @param descriptor the descriptor returned by write
+     */
+    public void free( OffHeapElementDescriptor descriptor )
+    {
+        for ( int block : descriptor.getBlocks() )
+        {
+            if ( freeCount == freeBlocks.length )
+            {
+                freeBlocks = Arrays.copyOf( freeBlocks, freeCount * 2 );
+            }
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    /**
+     * Forgets all elements. The slabs are kept for reuse.
+     */
+    public void reset()
+    {
+        numberOfBlocks = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * Forgets all elements and drops the slabs so that the garbage collector can release the
+     * direct memory.
+     */
+    public void close()
+    {
+        reset();
+        slabs.clear();
+        freeBlocks = new int[64];
+    }
+
+    /**
+     * Allocate a given number of blocks, free ones first.
+     * <p>
+     * @param numBlocksNeeded
+     * @return an array of allocated blocks
+     */
+    private int[] allocateBlocks( int numBlocksNeeded )
+    {
+        int[] blocks = new int[numBlocksNeeded];
+
+        for ( int i = 0; i < numBlocksNeeded; i++ )
+        {
+            if ( freeCount > 0 )
+            {
+                blocks[i] = freeBlocks[--freeCount];
+            }
+            else if ( numberOfBlocks < maxBlocks )
+            {
+                blocks[i] = numberOfBlocks++;
+            }
+            else
+            {
+                throw new IllegalStateException( "Off-heap store is full" );
+            }
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Positions the slab holding the block at the start of the block, allocating it if needed.
+     * <p>
+     * @param block the block number
+     * @return the slab, limited to the block
+     */
+    private ByteBuffer position( int block )
+    {
+        int slabIndex = block / blocksPerSlab;
+
+        while ( slabs.size() <= slabIndex )
+        {
+            int blocks = Math.min( blocksPerSlab, maxBlocks - slabs.size() * blocksPerSlab );
+            log.debug( "Allocating slab {0} with {1} blocks", slabs.size(), blocks );
+            slabs.add( ByteBuffer.allocateDirect( blocks * blockSizeBytes ) );
+        }
+
+        ByteBuffer slab = slabs.get( slabIndex );
+        int start = ( block % blocksPerSlab ) * blockSizeBytes;
+        slab.limit( start + blockSizeBytes ).position( start );
+        return slab;
+    }
+
+    /**
+     * @return the size of a block
+     */
+    public int getBlockSizeBytes()
+    {
+        return blockSizeBytes;
+    }
+
+    /**
+     * @return the number of blocks in use
+     */
+    public int getUsedBlocks()
+    {
+        return numberOfBlocks - freeCount;
+    }
+
+    /**
+     * @return the maximum number of blocks
+     */
+    public int getMaxBlocks()
+    {
+        return maxBlocks;
+    }
+
+    /**
+     * @return the amount of direct memory allocated
+     */
+    public long getAllocatedBytes()
+    {
+        long allocated = 0;
+        for ( ByteBuffer slab : slabs )
+        {
+            allocated += slab.capacity();
+        }
+        return allocated;
+    }
+}
@@ -0,0 +1,247 @@
+package org.apache.commons.jcs3.auxiliary.disk.segmented;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One append-only segment file. Each record is the length of the data followed by the data.
+ * <p>
+ * Space is reserved by advancing the end of the segment atomically, so several threads can append
+ * at the same time and write their records with positional writes. Records are never overwritten.
+ * The segment counts the bytes of the records still referenced by a key, so it can be dropped as a
+ * whole once none is left.
+ */
+public class DiskSegment
+    implements AutoCloseable
+{
+    /** The size of the header that holds the length of the data. */
+    public static final int HEADER_SIZE_BYTES = 4;
+
+    /** The id of the segment, segments with a higher id are newer. */
+    private final long id;
+
+    /** The segment file. */
+    private final File file;
+
+    /** The channel of the segment file. */
+    private final FileChannel fc;
+
+    /** The size at which no more records are appended. */
+    private final long maxSizeBytes;
+
+    /** The end of the reserved space. */
+    private final AtomicLong end;
+
+    /** The bytes of the records that are still referenced. */
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    /** Once sealed, no more records are appended. */
+    private volatile boolean sealed;
+
+    /**
+     * Opens a segment file. An existing file is opened sealed, a new file open for appends.
+     * <p>
+     * @param id the id of the segment
+     * @param file the segment file
+     * @param maxSizeBytes the size at which no more records are appended
+     * @throws IOException
+     */
+    public DiskSegment( long id, File file, long maxSizeBytes )
+        throws IOException
+    {
+        this.id = id;
+        this.file = file;
+        this.maxSizeBytes = maxSizeBytes;
+        this.fc = FileChannel.open( file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE );
+        this.end = new AtomicLong( fc.size() );
+        this.sealed = fc.size() > 0;
+    }
+
+    /**
+     * Reserves the space for a record at the end of the segment. A record larger than the segment
+     * is accepted as long as the segment is empty.
+     * <p>
+     * @param dataLength the length of the data
+     * @return the position of the record, or -1 if the segment is sealed or has no room left
+     */
+    public long reserve( int dataLength )
+    {
+        long recordLength = HEADER_SIZE_BYTES + dataLength;
+        while ( !sealed )
+        {
+            long position = end.get();
+            if ( position > 0 && position + recordLength > maxSizeBytes )
+            {
+                return -1;
+            }
+            if ( end.compareAndSet( position, position + recordLength ) )
+            {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a record to the space reserved for it.
+     * <p>
+     * @param position the reserved position
+     * @param data the data
+     * @throws IOException
+     */
+    public void write( long position, byte[] data )
+        throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate( HEADER_SIZE_BYTES + data.length );
+        record.putInt( data.length );
+        record.put( data );
+        record.flip();
+
+        while ( record.hasRemaining() )
+        {
+            fc.write( record, position + record.position() );
+        }
+    }
+
+    /**
+     * Reads the data of a record.
+     * <p>
+     * @param descriptor the descriptor of the record
+     * @return the data, without the header
+     * @throws IOException if the record does not match the descriptor
+     */
+    public byte[] read( SegmentedDiskElementDescriptor descriptor )
+        throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate( HEADER_SIZE_BYTES + descriptor.getLength() );
+        while ( record.hasRemaining() )
+        {
+            if ( fc.read( record, descriptor.getPosition() + record.position() ) < 0 )
+            {
+                throw new IOException( "Record " + descriptor + " exceeds the length of " + file );
+            }
+        }
+        record.flip();
+
+        int length = record.getInt();
+        if ( length != descriptor.getLength() )
+        {
+            throw new IOException( "Record " + descriptor + " does not match data length on disk (" + length + ")" );
+        }
+
+        byte[] data = new byte[length];
+        record.get( data );
+        return data;
+    }
+
+    /**
+     * Changes the number of referenced bytes.
+     * <p>
+     * @param delta the bytes added, negative for removed
+     * @return the new number of referenced bytes
+     */
+    public long addLiveBytes( long delta )
+    {
+        return liveBytes.addAndGet( delta );
+    }
+
+    /**
+     * @return the bytes of the records that are still referenced
+     */
+    public long getLiveBytes()
+    {
+        return liveBytes.get();
+    }
+
+    /**
+     * Closes the segment for appends.
+     */
+    public void seal()
+    {
+        sealed = true;
+    }
+
+    /**
+     * @return true if no more records are appended
+     */
+    public boolean isSealed()
+    {
+        return sealed;
+    }
+
+    /**
+     * @return the id of the segment
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the size of the segment, including the space reserved for records being written
+     */
+    public long length()
+    {
+        return end.get();
+    }
+
+    /**
+     * @return the segment file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Closes and deletes the segment file.
+     * <p>
+     * @throws IOException
+     */
+    public void delete()
+        throws IOException
+    {
+        close();
+        Files.deleteIfExists( file.toPath() );
+    }
+
+    /**
+     * Closes the segment file.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        sealed = true;
+        fc.close();
+    }
+}
@@ -0,0 +1,888 @@
+package org.apache.commons.jcs3.auxiliary.disk.segmented;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.jcs3.auxiliary.AuxiliaryCacheAttributes;
+import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs3.auxiliary.disk.KeyFileFormat;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs3.engine.control.group.GroupId;
+import org.apache.commons.jcs3.engine.stats.StatElement;
+import org.apache.commons.jcs3.engine.stats.Stats;
+import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStats;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.timing.ElapsedTimer;
+
+/**
+ * There is one SegmentedDiskCache per region. It stores the elements in append-only segment files
+ * of a fixed size instead of a single data file.
+ * <p>
+ * Puts append to one of several active segments, picked by the writing thread, so several
+ * threads of a pooled event queue write to different files at the same time. An update appends a
+ * new record, a removal only drops the key. Each segment counts the bytes still referenced, and a
+ * full segment without any is deleted as a whole. Once there are more than MaxSegments segments,
+ * the oldest is dropped together with its elements.
+ * <p>
+ * The storage lock is only taken exclusively to drop segments. Gets, puts and removes share it.
+ * <p>
+ * The keys are saved on dispose. The key file is deleted once it is loaded, so the cache starts
+ * empty after a crash instead of serving outdated elements.
+ */
+public class SegmentedDiskCache<K, V>
+    extends AbstractDiskCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogManager.getLog( SegmentedDiskCache.class );
+
+    /** The extension of the segment files. */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** Stores the position of each element in the key file. */
+    private static final KeyFileFormat.ValueCodec<SegmentedDiskElementDescriptor> DESCRIPTOR_CODEC =
+        new KeyFileFormat.ValueCodec<SegmentedDiskElementDescriptor>()
+    {
+        @Override
+        public void write( DataOutput out, SegmentedDiskElementDescriptor descriptor ) throws IOException
+        {
+            out.writeLong( descriptor.getSegmentId() );
+            out.writeLong( descriptor.getPosition() );
+            out.writeInt( descriptor.getLength() );
+        }
+
+        @Override
+        public SegmentedDiskElementDescriptor read( DataInput in ) throws IOException
+        {
+            return new SegmentedDiskElementDescriptor( in.readLong(), in.readLong(), in.readInt() );
+        }
+    };
+
+    /** The name to prefix all log messages with. */
+    private final String logCacheName;
+
+    /** The name the segment and key files start with. */
+    private final String fileName;
+
+    /** Attributes governing the behavior of the segmented disk cache. */
+    private final SegmentedDiskCacheAttributes segmentedDiskCacheAttributes;
+
+    /** The root directory for keys and segments. */
+    private final File rootDirectory;
+
+    /** The file where the keys are saved. */
+    private final File keyFile;
+
+    /** Map containing the keys and their positions. */
+    private final ConcurrentHashMap<K, SegmentedDiskElementDescriptor> keyHash = new ConcurrentHashMap<>();
+
+    /** All segments by id, oldest first. */
+    private final ConcurrentSkipListMap<Long, DiskSegment> segments = new ConcurrentSkipListMap<>();
+
+    /** The segments appended to, null until the first put of a slot. */
+    private final AtomicReferenceArray<DiskSegment> activeSegments;
+
+    /** The id of the next segment. */
+    private final AtomicLong nextSegmentId = new AtomicLong();
+
+    /**
+     * Shared by gets, puts and removes. Taken exclusively to drop segments, so no segment is
+     * closed while it is read or written.
+     */
+    private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+
+    /** Number of segments deleted */
+    private final AtomicLong droppedSegmentCount = new AtomicLong();
+
+    /** Number of elements dropped with the oldest segment */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs the segmented disk cache.
+     * <p>
+     * @param cacheAttributes
+     */
+    public SegmentedDiskCache( SegmentedDiskCacheAttributes cacheAttributes )
+    {
+        this( cacheAttributes, null );
+    }
+
+    /**
+     * Constructs the segmented disk cache. Existing segments are opened and the saved keys are
+     * loaded.
+     * <p>
+     * @param cacheAttributes
+     * @param elementSerializer used if supplied, the super's super will not set a null
+     */
+    public SegmentedDiskCache( SegmentedDiskCacheAttributes cacheAttributes, IElementSerializer elementSerializer )
+    {
+        super( cacheAttributes );
+        setElementSerializer( elementSerializer );
+
+        this.segmentedDiskCacheAttributes = cacheAttributes;
+        this.logCacheName = "Region [" + getCacheName() + "] ";
+
+        log.info( "{0}: Constructing SegmentedDiskCache with attributes {1}", logCacheName, cacheAttributes );
+
+        // Make a clean file name
+        this.fileName = getCacheName().replaceAll( "[^a-zA-Z0-9-_\\.]", "_" );
+        this.rootDirectory = cacheAttributes.getDiskPath();
+        this.keyFile = new File( rootDirectory, fileName + ".key" );
+        this.activeSegments = new AtomicReferenceArray<>( Math.max( 1, cacheAttributes.getActiveSegments() ) );
+
+        log.info( "{0}: Cache file root directory: [{1}]", logCacheName, rootDirectory );
+
+        try
+        {
+            loadSegments();
+            loadKeys();
+            // segments without any saved key are left over
+            dropSegments( new ArrayList<>( segments.values() ) );
+
+            // Initialization finished successfully, so set alive to true.
+            setAlive( true );
+            log.info( "{0}: Segmented Disk Cache is alive.", logCacheName );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure initializing for fileName: {1} and root directory: {2}",
+                    logCacheName, fileName, rootDirectory, e );
+        }
+    }
+
+    /**
+     * Opens the segment files of the region. They are all sealed, new puts go to new segments.
+     * <p>
+     * @throws IOException
+     */
+    private void loadSegments()
+        throws IOException
+    {
+        String prefix = fileName + ".";
+        File[] files = rootDirectory.listFiles(
+                ( dir, name ) -> name.startsWith( prefix ) && name.endsWith( SEGMENT_SUFFIX ) );
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+            long id;
+            try
+            {
+                id = Long.parseLong( name.substring( prefix.length(), name.length() - SEGMENT_SUFFIX.length() ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                // belongs to another region
+                continue;
+            }
+
+            if ( file.length() == 0 )
+            {
+                Files.delete( file.toPath() );
+                continue;
+            }
+
+            segments.put( Long.valueOf( id ), new DiskSegment( id, file,
+                    segmentedDiskCacheAttributes.getSegmentSizeBytes() ) );
+            nextSegmentId.accumulateAndGet( id + 1, Math::max );
+        }
+
+        log.debug( "{0}: Found {1} segments", logCacheName, segments.size() );
+    }
+
+    /**
+     * Loads the saved keys. Keys pointing to a missing segment or past its end are skipped. The
+     * key file is deleted afterwards.
+     */
+    private void loadKeys()
+    {
+        if ( !keyFile.exists() )
+        {
+            return;
+        }
+
+        try
+        {
+            ElapsedTimer timer = new ElapsedTimer();
+            long count = KeyFileFormat.read( keyFile, getElementSerializer(), DESCRIPTOR_CODEC,
+                ( K key, SegmentedDiskElementDescriptor descriptor ) -> {
+                    DiskSegment segment = segments.get( Long.valueOf( descriptor.getSegmentId() ) );
+                    if ( segment != null
+                        && descriptor.getPosition() + descriptor.getRecordLength() <= segment.length() )
+                    {
+                        keyHash.put( key, descriptor );
+                        segment.addLiveBytes( descriptor.getRecordLength() );
+                    }
+                } );
+
+            log.info( "{0}: Loaded {1} keys from [{2}] in {3}, key count: {4}",
+                    () -> logCacheName, () -> count, () -> keyFile, () -> timer.getElapsedTimeString(),
+                    () -> keyHash.size() );
+        }
+        catch ( IOException | ClassNotFoundException e )
+        {
+            log.error( "{0}: Problem loading keys from {1}", logCacheName, keyFile, e );
+            keyHash.clear();
+            segments.values().forEach( segment -> segment.addLiveBytes( -segment.getLiveBytes() ) );
+        }
+
+        try
+        {
+            Files.delete( keyFile.toPath() );
+        }
+        catch ( IOException e )
+        {
+            log.warn( "{0}: Could not delete key file {1}", logCacheName, keyFile, e );
+        }
+    }
+
+    /**
+     * Saves the keys.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     */
+    private void saveKeys()
+    {
+        try
+        {
+            log.info( "{0}: Saving keys to: {1}, key count: {2}",
+                    () -> logCacheName, () -> keyFile, () -> keyHash.size() );
+
+            if ( keyHash.isEmpty() )
+            {
+                Files.deleteIfExists( keyFile.toPath() );
+            }
+            else
+            {
+                ElapsedTimer timer = new ElapsedTimer();
+                long count = KeyFileFormat.write( keyFile, keyHash.entrySet(), getElementSerializer(),
+                        DESCRIPTOR_CODEC );
+
+                log.info( "{0}: Finished saving {1} keys in {2}.",
+                        () -> logCacheName, () -> count, () -> timer.getElapsedTimeString() );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Problem storing keys.", logCacheName, e );
+        }
+    }
+
+    /**
+     * Return the keys in this cache.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#getKeySet()
+     */
+    @Override
+    public Set<K> getKeySet()
+    {
+        return new HashSet<>( keyHash.keySet() );
+    }
+
+    /**
+     * Gets matching items from the cache.
+     * <p>
+     * @param pattern
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if there is no
+     *         data in cache matching keys
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> processGetMatching( String pattern )
+    {
+        Set<K> matchingKeys = getKeyMatcher().getMatchingKeysFromArray( pattern, getKeySet() );
+
+        return matchingKeys.stream()
+            .map( this::processGet )
+            .filter( element -> element != null )
+            .collect( Collectors.toMap(
+                    element -> element.getKey(),
+                    element -> element ) );
+    }
+
+    /**
+     * Returns the number of keys.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#getSize()
+     */
+    @Override
+    public int getSize()
+    {
+        return keyHash.size();
+    }
+
+    /**
+     * Gets the element for the key. The record is read under the shared lock, the
+     * de-serialization happens outside of it.
+     * <p>
+     * @param key
+     * @return ICacheElement or null
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#get(Object)
+     */
+    @Override
+    protected ICacheElement<K, V> processGet( K key )
+    {
+        if ( !isAlive() )
+        {
+            log.debug( "{0}: No longer alive so returning null for key = {1}", logCacheName, key );
+            return null;
+        }
+
+        byte[] data = null;
+
+        storageLock.readLock().lock();
+        try
+        {
+            SegmentedDiskElementDescriptor descriptor = keyHash.get( key );
+            if ( descriptor == null )
+            {
+                return null;
+            }
+
+            DiskSegment segment = segments.get( Long.valueOf( descriptor.getSegmentId() ) );
+            if ( segment == null )
+            {
+                log.warn( "{0}: Missing segment for key = {1}, {2}", logCacheName, key, descriptor );
+                return null;
+            }
+
+            data = segment.read( descriptor );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure getting from disk, key = {1}", logCacheName, key, e );
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+
+        if ( data != null )
+        {
+            try
+            {
+                return getElementSerializer().deSerialize( data, null );
+            }
+            catch ( IOException | ClassNotFoundException e )
+            {
+                log.error( "{0}: Failure de-serializing element, key = {1}", logCacheName, key, e );
+            }
+        }
+
+        // the record is damaged, drop it (outside of the lock, this may drop its segment)
+        processRemove( key );
+        return null;
+    }
+
+    /**
+     * Appends an element to the active segment of the current thread. A full segment is sealed
+     * and replaced by a new one. The element is serialized outside of the lock.
+     * <p>
+     * @param element
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#update(ICacheElement)
+     */
+    @Override
+    protected void processUpdate( ICacheElement<K, V> element )
+    {
+        if ( !isAlive() )
+        {
+            log.debug( "{0}: No longer alive; aborting put of key = {1}",
+                    () -> logCacheName, () -> element.getKey() );
+            return;
+        }
+
+        byte[] data;
+        try
+        {
+            data = getElementSerializer().serialize( element );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure serializing element, key: {1}", logCacheName, element.getKey(), e );
+            return;
+        }
+
+        List<DiskSegment> emptied = new ArrayList<>();
+
+        storageLock.readLock().lock();
+        try
+        {
+            int slot = (int) ( Thread.currentThread().getId() % activeSegments.length() );
+            DiskSegment segment = activeSegments.get( slot );
+            long position = segment == null ? -1 : segment.reserve( data.length );
+            while ( position < 0 )
+            {
+                segment = rollSegment( slot, segment, emptied );
+                position = segment.reserve( data.length );
+            }
+
+            SegmentedDiskElementDescriptor descriptor =
+                    new SegmentedDiskElementDescriptor( segment.getId(), position, data.length );
+            segment.addLiveBytes( descriptor.getRecordLength() );
+            try
+            {
+                segment.write( position, data );
+            }
+            catch ( IOException e )
+            {
+                release( segment, descriptor.getRecordLength(), emptied );
+                throw e;
+            }
+
+            SegmentedDiskElementDescriptor old = keyHash.put( element.getKey(), descriptor );
+            if ( old != null )
+            {
+                release( old, emptied );
+            }
+
+            log.debug( "{0}: Put to segment {1}, key: {2}, position: {3}, size: {4}",
+                    logCacheName, segment.getId(), element.getKey(), position, data.length );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure updating element, key: {1}", logCacheName, element.getKey(), e );
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+
+        dropSegments( emptied );
+        dropOldestSegments();
+    }
+
+    /**
+     * Seals the active segment of a slot and starts a new one, unless another thread has done so
+     * already.
+     * <p>
+     * This operates under the read lock obtained by the caller.
+     * <p>
+     * @param slot the slot of the writing thread
+     * @param full the segment that had no room left, or null
+     * @param emptied receives the sealed segment if nothing in it is referenced
+     * @return the new active segment of the slot
+     * @throws IOException if the segment file could not be created
+     */
+    private synchronized DiskSegment rollSegment( int slot, DiskSegment full, List<DiskSegment> emptied )
+        throws IOException
+    {
+        DiskSegment current = activeSegments.get( slot );
+        if ( current != full )
+        {
+            return current;
+        }
+
+        if ( full != null )
+        {
+            full.seal();
+            if ( full.getLiveBytes() == 0 )
+            {
+                emptied.add( full );
+            }
+        }
+
+        long id = nextSegmentId.getAndIncrement();
+        DiskSegment segment = new DiskSegment( id, new File( rootDirectory, fileName + "." + id + SEGMENT_SUFFIX ),
+                segmentedDiskCacheAttributes.getSegmentSizeBytes() );
+        segments.put( Long.valueOf( id ), segment );
+        activeSegments.set( slot, segment );
+
+        log.debug( "{0}: Started segment {1}", logCacheName, id );
+
+        return segment;
+    }
+
+    /**
+     * Returns true if the removal was successful; or false if there is nothing to remove. The
+     * records stay in their segments until the segment is dropped.
+     * <p>
+     * @param key
+     * @return true if removed anything
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#remove(Object)
+     */
+    @Override
+    protected boolean processRemove( K key )
+    {
+        if ( !isAlive() )
+        {
+            log.debug( "{0}: No longer alive so returning false for key = {1}", logCacheName, key );
+            return false;
+        }
+
+        List<DiskSegment> emptied = new ArrayList<>();
+        boolean removed;
+
+        storageLock.readLock().lock();
+        try
+        {
+            if ( key instanceof String && key.toString().endsWith( NAME_COMPONENT_DELIMITER ) )
+            {
+                String prefix = (String) key;
+                removed = removeIf( k -> k instanceof String && k.toString().startsWith( prefix ), emptied );
+            }
+            else if ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+            {
+                GroupId groupId = ( (GroupAttrName<?>) key ).groupId;
+                removed = removeIf( k -> k instanceof GroupAttrName
+                        && ( (GroupAttrName<?>) k ).groupId.equals( groupId ), emptied );
+            }
+            else
+            {
+                removed = removeKey( key, emptied );
+            }
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+
+        dropSegments( emptied );
+
+        return removed;
+    }
+
+    /**
+     * Removes all matching keys.
+     * <p>
+     * This operates under the read lock obtained by the caller.
+     * <p>
+     * @param filter selects the keys to remove
+     * @param emptied receives the sealed segments nothing is referenced in anymore
+     * @return true if anything was removed
+     */
+    private boolean removeIf( Predicate<K> filter, List<DiskSegment> emptied )
+    {
+        boolean removed = false;
+        for ( K key : keyHash.keySet() )
+        {
+            if ( filter.test( key ) )
+            {
+                removed |= removeKey( key, emptied );
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes a single key.
+     * <p>
+     * This operates under the read lock obtained by the caller.
+     * <p>
+     * @param key
+     * @param emptied receives the segment of the element if nothing in it is referenced anymore
+     * @return true if the key was removed
+     */
+    private boolean removeKey( K key, List<DiskSegment> emptied )
+    {
+        SegmentedDiskElementDescriptor descriptor = keyHash.remove( key );
+        if ( descriptor != null )
+        {
+            release( descriptor, emptied );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases the record of an element that was replaced or removed.
+     * <p>
+     * @param descriptor the descriptor of the record
+     * @param emptied receives the segment of the record if nothing in it is referenced anymore
+     */
+    private void release( SegmentedDiskElementDescriptor descriptor, List<DiskSegment> emptied )
+    {
+        DiskSegment segment = segments.get( Long.valueOf( descriptor.getSegmentId() ) );
+        if ( segment != null )
+        {
+            release( segment, descriptor.getRecordLength(), emptied );
+        }
+    }
+
+    /**
+     * Releases bytes of a segment.
+     * <p>
+     * @param segment the segment
+     * @param recordLength the length of the record released
+     * @param emptied receives the segment if it is sealed and nothing in it is referenced anymore
+     */
+    private void release( DiskSegment segment, long recordLength, List<DiskSegment> emptied )
+    {
+        if ( segment.addLiveBytes( -recordLength ) == 0 && segment.isSealed() )
+        {
+            emptied.add( segment );
+        }
+    }
+
+    /**
+     * Deletes sealed segments nothing is referenced in. This takes the write lock, so the check is
+     * repeated under it.
+     * <p>
+     * @param candidates the segments to check
+     */
+    private void dropSegments( List<DiskSegment> candidates )
+    {
+        if ( candidates.isEmpty() )
+        {
+            return;
+        }
+
+        storageLock.writeLock().lock();
+        try
+        {
+            for ( DiskSegment segment : candidates )
+            {
+                if ( segment.isSealed() && segment.getLiveBytes() == 0
+                    && segments.remove( Long.valueOf( segment.getId() ), segment ) )
+                {
+                    deleteSegment( segment );
+                }
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest sealed segments together with their elements while there are more than
+     * MaxSegments segments.
+     */
+    private void dropOldestSegments()
+    {
+        int maxSegments = segmentedDiskCacheAttributes.getMaxSegments();
+        if ( maxSegments <= 0 || segments.size() <= maxSegments )
+        {
+            return;
+        }
+
+        storageLock.writeLock().lock();
+        try
+        {
+            while ( segments.size() > maxSegments )
+            {
+                DiskSegment oldest = segments.values().stream()
+                    .filter( DiskSegment::isSealed )
+                    .findFirst()
+                    .orElse( null );
+                if ( oldest == null )
+                {
+                    break;
+                }
+
+                long id = oldest.getId();
+                int sizeBefore = keyHash.size();
+                keyHash.values().removeIf( descriptor -> descriptor.getSegmentId() == id );
+                evictionCount.addAndGet( sizeBefore - keyHash.size() );
+
+                log.debug( "{0}: Dropping oldest segment {1} with {2} elements",
+                        logCacheName, id, sizeBefore - keyHash.size() );
+
+                segments.remove( Long.valueOf( id ) );
+                deleteSegment( oldest );
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the file of a segment that is no longer in the segment map.
+     * <p>
+     * This operates under the write lock obtained by the caller.
+     * <p>
+     * @param segment the segment
+     */
+    private void deleteSegment( DiskSegment segment )
+    {
+        try
+        {
+            segment.delete();
+            droppedSegmentCount.incrementAndGet();
+            log.debug( "{0}: Deleted segment {1}", logCacheName, segment.getId() );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure deleting segment {1}", logCacheName, segment.getFile(), e );
+        }
+    }
+
+    /**
+     * Drops all elements and deletes all segments.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache#removeAll()
+     */
+    @Override
+    protected void processRemoveAll()
+    {
+        reset();
+    }
+
+    /**
+     * Deletes all segments and the key file.
+     */
+    private void reset()
+    {
+        log.info( "{0}: Resetting cache", logCacheName );
+
+        storageLock.writeLock().lock();
+        try
+        {
+            keyHash.clear();
+            for ( int i = 0; i < activeSegments.length(); i++ )
+            {
+                activeSegments.set( i, null );
+            }
+            for ( DiskSegment segment : segments.values() )
+            {
+                deleteSegment( segment );
+            }
+            segments.clear();
+            Files.deleteIfExists( keyFile.toPath() );
+        }
+        catch ( IOException e )
+        {
+            log.error( "{0}: Failure resetting state", logCacheName, e );
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the keys and closes the segment files.
+     */
+    @Override
+    public void processDispose()
+    {
+        if ( !isAlive() )
+        {
+            log.error( "{0}: Not alive and dispose was called, filename: {1}", logCacheName, fileName );
+            return;
+        }
+
+        storageLock.writeLock().lock();
+        try
+        {
+            // Prevents any interaction with the cache while we're shutting down.
+            setAlive( false );
+            saveKeys();
+
+            log.debug( "{0}: Closing files, base filename: {1}", logCacheName, fileName );
+            for ( DiskSegment segment : segments.values() )
+            {
+                try
+                {
+                    segment.close();
+                }
+                catch ( IOException e )
+                {
+                    log.error( "{0}: Failure closing segment {1}", logCacheName, segment.getFile(), e );
+                }
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        log.info( "{0}: Shutdown complete.", logCacheName );
+    }
+
+    /**
+     * Returns the attributes.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.AuxiliaryCache#getAuxiliaryCacheAttributes()
+     */
+    @Override
+    public AuxiliaryCacheAttributes getAuxiliaryCacheAttributes()
+    {
+        return this.segmentedDiskCacheAttributes;
+    }
+
+    /**
+     * Returns info about the segmented disk cache.
+     * <p>
+     * @see org.apache.commons.jcs3.auxiliary.AuxiliaryCache#getStatistics()
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Segmented Disk Cache" );
+
+        List<IStatElement<?>> elems = new ArrayList<>();
+
+        elems.add( new StatElement<>( "Is Alive", Boolean.valueOf( isAlive() ) ) );
+        elems.add( new StatElement<>( "Key Map Size", Integer.valueOf( getSize() ) ) );
+        elems.add( new StatElement<>( "Segment Count", Integer.valueOf( segments.size() ) ) );
+        elems.add( new StatElement<>( "Data Size Bytes",
+                Long.valueOf( segments.values().stream().mapToLong( DiskSegment::length ).sum() ) ) );
+        elems.add( new StatElement<>( "Live Bytes",
+                Long.valueOf( segments.values().stream().mapToLong( DiskSegment::getLiveBytes ).sum() ) ) );
+        elems.add( new StatElement<>( "Dropped Segments", Long.valueOf( droppedSegmentCount.get() ) ) );
+        elems.add( new StatElement<>( "Eviction Count", Long.valueOf( evictionCount.get() ) ) );
+
+        // get the stats from the super too
+        IStats sStats = super.getStatistics();
+        elems.addAll( sStats.getStatElements() );
+
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * This is used by the event logging.
+     * <p>
+     * @return the location of the segment files.
+     */
+    @Override
+    protected String getDiskLocation()
+    {
+        return rootDirectory.getAbsolutePath();
+    }
+}
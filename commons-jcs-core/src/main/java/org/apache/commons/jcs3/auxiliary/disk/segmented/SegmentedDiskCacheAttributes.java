@@ -0,0 +1,129 @@
+package org.apache.commons.jcs3.auxiliary.disk.segmented;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCacheAttributes;
+
+/**
+ * Configuration class for the Segmented Disk Cache.
+ * <p>
+ * The data of a region is split into segment files of SegmentSizeBytes. Up to ActiveSegments
+ * segments are appended to at the same time. Once there are more than MaxSegments segment files,
+ * the oldest is dropped together with its elements.
+ */
+public class SegmentedDiskCacheAttributes
+    extends AbstractDiskCacheAttributes
+{
+    /** Don't change. */
+    private static final long serialVersionUID = -3257620357126520441L;
+
+    /** Default size of a segment file, 64 MB */
+    private static final long DEFAULT_SEGMENT_SIZE_BYTES = 64L * 1024 * 1024;
+
+    /** Default number of segments appended to at the same time */
+    private static final int DEFAULT_ACTIVE_SEGMENTS = 4;
+
+    /** By default the number of segments is not limited */
+    private static final int DEFAULT_MAX_SEGMENTS = -1;
+
+    /** The size at which a segment is closed for appends. */
+    private long segmentSizeBytes = DEFAULT_SEGMENT_SIZE_BYTES;
+
+    /** The number of segments appended to at the same time. */
+    private int activeSegments = DEFAULT_ACTIVE_SEGMENTS;
+
+    /** The maximum number of segment files, -1 for no limit. */
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+
+    /**
+     * @return Returns the segmentSizeBytes.
+     */
+    public long getSegmentSizeBytes()
+    {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * The size at which a segment is closed for appends and a new segment file is started. An
+     * element larger than this gets a segment of its own.
+     * <p>
+     * @param segmentSizeBytes The segmentSizeBytes to set.
+     */
+    public void setSegmentSizeBytes( long segmentSizeBytes )
+    {
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    /**
+     * @return Returns the activeSegments.
+     */
+    public int getActiveSegments()
+    {
+        return activeSegments;
+    }
+
+    /**
+     * The number of segments appended to at the same time. Each writer thread appends to one of
+     * them, so this only pays off with a pooled event queue.
+     * <p>
+     * @param activeSegments The activeSegments to set.
+     */
+    public void setActiveSegments( int activeSegments )
+    {
+        this.activeSegments = activeSegments;
+    }
+
+    /**
+     * @return Returns the maxSegments.
+     */
+    public int getMaxSegments()
+    {
+        return maxSegments;
+    }
+
+    /**
+     * The maximum number of segment files. Once there are more, the oldest segment is dropped
+     * together with the elements stored in it. -1 means no limit.
+     * <p>
+     * @param maxSegments The maxSegments to set.
+     */
+    public void setMaxSegments( int maxSegments )
+    {
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Write out the values for debugging purposes.
+     * <p>
+     * @return String
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        str.append( "\nSegmentedDiskCacheAttributes " );
+        str.append( "\n DiskPath [" + this.getDiskPath() + "]" );
+        str.append( "\n SegmentSizeBytes [" + this.getSegmentSizeBytes() + "]" );
+        str.append( "\n ActiveSegments [" + this.getActiveSegments() + "]" );
+        str.append( "\n MaxSegments [" + this.getMaxSegments() + "]" );
+        str.append( "\n MaxPurgatorySize [" + this.getMaxPurgatorySize() + "]" );
+        return str.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package org.apache.commons.jcs3.auxiliary.disk.segmented;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * The position of an element in the segment files.
+ * <p>
+ * Descriptors are never changed. An update of an element appends a new record and replaces the
+ * descriptor.
+ */
+public class SegmentedDiskElementDescriptor
+{
+    /** The id of the segment the element is stored in. */
+    private final long segmentId;
+
+    /** The position of the record in the segment. */
+    private final long position;
+
+    /** The length of the serialized element. */
+    private final int length;
+
+    /**
+     * Constructs a descriptor.
+     * <p>
+     * @param segmentId the segment
+     * @param position the position in the segment
+     * @param length the length of the data
+     */
+    public SegmentedDiskElementDescriptor( long segmentId, long position, int length )
+    {
+        this.segmentId = segmentId;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * @return the id of the segment
+     */
+    public long getSegmentId()
+    {
+        return segmentId;
+    }
+
+    /**
+     * @return the position of the record in the segment
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * @return the length of the serialized element
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return the space taken on disk, including the record header
+     */
+    public long getRecordLength()
+    {
+        return DiskSegment.HEADER_SIZE_BYTES + length;
+    }
+
+    /**
+     * @return debug string
+     */
+    @Override
+    public String toString()
+    {
+        return "[SDED: segment = " + segmentId + " pos = " + position + " len = " + length + "]";
+    }
+}
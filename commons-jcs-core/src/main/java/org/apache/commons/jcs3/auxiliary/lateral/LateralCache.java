@@ -21,6 +21,7 @@ package org.apache.commons.jcs3.auxiliary.lateral;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,12 +32,14 @@ import org.apache.commons.jcs3.engine.CacheInfo;
 import org.apache.commons.jcs3.engine.CacheStatus;
 import org.apache.commons.jcs3.engine.ZombieCacheServiceNonLocal;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElementSerialized;
 import org.apache.commons.jcs3.engine.behavior.ICacheServiceNonLocal;
 import org.apache.commons.jcs3.engine.behavior.IZombie;
 import org.apache.commons.jcs3.engine.stats.Stats;
 import org.apache.commons.jcs3.engine.stats.behavior.IStats;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.serialization.SerializationConversionUtil;
 
 /**
  * Lateral distributor. Returns null on get by default. Net search not implemented.
@@ -113,6 +116,9 @@ public class LateralCache<K, V>
     /**
      * The performance costs are too great. It is not recommended that you enable lateral gets.
      * <p>
+     * A peer that finds the element on disk sends the value in its serialized form, which is
+     * de-serialized here with the element serializer of this auxiliary.
+     * <p>
      * @param key
      * @return ICacheElement&lt;K, V&gt; or null
      * @throws IOException
@@ -130,6 +136,11 @@ public class LateralCache<K, V>
         try
         {
             obj = lateralCacheService.get( cacheName, key );
+            if ( obj instanceof ICacheElementSerialized )
+            {
+                obj = SerializationConversionUtil.getDeSerializedCacheElement(
+                        (ICacheElementSerialized<K, V>) obj, getElementSerializer() );
+            }
         }
         catch ( Exception e )
         {
@@ -165,6 +176,47 @@ public class LateralCache<K, V>
         }
     }
 
+    /**
+     * Gets all keys from the lateral service at once, so a multiplexed connection sends all gets
+     * before it waits for the responses.
+     * <p>
+     * @param keys
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if there is no
+     *         data in cache for any of these keys
+     * @throws IOException
+     */
+    @Override
+    protected Map<K, ICacheElement<K, V>> processGetMultiple( Set<K> keys )
+        throws IOException
+    {
+        if ( this.lateralCacheAttributes.getPutOnlyMode() || keys == null || keys.isEmpty() )
+        {
+            return Collections.emptyMap();
+        }
+        try
+        {
+            Map<K, ICacheElement<K, V>> elements = new HashMap<>();
+            for ( Map.Entry<K, ICacheElement<K, V>> entry :
+                lateralCacheService.getMultiple( cacheName, keys ).entrySet() )
+            {
+                ICacheElement<K, V> element = entry.getValue();
+                if ( element instanceof ICacheElementSerialized )
+                {
+                    element = SerializationConversionUtil.getDeSerializedCacheElement(
+                            (ICacheElementSerialized<K, V>) element, getElementSerializer() );
+                }
+                elements.put( entry.getKey(), element );
+            }
+            return elements;
+        }
+        catch ( Exception e )
+        {
+            log.error( e );
+            handleException( e, "Failed to getMultiple " + keys + " from " + lateralCacheAttributes.getCacheName() + "@" + lateralCacheAttributes );
+            return Collections.emptyMap();
+        }
+    }
+
     /**
      * Return the keys in this cache.
      * <p>
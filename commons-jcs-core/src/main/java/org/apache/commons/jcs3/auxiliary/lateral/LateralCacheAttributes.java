@@ -35,6 +35,12 @@ public class LateralCacheAttributes
     /** Default receive setting */
     private static final boolean DEFAULT_RECEIVE = true;
 
+    /** Default parallel get setting */
+    private static final boolean DEFAULT_PARALLEL_GET = false;
+
+    /** Default number of laterals for a parallel get, all */
+    private static final int DEFAULT_PARALLEL_GET_PEERS = 0;
+
     /** THe type of lateral */
     private String transmissionTypeName = "UDP";
 
@@ -68,6 +74,15 @@ public class LateralCacheAttributes
     /** If the primary fails, we will queue items before reconnect.  This limits the number of items that can be queued. */
     private int zombieQueueMaxSize = DEFAULT_ZOMBIE_QUEUE_MAX_SIZE;
 
+    /** Ask the laterals at once */
+    private boolean parallelGet = DEFAULT_PARALLEL_GET;
+
+    /** The number of laterals a parallel get asks */
+    private int parallelGetPeers = DEFAULT_PARALLEL_GET_PEERS;
+
+    /** The thread pool for parallel gets */
+    private String threadPoolName = "lateral_cache_client";
+
     /**
      * Sets the httpServer attribute of the LateralCacheAttributes object
      * <P>
@@ -274,6 +289,60 @@ public class LateralCacheAttributes
         return zombieQueueMaxSize;
     }
 
+    /**
+     * @param parallelGet The parallelGet to set.
+     */
+    @Override
+    public void setParallelGet( boolean parallelGet )
+    {
+        this.parallelGet = parallelGet;
+    }
+
+    /**
+     * @return Returns the parallelGet.
+     */
+    @Override
+    public boolean isParallelGet()
+    {
+        return parallelGet;
+    }
+
+    /**
+     * @param parallelGetPeers The parallelGetPeers to set.
+     */
+    @Override
+    public void setParallelGetPeers( int parallelGetPeers )
+    {
+        this.parallelGetPeers = parallelGetPeers;
+    }
+
+    /**
+     * @return Returns the parallelGetPeers.
+     */
+    @Override
+    public int getParallelGetPeers()
+    {
+        return parallelGetPeers;
+    }
+
+    /**
+     * @param name the name of the pool
+     */
+    @Override
+    public void setThreadPoolName( String name )
+    {
+        threadPoolName = name;
+    }
+
+    /**
+     * @return the name of the pool
+     */
+    @Override
+    public String getThreadPoolName()
+    {
+        return threadPoolName;
+    }
+
     /**
      * @return debug string.
      */
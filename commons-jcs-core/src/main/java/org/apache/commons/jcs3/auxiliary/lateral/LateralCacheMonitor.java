@@ -120,7 +120,7 @@ public class LateralCacheMonitor extends AbstractAuxiliaryCacheMonitor
                 ITCPLateralCacheAttributes lca = (ITCPLateralCacheAttributes)c.getAuxiliaryCacheAttributes();
 
                 // Get service instance
-                ICacheServiceNonLocal<Object, Object> cacheService = factory.getCSNLInstance(lca);
+                ICacheServiceNonLocal<Object, Object> cacheService = factory.getCSNLInstance(lca, c.getElementSerializer());
 
                 // If we can't fix them, just skip and re-try in the
                 // next round.
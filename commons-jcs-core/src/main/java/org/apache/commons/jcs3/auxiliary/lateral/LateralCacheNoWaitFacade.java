@@ -28,12 +28,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.apache.commons.jcs3.auxiliary.AbstractAuxiliaryCache;
 import org.apache.commons.jcs3.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs3.auxiliary.lateral.behavior.ILateralCacheAttributes;
 import org.apache.commons.jcs3.auxiliary.lateral.behavior.ILateralCacheListener;
+import org.apache.commons.jcs3.auxiliary.lateral.socket.tcp.behavior.ITCPLateralCacheAttributes;
 import org.apache.commons.jcs3.engine.CacheStatus;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
 import org.apache.commons.jcs3.engine.stats.StatElement;
@@ -42,6 +51,9 @@ import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs3.engine.stats.behavior.IStats;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.threadpool.PoolConfiguration;
+import org.apache.commons.jcs3.utils.threadpool.PoolConfiguration.WhenBlockedPolicy;
+import org.apache.commons.jcs3.utils.threadpool.ThreadPoolManager;
 
 /**
  * Used to provide access to multiple services under nowait protection. Composite factory should
@@ -55,6 +67,9 @@ public class LateralCacheNoWaitFacade<K, V>
     /** The logger */
     private static final Log log = LogManager.getLog( LateralCacheNoWaitFacade.class );
 
+    /** Threads per lateral of a parallel get pool that is not configured, for concurrent gets */
+    private static final int PARALLEL_GET_THREADS_PER_LATERAL = 4;
+
     /** The queuing facade to the client. */
     public LateralCacheNoWait<K, V>[] noWaits;
 
@@ -193,7 +208,8 @@ public class LateralCacheNoWaitFacade<K, V>
     }
 
     /**
-     * Synchronously reads from the lateral cache.
+     * Synchronously reads from the lateral cache. If parallel gets are configured, the laterals are
+     * asked at once.
      * <p>
      * @param key
      * @return ICacheElement
@@ -201,6 +217,11 @@ public class LateralCacheNoWaitFacade<K, V>
     @Override
     public ICacheElement<K, V> get( K key )
     {
+        if ( lateralCacheAttributes.isParallelGet() && noWaits.length > 1 )
+        {
+            return getParallel( key );
+        }
+
         Optional<ICacheElement<K, V>> optional = Arrays.stream(noWaits)
             .map(nw -> nw.get( key ))
             .filter(obj -> obj != null)
@@ -214,6 +235,148 @@ public class LateralCacheNoWaitFacade<K, V>
         return null;
     }
 
+    /**
+     * Asks the laterals chosen by selectNoWaits at once and returns the first element found. The
+     * gets that have not started yet are cancelled. Running gets are not interrupted, as that
+     * would break their connections, and their answers are dropped.
+     * <p>
+     * If the pool rejects a get, the laterals not asked yet are asked one after the other. For TCP
+     * laterals, the wait is bounded by the request timeout, or else the socket timeout.
+     * <p>
+     * @param key
+     * @return ICacheElement, or null if no lateral has it
+     */
+    private ICacheElement<K, V> getParallel( K key )
+    {
+        List<LateralCacheNoWait<K, V>> selected = selectNoWaits( key );
+        ExecutorService pool = getParallelGetPool();
+
+        CompletableFuture<ICacheElement<K, V>> first = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger( selected.size() );
+        List<Future<?>> gets = new ArrayList<>( selected.size() );
+        try
+        {
+            for (LateralCacheNoWait<K, V> nw : selected)
+            {
+                Runnable get = () -> {
+                    ICacheElement<K, V> element = null;
+                    try
+                    {
+                        element = nw.get( key );
+                    }
+                    finally
+                    {
+                        if ( element != null )
+                        {
+                            first.complete( element );
+                        }
+                        if ( remaining.decrementAndGet() == 0 )
+                        {
+                            first.complete( null );
+                        }
+                    }
+                };
+
+                if ( first.isDone() )
+                {
+                    break;
+                }
+                try
+                {
+                    gets.add( pool.submit( get ) );
+                }
+                catch ( RejectedExecutionException e )
+                {
+                    log.debug( "Pool {0} is busy, getting [{1}] from {2} in this thread",
+                            lateralCacheAttributes.getThreadPoolName(), key, nw );
+                    get.run();
+                }
+            }
+
+            long timeout = getParallelGetTimeoutMillis();
+            return timeout > 0 ? first.get( timeout, TimeUnit.MILLISECONDS ) : first.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch ( TimeoutException e )
+        {
+            log.warn( "No lateral of {0} answered the get of [{1}] in time", cacheName, key );
+            return null;
+        }
+        catch ( ExecutionException e )
+        {
+            log.error( "Failed to get [{0}] from the laterals of {1}", key, cacheName, e );
+            return null;
+        }
+        finally
+        {
+            gets.forEach( get -> get.cancel( false ) );
+        }
+    }
+
+    /**
+     * Gets the pool of the parallel gets. If it is not configured, it gets enough threads for a few
+     * concurrent gets to ask all laterals at once, as the threads of a pool only grow past its
+     * start up size when its queue is full.
+     * <p>
+     * @return the pool named by the threadPoolName attribute
+     */
+    private ExecutorService getParallelGetPool()
+    {
+        int threads = Math.max( Runtime.getRuntime().availableProcessors(),
+                PARALLEL_GET_THREADS_PER_LATERAL * noWaits.length );
+        PoolConfiguration defaults = new PoolConfiguration();
+        defaults.setUseBoundary( false );
+        defaults.setStartUpSize( threads );
+        defaults.setMinimumPoolSize( threads );
+        defaults.setMaximumPoolSize( threads );
+        defaults.setWhenBlockedPolicy( WhenBlockedPolicy.ABORT );
+        return ThreadPoolManager.getInstance()
+                .getExecutorService( lateralCacheAttributes.getThreadPoolName(), defaults );
+    }
+
+    /**
+     * @return how long a parallel get waits for the laterals, 0 for no limit
+     */
+    private long getParallelGetTimeoutMillis()
+    {
+        if ( lateralCacheAttributes instanceof ITCPLateralCacheAttributes )
+        {
+            ITCPLateralCacheAttributes tcpAttributes = (ITCPLateralCacheAttributes) lateralCacheAttributes;
+            return tcpAttributes.getRequestTimeoutMillis() > 0
+                    ? tcpAttributes.getRequestTimeoutMillis() : tcpAttributes.getSocketTimeOut();
+        }
+        return 0;
+    }
+
+    /**
+     * Chooses the laterals a parallel get asks. If parallelGetPeers is set, that many laterals are
+     * taken, starting at a position given by the hash code of the key.
+     * <p>
+     * @param key
+     * @return the laterals to ask
+     */
+    protected List<LateralCacheNoWait<K, V>> selectNoWaits( K key )
+    {
+        LateralCacheNoWait<K, V>[] all = noWaits;
+        int peers = lateralCacheAttributes.getParallelGetPeers();
+        if ( peers <= 0 || peers >= all.length )
+        {
+            return Arrays.asList( all );
+        }
+
+        List<LateralCacheNoWait<K, V>> selected = new ArrayList<>( peers );
+        int start = ( key.hashCode() & Integer.MAX_VALUE ) % all.length;
+        for ( int i = 0; i < peers; i++ )
+        {
+            selected.add( all[( start + i ) % all.length] );
+        }
+        return selected;
+    }
+
     /**
      * Gets multiple items from the cache based on the given set of keys.
      * <p>
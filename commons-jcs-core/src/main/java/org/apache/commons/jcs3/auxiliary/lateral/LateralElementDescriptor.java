@@ -51,6 +51,11 @@ public class LateralElementDescriptor<K, V>
      */
     public int valHashCode = -1;
 
+    /**
+     * Matches a get with its response on connections that have many gets in flight.
+     */
+    public long requestId = 0;
+
     /** Constructor for the LateralElementDescriptor object */
     public LateralElementDescriptor()
     {
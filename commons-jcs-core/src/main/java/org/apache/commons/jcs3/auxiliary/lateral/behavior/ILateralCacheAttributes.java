@@ -197,4 +197,49 @@ public interface ILateralCacheAttributes
      * @return Returns the zombieQueueMaxSize.
      */
     int getZombieQueueMaxSize();
+
+    /**
+     * Whether the facade asks its laterals for an element at once, instead of one after the other.
+     * The first element found is returned.
+     * <p>
+     * @param parallelGet The parallelGet to set.
+     */
+    void setParallelGet( boolean parallelGet );
+
+    /**
+     * @return Returns the parallelGet.
+     */
+    boolean isParallelGet();
+
+    /**
+     * The number of laterals a parallel get asks, chosen by the hash code of the key. 0 asks all
+     * of them.
+     * <p>
+     * @param parallelGetPeers The parallelGetPeers to set.
+     */
+    void setParallelGetPeers( int parallelGetPeers );
+
+    /**
+     * @return Returns the parallelGetPeers.
+     */
+    int getParallelGetPeers();
+
+    /**
+     * The thread pool that runs the parallel gets. It should have a thread for each lateral a get
+     * asks, or the gets wait for each other. If the pool is not configured with
+     * thread_pool.&lt;name&gt;.* properties, it gets four threads per lateral of the first facade
+     * that uses it, and at least one per processor. A configured pool should set startUpSize and
+     * maximumPoolSize to the number of laterals times the number of concurrent gets, as the pool
+     * only grows past its start up size when its queue is full.
+     * <p>
+     * The default name is "lateral_cache_client"
+     * <p>
+     * @param name the name of the pool
+     */
+    void setThreadPoolName( String name );
+
+    /**
+     * @return the name of the pool
+     */
+    String getThreadPoolName();
 }
@@ -45,6 +45,7 @@ import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
 import org.apache.commons.jcs3.utils.discovery.UDPDiscoveryManager;
 import org.apache.commons.jcs3.utils.discovery.UDPDiscoveryService;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
 
 /**
  * Constructs a LateralCacheNoWaitFacade for the given configuration. Each lateral service / local
@@ -108,13 +109,13 @@ public class LateralTCPCacheFactory
 
                 LateralCacheNoWait<K, V> lateralNoWait = createCacheNoWait(lacC, cacheEventLogger, elementSerializer);
 
-                addListenerIfNeeded( lacC, cacheMgr );
+                addListenerIfNeeded( lacC, cacheMgr, elementSerializer );
                 monitor.addCache(lateralNoWait);
                 noWaits.add( lateralNoWait );
             }
         }
 
-        ILateralCacheListener<K, V> listener = createListener( lac, cacheMgr );
+        ILateralCacheListener<K, V> listener = createListener( lac, cacheMgr, elementSerializer );
 
         // create the no wait facade.
         @SuppressWarnings("unchecked") // No generic arrays in java
@@ -131,7 +132,7 @@ public class LateralTCPCacheFactory
     protected <K, V> LateralCacheNoWait<K, V> createCacheNoWait( ITCPLateralCacheAttributes lca,
             ICacheEventLogger cacheEventLogger, IElementSerializer elementSerializer )
     {
-        ICacheServiceNonLocal<K, V> lateralService = getCSNLInstance(lca);
+        ICacheServiceNonLocal<K, V> lateralService = getCSNLInstance(lca, elementSerializer);
 
         LateralCache<K, V> cache = new LateralCache<>( lca, lateralService, this.monitor );
         cache.setCacheEventLogger( cacheEventLogger );
@@ -212,11 +213,26 @@ public class LateralTCPCacheFactory
      *
      * @return ICacheServiceNonLocal&lt;K, V&gt;
      */
+    public <K, V> ICacheServiceNonLocal<K, V> getCSNLInstance( ITCPLateralCacheAttributes lca )
+    {
+        return getCSNLInstance( lca, new StandardSerializer() );
+    }
+
+    /**
+     * Returns an instance of the cache service. Regions with different element serializers get
+     * their own service, and so their own connection, to the same server.
+     * <p>
+     * @param lca configuration for the creation of a new service instance
+     * @param elementSerializer writes keys and values with the binary message protocol
+     *
+     * @return ICacheServiceNonLocal&lt;K, V&gt;
+     */
     // Need to cast because of common map for all cache services
     @SuppressWarnings("unchecked")
-    public <K, V> ICacheServiceNonLocal<K, V> getCSNLInstance( ITCPLateralCacheAttributes lca )
+    public <K, V> ICacheServiceNonLocal<K, V> getCSNLInstance( ITCPLateralCacheAttributes lca,
+            IElementSerializer elementSerializer )
     {
-        String key = lca.getTcpServer();
+        String key = lca.getTcpServer() + "#" + elementSerializer.getClass().getName();
 
         csnlInstances.computeIfPresent(key, (name, service) -> {
             // If service creation did not succeed last time, force retry
@@ -239,7 +255,7 @@ public class LateralTCPCacheFactory
                     {
                         log.info( "Creating TCP service, lca = {0}", lca );
 
-                        return new LateralTCPService<>( lca );
+                        return new LateralTCPService<>( lca, elementSerializer );
                     }
                     catch ( IOException ex )
                     {
@@ -288,8 +304,10 @@ public class LateralTCPCacheFactory
      * <p>
      * @param iaca cache configuration attributes
      * @param cacheMgr the composite cache manager
+     * @param elementSerializer reads keys and values with the binary message protocol
      */
-    private void addListenerIfNeeded( ITCPLateralCacheAttributes iaca, ICompositeCacheManager cacheMgr )
+    private void addListenerIfNeeded( ITCPLateralCacheAttributes iaca, ICompositeCacheManager cacheMgr,
+            IElementSerializer elementSerializer )
     {
         // don't create a listener if we are not receiving.
         if ( iaca.isReceive() )
@@ -297,7 +315,7 @@ public class LateralTCPCacheFactory
             try
             {
                 addLateralCacheListener( iaca.getCacheName(),
-                        LateralTCPListener.getInstance( iaca, cacheMgr ) );
+                        LateralTCPListener.getInstance( iaca, cacheMgr, elementSerializer ) );
             }
             catch ( IOException ioe )
             {
@@ -334,11 +352,12 @@ public class LateralTCPCacheFactory
      * <p>
      * @param attr  ITCPLateralCacheAttributes
      * @param cacheMgr
+     * @param elementSerializer reads keys and values with the binary message protocol
      *
      * @return the listener if created, else null
      */
     private <K, V> ILateralCacheListener<K, V> createListener( ITCPLateralCacheAttributes attr,
-            ICompositeCacheManager cacheMgr )
+            ICompositeCacheManager cacheMgr, IElementSerializer elementSerializer )
     {
         ILateralCacheListener<K, V> listener = null;
 
@@ -348,7 +367,7 @@ public class LateralTCPCacheFactory
             log.info( "Getting listener for {0}", attr );
 
             // make a listener. if one doesn't exist
-            listener = LateralTCPListener.getInstance( attr, cacheMgr );
+            listener = LateralTCPListener.getInstance( attr, cacheMgr, elementSerializer );
 
             // register for shutdown notification
             cacheMgr.registerShutdownObserver( (IShutdownObserver) listener );
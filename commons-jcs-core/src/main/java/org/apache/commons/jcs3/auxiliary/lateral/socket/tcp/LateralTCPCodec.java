@@ -0,0 +1,703 @@
+package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jcs3.auxiliary.lateral.LateralCommand;
+import org.apache.commons.jcs3.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CacheElementSerialized;
+import org.apache.commons.jcs3.engine.ElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs3.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+
+/**
+ * Turns commands and responses into the content of messages, for one connection. Version 1 uses
+ * Java serialization. Version 2 is a binary format:
+ * <ul>
+ * <li>a command is the command byte, the requester id, the value hash code, the region and the
+ * element</li>
+ * <li>the region is a number. The first time a region is written on the connection, the number is
+ * followed by the name.</li>
+ * <li>keys and values are written by the element serializer. Values that are already serialized are
+ * written as they are.</li>
+ * <li>element attributes are written field by field.</li>
+ * </ul>
+ * Version 3 adds the request id of the LateralElementDescriptor to gets, and starts each response
+ * with the id of its get, so the sender can have many gets in flight on one connection.
+ * <p>
+ * Anything else, such as other element or attribute classes, is written with Java serialization.
+ * Both sides of a connection must use the same element serializer.
+ * <p>
+ * A codec keeps the regions seen on its connection, so it must not be shared between connections.
+ * Commands and responses have their own region numbers, so writing and reading may run in different
+ * threads.
+ */
+public class LateralTCPCodec
+{
+    /** No element */
+    private static final byte ELEMENT_NONE = 0;
+
+    /** A CacheElement */
+    private static final byte ELEMENT_PLAIN = 1;
+
+    /** An element with a serialized value */
+    private static final byte ELEMENT_SERIALIZED = 2;
+
+    /** Any other element, written with Java serialization */
+    private static final byte ELEMENT_OBJECT = 3;
+
+    /** A null response */
+    private static final byte RESPONSE_NULL = 0;
+
+    /** A response with one element */
+    private static final byte RESPONSE_ELEMENT = 1;
+
+    /** A response with a map of elements by key */
+    private static final byte RESPONSE_ELEMENTS = 2;
+
+    /** A response with a set of keys */
+    private static final byte RESPONSE_KEYS = 3;
+
+    /** Any other response, written with Java serialization */
+    private static final byte RESPONSE_OBJECT = 4;
+
+    /** Flags of the attributes */
+    private static final int ATTR_PRESENT = 1;
+    private static final int ATTR_OBJECT = 1 << 1;
+    private static final int ATTR_SPOOL = 1 << 2;
+    private static final int ATTR_LATERAL = 1 << 3;
+    private static final int ATTR_REMOTE = 1 << 4;
+    private static final int ATTR_ETERNAL = 1 << 5;
+
+    /** The commands by their number */
+    private static final LateralCommand[] COMMANDS = LateralCommand.values();
+
+    /** The protocol version of the connection */
+    private final byte version;
+
+    /** Writes keys and values */
+    private final IElementSerializer elementSerializer;
+
+    /** The numbers of the regions this codec wrote commands for */
+    private final Map<String, Integer> commandRegionsOut = new HashMap<>();
+
+    /** The regions of the commands this codec read, by number */
+    private final List<String> commandRegionsIn = new ArrayList<>();
+
+    /** The numbers of the regions this codec wrote responses for */
+    private final Map<String, Integer> responseRegionsOut = new HashMap<>();
+
+    /** The regions of the responses this codec read, by number */
+    private final List<String> responseRegionsIn = new ArrayList<>();
+
+    /**
+     * @param version the protocol version of the connection
+     * @param elementSerializer writes keys and values
+     */
+    public LateralTCPCodec( byte version, IElementSerializer elementSerializer )
+    {
+        this.version = version;
+        this.elementSerializer = elementSerializer;
+    }
+
+    /**
+     * @return the protocol version of the connection
+     */
+    public byte getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return true if the binary format is used
+     */
+    private boolean isBinary()
+    {
+        return version >= LateralTCPProtocol.VERSION_BINARY;
+    }
+
+    /**
+     * @return true if gets and responses carry a request id
+     */
+    public boolean isMultiplexed()
+    {
+        return version >= LateralTCPProtocol.VERSION_MULTIPLEXED;
+    }
+
+    /**
+     * @param led the command
+     * @return the content of the message
+     * @throws IOException
+     */
+    public byte[] encodeCommand( LateralElementDescriptor<?, ?> led )
+        throws IOException
+    {
+        if ( !isBinary() )
+        {
+            return LateralTCPProtocol.serialize( led );
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 128 );
+        DataOutputStream out = new DataOutputStream( baos );
+        int regionCount = commandRegionsOut.size();
+        try
+        {
+            out.writeByte( led.command.ordinal() );
+            out.writeLong( led.requesterId );
+            out.writeInt( led.valHashCode );
+            if ( isMultiplexed() && LateralTCPProtocol.expectsResponse( led.command ) )
+            {
+                out.writeLong( led.requestId );
+            }
+            writeElement( out, led.ce, commandRegionsOut );
+        }
+        catch ( IOException e )
+        {
+            forgetRegions( commandRegionsOut, regionCount );
+            throw e;
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @param payload the content of the message
+     * @return the command
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public <K, V> LateralElementDescriptor<K, V> decodeCommand( byte[] payload )
+        throws IOException, ClassNotFoundException
+    {
+        if ( !isBinary() )
+        {
+            return LateralTCPProtocol.deSerialize( payload );
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( payload ) );
+        int command = in.readUnsignedByte();
+        if ( command >= COMMANDS.length )
+        {
+            throw new StreamCorruptedException( "Unknown command " + command );
+        }
+        LateralElementDescriptor<K, V> led = new LateralElementDescriptor<>();
+        led.command = COMMANDS[command];
+        led.requesterId = in.readLong();
+        led.valHashCode = in.readInt();
+        if ( isMultiplexed() && LateralTCPProtocol.expectsResponse( led.command ) )
+        {
+            led.requestId = in.readLong();
+        }
+        led.ce = readElement( in, commandRegionsIn );
+        return led;
+    }
+
+    /**
+     * @param requestId the request id of the get, only written if the connection is multiplexed
+     * @param response the response to a get, may be null
+     * @return the content of the message
+     * @throws IOException
+     */
+    public byte[] encodeResponse( long requestId, Object response )
+        throws IOException
+    {
+        if ( !isBinary() )
+        {
+            return LateralTCPProtocol.serialize( response );
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 128 );
+        DataOutputStream out = new DataOutputStream( baos );
+        int regionCount = responseRegionsOut.size();
+        try
+        {
+            if ( isMultiplexed() )
+            {
+                out.writeLong( requestId );
+            }
+            writeResponse( out, response );
+        }
+        catch ( IOException e )
+        {
+            forgetRegions( responseRegionsOut, regionCount );
+            throw e;
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @param out
+     * @param response the response to a get, may be null
+     * @throws IOException
+     */
+    private void writeResponse( DataOutputStream out, Object response )
+        throws IOException
+    {
+        if ( response == null )
+        {
+            out.writeByte( RESPONSE_NULL );
+        }
+        else if ( response instanceof ICacheElement )
+        {
+            out.writeByte( RESPONSE_ELEMENT );
+            writeElement( out, (ICacheElement<?, ?>) response, responseRegionsOut );
+        }
+        else if ( response instanceof Map )
+        {
+            Map<?, ?> elements = (Map<?, ?>) response;
+            out.writeByte( RESPONSE_ELEMENTS );
+            writeVarInt( out, elements.size() );
+            for ( Object element : elements.values() )
+            {
+                writeElement( out, (ICacheElement<?, ?>) element, responseRegionsOut );
+            }
+        }
+        else if ( response instanceof Set )
+        {
+            Set<?> keys = (Set<?>) response;
+            out.writeByte( RESPONSE_KEYS );
+            writeVarInt( out, keys.size() );
+            for ( Object key : keys )
+            {
+                writeBytes( out, elementSerializer.serialize( key ) );
+            }
+        }
+        else
+        {
+            out.writeByte( RESPONSE_OBJECT );
+            writeBytes( out, LateralTCPProtocol.serialize( response ) );
+        }
+    }
+
+    /**
+     * Drops the regions numbered while writing a message that could not be written, as the peer
+     * never sees their names.
+     * <p>
+     * @param regions the region numbers for this direction
+     * @param regionCount the number of regions before the message
+     */
+    private static void forgetRegions( Map<String, Integer> regions, int regionCount )
+    {
+        regions.values().removeIf( id -> id.intValue() >= regionCount );
+    }
+
+    /**
+     * @param payload the content of a response message on a multiplexed connection
+     * @return the request id of the get
+     * @throws IOException
+     */
+    public long getRequestId( byte[] payload )
+        throws IOException
+    {
+        if ( payload.length < 8 )
+        {
+            throw new StreamCorruptedException( "Response without request id" );
+        }
+        return ByteBuffer.wrap( payload ).getLong();
+    }
+
+    /**
+     * @param payload the content of the message
+     * @return the response to a get, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Object decodeResponse( byte[] payload )
+        throws IOException, ClassNotFoundException
+    {
+        if ( !isBinary() )
+        {
+            return LateralTCPProtocol.deSerialize( payload );
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( payload ) );
+        if ( isMultiplexed() )
+        {
+            in.readLong();
+        }
+        byte type = in.readByte();
+        switch ( type )
+        {
+            case RESPONSE_NULL:
+                return null;
+
+            case RESPONSE_ELEMENT:
+                return readElement( in, responseRegionsIn );
+
+            case RESPONSE_ELEMENTS:
+                int elementCount = readVarInt( in );
+                Map<Object, ICacheElement<Object, Object>> elements = new HashMap<>();
+                for ( int i = 0; i < elementCount; i++ )
+                {
+                    ICacheElement<Object, Object> element = readElement( in, responseRegionsIn );
+                    elements.put( element.getKey(), element );
+                }
+                return elements;
+
+            case RESPONSE_KEYS:
+                int keyCount = readVarInt( in );
+                Set<Object> keys = new HashSet<>();
+                for ( int i = 0; i < keyCount; i++ )
+                {
+                    keys.add( elementSerializer.deSerialize( readBytes( in ), null ) );
+                }
+                return keys;
+
+            case RESPONSE_OBJECT:
+                return LateralTCPProtocol.deSerialize( readBytes( in ) );
+
+            default:
+                throw new StreamCorruptedException( "Unknown response type " + type );
+        }
+    }
+
+    /**
+     * Writes an element. The attributes are only written if the element has a value.
+     * <p>
+     * @param out
+     * @param ce the element, may be null
+     * @param regions the region numbers for this direction
+     * @throws IOException
+     */
+    private void writeElement( DataOutputStream out, ICacheElement<?, ?> ce, Map<String, Integer> regions )
+        throws IOException
+    {
+        if ( ce == null )
+        {
+            out.writeByte( ELEMENT_NONE );
+            return;
+        }
+
+        byte[] value;
+        if ( ce instanceof ICacheElementSerialized )
+        {
+            out.writeByte( ELEMENT_SERIALIZED );
+            value = ( (ICacheElementSerialized<?, ?>) ce ).getSerializedValue();
+        }
+        else if ( ce.getClass() == CacheElement.class )
+        {
+            out.writeByte( ELEMENT_PLAIN );
+            value = ce.getVal() == null ? null : elementSerializer.serialize( ce.getVal() );
+        }
+        else
+        {
+            out.writeByte( ELEMENT_OBJECT );
+            writeBytes( out, LateralTCPProtocol.serialize( ce ) );
+            return;
+        }
+
+        writeRegion( out, ce.getCacheName(), regions );
+        writeBytes( out, ce.getKey() == null ? null : elementSerializer.serialize( ce.getKey() ) );
+        writeBytes( out, value );
+        if ( value != null )
+        {
+            writeAttributes( out, ce.getElementAttributes() );
+        }
+    }
+
+    /**
+     * @param in
+     * @param regions the regions for this direction
+     * @return the element, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private <K, V> ICacheElement<K, V> readElement( DataInputStream in, List<String> regions )
+        throws IOException, ClassNotFoundException
+    {
+        byte type = in.readByte();
+        switch ( type )
+        {
+            case ELEMENT_NONE:
+                return null;
+
+            case ELEMENT_OBJECT:
+                return LateralTCPProtocol.deSerialize( readBytes( in ) );
+
+            case ELEMENT_PLAIN:
+            case ELEMENT_SERIALIZED:
+                String cacheName = readRegion( in, regions );
+                byte[] keyBytes = readBytes( in );
+                K key = keyBytes == null ? null : elementSerializer.deSerialize( keyBytes, null );
+                byte[] value = readBytes( in );
+                IElementAttributes attr = value == null ? null : readAttributes( in );
+                if ( type == ELEMENT_SERIALIZED )
+                {
+                    return new CacheElementSerialized<>( cacheName, key, value, attr );
+                }
+                V val = value == null ? null : elementSerializer.deSerialize( value, null );
+                return new CacheElement<>( cacheName, key, val, attr );
+
+            default:
+                throw new StreamCorruptedException( "Unknown element type " + type );
+        }
+    }
+
+    /**
+     * Writes the number of the region, followed by its name the first time.
+     * <p>
+     * @param out
+     * @param cacheName
+     * @param regions the region numbers for this direction
+     * @throws IOException
+     */
+    private static void writeRegion( DataOutputStream out, String cacheName, Map<String, Integer> regions )
+        throws IOException
+    {
+        Integer id = regions.get( cacheName );
+        if ( id != null )
+        {
+            writeVarInt( out, id.intValue() );
+            return;
+        }
+
+        id = Integer.valueOf( regions.size() );
+        regions.put( cacheName, id );
+        writeVarInt( out, id.intValue() );
+        out.writeUTF( cacheName );
+    }
+
+    /**
+     * @param in
+     * @param regions the regions for this direction
+     * @return the name of the region
+     * @throws IOException
+     */
+    private static String readRegion( DataInputStream in, List<String> regions )
+        throws IOException
+    {
+        int id = readVarInt( in );
+        if ( id < regions.size() )
+        {
+            return regions.get( id );
+        }
+        if ( id > regions.size() )
+        {
+            throw new StreamCorruptedException( "Unknown region " + id );
+        }
+
+        String cacheName = in.readUTF();
+        regions.add( cacheName );
+        return cacheName;
+    }
+
+    /**
+     * @param out
+     * @param attr the attributes, may be null
+     * @throws IOException
+     */
+    private static void writeAttributes( DataOutputStream out, IElementAttributes attr )
+        throws IOException
+    {
+        if ( attr == null )
+        {
+            out.writeByte( 0 );
+            return;
+        }
+        if ( attr.getClass() != ElementAttributes.class )
+        {
+            out.writeByte( ATTR_PRESENT | ATTR_OBJECT );
+            writeBytes( out, LateralTCPProtocol.serialize( attr ) );
+            return;
+        }
+
+        int flags = ATTR_PRESENT;
+        flags |= attr.getIsSpool() ? ATTR_SPOOL : 0;
+        flags |= attr.getIsLateral() ? ATTR_LATERAL : 0;
+        flags |= attr.getIsRemote() ? ATTR_REMOTE : 0;
+        flags |= attr.getIsEternal() ? ATTR_ETERNAL : 0;
+        out.writeByte( flags );
+        writeVarLong( out, attr.getMaxLife() );
+        writeVarLong( out, attr.getIdleTime() );
+        writeVarLong( out, attr.getSize() );
+        writeVarLong( out, attr.getCreateTime() );
+        writeVarLong( out, attr.getLastAccessTime() - attr.getCreateTime() );
+        writeVarLong( out, attr.getTimeFactorForMilliseconds() );
+    }
+
+    /**
+     * @param in
+     * @return the attributes, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static IElementAttributes readAttributes( DataInputStream in )
+        throws IOException, ClassNotFoundException
+    {
+        int flags = in.readUnsignedByte();
+        if ( ( flags & ATTR_PRESENT ) == 0 )
+        {
+            return null;
+        }
+        if ( ( flags & ATTR_OBJECT ) != 0 )
+        {
+            return LateralTCPProtocol.deSerialize( readBytes( in ) );
+        }
+
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsSpool( ( flags & ATTR_SPOOL ) != 0 );
+        attr.setIsLateral( ( flags & ATTR_LATERAL ) != 0 );
+        attr.setIsRemote( ( flags & ATTR_REMOTE ) != 0 );
+        attr.setIsEternal( ( flags & ATTR_ETERNAL ) != 0 );
+        attr.setMaxLife( readVarLong( in ) );
+        attr.setIdleTime( readVarLong( in ) );
+        attr.setSize( (int) readVarLong( in ) );
+        long createTime = readVarLong( in );
+        attr.setCreateTime( createTime );
+        attr.setLastAccessTime( createTime + readVarLong( in ) );
+        attr.setTimeFactorForMilliseconds( readVarLong( in ) );
+        return attr;
+    }
+
+    /**
+     * Writes the length of the bytes plus one, 0 for null, followed by the bytes.
+     * <p>
+     * @param out
+     * @param bytes may be null
+     * @throws IOException
+     */
+    private static void writeBytes( DataOutputStream out, byte[] bytes )
+        throws IOException
+    {
+        if ( bytes == null )
+        {
+            writeVarInt( out, 0 );
+            return;
+        }
+        writeVarInt( out, bytes.length + 1 );
+        out.write( bytes );
+    }
+
+    /**
+     * @param in
+     * @return the bytes, may be null
+     * @throws IOException
+     */
+    private static byte[] readBytes( DataInputStream in )
+        throws IOException
+    {
+        int length = readVarInt( in ) - 1;
+        if ( length < 0 )
+        {
+            return null;
+        }
+        LateralTCPProtocol.checkLength( length );
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return bytes;
+    }
+
+    /**
+     * Writes a positive number in 7 bit groups, the lowest first.
+     * <p>
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    private static void writeVarInt( DataOutputStream out, int value )
+        throws IOException
+    {
+        while ( ( value & ~0x7F ) != 0 )
+        {
+            out.writeByte( value & 0x7F | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( value );
+    }
+
+    /**
+     * @param in
+     * @return a number written by writeVarInt
+     * @throws IOException
+     */
+    private static int readVarInt( DataInputStream in )
+        throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            int b = in.readUnsignedByte();
+            value |= ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException( "Malformed number" );
+    }
+
+    /**
+     * Writes a number in 7 bit groups. Small negative numbers such as -1 are short as well, as
+     * the sign is moved to the lowest bit.
+     * <p>
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    private static void writeVarLong( DataOutputStream out, long value )
+        throws IOException
+    {
+        long zigZag = value << 1 ^ value >> 63;
+        while ( ( zigZag & ~0x7FL ) != 0 )
+        {
+            out.writeByte( (int) ( zigZag & 0x7F | 0x80 ) );
+            zigZag >>>= 7;
+        }
+        out.writeByte( (int) zigZag );
+    }
+
+    /**
+     * @param in
+     * @return a number written by writeVarLong
+     * @throws IOException
+     */
+    private static long readVarLong( DataInputStream in )
+        throws IOException
+    {
+        long zigZag = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            int b = in.readUnsignedByte();
+            zigZag |= (long) ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return zigZag >>> 1 ^ -( zigZag & 1 );
+            }
+        }
+        throw new StreamCorruptedException( "Malformed number" );
+    }
+}
@@ -19,10 +19,17 @@ package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
  * under the License.
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -31,6 +38,7 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -44,11 +52,13 @@ import org.apache.commons.jcs3.auxiliary.lateral.socket.tcp.behavior.ITCPLateral
 import org.apache.commons.jcs3.engine.CacheInfo;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
 import org.apache.commons.jcs3.engine.behavior.ICompositeCacheManager;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs3.engine.behavior.IShutdownObserver;
 import org.apache.commons.jcs3.engine.control.CompositeCache;
 import org.apache.commons.jcs3.io.ObjectInputStreamClassLoaderAware;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
 import org.apache.commons.jcs3.utils.threadpool.DaemonThreadFactory;
 
 /**
@@ -75,9 +85,15 @@ public class LateralTCPListener<K, V>
     /** The socket listener */
     private ListenerThread receiver;
 
+    /** The non-blocking socket listener, used instead of the receiver if selector threads are configured */
+    private LateralTCPNioReceiver<K, V> nioReceiver;
+
     /** Configuration attributes */
     private ITCPLateralCacheAttributes tcpLateralCacheAttributes;
 
+    /** Reads keys and values with the binary message protocol */
+    private IElementSerializer elementSerializer = new StandardSerializer();
+
     /** The processor. We should probably use an event queue here. */
     private ExecutorService pooledExecutor;
 
@@ -111,6 +127,24 @@ public class LateralTCPListener<K, V>
      */
     public static <K, V> LateralTCPListener<K, V>
         getInstance( ITCPLateralCacheAttributes ilca, ICompositeCacheManager cacheMgr )
+    {
+        return getInstance( ilca, cacheMgr, new StandardSerializer() );
+    }
+
+    /**
+     * Gets the instance attribute of the LateralCacheTCPListener class. There is one listener per
+     * port, which reads keys and values with the element serializer of the first region that
+     * asked for it. A region that uses another serializer is logged, as the binary message
+     * protocol cannot read its elements.
+     * <p>
+     * @param ilca ITCPLateralCacheAttributes
+     * @param cacheMgr
+     * @param elementSerializer reads keys and values with the binary message protocol
+     * @return The instance value
+     */
+    public static <K, V> LateralTCPListener<K, V>
+        getInstance( ITCPLateralCacheAttributes ilca, ICompositeCacheManager cacheMgr,
+                IElementSerializer elementSerializer )
     {
         @SuppressWarnings("unchecked") // Need to cast because of common map for all instances
         LateralTCPListener<K, V> ins = (LateralTCPListener<K, V>) instances.computeIfAbsent(
@@ -118,6 +152,7 @@ public class LateralTCPListener<K, V>
                 k -> {
                     LateralTCPListener<K, V> newIns = new LateralTCPListener<>( ilca );
 
+                    newIns.setElementSerializer( elementSerializer );
                     newIns.init();
                     newIns.setCacheManager( cacheMgr );
 
@@ -127,6 +162,15 @@ public class LateralTCPListener<K, V>
                     return newIns;
                 });
 
+        if ( ins.getElementSerializer().getClass() != elementSerializer.getClass() )
+        {
+            log.warn( "Region [{0}] uses element serializer {1}, but the listener on port {2} "
+                    + "reads the binary message protocol with {3}. All lateral regions on a "
+                    + "port must use the same serializer.", ilca.getCacheName(),
+                    elementSerializer.getClass().getName(), ilca.getTcpListenerPort(),
+                    ins.getElementSerializer().getClass().getName() );
+        }
+
         return ins;
     }
 
@@ -141,7 +185,8 @@ public class LateralTCPListener<K, V>
     }
 
     /**
-     * This starts the ListenerThread on the specified port.
+     * This starts the ListenerThread on the specified port, or the non-blocking receiver if
+     * selector threads are configured.
      */
     @Override
     public synchronized void init()
@@ -156,6 +201,26 @@ public class LateralTCPListener<K, V>
             terminated = new AtomicBoolean(false);
             shutdown = new AtomicBoolean(false);
 
+            int selectorThreads = getTcpLateralCacheAttributes().getTcpListenerSelectorThreads();
+            if ( selectorThreads > 0 )
+            {
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                if (host != null && host.length() > 0)
+                {
+                    log.info( "Listening on {0}:{1} with {2} selector threads", host, port, selectorThreads );
+                    serverChannel.bind( new InetSocketAddress( InetAddress.getByName( host ), port ) );
+                }
+                else
+                {
+                    log.info( "Listening on port {0} with {1} selector threads", port, selectorThreads );
+                    serverChannel.bind( new InetSocketAddress( port ) );
+                }
+
+                nioReceiver = new LateralTCPNioReceiver<>( this, serverChannel, selectorThreads, pooledExecutor );
+                nioReceiver.start();
+                return;
+            }
+
             ServerSocket serverSocket;
             if (host != null && host.length() > 0)
             {
@@ -282,7 +347,8 @@ public class LateralTCPListener<K, V>
     }
 
     /**
-     * Gets the cache that was injected by the lateral factory. Calls get on the cache.
+     * Gets the cache that was injected by the lateral factory. Calls localGetSerialized on the
+     * cache, so an element found on disk is sent with the serialized value read from the disk.
      * <p>
      * @param cacheName
      * @param key
@@ -302,7 +368,7 @@ public class LateralTCPListener<K, V>
 
         log.debug( "handleGet> cacheName={0}, key={1}", cacheName, key );
 
-        return getCache( cacheName ).localGet( key );
+        return getCache( cacheName ).localGetSerialized( key );
     }
 
     /**
@@ -363,6 +429,10 @@ public class LateralTCPListener<K, V>
         terminated.set(true);
         notify();
 
+        if ( nioReceiver != null )
+        {
+            nioReceiver.close();
+        }
         pooledExecutor.shutdownNow();
     }
 
@@ -440,6 +510,22 @@ public class LateralTCPListener<K, V>
         return tcpLateralCacheAttributes;
     }
 
+    /**
+     * @param elementSerializer reads keys and values with the binary message protocol
+     */
+    public void setElementSerializer( IElementSerializer elementSerializer )
+    {
+        this.elementSerializer = elementSerializer;
+    }
+
+    /**
+     * @return the serializer for keys and values with the binary message protocol
+     */
+    public IElementSerializer getElementSerializer()
+    {
+        return elementSerializer;
+    }
+
     /**
      * Processes commands from the server socket. There should be one listener for each configured
      * TCP lateral.
@@ -514,7 +600,102 @@ public class LateralTCPListener<K, V>
     }
 
     /**
-     * A Separate thread that runs when a command comes into the LateralTCPReceiver.
+     * Handles a command from another lateral, unless it was sent by this listener.
+     * <p>
+     * @param led the command
+     * @return the response to a get, may be null
+     * @throws IOException
+     */
+    protected Serializable receive( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        if ( led.requesterId == getListenerId() )
+        {
+            log.debug( "from self" );
+            return null;
+        }
+
+        log.debug( "receiving LateralElementDescriptor from another led = {0}", led );
+        return handle( led );
+    }
+
+    /**
+     * This calls the appropriate method, based on the command sent in the Lateral element
+     * descriptor.
+     * <p>
+     * @param led
+     * @return the response to a get, may be null
+     * @throws IOException
+     */
+    @SuppressWarnings("synthetic-access")
+    private Serializable handle( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        String cacheName = led.ce.getCacheName();
+        K key = led.ce.getKey();
+        Serializable obj = null;
+
+        switch (led.command)
+        {
+            case UPDATE:
+                handlePut( led.ce );
+                break;
+
+            case REMOVE:
+                // if a hashcode was given and filtering is on
+                // check to see if they are the same
+                // if so, then don't remove, otherwise issue a remove
+                if ( led.valHashCode != -1 )
+                {
+                    if ( getTcpLateralCacheAttributes().isFilterRemoveByHashCode() )
+                    {
+                        ICacheElement<K, V> test = getCache( cacheName ).localGet( key );
+                        if ( test != null )
+                        {
+                            if ( test.getVal().hashCode() == led.valHashCode )
+                            {
+                                log.debug( "Filtering detected identical hashCode [{0}], "
+                                        + "not issuing a remove for led {1}",
+                                        led.valHashCode, led );
+                                return null;
+                            }
+                            else
+                            {
+                                log.debug( "Different hashcodes, in cache [{0}] sent [{1}]",
+                                        test.getVal().hashCode(), led.valHashCode );
+                            }
+                        }
+                    }
+                }
+                handleRemove( cacheName, key );
+                break;
+
+            case REMOVEALL:
+                handleRemoveAll( cacheName );
+                break;
+
+            case GET:
+                obj = handleGet( cacheName, key );
+                break;
+
+            case GET_MATCHING:
+                obj = (Serializable) handleGetMatching( cacheName, (String) key );
+                break;
+
+            case GET_KEYSET:
+            	obj = (Serializable) handleGetKeySet(cacheName);
+                break;
+
+            default: break;
+        }
+
+        return obj;
+    }
+
+    /**
+     * A Separate thread that runs when a command comes into the LateralTCPReceiver. It reads the
+     * first bytes of the connection to find out whether the sender uses an object stream or the
+     * message protocol.
      */
     public class ConnectionHandler
         implements Runnable
@@ -522,47 +703,55 @@ public class LateralTCPListener<K, V>
         /** The socket connection, passed in via constructor */
         private final Socket socket;
 
+        /** Bytes already read from the socket */
+        private final byte[] prefix;
+
         /**
          * Construct for a given socket
          * @param socket
          */
         public ConnectionHandler( Socket socket )
+        {
+            this( socket, new byte[0] );
+        }
+
+        /**
+         * Construct for a given socket, of which some bytes were already read.
+         * @param socket
+         * @param prefix the bytes read from the socket
+         */
+        public ConnectionHandler( Socket socket, byte[] prefix )
         {
             this.socket = socket;
+            this.prefix = prefix;
         }
 
         /**
          * Main processing method for the LateralTCPReceiverConnection object
          */
         @Override
-        @SuppressWarnings({"unchecked", // Need to cast from Object
-            "synthetic-access" })
+        @SuppressWarnings("synthetic-access")
         public void run()
         {
-            try (ObjectInputStream ois =
-                    new ObjectInputStreamClassLoaderAware( socket.getInputStream(), null ))
+            try (Socket s = socket)
             {
-                while ( true )
+                InputStream in = new BufferedInputStream( new SequenceInputStream(
+                        new ByteArrayInputStream( prefix ), s.getInputStream() ) );
+                in.mark( 2 );
+                int first = in.read();
+                int second = in.read();
+                in.reset();
+                if ( first < 0 || second < 0 )
                 {
-                    LateralElementDescriptor<K, V> led =
-                            (LateralElementDescriptor<K, V>) ois.readObject();
-
-                    if ( led == null )
-                    {
-                        log.debug( "LateralElementDescriptor is null" );
-                        continue;
-                    }
-                    if ( led.requesterId == getListenerId() )
-                    {
-                        log.debug( "from self" );
-                    }
-                    else
-                    {
-                        log.debug( "receiving LateralElementDescriptor from another led = {0}",
-                                led );
-
-                        handle( led );
-                    }
+                    log.debug( "Connection closed before the first command." );
+                }
+                else if ( LateralTCPProtocol.isObjectStream( (byte) first, (byte) second ) )
+                {
+                    readObjectStream( in );
+                }
+                else
+                {
+                    readMessages( in );
                 }
             }
             catch ( EOFException e )
@@ -580,79 +769,77 @@ public class LateralTCPListener<K, V>
         }
 
         /**
-         * This calls the appropriate method, based on the command sent in the Lateral element
-         * descriptor.
+         * Reads commands from an object stream. Responses are written only if there is something
+         * to return.
          * <p>
-         * @param led
-         * @throws IOException
+         * @param in the connection
+         * @throws Exception
          */
-        @SuppressWarnings("synthetic-access")
-        private void handle( LateralElementDescriptor<K, V> led )
-            throws IOException
+        @SuppressWarnings({"unchecked", // Need to cast from Object
+            "synthetic-access" })
+        private void readObjectStream( InputStream in )
+            throws Exception
         {
-            String cacheName = led.ce.getCacheName();
-            K key = led.ce.getKey();
-            Serializable obj = null;
-
-            switch (led.command)
+            try (ObjectInputStream ois = new ObjectInputStreamClassLoaderAware( in, null ))
             {
-                case UPDATE:
-                    handlePut( led.ce );
-                    break;
-
-                case REMOVE:
-                    // if a hashcode was given and filtering is on
-                    // check to see if they are the same
-                    // if so, then don't remove, otherwise issue a remove
-                    if ( led.valHashCode != -1 )
+                while ( true )
+                {
+                    LateralElementDescriptor<K, V> led =
+                            (LateralElementDescriptor<K, V>) ois.readObject();
+
+                    if ( led == null )
                     {
-                        if ( getTcpLateralCacheAttributes().isFilterRemoveByHashCode() )
-                        {
-                            ICacheElement<K, V> test = getCache( cacheName ).localGet( key );
-                            if ( test != null )
-                            {
-                                if ( test.getVal().hashCode() == led.valHashCode )
-                                {
-                                    log.debug( "Filtering detected identical hashCode [{0}], "
-                                            + "not issuing a remove for led {1}",
-                                            led.valHashCode, led );
-                                    return;
-                                }
-                                else
-                                {
-                                    log.debug( "Different hashcodes, in cache [{0}] sent [{1}]",
-                                            test.getVal().hashCode(), led.valHashCode );
-                                }
-                            }
-                        }
+                        log.debug( "LateralElementDescriptor is null" );
+                        continue;
                     }
-                    handleRemove( cacheName, key );
-                    break;
 
-                case REMOVEALL:
-                    handleRemoveAll( cacheName );
-                    break;
+                    Serializable obj = receive( led );
+                    if (obj != null)
+                    {
+                        ObjectOutputStream oos = new ObjectOutputStream( socket.getOutputStream() );
+                        oos.writeObject( obj );
+                        oos.flush();
+                    }
+                }
+            }
+        }
 
-                case GET:
-                    obj = handleGet( cacheName, key );
-                    break;
+        /**
+         * Reads commands with the message protocol. Every get is answered.
+         * <p>
+         * @param in the connection
+         * @throws Exception
+         */
+        @SuppressWarnings("synthetic-access")
+        private void readMessages( InputStream in )
+            throws Exception
+        {
+            DataInputStream dis = new DataInputStream( in );
+            DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream( socket.getOutputStream() ) );
 
-                case GET_MATCHING:
-                    obj = (Serializable) handleGetMatching( cacheName, (String) key );
-                    break;
+            byte version = LateralTCPProtocol.accept( LateralTCPProtocol.readHeader( dis ) );
+            dos.writeByte( version );
+            dos.flush();
+            LateralTCPCodec codec = new LateralTCPCodec( version, getElementSerializer() );
 
-                case GET_KEYSET:
-                	obj = (Serializable) handleGetKeySet(cacheName);
-                    break;
+            while ( true )
+            {
+                LateralElementDescriptor<K, V> led =
+                        codec.decodeCommand( LateralTCPProtocol.readMessage( dis ) );
 
-                default: break;
-            }
+                if ( led == null )
+                {
+                    log.debug( "LateralElementDescriptor is null" );
+                    continue;
+                }
 
-            if (obj != null)
-            {
-                ObjectOutputStream oos = new ObjectOutputStream( socket.getOutputStream() );
-                oos.writeObject( obj );
-                oos.flush();
+                Serializable obj = receive( led );
+                if ( LateralTCPProtocol.expectsResponse( led.command ) )
+                {
+                    LateralTCPProtocol.writeMessage( dos, codec.encodeResponse( led.requestId, obj ) );
+                    dos.flush();
+                }
             }
         }
     }
@@ -667,7 +854,14 @@ public class LateralTCPListener<K, V>
         {
             log.info( "Shutting down TCP Lateral receiver." );
 
-            receiver.interrupt();
+            if ( nioReceiver != null )
+            {
+                nioReceiver.close();
+            }
+            else
+            {
+                receiver.interrupt();
+            }
         }
         else
         {
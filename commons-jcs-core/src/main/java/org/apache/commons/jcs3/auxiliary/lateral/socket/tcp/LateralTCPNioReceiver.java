@@ -0,0 +1,665 @@
+package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.jcs3.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+
+/**
+ * The non-blocking part of the LateralTCPListener. A few selector threads read the messages of
+ * all connections. The commands of a connection are handled in order by a task on the executor of
+ * the listener, which only runs while the connection has commands to handle. Idle peers therefore
+ * cost no thread.
+ * <p>
+ * A connection that starts with a Java object stream is handed to a blocking ConnectionHandler of
+ * the listener, as an object stream cannot be read without blocking.
+ */
+public class LateralTCPNioReceiver<K, V>
+{
+    /** The logger */
+    private static final Log log = LogManager.getLog( LateralTCPNioReceiver.class );
+
+    /** The initial size of the read buffer of a connection */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /** Stop reading from a connection while this many of its commands wait to be handled. */
+    private static final int MAX_QUEUED_COMMANDS = 1000;
+
+    /** Handles the commands */
+    private final LateralTCPListener<K, V> listener;
+
+    /** Accepts the connections */
+    private final ServerSocketChannel serverChannel;
+
+    /** Runs the command tasks */
+    private final ExecutorService executor;
+
+    /** The selector threads */
+    private final List<SelectorLoop> loops = new ArrayList<>();
+
+    /** Assigns the connections to the selector threads */
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * @param listener handles the commands
+     * @param serverChannel the bound server channel
+     * @param selectorThreads the number of selector threads
+     * @param executor runs the command tasks
+     * @throws IOException if a selector cannot be opened
+     */
+    public LateralTCPNioReceiver( LateralTCPListener<K, V> listener, ServerSocketChannel serverChannel,
+                                  int selectorThreads, ExecutorService executor )
+        throws IOException
+    {
+        this.listener = listener;
+        this.serverChannel = serverChannel;
+        this.executor = executor;
+        for ( int i = 0; i < selectorThreads; i++ )
+        {
+            loops.add( new SelectorLoop( "JCS-LateralTCPNioReceiver-"
+                + serverChannel.socket().getLocalPort() + "-" + i ) );
+        }
+    }
+
+    /**
+     * Starts the selector threads. The first one also accepts the connections.
+     * <p>
+     * @throws IOException
+     */
+    public void start()
+        throws IOException
+    {
+        serverChannel.configureBlocking( false );
+        serverChannel.register( loops.get( 0 ).selector, SelectionKey.OP_ACCEPT );
+        for ( SelectorLoop loop : loops )
+        {
+            loop.start();
+        }
+    }
+
+    /**
+     * Stops the selector threads and closes all connections.
+     */
+    public void close()
+    {
+        for ( SelectorLoop loop : loops )
+        {
+            loop.close();
+        }
+        try
+        {
+            serverChannel.close();
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Problem closing server channel", e );
+        }
+    }
+
+    /**
+     * Accepts a new connection and gives it to the next selector thread.
+     * <p>
+     * @throws IOException
+     */
+    private void accept()
+        throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+        if ( channel == null )
+        {
+            return;
+        }
+
+        log.debug( "Connected to client at {0}", () -> channel.socket().getInetAddress() );
+
+        channel.configureBlocking( false );
+        SelectorLoop loop = loops.get( Math.floorMod( nextLoop.getAndIncrement(), loops.size() ) );
+        loop.execute( () -> loop.register( channel ) );
+    }
+
+    /**
+     * A selector thread. Other threads change the registrations through tasks, as the selector
+     * is not meant to be changed while it selects.
+     */
+    private class SelectorLoop
+        extends Thread
+    {
+        /** The selector */
+        final Selector selector;
+
+        /** Tasks to run in this thread */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /** Connections to hand to blocking handlers once their keys are gone */
+        private final List<Connection> handOffs = new ArrayList<>();
+
+        /** Set to stop the thread */
+        private volatile boolean closed = false;
+
+        /**
+         * @param name the name of the thread
+         * @throws IOException
+         */
+        SelectorLoop( String name )
+            throws IOException
+        {
+            super( name );
+            setDaemon( true );
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Runs the task in this thread.
+         * <p>
+         * @param task
+         */
+        void execute( Runnable task )
+        {
+            tasks.add( task );
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a new connection for reading.
+         * <p>
+         * @param channel
+         */
+        void register( SocketChannel channel )
+        {
+            try
+            {
+                Connection connection = new Connection( channel, this );
+                connection.key = channel.register( selector, SelectionKey.OP_READ, connection );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not register connection", e );
+            }
+        }
+
+        /**
+         * Stops the thread.
+         */
+        void close()
+        {
+            closed = true;
+            selector.wakeup();
+        }
+
+        /** Selects until closed. */
+        @Override
+        public void run()
+        {
+            try
+            {
+                while ( !closed )
+                {
+                    selector.select();
+
+                    Runnable task;
+                    while ( ( task = tasks.poll() ) != null )
+                    {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while ( it.hasNext() )
+                    {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        handle( key );
+                    }
+
+                    if ( !handOffs.isEmpty() )
+                    {
+                        // deregisters the cancelled keys, so the channels can block
+                        selector.selectNow();
+                        for ( Connection connection : handOffs )
+                        {
+                            connection.handOff();
+                        }
+                        handOffs.clear();
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                log.error( "Selector failed", e );
+            }
+            finally
+            {
+                for ( SelectionKey key : selector.keys() )
+                {
+                    if ( key.attachment() != null )
+                    {
+                        @SuppressWarnings("unchecked") // Only connections are attached
+                        Connection connection = (Connection) key.attachment();
+                        connection.close();
+                    }
+                }
+                try
+                {
+                    selector.close();
+                }
+                catch ( IOException e )
+                {
+                    log.warn( "Problem closing selector", e );
+                }
+            }
+        }
+
+        /**
+         * Handles a selected key.
+         * <p>
+         * @param key
+         */
+        @SuppressWarnings("synthetic-access")
+        private void handle( SelectionKey key )
+        {
+            if ( !key.isValid() )
+            {
+                return;
+            }
+
+            if ( key.isAcceptable() )
+            {
+                try
+                {
+                    accept();
+                }
+                catch ( IOException e )
+                {
+                    log.error( "Could not accept connection", e );
+                }
+                return;
+            }
+
+            @SuppressWarnings("unchecked") // Only connections are attached
+            Connection connection = (Connection) key.attachment();
+            try
+            {
+                if ( key.isWritable() )
+                {
+                    connection.writePending();
+                }
+                if ( key.isValid() && key.isReadable() && connection.read() )
+                {
+                    key.cancel();
+                    handOffs.add( connection );
+                }
+            }
+            catch ( IOException e )
+            {
+                log.info( "Closing connection {0}: {1}", connection, e.getMessage() );
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * A connection from a peer.
+     */
+    private class Connection
+    {
+        /** The channel */
+        private final SocketChannel channel;
+
+        /** The selector thread of the channel */
+        private final SelectorLoop loop;
+
+        /** The key of the channel */
+        SelectionKey key;
+
+        /** Holds the bytes of incomplete messages */
+        private ByteBuffer readBuffer = ByteBuffer.allocate( READ_BUFFER_SIZE );
+
+        /** Whether the header was read */
+        private boolean started = false;
+
+        /** Decodes the commands, set once the header was read */
+        private LateralTCPCodec codec;
+
+        /** Commands to handle */
+        private final Queue<byte[]> commands = new ConcurrentLinkedQueue<>();
+
+        /** The number of commands to handle */
+        private final AtomicInteger queued = new AtomicInteger();
+
+        /** Whether a task handles the commands */
+        private final AtomicBoolean handling = new AtomicBoolean( false );
+
+        /** Whether reading stopped because too many commands wait */
+        private volatile boolean paused = false;
+
+        /** Responses that could not be written at once */
+        private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>();
+
+        /**
+         * @param channel
+         * @param loop
+         */
+        Connection( SocketChannel channel, SelectorLoop loop )
+        {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        /**
+         * Reads what is available and queues the complete messages. Runs in the selector thread.
+         * <p>
+         * @return true if the connection is an object stream and must be handed off
+         * @throws IOException
+         */
+        boolean read()
+            throws IOException
+        {
+            if ( channel.read( readBuffer ) < 0 )
+            {
+                throw new IOException( "Connection closed by peer" );
+            }
+            readBuffer.flip();
+
+            if ( !started )
+            {
+                if ( readBuffer.remaining() >= 2
+                    && LateralTCPProtocol.isObjectStream( readBuffer.get( 0 ), readBuffer.get( 1 ) ) )
+                {
+                    return true;
+                }
+                if ( readBuffer.remaining() < LateralTCPProtocol.HEADER_LENGTH )
+                {
+                    readBuffer.compact();
+                    return false;
+                }
+                byte[] magic = new byte[LateralTCPProtocol.MAGIC.length];
+                readBuffer.get( magic );
+                if ( !Arrays.equals( magic, LateralTCPProtocol.MAGIC ) )
+                {
+                    throw new IOException( "Not a lateral connection" );
+                }
+                byte version = LateralTCPProtocol.accept( readBuffer.get() );
+                write( ByteBuffer.wrap( new byte[] { version } ) );
+                codec = new LateralTCPCodec( version, listener.getElementSerializer() );
+                started = true;
+            }
+
+            int needed = 0;
+            while ( readBuffer.remaining() >= LateralTCPProtocol.LENGTH_LENGTH )
+            {
+                int length = readBuffer.getInt( readBuffer.position() );
+                LateralTCPProtocol.checkLength( length );
+                if ( readBuffer.remaining() < LateralTCPProtocol.LENGTH_LENGTH + length )
+                {
+                    needed = LateralTCPProtocol.LENGTH_LENGTH + length;
+                    break;
+                }
+                readBuffer.position( readBuffer.position() + LateralTCPProtocol.LENGTH_LENGTH );
+                byte[] payload = new byte[length];
+                readBuffer.get( payload );
+                queue( payload );
+            }
+            readBuffer.compact();
+
+            if ( needed > readBuffer.capacity() )
+            {
+                ByteBuffer bigger = ByteBuffer.allocate( needed );
+                readBuffer.flip();
+                bigger.put( readBuffer );
+                readBuffer = bigger;
+            }
+            else if ( readBuffer.position() == 0 && readBuffer.capacity() > READ_BUFFER_SIZE )
+            {
+                readBuffer = ByteBuffer.allocate( READ_BUFFER_SIZE );
+            }
+            return false;
+        }
+
+        /**
+         * Queues a command and starts a task to handle it, unless one is running. Stops reading
+         * if too many commands wait. Runs in the selector thread.
+         * <p>
+         * @param payload
+         */
+        @SuppressWarnings("synthetic-access")
+        private void queue( byte[] payload )
+        {
+            commands.add( payload );
+            if ( queued.incrementAndGet() >= MAX_QUEUED_COMMANDS && !paused )
+            {
+                paused = true;
+                key.interestOps( key.interestOps() & ~SelectionKey.OP_READ );
+            }
+            if ( handling.compareAndSet( false, true ) )
+            {
+                executor.execute( this::handleCommands );
+            }
+        }
+
+        /**
+         * Handles the queued commands in order. Runs in the executor.
+         */
+        private void handleCommands()
+        {
+            do
+            {
+                byte[] payload;
+                while ( ( payload = commands.poll() ) != null )
+                {
+                    queued.decrementAndGet();
+                    handleCommand( payload );
+                }
+                if ( paused )
+                {
+                    loop.execute( this::resume );
+                }
+                handling.set( false );
+            }
+            while ( !commands.isEmpty() && handling.compareAndSet( false, true ) );
+        }
+
+        /**
+         * Starts reading again. Runs in the selector thread.
+         */
+        private void resume()
+        {
+            if ( paused && queued.get() < MAX_QUEUED_COMMANDS && key.isValid() )
+            {
+                paused = false;
+                key.interestOps( key.interestOps() | SelectionKey.OP_READ );
+            }
+        }
+
+        /**
+         * Handles one command and writes the response to a get.
+         * <p>
+         * @param payload
+         */
+        @SuppressWarnings("synthetic-access")
+        private void handleCommand( byte[] payload )
+        {
+            LateralElementDescriptor<K, V> led;
+            try
+            {
+                led = codec.decodeCommand( payload );
+            }
+            catch ( IOException | ClassNotFoundException e )
+            {
+                log.error( "Could not read command, closing connection {0}", this, e );
+                loop.execute( this::close );
+                return;
+            }
+
+            if ( led == null )
+            {
+                log.debug( "LateralElementDescriptor is null" );
+                return;
+            }
+
+            Serializable response = null;
+            try
+            {
+                response = listener.receive( led );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Problem handling command {0}", led, e );
+            }
+
+            if ( LateralTCPProtocol.expectsResponse( led.command ) )
+            {
+                try
+                {
+                    byte[] bytes = codec.encodeResponse( led.requestId, response );
+                    ByteBuffer message = ByteBuffer.allocate( LateralTCPProtocol.LENGTH_LENGTH + bytes.length );
+                    message.putInt( bytes.length ).put( bytes ).flip();
+                    write( message );
+                }
+                catch ( IOException e )
+                {
+                    log.error( "Could not send response, closing connection {0}", this, e );
+                    loop.execute( this::close );
+                }
+            }
+        }
+
+        /**
+         * Writes what the channel takes at once, and leaves the rest to the selector thread.
+         * <p>
+         * @param buffer
+         * @throws IOException
+         */
+        private void write( ByteBuffer buffer )
+            throws IOException
+        {
+            synchronized ( pendingWrites )
+            {
+                if ( pendingWrites.isEmpty() )
+                {
+                    channel.write( buffer );
+                    if ( !buffer.hasRemaining() )
+                    {
+                        return;
+                    }
+                }
+                pendingWrites.add( buffer );
+                if ( pendingWrites.size() == 1 )
+                {
+                    loop.execute( () -> {
+                        if ( key.isValid() )
+                        {
+                            key.interestOps( key.interestOps() | SelectionKey.OP_WRITE );
+                        }
+                    } );
+                }
+            }
+        }
+
+        /**
+         * Writes the pending responses. Runs in the selector thread.
+         * <p>
+         * @throws IOException
+         */
+        void writePending()
+            throws IOException
+        {
+            synchronized ( pendingWrites )
+            {
+                while ( !pendingWrites.isEmpty() )
+                {
+                    ByteBuffer buffer = pendingWrites.peek();
+                    channel.write( buffer );
+                    if ( buffer.hasRemaining() )
+                    {
+                        return;
+                    }
+                    pendingWrites.poll();
+                }
+                key.interestOps( key.interestOps() & ~SelectionKey.OP_WRITE );
+            }
+        }
+
+        /**
+         * Gives the connection to a blocking handler, with the bytes read so far. Runs in the
+         * selector thread after the key was deregistered.
+         */
+        @SuppressWarnings("synthetic-access")
+        void handOff()
+        {
+            log.debug( "Handing object stream connection {0} to a blocking handler", this );
+            byte[] prefix = new byte[readBuffer.remaining()];
+            readBuffer.get( prefix );
+            try
+            {
+                channel.configureBlocking( true );
+                executor.execute( listener.new ConnectionHandler( channel.socket(), prefix ) );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not hand off connection {0}", this, e );
+                close();
+            }
+        }
+
+        /**
+         * Closes the channel.
+         */
+        void close()
+        {
+            key.cancel();
+            commands.clear();
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                log.debug( "Problem closing connection", e );
+            }
+        }
+
+        /**
+         * @return the peer address
+         */
+        @Override
+        public String toString()
+        {
+            return String.valueOf( channel.socket().getRemoteSocketAddress() );
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import org.apache.commons.jcs3.auxiliary.lateral.LateralCommand;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
+
+/**
+ * The message protocol of the TCP laterals. The sender starts a connection with the magic bytes
+ * and the highest protocol version it wants to use, and the listener answers with the version it
+ * accepts. Each command and each response is then sent as a message, a four byte length followed
+ * by that many bytes, which LateralTCPCodec writes in the format of the version. Unlike a Java
+ * object stream, messages can be read without blocking, as the length says when a message is
+ * complete.
+ * <p>
+ * Connections that start with the Java serialization magic instead use the old protocol, a
+ * single object stream of LateralElementDescriptors.
+ */
+public final class LateralTCPProtocol
+{
+    /** Starts a connection with the message protocol. */
+    static final byte[] MAGIC = { 'J', 'C', 'S', 'L' };
+
+    /** The old protocol, a Java object stream. */
+    static final byte VERSION_OBJECT_STREAM = 0;
+
+    /** Messages hold Java serialized LateralElementDescriptors and responses. */
+    static final byte VERSION_SERIALIZED = 1;
+
+    /** Messages hold commands and responses in the binary format of LateralTCPCodec. */
+    static final byte VERSION_BINARY = 2;
+
+    /** The binary format, with request ids on gets and responses. */
+    static final byte VERSION_MULTIPLEXED = 3;
+
+    /** The highest version the listener accepts */
+    static final byte HIGHEST_VERSION = VERSION_MULTIPLEXED;
+
+    /** The length of the magic and the version */
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /** The length of the length of a message */
+    static final int LENGTH_LENGTH = 4;
+
+    /** Longer messages are taken as a corrupt stream. */
+    static final int MAX_MESSAGE_LENGTH = 128 * 1024 * 1024;
+
+    /** Serializes the messages */
+    private static final StandardSerializer SERIALIZER = new StandardSerializer();
+
+    /**
+     * no instances.
+     */
+    private LateralTCPProtocol()
+    {
+        // NO OP
+    }
+
+    /**
+     * @param first the first byte of a connection
+     * @param second the second byte of a connection
+     * @return true if the connection uses the old protocol, a Java object stream
+     */
+    static boolean isObjectStream( byte first, byte second )
+    {
+        return ( ( first & 0xFF ) << 8 | second & 0xFF ) == ( ObjectStreamConstants.STREAM_MAGIC & 0xFFFF );
+    }
+
+    /**
+     * @param command the command
+     * @return true if the listener answers the command
+     */
+    static boolean expectsResponse( LateralCommand command )
+    {
+        return command == LateralCommand.GET || command == LateralCommand.GET_MATCHING
+            || command == LateralCommand.GET_KEYSET;
+    }
+
+    /**
+     * @param proposed the highest version the sender wants to use
+     * @return the version the listener uses for the connection
+     */
+    static byte accept( byte proposed )
+    {
+        return (byte) Math.max( VERSION_SERIALIZED, Math.min( proposed, HIGHEST_VERSION ) );
+    }
+
+    /**
+     * Starts a connection with the message protocol.
+     * <p>
+     * @param out the connection
+     * @param version the highest version the sender wants to use
+     * @throws IOException
+     */
+    static void writeHeader( DataOutputStream out, byte version )
+        throws IOException
+    {
+        out.write( MAGIC );
+        out.writeByte( version );
+    }
+
+    /**
+     * Reads the start of a connection with the message protocol.
+     * <p>
+     * @param in the connection
+     * @return the highest version the sender wants to use
+     * @throws IOException if the connection does not start with the magic
+     */
+    static byte readHeader( DataInputStream in )
+        throws IOException
+    {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully( magic );
+        if ( !Arrays.equals( magic, MAGIC ) )
+        {
+            throw new StreamCorruptedException( "Not a lateral message connection" );
+        }
+        return in.readByte();
+    }
+
+    /**
+     * Writes one message. The stream is not flushed.
+     * <p>
+     * @param out the connection
+     * @param payload the content of the message
+     * @throws IOException
+     */
+    static void writeMessage( DataOutputStream out, byte[] payload )
+        throws IOException
+    {
+        out.writeInt( payload.length );
+        out.write( payload );
+    }
+
+    /**
+     * Reads one message.
+     * <p>
+     * @param in the connection
+     * @return the content of the message
+     * @throws IOException
+     */
+    static byte[] readMessage( DataInputStream in )
+        throws IOException
+    {
+        int length = in.readInt();
+        checkLength( length );
+        byte[] payload = new byte[length];
+        in.readFully( payload );
+        return payload;
+    }
+
+    /**
+     * @param length the length of a message
+     * @throws StreamCorruptedException if the length cannot be right
+     */
+    static void checkLength( int length )
+        throws StreamCorruptedException
+    {
+        if ( length < 0 || length > MAX_MESSAGE_LENGTH )
+        {
+            throw new StreamCorruptedException( "Bad message length " + length );
+        }
+    }
+
+    /**
+     * Java serializes an object.
+     * <p>
+     * @param obj the object, may be null
+     * @return the bytes, empty for null
+     * @throws IOException
+     */
+    static byte[] serialize( Object obj )
+        throws IOException
+    {
+        return obj == null ? new byte[0] : SERIALIZER.serialize( obj );
+    }
+
+    /**
+     * @param payload bytes written by serialize
+     * @return the object, may be null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    static <T> T deSerialize( byte[] payload )
+        throws IOException, ClassNotFoundException
+    {
+        return payload.length == 0 ? null : SERIALIZER.deSerialize( payload, null );
+    }
+}
@@ -19,34 +19,124 @@ package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
  * under the License.
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.jcs3.auxiliary.lateral.LateralCommand;
 import org.apache.commons.jcs3.auxiliary.lateral.LateralElementDescriptor;
 import org.apache.commons.jcs3.auxiliary.lateral.socket.tcp.behavior.ITCPLateralCacheAttributes;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs3.io.ObjectInputStreamClassLoaderAware;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
+import org.apache.commons.jcs3.utils.threadpool.ThreadPoolManager;
 
 /**
  * This class is based on the log4j SocketAppender class. I'm using a different repair structure, so
  * it is significantly different.
+ * <p>
+ * If a batch size above 1 is configured, sent commands are collected into frames. A frame is
+ * written and flushed once it holds batchSize commands, or batchDelayMicros after its first
+ * command. Updates and removes of the same key within a frame are coalesced, so only the last one
+ * is sent. The commands are still written one by one, so the listener does not need to know about
+ * frames. A frame that cannot be written is kept, and written again by the next send or after
+ * FLUSH_RETRY_MILLIS.
+ * <p>
+ * If a protocol version above 0 is configured, the sender proposes the message protocol of
+ * LateralTCPProtocol when it connects. If the listener does not understand it, the sender connects
+ * again and uses a Java object stream. With version 2, keys and values are written by the element
+ * serializer, which must be the one the listener uses. With version 3, gets carry a request id and
+ * do not hold the connection while they wait: a reader thread completes the waiting gets as their
+ * responses come in, and a get that gets no response within requestTimeoutMillis returns null.
+ * <p>
+ * Without request ids, responses are matched to gets by their order on the connection. So the
+ * connection is closed when a get fails or times out, as its response may still come in, and the
+ * next command connects again. The same is done when a write fails or the reader thread stops.
  */
 public class LateralTCPSender
 {
     /** The logger */
     private static final Log log = LogManager.getLog( LateralTCPSender.class );
 
+    /** The name of the scheduler pool that flushes frames */
+    private static final String FLUSH_POOL_NAME = "LateralTCPSender";
+
+    /** How long to wait before writing a frame again after a failure */
+    private static final long FLUSH_RETRY_MILLIS = 1000;
+
+    /** The size of the socket output buffer, which holds a frame */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     /** Config */
     private final int socketOpenTimeOut;
     private final int socketSoTimeOut;
 
+    /** The highest protocol version to propose */
+    private final byte protocolVersion;
+
+    /** The protocol version of the connection */
+    private byte version = LateralTCPProtocol.VERSION_OBJECT_STREAM;
+
     /** The stream from the server connection. */
     private ObjectOutputStream oos;
 
+    /** The stream to the server connection with the message protocol. */
+    private DataOutputStream dos;
+
+    /** The stream from the server connection with the message protocol. */
+    private DataInputStream dis;
+
+    /** Writes keys and values with the binary message protocol */
+    private final IElementSerializer elementSerializer;
+
+    /** Encodes the messages of the connection */
+    private LateralTCPCodec codec;
+
+    /** How long a get waits for its response on a multiplexed connection */
+    private final int requestTimeoutMillis;
+
+    /** The gets waiting for their responses, by request id */
+    private final Map<Long, CompletableFuture<Object>> pendingRequests = new ConcurrentHashMap<>();
+
+    /** The last request id */
+    private final AtomicLong lastRequestId = new AtomicLong();
+
+    /** Why the reader thread stopped */
+    private volatile IOException readFailure;
+
+    /** The host of the listener */
+    private String host;
+
+    /** The port of the listener */
+    private int port;
+
+    /** Whether the connection was closed after a failure, so the next command connects again */
+    private volatile boolean connectionLost = false;
+
+    /** Whether dispose was called */
+    private volatile boolean disposed = false;
+
     /** The socket connection with the server. */
     private Socket socket;
 
@@ -56,6 +146,24 @@ public class LateralTCPSender
     /** Use to synchronize multiple threads that may be trying to get. */
     private final Object getLock = new int[0];
 
+    /** The largest number of commands in a frame */
+    private final int batchSize;
+
+    /** The longest time a command waits in a frame */
+    private final long batchDelayMicros;
+
+    /** The commands of the current frame, keyed by region and key for updates and removes */
+    private final Map<Object, LateralElementDescriptor<?, ?>> frame = new LinkedHashMap<>();
+
+    /** Flushes the current frame after the delay */
+    private ScheduledFuture<?> frameFlush;
+
+    /** how many frames sent */
+    private int frameCnt = 0;
+
+    /** how many commands were coalesced */
+    private int coalescedCnt = 0;
+
     /**
      * Constructor for the LateralTCPSender object.
      * <p>
@@ -65,8 +173,27 @@ public class LateralTCPSender
     public LateralTCPSender( ITCPLateralCacheAttributes lca )
         throws IOException
     {
+        this( lca, new StandardSerializer() );
+    }
+
+    /**
+     * Constructor for the LateralTCPSender object.
+     * <p>
+     * @param lca
+     * @param elementSerializer writes keys and values with the binary message protocol
+     * @throws IOException
+     */
+    public LateralTCPSender( ITCPLateralCacheAttributes lca, IElementSerializer elementSerializer )
+        throws IOException
+    {
+        this.elementSerializer = elementSerializer;
         this.socketOpenTimeOut = lca.getOpenTimeOut();
         this.socketSoTimeOut = lca.getSocketTimeOut();
+        this.batchSize = lca.getBatchSize();
+        this.batchDelayMicros = lca.getBatchDelayMicros();
+        this.protocolVersion = (byte) lca.getProtocolVersion();
+        this.requestTimeoutMillis = lca.getRequestTimeoutMillis() > 0
+                ? lca.getRequestTimeoutMillis() : lca.getSocketTimeOut();
 
         String p1 = lca.getTcpServer();
         if ( p1 == null )
@@ -96,30 +223,41 @@ public class LateralTCPSender
     protected void init( String host, int port )
         throws IOException
     {
+        this.host = host;
+        this.port = port;
         try
         {
             log.info( "Attempting connection to [{0}]", host );
 
-            // have time out socket open do this for us
-            try
+            connect( host, port );
+            if ( protocolVersion > LateralTCPProtocol.VERSION_OBJECT_STREAM && !negotiate() )
             {
-                socket = new Socket();
-                socket.connect( new InetSocketAddress( host, port ), this.socketOpenTimeOut );
+                log.info( "[{0}:{1}] does not support the message protocol, using an object stream",
+                        host, port );
+                connect( host, port );
             }
-            catch ( IOException ioe )
+
+            synchronized ( this )
             {
-                if (socket != null)
+                if ( version == LateralTCPProtocol.VERSION_OBJECT_STREAM )
                 {
-                    socket.close();
+                    oos = new ObjectOutputStream( isBatching()
+                            ? new BufferedOutputStream( socket.getOutputStream(), OUTPUT_BUFFER_SIZE )
+                            : socket.getOutputStream() );
                 }
-
-                throw new IOException( "Cannot connect to " + host + ":" + port, ioe );
             }
 
-            socket.setSoTimeout( socketSoTimeOut );
-            synchronized ( this )
+            if ( isMultiplexed() )
             {
-                oos = new ObjectOutputStream( socket.getOutputStream() );
+                // the reader waits for responses, the gets time out on their own
+                socket.setSoTimeout( 0 );
+                Socket readSocket = socket;
+                DataInputStream readIn = dis;
+                LateralTCPCodec readCodec = codec;
+                Thread reader = new Thread( () -> readResponses( readSocket, readIn, readCodec ),
+                        "JCS-LateralTCPSender-Reader-" + host + ":" + port );
+                reader.setDaemon( true );
+                reader.start();
             }
         }
         catch ( java.net.ConnectException e )
@@ -134,6 +272,201 @@ public class LateralTCPSender
         }
     }
 
+    /**
+     * Opens the socket.
+     * <p>
+     * @param host
+     * @param port
+     * @throws IOException
+     */
+    private void connect( String host, int port )
+        throws IOException
+    {
+        // have time out socket open do this for us
+        try
+        {
+            socket = new Socket();
+            socket.connect( new InetSocketAddress( host, port ), this.socketOpenTimeOut );
+        }
+        catch ( IOException ioe )
+        {
+            if (socket != null)
+            {
+                socket.close();
+            }
+
+            throw new IOException( "Cannot connect to " + host + ":" + port, ioe );
+        }
+
+        socket.setSoTimeout( socketSoTimeOut );
+    }
+
+    /**
+     * Proposes the message protocol. A listener that only reads object streams closes the
+     * connection, as the header is not a valid object stream header.
+     * <p>
+     * @return true if the listener accepted a version of the message protocol
+     * @throws IOException
+     */
+    private boolean negotiate()
+        throws IOException
+    {
+        dos = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream(), OUTPUT_BUFFER_SIZE ) );
+        dis = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+        LateralTCPProtocol.writeHeader( dos, protocolVersion );
+        dos.flush();
+
+        try
+        {
+            version = dis.readByte();
+            codec = new LateralTCPCodec( version, elementSerializer );
+            log.debug( "Using protocol version {0}", version );
+            return true;
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Protocol negotiation failed", e );
+            socket.close();
+            dos = null;
+            dis = null;
+            version = LateralTCPProtocol.VERSION_OBJECT_STREAM;
+            return false;
+        }
+    }
+
+    /**
+     * @return the protocol version of the connection
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return true if many gets can wait for their responses at once
+     */
+    public boolean isMultiplexed()
+    {
+        return codec != null && codec.isMultiplexed();
+    }
+
+    /**
+     * Reads the responses of a multiplexed connection and completes the waiting gets. Runs in the
+     * reader thread until the connection is closed.
+     * <p>
+     * @param readSocket the connection, which may be replaced while the thread stops
+     * @param in the input of the connection
+     * @param readCodec the codec of the connection
+     */
+    private void readResponses( Socket readSocket, DataInputStream in, LateralTCPCodec readCodec )
+    {
+        try
+        {
+            while ( true )
+            {
+                byte[] payload = LateralTCPProtocol.readMessage( in );
+                long requestId = readCodec.getRequestId( payload );
+                Object response;
+                try
+                {
+                    // decode late responses as well, they may name new regions
+                    response = readCodec.decodeResponse( payload );
+                }
+                catch ( ClassNotFoundException e )
+                {
+                    log.error( "Could not read response to request {0}", requestId, e );
+                    response = null;
+                }
+
+                CompletableFuture<Object> request = pendingRequests.remove( requestId );
+                if ( request != null )
+                {
+                    request.complete( response );
+                }
+                else
+                {
+                    log.debug( "Dropping late response to request {0}", requestId );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            synchronized ( this.getLock )
+            {
+                if ( readSocket != socket )
+                {
+                    // the gets of the replaced connection failed when it was replaced
+                    return;
+                }
+                readFailure = e;
+                connectionLost = true;
+            }
+            if ( !disposed )
+            {
+                log.error( "Could not read responses from {0}", readSocket, e );
+            }
+            for ( Iterator<CompletableFuture<Object>> it = pendingRequests.values().iterator(); it.hasNext(); )
+            {
+                CompletableFuture<Object> request = it.next();
+                it.remove();
+                request.completeExceptionally( e );
+            }
+        }
+    }
+
+    /**
+     * Closes the connection after a failure that may have left it out of step, so the next
+     * command connects again. Must be called holding the getLock.
+     */
+    private void closeConnection()
+    {
+        connectionLost = true;
+        try
+        {
+            socket.close();
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Could not close {0}", socket, e );
+        }
+    }
+
+    /**
+     * Connects again if the connection was closed after a failure. Must be called holding the
+     * getLock.
+     * <p>
+     * @throws IOException if the listener cannot be reached
+     */
+    private void reconnectIfLost()
+        throws IOException
+    {
+        if ( !connectionLost || disposed )
+        {
+            return;
+        }
+
+        log.info( "Connecting again to [{0}:{1}]", host, port );
+        socket.close();
+        IOException closed = new IOException( "Connection to " + socket + " was closed", readFailure );
+        for ( Iterator<CompletableFuture<Object>> it = pendingRequests.values().iterator(); it.hasNext(); )
+        {
+            CompletableFuture<Object> request = it.next();
+            it.remove();
+            request.completeExceptionally( closed );
+        }
+        synchronized ( this )
+        {
+            oos = null;
+            dos = null;
+            dis = null;
+            codec = null;
+            version = LateralTCPProtocol.VERSION_OBJECT_STREAM;
+        }
+        readFailure = null;
+        init( host, port );
+        connectionLost = false;
+    }
+
     /**
      * Sends commands to the lateral cache listener.
      * <p>
@@ -156,24 +489,325 @@ public class LateralTCPSender
             return;
         }
 
-        if ( oos == null )
+        synchronized ( this.getLock )
         {
-            throw new IOException( "No remote connection is available for LateralTCPSender." );
+            reconnectIfLost();
+            if ( oos == null && dos == null )
+            {
+                throw new IOException( "No remote connection is available for LateralTCPSender." );
+            }
+
+            if ( isBatching() )
+            {
+                addToFrame( led );
+            }
+            else
+            {
+                try
+                {
+                    writeCommand( led );
+                    flushCommands();
+                }
+                catch ( IOException e )
+                {
+                    closeConnection();
+                    throw e;
+                }
+            }
         }
+    }
+
+    /**
+     * @return true if commands are collected into frames
+     */
+    public boolean isBatching()
+    {
+        return batchSize > 1;
+    }
 
+    /**
+     * Adds the command to the current frame. An update or remove replaces an earlier update or
+     * remove of the same key. A remove all drops the earlier commands for its region.
+     * <p>
+     * @param led
+     * @throws IOException if the frame was full and could not be written
+     */
+    private <K, V> void addToFrame( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        Object frameKey;
+        switch ( led.command )
+        {
+            case UPDATE:
+            case REMOVE:
+                frameKey = new AbstractMap.SimpleImmutableEntry<>( led.ce.getCacheName(), led.ce.getKey() );
+                // re-insert, so the command keeps its place after the commands sent before it
+                if ( frame.remove( frameKey ) != null )
+                {
+                    coalescedCnt++;
+                }
+                break;
+
+            case REMOVEALL:
+                String cacheName = led.ce.getCacheName();
+                for ( Iterator<LateralElementDescriptor<?, ?>> it = frame.values().iterator(); it.hasNext(); )
+                {
+                    LateralElementDescriptor<?, ?> pending = it.next();
+                    if ( pending.command != LateralCommand.REMOVEALL
+                        && Objects.equals( cacheName, pending.ce.getCacheName() ) )
+                    {
+                        it.remove();
+                        coalescedCnt++;
+                    }
+                }
+                frameKey = new Object();
+                break;
+
+            default:
+                frameKey = new Object();
+                break;
+        }
+        frame.put( frameKey, led );
+
+        if ( frame.size() >= batchSize )
+        {
+            writeFrame();
+        }
+        else if ( frameFlush == null )
+        {
+            frameFlush = ThreadPoolManager.getInstance().getSchedulerPool( FLUSH_POOL_NAME )
+                .schedule( this::flushScheduled, batchDelayMicros, TimeUnit.MICROSECONDS );
+        }
+    }
+
+    /**
+     * Writes the frame when its delay is over. If it cannot be written, it is kept and written
+     * again later, unless the next send writes it first.
+     */
+    private void flushScheduled()
+    {
         synchronized ( this.getLock )
+        {
+            frameFlush = null;
+            if ( disposed )
+            {
+                return;
+            }
+            try
+            {
+                reconnectIfLost();
+                writeFrame();
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not write frame of {0} commands to {1}, trying again in {2} ms",
+                        frame.size(), socket, FLUSH_RETRY_MILLIS, e );
+                frameFlush = ThreadPoolManager.getInstance().getSchedulerPool( FLUSH_POOL_NAME )
+                    .schedule( this::flushScheduled, FLUSH_RETRY_MILLIS, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    /**
+     * Writes all commands of the current frame and flushes the stream once. The stream is reset,
+     * so it does not keep references to the sent elements. If the frame cannot be written, the
+     * connection is closed and the frame is kept, so it is written again after connecting again.
+     * Must be called holding the getLock.
+     * <p>
+     * @throws IOException
+     */
+    private void writeFrame()
+        throws IOException
+    {
+        if ( frameFlush != null )
+        {
+            frameFlush.cancel( false );
+            frameFlush = null;
+        }
+
+        if ( frame.isEmpty() )
+        {
+            return;
+        }
+
+        log.debug( "Writing frame of {0} commands", frame.size() );
+
+        try
+        {
+            for ( LateralElementDescriptor<?, ?> pending : frame.values() )
+            {
+                writeCommand( pending );
+            }
+            if ( oos != null )
+            {
+                oos.reset();
+            }
+            flushCommands();
+        }
+        catch ( IOException e )
+        {
+            // the listener may have got a part of the frame, so it gets the whole frame again
+            closeConnection();
+            throw e;
+        }
+        frame.clear();
+        frameCnt++;
+    }
+
+    /**
+     * Writes one command in the protocol of the connection. Must be called holding the getLock.
+     * <p>
+     * @param led
+     * @throws IOException
+     */
+    private void writeCommand( LateralElementDescriptor<?, ?> led )
+        throws IOException
+    {
+        if ( dos != null )
+        {
+            LateralTCPProtocol.writeMessage( dos, codec.encodeCommand( led ) );
+        }
+        else
         {
             oos.writeUnshared( led );
+        }
+    }
+
+    /**
+     * Flushes the written commands to the socket. Must be called holding the getLock.
+     * <p>
+     * @throws IOException
+     */
+    private void flushCommands()
+        throws IOException
+    {
+        if ( dos != null )
+        {
+            dos.flush();
+        }
+        else
+        {
             oos.flush();
         }
     }
 
+    /**
+     * @return the number of frames written
+     */
+    public int getFrameCnt()
+    {
+        return frameCnt;
+    }
+
+    /**
+     * @return the number of commands that were replaced by a later command in the same frame
+     */
+    public int getCoalescedCnt()
+    {
+        return coalescedCnt;
+    }
+
+    /**
+     * Sends a get without waiting for the response. On a connection that is not multiplexed, this
+     * waits for the response and returns it completed.
+     * <p>
+     * @param led
+     * @return the response, to be passed to awaitResponse
+     * @throws IOException
+     */
+    public <K, V> CompletableFuture<Object> sendRequest( LateralElementDescriptor<K, V> led )
+        throws IOException
+    {
+        synchronized ( this.getLock )
+        {
+            reconnectIfLost();
+        }
+        if ( !isMultiplexed() )
+        {
+            return CompletableFuture.completedFuture( sendAndReceive( led ) );
+        }
+
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        led.requestId = lastRequestId.incrementAndGet();
+        pendingRequests.put( led.requestId, response );
+        if ( connectionLost )
+        {
+            pendingRequests.remove( led.requestId );
+            throw new IOException( "Connection to " + socket + " is lost", readFailure );
+        }
+
+        try
+        {
+            synchronized ( this.getLock )
+            {
+                try
+                {
+                    // the commands sent before the get go first
+                    writeFrame();
+                    writeCommand( led );
+                    flushCommands();
+                }
+                catch ( IOException e )
+                {
+                    closeConnection();
+                    throw e;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            pendingRequests.remove( led.requestId );
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Waits up to requestTimeoutMillis for the response to a get sent with sendRequest.
+     * <p>
+     * @param led the get
+     * @param response the result of sendRequest
+     * @return the response, or null if it did not come in time
+     * @throws IOException if the connection was lost
+     */
+    public <K, V> Object awaitResponse( LateralElementDescriptor<K, V> led, CompletableFuture<Object> response )
+        throws IOException
+    {
+        try
+        {
+            return response.get( requestTimeoutMillis, TimeUnit.MILLISECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            pendingRequests.remove( led.requestId );
+            log.warn( "No response to request {0} from {1} within {2} ms", led.requestId, socket,
+                    requestTimeoutMillis );
+            return null;
+        }
+        catch ( InterruptedException e )
+        {
+            pendingRequests.remove( led.requestId );
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted waiting for request " + led.requestId );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause() );
+        }
+    }
+
     /**
      * Sends commands to the lateral cache listener and gets a response. I'm afraid that we could
      * get into a pretty bad blocking situation here. This needs work. I just wanted to get some
      * form of get working. However, get is not recommended for performance reasons. If you have 10
      * laterals, then you have to make 10 failed gets to find out none of the caches have the item.
      * <p>
+     * On a multiplexed connection, concurrent gets do not wait for each other.
+     * <p>
      * @param led
      * @return ICacheElement
      * @throws IOException
@@ -186,11 +820,20 @@ public class LateralTCPSender
             return null;
         }
 
-        if ( oos == null )
+        synchronized ( this.getLock )
+        {
+            reconnectIfLost();
+        }
+        if ( oos == null && dos == null )
         {
             throw new IOException( "No remote connection is available for LateralTCPSender." );
         }
 
+        if ( isMultiplexed() )
+        {
+            return awaitResponse( led, sendRequest( led ) );
+        }
+
         Object response = null;
 
         // Synchronized to insure that the get requests to server from this
@@ -201,6 +844,31 @@ public class LateralTCPSender
         // Normal puts, etc to laterals do not have to be synchronized.
         synchronized ( this.getLock )
         {
+            // the commands sent before the get go first
+            writeFrame();
+
+            if ( dos != null )
+            {
+                // the listener answers every get, so the messages stay in order
+                try
+                {
+                    writeCommand( led );
+                    flushCommands();
+                    return codec.decodeResponse( LateralTCPProtocol.readMessage( dis ) );
+                }
+                catch ( IOException e )
+                {
+                    // a late response would be taken for the response to the next get
+                    closeConnection();
+                    throw e;
+                }
+                catch ( ClassNotFoundException e )
+                {
+                    log.error( e );
+                    return null;
+                }
+            }
+
             try
             {
                 // clean up input stream, nothing should be there yet.
@@ -252,8 +920,23 @@ public class LateralTCPSender
         throws IOException
     {
         log.info( "Dispose called" );
+        disposed = true;
+        synchronized ( this.getLock )
+        {
+            try
+            {
+                writeFrame();
+            }
+            catch ( IOException e )
+            {
+                log.warn( "Could not write last frame to {0}", socket, e );
+            }
+        }
         // WILL CLOSE CONNECTION USED BY ALL
-        oos.close();
+        if ( oos != null )
+        {
+            oos.close();
+        }
         socket.close();
     }
 }
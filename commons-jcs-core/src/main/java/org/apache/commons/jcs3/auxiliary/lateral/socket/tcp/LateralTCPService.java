@@ -25,8 +25,10 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.jcs3.auxiliary.lateral.LateralCommand;
 import org.apache.commons.jcs3.auxiliary.lateral.LateralElementDescriptor;
@@ -35,8 +37,10 @@ import org.apache.commons.jcs3.engine.CacheElement;
 import org.apache.commons.jcs3.engine.CacheInfo;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
 import org.apache.commons.jcs3.engine.behavior.ICacheServiceNonLocal;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs3.log.Log;
 import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
 
 /**
  * A lateral cache service implementation. Does not implement getGroupKey
@@ -67,6 +71,19 @@ public class LateralTCPService<K, V>
      */
     public LateralTCPService( ITCPLateralCacheAttributes lca )
         throws IOException
+    {
+        this( lca, new StandardSerializer() );
+    }
+
+    /**
+     * Constructor for the LateralTCPService object
+     * <p>
+     * @param lca ITCPLateralCacheAttributes
+     * @param elementSerializer writes keys and values with the binary message protocol
+     * @throws IOException
+     */
+    public LateralTCPService( ITCPLateralCacheAttributes lca, IElementSerializer elementSerializer )
+        throws IOException
     {
         this.allowGet = lca.isAllowGet();
         this.allowPut = lca.isAllowPut();
@@ -74,7 +91,7 @@ public class LateralTCPService<K, V>
 
         try
         {
-            sender = new LateralTCPSender( lca );
+            sender = new LateralTCPSender( lca, elementSerializer );
 
             log.debug( "Created sender to [{0}]", () -> lca.getTcpServer() );
         }
@@ -314,9 +331,8 @@ public class LateralTCPService<K, V>
     }
 
     /**
-     * This issues a separate get for each item.
-     * <p>
-     * TODO We should change this. It should issue one request.
+     * This issues a separate get for each item. On a multiplexed connection, all gets are sent
+     * before the first response is awaited.
      * <p>
      * @param cacheName
      * @param keys
@@ -331,15 +347,26 @@ public class LateralTCPService<K, V>
     {
         Map<K, ICacheElement<K, V>> elements = new HashMap<>();
 
-        if ( keys != null && !keys.isEmpty() )
+        if ( keys != null && !keys.isEmpty() && this.allowGet )
         {
+            Map<LateralElementDescriptor<K, V>, CompletableFuture<Object>> requests = new LinkedHashMap<>();
             for (K key : keys)
             {
-                ICacheElement<K, V> element = get( cacheName, key );
+                CacheElement<K, V> ce = new CacheElement<>( cacheName, key, null );
+                LateralElementDescriptor<K, V> led = new LateralElementDescriptor<>( ce );
+                led.command = LateralCommand.GET;
+                requests.put( led, sender.sendRequest( led ) );
+            }
+
+            for (Map.Entry<LateralElementDescriptor<K, V>, CompletableFuture<Object>> request : requests.entrySet())
+            {
+                @SuppressWarnings("unchecked") // Need to cast from Object
+                ICacheElement<K, V> element =
+                    (ICacheElement<K, V>) sender.awaitResponse( request.getKey(), request.getValue() );
 
                 if ( element != null )
                 {
-                    elements.put( key, element );
+                    elements.put( request.getKey().ce.getKey(), element );
                 }
             }
         }
@@ -60,6 +60,21 @@ public class TCPLateralCacheAttributes
     /** default - Only block for 2 seconds before timing out on startup.*/
     private static final int DEFAULT_OPEN_TIMEOUT = 2000;
 
+    /** default - Send every command on its own.*/
+    private static final int DEFAULT_BATCH_SIZE = 0;
+
+    /** default - Write a frame at most 1 millisecond after its first command.*/
+    private static final long DEFAULT_BATCH_DELAY_MICROS = 1000;
+
+    /** default - Send a Java object stream.*/
+    private static final int DEFAULT_PROTOCOL_VERSION = 0;
+
+    /** default - Use the blocking listener.*/
+    private static final int DEFAULT_TCP_LISTENER_SELECTOR_THREADS = 0;
+
+    /** default - Wait for a response as long as the socket timeout.*/
+    private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 0;
+
     /** TCP -------------------------------------------- */
     private String tcpServers = "";
 
@@ -99,6 +114,21 @@ public class TCPLateralCacheAttributes
     /** Only block for openTimeOut seconds before timing out on startup. */
     private int openTimeOut = DEFAULT_OPEN_TIMEOUT;
 
+    /** The largest number of commands in a frame. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The longest time in microseconds a command waits in a frame. */
+    private long batchDelayMicros = DEFAULT_BATCH_DELAY_MICROS;
+
+    /** The highest protocol version the sender proposes. */
+    private int protocolVersion = DEFAULT_PROTOCOL_VERSION;
+
+    /** The number of selector threads of the listener, 0 for the blocking listener. */
+    private int tcpListenerSelectorThreads = DEFAULT_TCP_LISTENER_SELECTOR_THREADS;
+
+    /** how long a get waits for its response on a multiplexed connection */
+    private int requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
     /**
      * Sets the tcpServer attribute of the ILateralCacheAttributes object
      * <p>
@@ -393,6 +423,96 @@ public class TCPLateralCacheAttributes
         return openTimeOut;
     }
 
+    /**
+     * @param batchSize the batchSize to set
+     */
+    @Override
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the batchSize
+     */
+    @Override
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param batchDelayMicros the batchDelayMicros to set
+     */
+    @Override
+    public void setBatchDelayMicros( long batchDelayMicros )
+    {
+        this.batchDelayMicros = batchDelayMicros;
+    }
+
+    /**
+     * @return the batchDelayMicros
+     */
+    @Override
+    public long getBatchDelayMicros()
+    {
+        return batchDelayMicros;
+    }
+
+    /**
+     * @param protocolVersion the protocolVersion to set
+     */
+    @Override
+    public void setProtocolVersion( int protocolVersion )
+    {
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * @return the protocolVersion
+     */
+    @Override
+    public int getProtocolVersion()
+    {
+        return protocolVersion;
+    }
+
+    /**
+     * @param tcpListenerSelectorThreads the tcpListenerSelectorThreads to set
+     */
+    @Override
+    public void setTcpListenerSelectorThreads( int tcpListenerSelectorThreads )
+    {
+        this.tcpListenerSelectorThreads = tcpListenerSelectorThreads;
+    }
+
+    /**
+     * @return the tcpListenerSelectorThreads
+     */
+    @Override
+    public int getTcpListenerSelectorThreads()
+    {
+        return tcpListenerSelectorThreads;
+    }
+
+    /**
+     * @param requestTimeoutMillis the requestTimeoutMillis to set
+     */
+    @Override
+    public void setRequestTimeoutMillis( int requestTimeoutMillis )
+    {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    /**
+     * @return the requestTimeoutMillis
+     */
+    @Override
+    public int getRequestTimeoutMillis()
+    {
+        return requestTimeoutMillis;
+    }
+
     /**
      * Used to key the instance TODO create another method for this and use toString for debugging
      * only.
@@ -230,4 +230,74 @@ public interface ITCPLateralCacheAttributes
      * @return the openTimeOut
      */
     int getOpenTimeOut();
+
+    /**
+     * The largest number of commands the sender collects into one frame before it writes and
+     * flushes them. Updates and removes of the same key within a frame are coalesced. 0 or 1
+     * sends every command on its own.
+     * <p>
+     * @param batchSize the batchSize to set
+     */
+    void setBatchSize( int batchSize );
+
+    /**
+     * @return the batchSize
+     */
+    int getBatchSize();
+
+    /**
+     * The longest time in microseconds a command waits in a frame before the frame is written.
+     * <p>
+     * @param batchDelayMicros the batchDelayMicros to set
+     */
+    void setBatchDelayMicros( long batchDelayMicros );
+
+    /**
+     * @return the batchDelayMicros
+     */
+    long getBatchDelayMicros();
+
+    /**
+     * The highest version of the message protocol the sender proposes to the listener. 0 sends a
+     * Java object stream, which every listener can read. 1 sends length prefixed messages, which
+     * the non-blocking listener reads without a thread per connection. 2 sends messages in a binary
+     * format, with keys and values written by the element serializer. 3 adds request ids to the
+     * binary format, so many gets can wait for their responses at once. The listener answers with the
+     * highest version it knows, and a listener that does not know the message protocol gets an
+     * object stream.
+     * <p>
+     * @param protocolVersion the protocolVersion to set
+     */
+    void setProtocolVersion( int protocolVersion );
+
+    /**
+     * @return the protocolVersion
+     */
+    int getProtocolVersion();
+
+    /**
+     * The number of selector threads of the non-blocking listener. 0 uses the blocking listener,
+     * which runs a thread for each connected peer.
+     * <p>
+     * @param tcpListenerSelectorThreads the tcpListenerSelectorThreads to set
+     */
+    void setTcpListenerSelectorThreads( int tcpListenerSelectorThreads );
+
+    /**
+     * @return the tcpListenerSelectorThreads
+     */
+    int getTcpListenerSelectorThreads();
+
+    /**
+     * How long a get waits for its response with protocol version 3, after which it returns
+     * nothing. 0 waits as long as the socket timeout.
+     * <p>
+     * @param requestTimeoutMillis the requestTimeoutMillis to set
+     */
+    void setRequestTimeoutMillis( int requestTimeoutMillis );
+
+    /**
+     * @return the requestTimeoutMillis
+     */
+    int getRequestTimeoutMillis();
 }
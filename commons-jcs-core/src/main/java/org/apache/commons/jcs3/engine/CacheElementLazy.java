@@ -0,0 +1,129 @@
+package org.apache.commons.jcs3.engine;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.commons.jcs3.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+
+/**
+ * A serialized element that de-serializes its value on the first call to getVal() and keeps the
+ * result. The serialized value is kept as well, so the element can be written to disk or sent to
+ * a peer again without serializing the value.
+ */
+public class CacheElementLazy<K, V>
+    extends CacheElementSerialized<K, V>
+{
+    /** Don't change. */
+    private static final long serialVersionUID = 2538163329540317735L;
+
+    /** The logger */
+    private static final Log log = LogManager.getLog( CacheElementLazy.class );
+
+    /** Used to de-serialize the value. */
+    private final transient IElementSerializer elementSerializer;
+
+    /** The value, once it was de-serialized. */
+    private transient volatile V value;
+
+    /** Whether the value was de-serialized. */
+    private transient volatile boolean deSerialized;
+
+    /**
+     * Wraps a serialized element.
+     * <p>
+     * @param serialized the element with the serialized value
+     * @param elementSerializer the serializer that wrote the value
+     */
+    public CacheElementLazy( ICacheElementSerialized<K, V> serialized, IElementSerializer elementSerializer )
+    {
+        super( serialized.getCacheName(), serialized.getKey(), serialized.getSerializedValue(),
+               serialized.getElementAttributes() );
+        this.elementSerializer = elementSerializer;
+    }
+
+    /**
+     * De-serializes the value on the first call.
+     * <p>
+     * @return the value, or null if it could not be de-serialized
+     */
+    @Override
+    public V getVal()
+    {
+        if ( !deSerialized )
+        {
+            synchronized ( this )
+            {
+                if ( !deSerialized )
+                {
+                    try
+                    {
+                        value = elementSerializer.deSerialize( getSerializedValue(), null );
+                        deSerialized = true;
+                    }
+                    catch ( IOException | ClassNotFoundException e )
+                    {
+                        log.error( "Problem de-serializing value for key [{0}]", getKey(), e );
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return true if getVal() has de-serialized the value
+     */
+    public boolean isDeSerialized()
+    {
+        return deSerialized;
+    }
+
+    /**
+     * The serializer is not serializable, so a plain CacheElementSerialized is written instead.
+     * <p>
+     * @return a CacheElementSerialized with the same content
+     */
+    protected Object writeReplace()
+    {
+        return new CacheElementSerialized<>( getCacheName(), getKey(), getSerializedValue(),
+                                             getElementAttributes() );
+    }
+
+    /**
+     * For debugging only. Does not de-serialize the value.
+     * <p>
+     * @return debugging string.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "\n CacheElementLazy: " );
+        buf.append( "\n CacheName = [" + getCacheName() + "]" );
+        buf.append( "\n Key = [" + getKey() + "]" );
+        buf.append( "\n DeSerialized = " + deSerialized );
+        buf.append( "\n ElementAttributes = " + getElementAttributes() );
+        return buf.toString();
+    }
+}
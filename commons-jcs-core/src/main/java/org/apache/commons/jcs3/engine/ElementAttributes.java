@@ -205,6 +205,16 @@ public class ElementAttributes
         createTime = System.currentTimeMillis();
     }
 
+    /**
+     * Sets the createTime attribute, for serializers that restore the attributes field by field.
+     * <p>
+     * @param time the create time in milliseconds
+     */
+    public void setCreateTime(long time)
+    {
+        this.createTime = time;
+    }
+
     /**
      * Gets the idleTime attribute of the IAttributes object.
      * <p>
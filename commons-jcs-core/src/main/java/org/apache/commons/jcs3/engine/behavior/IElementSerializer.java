@@ -20,11 +20,17 @@ package org.apache.commons.jcs3.engine.behavior;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Defines the behavior for cache element serializers. This layer of abstraction allows us to plug
  * in different serialization mechanisms, such as a compressing standard serializer.
  * <p>
+ * The disk caches use the stream and buffer variants, so that a serializer that overrides them
+ * writes into the buffer that goes to the disk and reads from the disk buffer without an
+ * intermediate byte array.
+ * <p>
  * @author Aaron Smuts
  */
 public interface IElementSerializer
@@ -48,4 +54,45 @@ public interface IElementSerializer
      */
     <T> T deSerialize( byte[] bytes, ClassLoader loader )
         throws IOException, ClassNotFoundException;
+
+    /**
+     * Writes an object to a stream. The stream is not closed. The bytes written must be readable
+     * by deSerialize, like the bytes returned by serialize.
+     * <p>
+     * The default copies the result of serialize.
+     * @param obj
+     * @param out the stream to write to
+     * @throws IOException
+     */
+    default <T> void serializeTo( T obj, OutputStream out )
+        throws IOException
+    {
+        out.write( serialize( obj ) );
+    }
+
+    /**
+     * Turns the remaining bytes of a buffer into an object. The position of the buffer is not
+     * changed.
+     * <p>
+     * The default hands the backing array to deSerialize when the buffer covers all of it, and
+     * copies the bytes otherwise.
+     * @param data the data, which may be a slice of a larger buffer
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException thrown if we don't know the object.
+     */
+    default <T> T deSerializeFrom( ByteBuffer data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        if ( data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+            && data.remaining() == data.array().length )
+        {
+            return deSerialize( data.array(), loader );
+        }
+
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get( bytes );
+        return deSerialize( bytes, loader );
+    }
 }
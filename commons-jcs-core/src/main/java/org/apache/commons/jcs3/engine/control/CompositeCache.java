@@ -36,6 +36,7 @@ import java.util.stream.Stream;
 import org.apache.commons.jcs3.access.exception.CacheException;
 import org.apache.commons.jcs3.access.exception.ObjectNotFoundException;
 import org.apache.commons.jcs3.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache;
 import org.apache.commons.jcs3.engine.CacheStatus;
 import org.apache.commons.jcs3.engine.behavior.ICache;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
@@ -444,6 +445,82 @@ public class CompositeCache<K, V>
         return get(key, true);
     }
 
+    /**
+     * Do not try to go remote or laterally for this get, and leave the value of an element found on
+     * a disk that stores the values serialized in its serialized form, so that it can be handed on
+     * to a peer without de-serializing and serializing it again. Other disks return the plain
+     * element, which any peer can read. Elements found on disk are not copied to memory, as the
+     * peer and not this cache asked for them.
+     * <p>
+     * @param key
+     * @return ICacheElement, an ICacheElementSerialized if it was found on a disk that stores the
+     *         values serialized
+     */
+    public ICacheElement<K, V> localGetSerialized(K key)
+    {
+        ICacheElement<K, V> element = null;
+        try
+        {
+            element = memCache.get(key);
+        }
+        catch (IOException e)
+        {
+            log.error("Problem encountered getting element.", e);
+        }
+
+        if (element == null)
+        {
+            for (AuxiliaryCache<K, V> aux : auxCaches)
+            {
+                if (aux == null || aux.getCacheType() != CacheType.DISK_CACHE)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    if (aux instanceof AbstractDiskCache && ((AbstractDiskCache<K, V>) aux).isStoreSerializedValues())
+                    {
+                        element = ((AbstractDiskCache<K, V>) aux).getSerialized(key);
+                    }
+                    else
+                    {
+                        element = aux.get(key);
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.error("Error getting from aux", e);
+                }
+
+                if (element != null)
+                {
+                    hitCountAux.incrementAndGet();
+                    break;
+                }
+            }
+        }
+        else
+        {
+            hitCountRam.incrementAndGet();
+        }
+
+        if (element == null)
+        {
+            missCountNotFound.incrementAndGet();
+            return null;
+        }
+
+        if (isExpired(element))
+        {
+            doExpires(element);
+            return null;
+        }
+
+        element.getElementAttributes().setLastAccessTimeNow();
+        return element;
+    }
+
     /**
      * Look in memory, then disk, remote, or laterally for this item. The order is dependent on the
      * order in the cache.ccf file.
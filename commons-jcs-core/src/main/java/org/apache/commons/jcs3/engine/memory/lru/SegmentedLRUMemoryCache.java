@@ -0,0 +1,478 @@
+package org.apache.commons.jcs3.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.jcs3.engine.behavior.ICache;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs3.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs3.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs3.engine.stats.StatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStats;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.struct.DoubleLinkedList;
+
+/**
+ * An LRU memory cache split into independent segments, each with its own
+ * double linked list and lock. The segment of an element is chosen by the hash
+ * code of its key, so puts and gets of different keys rarely contend.
+ * <p>
+ * Each segment holds at most MaxObjects / segments elements (rounded up) and
+ * spools its own least recently used elements to disk when it overflows. The
+ * eviction order is therefore only approximately LRU across the region, and the
+ * region may hold slightly more than MaxObjects elements when the keys are not
+ * evenly spread.
+ * <p>
+ * The number of segments is the number of available processors rounded up to
+ * a power of two, reduced for small regions so that every segment can hold at
+ * least a few elements.
+ */
+public class SegmentedLRUMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogManager.getLog( SegmentedLRUMemoryCache.class );
+
+    /** Smallest capacity of a segment before the number of segments is reduced. */
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    /** The segments */
+    private Segment<K, V>[] segments;
+
+    /** Mask used to select a segment */
+    private int segmentMask;
+
+    /** Maximum number of elements per segment */
+    private int segmentCapacity;
+
+    /** Segment to start the next call of freeElements() with */
+    private final AtomicInteger freeCursor = new AtomicInteger();
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+
+        int maxObjects = Math.max( 0, getCacheAttributes().getMaxObjects() );
+        int count = computeSegmentCount( maxObjects );
+
+        @SuppressWarnings("unchecked") // No generic arrays
+        Segment<K, V>[] newSegments = (Segment<K, V>[]) new Segment<?, ?>[count];
+        this.segments = newSegments;
+        for ( int i = 0; i < count; i++ )
+        {
+            segments[i] = new Segment<>();
+        }
+        this.segmentMask = count - 1;
+        this.segmentCapacity = ( maxObjects + count - 1 ) / count;
+
+        log.info( "initialized SegmentedLRUMemoryCache for {0} with {1} segments",
+                () -> getCacheName(), () -> Integer.valueOf( count ) );
+    }
+
+    /**
+     * Compute the number of segments for a region of the given size. This is
+     * the number of available processors rounded up to a power of two, halved
+     * until each segment holds at least MIN_SEGMENT_CAPACITY elements.
+     * <p>
+     * @param maxObjects the maximum number of elements in the region
+     * @return the number of segments, a power of two
+     */
+    protected int computeSegmentCount( int maxObjects )
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int count = 1 << -Integer.numberOfLeadingZeros( Math.max( 1, processors ) - 1 );
+
+        while ( count > 1 && maxObjects / count < MIN_SEGMENT_CAPACITY )
+        {
+            count >>>= 1;
+        }
+
+        return count;
+    }
+
+    /**
+     * This is called by super initialize.
+     * <p>
+     * @return new ConcurrentHashMap()
+     */
+    @Override
+    public ConcurrentMap<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Puts an item to the cache. The element becomes the most recently used
+     * of its segment. If the segment is over its capacity, up to chunkSize of
+     * its least recently used elements are spooled.
+     * <p>
+     * @param ce The cache element, or entry wrapper
+     * @throws IOException
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        putCnt.incrementAndGet();
+
+        final K key = ce.getKey();
+        final Segment<K, V> segment = segmentFor( key );
+
+        segment.lock.lock();
+        try
+        {
+            MemoryElementDescriptor<K, V> newNode = new MemoryElementDescriptor<>( ce );
+            segment.list.addFirst( newNode );
+
+            MemoryElementDescriptor<K, V> oldNode = map.put( key, newNode );
+            if ( oldNode != null )
+            {
+                segment.unlink( oldNode );
+            }
+
+            int size = segment.list.size();
+            if ( size > segmentCapacity )
+            {
+                int toSpool = Math.min( size, Math.max( 1, chunkSize ) );
+                for ( int i = 0; i < toSpool; i++ )
+                {
+                    if ( spoolLastElement( segment ) == null )
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Get an item from the cache. Only the segment of the key is locked to
+     * make the element the most recently used.
+     * <p>
+     * @param key Identifies item to find
+     * @return ICacheElement&lt;K, V&gt; if found, else null
+     * @throws IOException
+     */
+    @Override
+    public ICacheElement<K, V> get( K key )
+        throws IOException
+    {
+        ICacheElement<K, V> ce = null;
+
+        MemoryElementDescriptor<K, V> me = map.get( key );
+
+        if ( me != null )
+        {
+            hitCnt.incrementAndGet();
+            ce = me.getCacheElement();
+
+            lockedGetElement( me );
+
+            log.debug( "{0}: SegmentedLRUMemoryCache hit for {1}", () -> getCacheName(),
+                    () -> key );
+        }
+        else
+        {
+            missCnt.incrementAndGet();
+
+            log.debug( "{0}: SegmentedLRUMemoryCache miss for {1}", () -> getCacheName(),
+                    () -> key );
+        }
+
+        return ce;
+    }
+
+    /**
+     * Removes an item from the cache. Single keys are removed under the lock
+     * of their segment, hierarchical and group removal is left to the parent.
+     * <p>
+     * @param key
+     * @return true if the removal was successful
+     * @throws IOException
+     */
+    @Override
+    public boolean remove( K key )
+        throws IOException
+    {
+        if ( key instanceof String && ( (String) key ).endsWith( ICache.NAME_COMPONENT_DELIMITER )
+            || key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+        {
+            return super.remove( key );
+        }
+
+        log.debug( "removing item for key: {0}", key );
+
+        final Segment<K, V> segment = segmentFor( key );
+
+        segment.lock.lock();
+        try
+        {
+            MemoryElementDescriptor<K, V> me = map.remove( key );
+            if ( me != null )
+            {
+                segment.unlink( me );
+                return true;
+            }
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes all cached items from the cache. All segments are locked so
+     * that map and lists stay consistent.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void removeAll()
+        throws IOException
+    {
+        for ( Segment<K, V> segment : segments )
+        {
+            segment.lock.lock();
+        }
+
+        try
+        {
+            lockedRemoveAll();
+            map.clear();
+        }
+        finally
+        {
+            for ( Segment<K, V> segment : segments )
+            {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * This instructs the memory cache to remove the <i>numberToFree</i>
+     * least recently used items, taking one from each segment in turn.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed. if you ask to free 5, but there
+     *         are only 3, you will get 3.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+        int empty = 0;
+        int index = freeCursor.getAndIncrement();
+
+        while ( freed < numberToFree && empty < segments.length )
+        {
+            Segment<K, V> segment = segments[index++ & segmentMask];
+
+            segment.lock.lock();
+            try
+            {
+                if ( spoolLastElement( segment ) == null )
+                {
+                    empty++;
+                }
+                else
+                {
+                    freed++;
+                    empty = 0;
+                }
+            }
+            finally
+            {
+                segment.lock.unlock();
+            }
+        }
+
+        return freed;
+    }
+
+    /**
+     * Makes the element the first in the list of its segment.
+     *
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedGetElement( MemoryElementDescriptor<K, V> me )
+    {
+        final Segment<K, V> segment = segmentFor( me.getCacheElement().getKey() );
+
+        segment.lock.lock();
+        try
+        {
+            segment.list.makeFirst( me );
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove element from the list of its segment.
+     *
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedRemoveElement( MemoryElementDescriptor<K, V> me )
+    {
+        final Segment<K, V> segment = segmentFor( me.getCacheElement().getKey() );
+
+        segment.lock.lock();
+        try
+        {
+            segment.unlink( me );
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all cached items from the cache control structures.
+     * (guarded by the locks of all segments)
+     */
+    @Override
+    protected void lockedRemoveAll()
+    {
+        for ( Segment<K, V> segment : segments )
+        {
+            segment.list.removeAll();
+        }
+    }
+
+    /**
+     * This spools the last element of the segment, if one exists.
+     * (guarded by the segment lock)
+     * <p>
+     * @param segment the segment
+     * @return ICacheElement&lt;K, V&gt; if there was a last element, else null.
+     */
+    private ICacheElement<K, V> spoolLastElement( Segment<K, V> segment )
+    {
+        final MemoryElementDescriptor<K, V> last = segment.list.getLast();
+        if ( last == null )
+        {
+            return null;
+        }
+
+        ICacheElement<K, V> toSpool = last.getCacheElement();
+        segment.list.remove( last );
+
+        if ( map.remove( toSpool.getKey(), last ) )
+        {
+            waterfal( toSpool );
+        }
+        else
+        {
+            log.warn( "update: remove failed for key: {0}", toSpool.getKey() );
+        }
+
+        return toSpool;
+    }
+
+    /**
+     * @param key the key
+     * @return the segment responsible for the key
+     */
+    private Segment<K, V> segmentFor( K key )
+    {
+        int h = key.hashCode();
+        h ^= ( h >>> 16 );
+        h *= 0x85ebca6b;
+        h ^= ( h >>> 13 );
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as
+     * the size, put count, hit count, and miss count.
+     * <p>
+     * @return IStats
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "Segmented LRU Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+        elems.add( new StatElement<>( "Segments", Integer.valueOf( segments.length ) ) );
+        elems.add( new StatElement<>( "Segment Capacity", Integer.valueOf( segmentCapacity ) ) );
+
+        return stats;
+    }
+
+    /**
+     * A list and the lock guarding it.
+     */
+    private static final class Segment<K, V>
+    {
+        /** Guards the list */
+        final Lock lock = new ReentrantLock();
+
+        /** Elements of this segment, most recently used first */
+        final DoubleLinkedList<MemoryElementDescriptor<K, V>> list = new DoubleLinkedList<>();
+
+        /**
+         * Remove a node if it is still linked into the list. Nodes removed
+         * concurrently by a spool must not be removed twice.
+         * (guarded by the lock)
+         *
+         * @param me the node
+         */
+        void unlink( MemoryElementDescriptor<K, V> me )
+        {
+            if ( me.prev != null || me.next != null || list.getFirst() == me )
+            {
+                list.remove( me );
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.apache.commons.jcs3.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * A probabilistic count-min sketch used to estimate the popularity of a key
+ * within a time window. Each key is mapped to four 4-bit counters spread
+ * across the table, the estimate being the minimum of those counters.
+ * <p>
+ * To keep the history fresh all counters are halved once the number of
+ * recorded increments reaches ten times the maximum size of the cache
+ * (the "reset" or aging operation of TinyLFU).
+ * <p>
+ * This class is not thread safe. The TinyLfuMemoryCache only accesses it
+ * while holding the eviction lock.
+ */
+public class FrequencySketch
+{
+    /** Seeds for the four hash functions */
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Mask to clear the high bit of each counter after a shift */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** Mask to extract the low bit of each counter */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** Maximum value of a 4-bit counter */
+    private static final int MAX_COUNT = 15;
+
+    /** Table of 16 counters per long */
+    private final long[] table;
+
+    /** Mask used to select a table slot */
+    private final int tableMask;
+
+    /** Number of increments after which the counters are aged */
+    private final int sampleSize;
+
+    /** Number of increments since the last aging */
+    private int size;
+
+    /**
+     * Creates a sketch suitable for a cache holding up to the given number of
+     * elements.
+     * <p>
+     * @param maximumSize the maximum number of elements in the cache
+     */
+    public FrequencySketch( int maximumSize )
+    {
+        int maximum = Math.max( 1, Math.min( maximumSize, 1 << 30 ) );
+        this.table = new long[ceilingPowerOfTwo( maximum )];
+        this.tableMask = table.length - 1;
+        this.sampleSize = (int) Math.min( 10L * maximum, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Returns the estimated number of occurrences of the key, up to 15.
+     * <p>
+     * @param key the key
+     * @return the estimated frequency
+     */
+    public int frequency( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            int count = (int) ( ( table[index] >>> ( ( start + i ) << 2 ) ) & 0xfL );
+            frequency = Math.min( frequency, count );
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Increments the popularity of the key if it does not exceed the maximum
+     * counter value. Ages all counters if the sample size has been reached.
+     * <p>
+     * @param key the key
+     */
+    public void increment( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+
+        boolean added = false;
+        for ( int i = 0; i < 4; i++ )
+        {
+            added |= incrementAt( indexOf( hash, i ), start + i );
+        }
+
+        if ( added && ++size == sampleSize )
+        {
+            reset();
+        }
+    }
+
+    /**
+     * Increments the counter at the given offset of the table slot.
+     * <p>
+     * @param index the table slot
+     * @param offset the counter within the slot, 0 to 15
+     * @return true if the counter was incremented
+     */
+    private boolean incrementAt( int index, int offset )
+    {
+        int shift = offset << 2;
+        long mask = 0xfL << shift;
+        if ( ( table[index] & mask ) != ( (long) MAX_COUNT << shift ) )
+        {
+            table[index] += 1L << shift;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Halves every counter and adjusts the sample count accordingly.
+     */
+    private void reset()
+    {
+        int odd = 0;
+        for ( int i = 0; i < table.length; i++ )
+        {
+            odd += Long.bitCount( table[i] & ONE_MASK );
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+
+        size = ( size - ( odd >>> 2 ) ) >>> 1;
+    }
+
+    /**
+     * Returns the table slot for the i-th hash function.
+     * <p>
+     * @param hash the spread hash of the key
+     * @param i the hash function index
+     * @return the table slot
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEED[i] ) * SEED[i];
+        h += h >>> 32;
+        return ( (int) h ) & tableMask;
+    }
+
+    /**
+     * Applies a supplemental hash function to defend against poor quality
+     * hash codes.
+     * <p>
+     * @param x the hash code
+     * @return the spread hash
+     */
+    private static int spread( int x )
+    {
+        x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        return ( x >>> 16 ) ^ x;
+    }
+
+    /**
+     * @param x a positive value
+     * @return the smallest power of two greater than or equal to x
+     */
+    private static int ceilingPowerOfTwo( int x )
+    {
+        return 1 << -Integer.numberOfLeadingZeros( x - 1 );
+    }
+}
@@ -0,0 +1,167 @@
+package org.apache.commons.jcs3.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A striped, lossy buffer recording read accesses. Readers publish into one of
+ * several small ring buffers selected by thread, so that they never block and
+ * rarely contend. When a ring is full the access is simply dropped: the policy
+ * only needs a sample of the reads to make good decisions.
+ * <p>
+ * Draining must be done by a single thread at a time, i.e. while holding the
+ * eviction lock of the owning cache.
+ */
+public class ReadBuffer<E>
+{
+    /** Number of slots in each ring, must be a power of two */
+    static final int RING_SIZE = 16;
+
+    /** Mask for the slot index */
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    /** The rings */
+    private final Ring<E>[] rings;
+
+    /** Mask for the ring index */
+    private final int ringMask;
+
+    /**
+     * Creates a buffer with one ring per available processor, rounded up to a
+     * power of two.
+     */
+    public ReadBuffer()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a buffer with at least the given number of rings.
+     * <p>
+     * @param stripes the desired number of rings
+     */
+    public ReadBuffer( int stripes )
+    {
+        int count = 1 << -Integer.numberOfLeadingZeros( Math.max( 1, stripes ) - 1 );
+        @SuppressWarnings("unchecked") // No generic arrays
+        Ring<E>[] newRings = (Ring<E>[]) new Ring<?>[count];
+        this.rings = newRings;
+        for ( int i = 0; i < count; i++ )
+        {
+            rings[i] = new Ring<>();
+        }
+        this.ringMask = count - 1;
+    }
+
+    /**
+     * Records an element. The element may be dropped if the ring of the
+     * calling thread is full.
+     * <p>
+     * @param e the element
+     * @return true if the ring is full and should be drained
+     */
+    public boolean offer( E e )
+    {
+        long id = Thread.currentThread().getId();
+        int h = (int) ( id ^ ( id >>> 32 ) ) * 0x9e3779b9;
+        Ring<E> ring = rings[( h ^ ( h >>> 16 ) ) & ringMask];
+        return ring.offer( e );
+    }
+
+    /**
+     * Hands all recorded elements to the consumer and empties the buffer.
+     * Must only be called by one thread at a time.
+     * <p>
+     * @param consumer the consumer of the recorded elements
+     */
+    public void drainTo( Consumer<E> consumer )
+    {
+        for ( Ring<E> ring : rings )
+        {
+            ring.drainTo( consumer );
+        }
+    }
+
+    /**
+     * A bounded single consumer, multiple producer ring.
+     */
+    private static final class Ring<E>
+    {
+        /** The slots */
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>( RING_SIZE );
+
+        /** Next position to write */
+        private final AtomicLong writeCounter = new AtomicLong();
+
+        /** Next position to read, only modified by the draining thread */
+        private volatile long readCounter;
+
+        /**
+         * @param e the element to record
+         * @return true if the ring is full
+         */
+        boolean offer( E e )
+        {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            long size = tail - head;
+            if ( size >= RING_SIZE )
+            {
+                return true;
+            }
+
+            if ( writeCounter.compareAndSet( tail, tail + 1 ) )
+            {
+                buffer.lazySet( (int) ( tail & RING_MASK ), e );
+                return size + 1 >= RING_SIZE;
+            }
+
+            // lost the race against another reader, drop the sample
+            return false;
+        }
+
+        /**
+         * @param consumer the consumer of the recorded elements
+         */
+        void drainTo( Consumer<E> consumer )
+        {
+            long head = readCounter;
+            long tail = writeCounter.get();
+
+            for ( ; head != tail; head++ )
+            {
+                int index = (int) ( head & RING_MASK );
+                E e = buffer.get( index );
+                if ( e == null )
+                {
+                    // slot claimed but not yet published
+                    break;
+                }
+                buffer.lazySet( index, null );
+                consumer.accept( e );
+            }
+
+            readCounter = head;
+        }
+    }
+}
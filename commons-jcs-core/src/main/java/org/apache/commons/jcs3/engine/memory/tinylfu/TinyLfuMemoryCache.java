@@ -0,0 +1,524 @@
+package org.apache.commons.jcs3.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+import org.apache.commons.jcs3.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs3.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs3.engine.stats.StatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs3.engine.stats.behavior.IStats;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.struct.DoubleLinkedList;
+
+/**
+ * A memory cache using the W-TinyLFU eviction policy.
+ * <p>
+ * New elements enter a small LRU admission window (1% of MaxObjects). Elements
+ * falling out of the window compete with the least valuable element of the
+ * main space for admission, using a count-min sketch of the access frequency
+ * of recently seen keys. The main space is a segmented LRU with a probation
+ * and a protected (80%) segment. This keeps one-hit wonders and scans from
+ * flushing the frequently used elements out of the region.
+ * <p>
+ * Reads never take the lock. They are recorded in a striped lossy buffer which
+ * is replayed against the policy by whichever thread next acquires the lock:
+ * a writer, or a reader that finds its buffer full and the lock free.
+ * <p>
+ * Elements that are evicted are spooled to disk if the region has a disk
+ * cache, just as with the LRUMemoryCache.
+ */
+public class TinyLfuMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogManager.getLog( TinyLfuMemoryCache.class );
+
+    /** Percentage of MaxObjects given to the admission window */
+    private static final int PERCENT_WINDOW = 1;
+
+    /** Percentage of the main space given to the protected segment */
+    private static final int PERCENT_PROTECTED = 80;
+
+    /** The admission window, most recently used first */
+    private DoubleLinkedList<TinyLfuElementDescriptor<K, V>> window;
+
+    /** Main space elements seen once, most recently used first */
+    private DoubleLinkedList<TinyLfuElementDescriptor<K, V>> probation;
+
+    /** Main space elements seen more than once, most recently used first */
+    private DoubleLinkedList<TinyLfuElementDescriptor<K, V>> protectedSegment;
+
+    /** Popularity estimates of the keys */
+    private FrequencySketch sketch;
+
+    /** Accesses not yet applied to the policy */
+    private ReadBuffer<TinyLfuElementDescriptor<K, V>> readBuffer;
+
+    /** Maximum number of elements in the window */
+    private int maxWindow;
+
+    /** Maximum number of elements in the main space */
+    private int maxMain;
+
+    /** Maximum number of elements in the protected segment */
+    private int maxProtected;
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+
+        int maxObjects = Math.max( 0, getCacheAttributes().getMaxObjects() );
+        this.maxWindow = Math.min( maxObjects, Math.max( 1, maxObjects * PERCENT_WINDOW / 100 ) );
+        this.maxMain = Math.max( 0, maxObjects - maxWindow );
+        this.maxProtected = (int) ( (long) maxMain * PERCENT_PROTECTED / 100 );
+
+        this.window = new DoubleLinkedList<>();
+        this.probation = new DoubleLinkedList<>();
+        this.protectedSegment = new DoubleLinkedList<>();
+        this.sketch = new FrequencySketch( maxObjects );
+        this.readBuffer = new ReadBuffer<>();
+
+        log.info( "initialized TinyLfuMemoryCache for {0}", () -> getCacheName() );
+    }
+
+    /**
+     * This is called by super initialize.
+     * <p>
+     * @return new ConcurrentHashMap()
+     */
+    @Override
+    public ConcurrentMap<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get an item from the cache. The access is recorded in the read buffer,
+     * the lock is only taken if the buffer needs to be drained and nobody else
+     * is holding it.
+     * <p>
+     * @param key Identifies item to find
+     * @return ICacheElement&lt;K, V&gt; if found, else null
+     * @throws IOException
+     */
+    @Override
+    public ICacheElement<K, V> get( K key )
+        throws IOException
+    {
+        ICacheElement<K, V> ce = null;
+
+        MemoryElementDescriptor<K, V> me = map.get( key );
+
+        if ( me != null )
+        {
+            hitCnt.incrementAndGet();
+            ce = me.getCacheElement();
+
+            if ( readBuffer.offer( (TinyLfuElementDescriptor<K, V>) me ) && lock.tryLock() )
+            {
+                try
+                {
+                    drainReadBuffer();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+
+            log.debug( "{0}: TinyLfuMemoryCache hit for {1}", () -> getCacheName(),
+                    () -> key );
+        }
+        else
+        {
+            missCnt.incrementAndGet();
+
+            log.debug( "{0}: TinyLfuMemoryCache miss for {1}", () -> getCacheName(),
+                    () -> key );
+        }
+
+        return ce;
+    }
+
+    /**
+     * Puts an item to the cache. The new element is added to the admission
+     * window, elements are evicted if the cache is over its size.
+     * <p>
+     * @param ce The cache element, or entry wrapper
+     * @throws IOException
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        putCnt.incrementAndGet();
+
+        lock.lock();
+        try
+        {
+            drainReadBuffer();
+
+            TinyLfuElementDescriptor<K, V> node = new TinyLfuElementDescriptor<>( ce );
+            MemoryElementDescriptor<K, V> oldNode = map.put( ce.getKey(), node );
+            if ( oldNode != null )
+            {
+                lockedRemoveElement( oldNode );
+            }
+
+            sketch.increment( ce.getKey() );
+            node.queue = Queue.WINDOW;
+            window.addFirst( node );
+
+            evict();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This instructs the memory cache to remove the <i>numberToFree</i>
+     * according to its eviction policy. Elements on probation go first, then
+     * the admission window, then the protected elements.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed. if you ask to free 5, but there
+     *         are only 3, you will get 3.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+
+        lock.lock();
+        try
+        {
+            drainReadBuffer();
+
+            for ( ; freed < numberToFree; freed++ )
+            {
+                TinyLfuElementDescriptor<K, V> victim = probation.getLast();
+                if ( victim == null )
+                {
+                    victim = window.getLast();
+                }
+                if ( victim == null )
+                {
+                    victim = protectedSegment.getLast();
+                }
+                if ( victim == null )
+                {
+                    break;
+                }
+
+                spool( victim );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return freed;
+    }
+
+    /**
+     * Update control structures after get
+     * (guarded by the lock)
+     *
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedGetElement( MemoryElementDescriptor<K, V> me )
+    {
+        onAccess( (TinyLfuElementDescriptor<K, V>) me );
+    }
+
+    /**
+     * Remove element from control structure
+     * (guarded by the lock)
+     *
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedRemoveElement( MemoryElementDescriptor<K, V> me )
+    {
+        TinyLfuElementDescriptor<K, V> node = (TinyLfuElementDescriptor<K, V>) me;
+
+        switch ( node.queue )
+        {
+            case WINDOW:
+                window.remove( node );
+                break;
+            case PROBATION:
+                probation.remove( node );
+                break;
+            case PROTECTED:
+                protectedSegment.remove( node );
+                break;
+            default:
+                // already removed
+                break;
+        }
+
+        node.queue = Queue.DEAD;
+    }
+
+    /**
+     * Removes all cached items from the cache control structures.
+     * (guarded by the lock)
+     */
+    @Override
+    protected void lockedRemoveAll()
+    {
+        // pending reads are discarded, the nodes are about to be dropped
+        readBuffer.drainTo( node -> { /* ignore */ } );
+
+        removeAll( window );
+        removeAll( probation );
+        removeAll( protectedSegment );
+    }
+
+    /**
+     * Mark all elements of a segment as removed and clear it.
+     * (guarded by the lock)
+     *
+     * @param list the segment
+     */
+    @SuppressWarnings("unchecked") // No generics for public fields
+    private void removeAll( DoubleLinkedList<TinyLfuElementDescriptor<K, V>> list )
+    {
+        for ( TinyLfuElementDescriptor<K, V> node = list.getFirst(); node != null;
+                node = (TinyLfuElementDescriptor<K, V>) node.next )
+        {
+            node.queue = Queue.DEAD;
+        }
+        list.removeAll();
+    }
+
+    /**
+     * Apply the recorded reads to the policy.
+     * (guarded by the lock)
+     */
+    private void drainReadBuffer()
+    {
+        readBuffer.drainTo( this::onAccess );
+    }
+
+    /**
+     * Update the popularity and the position of an element after it has been
+     * read. An element on probation is promoted to the protected segment, the
+     * least recently used protected element is demoted to probation if the
+     * segment overflows.
+     * (guarded by the lock)
+     *
+     * @param node the element that has been read
+     */
+    private void onAccess( TinyLfuElementDescriptor<K, V> node )
+    {
+        switch ( node.queue )
+        {
+            case WINDOW:
+                sketch.increment( node.getCacheElement().getKey() );
+                window.makeFirst( node );
+                break;
+
+            case PROBATION:
+                sketch.increment( node.getCacheElement().getKey() );
+                probation.remove( node );
+                node.queue = Queue.PROTECTED;
+                protectedSegment.addFirst( node );
+
+                while ( protectedSegment.size() > maxProtected )
+                {
+                    TinyLfuElementDescriptor<K, V> demoted = protectedSegment.getLast();
+                    protectedSegment.remove( demoted );
+                    demoted.queue = Queue.PROBATION;
+                    probation.addFirst( demoted );
+                }
+                break;
+
+            case PROTECTED:
+                sketch.increment( node.getCacheElement().getKey() );
+                protectedSegment.makeFirst( node );
+                break;
+
+            default:
+                // removed after it was read
+                break;
+        }
+    }
+
+    /**
+     * Move the overflow of the admission window to the main space. A candidate
+     * only enters a full main space if it is more popular than the element
+     * that would be evicted for it.
+     * (guarded by the lock)
+     */
+    private void evict()
+    {
+        while ( window.size() > maxWindow )
+        {
+            TinyLfuElementDescriptor<K, V> candidate = window.getLast();
+
+            if ( probation.size() + protectedSegment.size() < maxMain )
+            {
+                window.remove( candidate );
+                candidate.queue = Queue.PROBATION;
+                probation.addFirst( candidate );
+                continue;
+            }
+
+            TinyLfuElementDescriptor<K, V> victim = probation.getLast();
+            if ( victim == null )
+            {
+                victim = protectedSegment.getLast();
+            }
+
+            if ( victim != null && admit( candidate, victim ) )
+            {
+                spool( victim );
+                window.remove( candidate );
+                candidate.queue = Queue.PROBATION;
+                probation.addFirst( candidate );
+            }
+            else
+            {
+                spool( candidate );
+            }
+        }
+    }
+
+    /**
+     * Decide whether the candidate is more valuable than the victim.
+     *
+     * @param candidate the element leaving the admission window
+     * @param victim the least valuable element of the main space
+     * @return true if the candidate should replace the victim
+     */
+    private boolean admit( TinyLfuElementDescriptor<K, V> candidate,
+            TinyLfuElementDescriptor<K, V> victim )
+    {
+        int candidateFreq = sketch.frequency( candidate.getCacheElement().getKey() );
+        int victimFreq = sketch.frequency( victim.getCacheElement().getKey() );
+
+        log.trace( "admit candidate {0} ({1}) vs victim {2} ({3})",
+                () -> candidate.getCacheElement().getKey(), () -> candidateFreq,
+                () -> victim.getCacheElement().getKey(), () -> victimFreq );
+
+        return candidateFreq > victimFreq;
+    }
+
+    /**
+     * Remove an element from the policy and the map and spool it to disk.
+     * (guarded by the lock)
+     *
+     * @param node the element to evict
+     */
+    private void spool( TinyLfuElementDescriptor<K, V> node )
+    {
+        ICacheElement<K, V> ce = node.getCacheElement();
+        lockedRemoveElement( node );
+
+        if ( !map.remove( ce.getKey(), node ) )
+        {
+            log.warn( "evict: remove failed for key: {0}", ce.getKey() );
+        }
+
+        waterfal( ce );
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as
+     * the size, put count, hit count, miss count and the size of the segments.
+     * <p>
+     * @return IStats
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "TinyLfu Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+        elems.add( new StatElement<>( "Window Size", Integer.valueOf( window.size() ) ) );
+        elems.add( new StatElement<>( "Probation Size", Integer.valueOf( probation.size() ) ) );
+        elems.add( new StatElement<>( "Protected Size", Integer.valueOf( protectedSegment.size() ) ) );
+
+        return stats;
+    }
+
+    /** The segment an element lives in */
+    protected enum Queue
+    {
+        /** Not yet linked */
+        NONE,
+
+        /** In the admission window */
+        WINDOW,
+
+        /** In the probation segment of the main space */
+        PROBATION,
+
+        /** In the protected segment of the main space */
+        PROTECTED,
+
+        /** Removed from the cache */
+        DEAD
+    }
+
+    /**
+     * A memory element descriptor which remembers the segment it lives in.
+     */
+    protected static class TinyLfuElementDescriptor<K, V>
+        extends MemoryElementDescriptor<K, V>
+    {
+        /** Don't change */
+        private static final long serialVersionUID = 4466519226428327353L;
+
+        /** The segment, guarded by the lock */
+        protected transient Queue queue = Queue.NONE;
+
+        /**
+         * @param ce the cache element
+         */
+        public TinyLfuElementDescriptor( ICacheElement<K, V> ce )
+        {
+            super( ce );
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.jcs3.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A ByteArrayOutputStream whose content can be handed on as a ByteBuffer without the copy made by
+ * toByteArray. This lets a serializer write straight into the buffer that goes to the disk.
+ */
+public class ByteBufferOutputStream extends ByteArrayOutputStream
+{
+    /**
+     * Creates a stream with the default initial size.
+     */
+    public ByteBufferOutputStream()
+    {
+        super();
+    }
+
+    /**
+     * @param size the initial size of the buffer
+     */
+    public ByteBufferOutputStream(final int size)
+    {
+        super(size);
+    }
+
+    /**
+     * Wraps the bytes written so far. The buffer shares the array of this stream, so the stream
+     * must not be written to or reset while the buffer is in use.
+     * <p>
+     * @return a buffer from position 0 to the number of bytes written
+     */
+    public synchronized ByteBuffer toByteBuffer()
+    {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+}
@@ -0,0 +1,670 @@
+package org.apache.commons.jcs3.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.zip.CompressionUtil;
+import org.apache.commons.jcs3.utils.zip.DictionaryTrainer;
+import org.apache.commons.jcs3.utils.zip.LZ4Codec;
+
+/**
+ * Performs default serialization and compresses the value only where it pays off. Values smaller
+ * than the compression threshold are stored as they are. Larger values are compressed with the
+ * configured codec, and stored as they are when the codec does not save at least an eighth of the
+ * size; the compression stops as soon as it is clear that it will not.
+ * <p>
+ * The codec is either lz4, a fast pure Java LZ4 block codec, or deflate. The Deflater and Inflater
+ * of each thread are reused. Compressed values start with a byte naming the codec, followed by the
+ * uncompressed length. Uncompressed values are the plain output of the StandardSerializer, and the
+ * output of the CompressingSerializer is recognized as well, so data written with any of the three
+ * serializers and any codec can be read.
+ * <p>
+ * The dictionary codec is meant for regions of many small, similar values, which deflate alone
+ * hardly shrinks. It samples the first dictionarySampleCount values, trains a preset deflate
+ * dictionary from them and compresses each following value against it. Until the dictionary is
+ * trained, values are deflated without one. The dictionary is written to the dictionaryFile and
+ * read from it on the next start, so the values stored on disk stay readable. It is only used once
+ * it is written, so without a dictionaryFile, values are deflated without a dictionary. Values are marked
+ * with the checksum of their dictionary; every party that reads them, such as the peers of a
+ * lateral or remote cache, needs a serializer with the same dictionaryFile.
+ * <p>
+ * Configure it for an auxiliary with
+ * <pre>
+ * jcs.auxiliary.NAME.serializer=org.apache.commons.jcs3.utils.serialization.AdaptiveCompressingSerializer
+ * jcs.auxiliary.NAME.serializer.attributes.codec=lz4
+ * jcs.auxiliary.NAME.serializer.attributes.compressionThreshold=512
+ * jcs.auxiliary.NAME.serializer.attributes.deflateLevel=1
+ * </pre>
+ * or, for small values,
+ * <pre>
+ * jcs.auxiliary.NAME.serializer.attributes.codec=dictionary
+ * jcs.auxiliary.NAME.serializer.attributes.compressionThreshold=32
+ * jcs.auxiliary.NAME.serializer.attributes.dictionaryFile=target/NAME.dict
+ * </pre>
+ */
+public class AdaptiveCompressingSerializer extends StandardSerializer
+{
+    /** The logger */
+    private static final Log log = LogManager.getLog( AdaptiveCompressingSerializer.class );
+
+    /** Name of the LZ4 codec */
+    public static final String CODEC_LZ4 = "lz4";
+
+    /** Name of the deflate codec */
+    public static final String CODEC_DEFLATE = "deflate";
+
+    /** Name of the deflate codec with a trained dictionary */
+    public static final String CODEC_DICTIONARY = "dictionary";
+
+    /** The default size below which values are not compressed */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    /** The default number of values sampled to train the dictionary */
+    public static final int DEFAULT_DICTIONARY_SAMPLE_COUNT = 1000;
+
+    /** The default size of the dictionary */
+    public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+
+    /** Deflate does not look further back than this. */
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    /** First byte of a value compressed with deflate */
+    private static final byte HEADER_DEFLATE = 0x01;
+
+    /** First byte of a value compressed with LZ4 */
+    private static final byte HEADER_LZ4 = 0x02;
+
+    /** First byte of a value deflated with a preset dictionary */
+    private static final byte HEADER_DICTIONARY = 0x03;
+
+    /** First byte of the zlib output of the CompressingSerializer */
+    private static final byte HEADER_ZLIB = 0x78;
+
+    /** The codec byte and the uncompressed length */
+    private static final int HEADER_SIZE_BYTES = 5;
+
+    /** Deflate cannot expand its input more than this. */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    /** Scratch buffers larger than this are not kept for the next call. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /** The Deflater of each thread */
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial( Deflater::new );
+
+    /** The Inflater of each thread */
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial( Inflater::new );
+
+    /** The scratch buffer for the compressed value of each thread */
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial( () -> new byte[4096] );
+
+    /** Values smaller than this are not compressed. */
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /** The codec, one of the CODEC constants */
+    private String codec = CODEC_LZ4;
+
+    /** The deflate level */
+    private int deflateLevel = Deflater.BEST_SPEED;
+
+    /** The number of values sampled to train the dictionary */
+    private int dictionarySampleCount = DEFAULT_DICTIONARY_SAMPLE_COUNT;
+
+    /** The largest size of the dictionary */
+    private int dictionarySize = DEFAULT_DICTIONARY_SIZE;
+
+    /** Where the dictionary is kept, may be null */
+    private File dictionaryFile;
+
+    /** The trained dictionary, null until it is trained or read */
+    private volatile byte[] dictionary;
+
+    /** The Adler-32 checksum of the dictionary, which zlib records in each value */
+    private volatile int dictionaryId;
+
+    /** The samples collected to train the dictionary */
+    private final List<byte[]> samples = new ArrayList<>();
+
+    /** Whether the missing dictionary file was logged */
+    private boolean missingFileLogged;
+
+    /**
+     * @param compressionThreshold values smaller than this number of bytes are not compressed
+     */
+    public void setCompressionThreshold( int compressionThreshold )
+    {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return values smaller than this number of bytes are not compressed
+     */
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param codec lz4, deflate or dictionary
+     */
+    public void setCodec( String codec )
+    {
+        for ( String known : new String[] { CODEC_LZ4, CODEC_DEFLATE, CODEC_DICTIONARY } )
+        {
+            if ( known.equalsIgnoreCase( codec ) )
+            {
+                this.codec = known;
+                return;
+            }
+        }
+        log.warn( "Unknown codec [{0}], keeping {1}", codec, this.codec );
+    }
+
+    /**
+     * @return lz4, deflate or dictionary
+     */
+    public String getCodec()
+    {
+        return codec;
+    }
+
+    /**
+     * @param deflateLevel the level of the deflate codec, from 1 (fastest) to 9 (smallest)
+     */
+    public void setDeflateLevel( int deflateLevel )
+    {
+        this.deflateLevel = deflateLevel;
+    }
+
+    /**
+     * @return the level of the deflate codec
+     */
+    public int getDeflateLevel()
+    {
+        return deflateLevel;
+    }
+
+    /**
+     * @param dictionarySampleCount the number of values sampled to train the dictionary
+     */
+    public void setDictionarySampleCount( int dictionarySampleCount )
+    {
+        this.dictionarySampleCount = dictionarySampleCount;
+    }
+
+    /**
+     * @return the number of values sampled to train the dictionary
+     */
+    public int getDictionarySampleCount()
+    {
+        return dictionarySampleCount;
+    }
+
+    /**
+     * @param dictionarySize the largest size of the dictionary, at most 32 KB
+     */
+    public void setDictionarySize( int dictionarySize )
+    {
+        this.dictionarySize = Math.min( dictionarySize, MAX_DICTIONARY_SIZE );
+    }
+
+    /**
+     * @return the largest size of the dictionary
+     */
+    public int getDictionarySize()
+    {
+        return dictionarySize;
+    }
+
+    /**
+     * Sets the file of the dictionary, and reads the dictionary from it if it exists.
+     * <p>
+     * @param dictionaryFile the path of the file
+     */
+    public void setDictionaryFile( String dictionaryFile )
+    {
+        this.dictionaryFile = new File( dictionaryFile );
+        if ( this.dictionaryFile.exists() )
+        {
+            try
+            {
+                setDictionary( Files.readAllBytes( this.dictionaryFile.toPath() ) );
+                log.info( "Read dictionary of {0} bytes from {1}", dictionary.length, this.dictionaryFile );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not read dictionary from {0}", this.dictionaryFile, e );
+            }
+        }
+    }
+
+    /**
+     * @return the path of the dictionary file, or null
+     */
+    public String getDictionaryFile()
+    {
+        return dictionaryFile == null ? null : dictionaryFile.getPath();
+    }
+
+    /**
+     * Uses the given dictionary instead of training one.
+     * <p>
+     * @param dictionary a preset deflate dictionary
+     */
+    public void setDictionary( byte[] dictionary )
+    {
+        Adler32 adler = new Adler32();
+        adler.update( dictionary );
+        this.dictionaryId = (int) adler.getValue();
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the dictionary, or null if it is not trained yet
+     */
+    public byte[] getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * Serializes an object using default serialization and compresses it if that pays off.
+     * <p>
+     * @param obj object
+     * @return byte[]
+     * @throws IOException on i/o problem
+     */
+    @Override
+    public <T> byte[] serialize( T obj )
+        throws IOException
+    {
+        byte[] uncompressed = super.serialize( obj );
+        byte[] scratch = scratch( uncompressed.length );
+        int length = compress( uncompressed, scratch );
+        return length < 0 ? uncompressed : Arrays.copyOf( scratch, length );
+    }
+
+    /**
+     * Like serialize, but writes the compressed value straight from the scratch buffer into the
+     * stream.
+     * <p>
+     * @param obj object
+     * @param out the stream, which is not closed
+     * @throws IOException on i/o problem
+     */
+    @Override
+    public <T> void serializeTo( T obj, OutputStream out )
+        throws IOException
+    {
+        byte[] uncompressed = super.serialize( obj );
+        byte[] scratch = scratch( uncompressed.length );
+        int length = compress( uncompressed, scratch );
+        if ( length < 0 )
+        {
+            out.write( uncompressed );
+        }
+        else
+        {
+            out.write( scratch, 0, length );
+        }
+    }
+
+    /**
+     * Uses default de-serialization to turn a byte array into an object, decompressing it first if
+     * it was compressed.
+     * <p>
+     * @param data data bytes
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException on i/o problem
+     * @throws ClassNotFoundException if class is not found during deserialization
+     */
+    @Override
+    public <T> T deSerialize( byte[] data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        if ( data == null )
+        {
+            return null;
+        }
+
+        return super.deSerialize( decompress( data, 0, data.length ), loader );
+    }
+
+    /**
+     * Reads an uncompressed value in place. A compressed value is copied out of the buffer unless
+     * the buffer is backed by an array.
+     * <p>
+     * @param data the data
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException on i/o problem
+     * @throws ClassNotFoundException if class is not found during deserialization
+     */
+    @Override
+    public <T> T deSerializeFrom( ByteBuffer data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        if ( data == null )
+        {
+            return null;
+        }
+
+        byte header = data.remaining() > 0 ? data.get( data.position() ) : 0;
+        if ( header != HEADER_DEFLATE && header != HEADER_LZ4 && header != HEADER_DICTIONARY
+            && header != HEADER_ZLIB )
+        {
+            return super.deSerializeFrom( data, loader );
+        }
+
+        if ( data.hasArray() )
+        {
+            return super.deSerialize(
+                decompress( data.array(), data.arrayOffset() + data.position(), data.remaining() ), loader );
+        }
+
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get( bytes );
+        return deSerialize( bytes, loader );
+    }
+
+    /**
+     * Compresses a serialized value into the scratch buffer.
+     * <p>
+     * @param uncompressed the serialized value
+     * @param scratch a buffer at least as large as the value
+     * @return the length of the compressed value with its header, or -1 to store it as it is
+     */
+    private int compress( byte[] uncompressed, byte[] scratch )
+    {
+        byte[] preset = null;
+        if ( CODEC_DICTIONARY.equals( codec ) )
+        {
+            preset = dictionary;
+            if ( preset == null )
+            {
+                sample( uncompressed );
+            }
+        }
+
+        int length = uncompressed.length;
+        if ( length < compressionThreshold || length < HEADER_SIZE_BYTES )
+        {
+            return -1;
+        }
+
+        // anything longer saves less than an eighth
+        int limit = length - ( length >>> 3 ) - HEADER_SIZE_BYTES;
+        int compressed;
+        if ( CODEC_LZ4.equals( codec ) )
+        {
+            scratch[0] = HEADER_LZ4;
+            compressed = LZ4Codec.compress( uncompressed, 0, length, scratch, HEADER_SIZE_BYTES, limit );
+        }
+        else
+        {
+            scratch[0] = preset == null ? HEADER_DEFLATE : HEADER_DICTIONARY;
+            compressed = deflate( uncompressed, scratch, limit, preset );
+        }
+
+        if ( compressed < 0 )
+        {
+            log.trace( "Value of {0} bytes is not compressible, storing it as it is", length );
+            return -1;
+        }
+
+        scratch[1] = (byte) ( length >>> 24 );
+        scratch[2] = (byte) ( length >>> 16 );
+        scratch[3] = (byte) ( length >>> 8 );
+        scratch[4] = (byte) length;
+        return HEADER_SIZE_BYTES + compressed;
+    }
+
+    /**
+     * Deflates with the Deflater of this thread, giving up when the output reaches the limit.
+     * <p>
+     * @return the length of the deflated data, or -1 if it would be longer than limit
+     */
+    private int deflate( byte[] uncompressed, byte[] scratch, int limit, byte[] preset )
+    {
+        Deflater deflater = DEFLATER.get();
+        try
+        {
+            deflater.setLevel( deflateLevel );
+            if ( preset != null )
+            {
+                deflater.setDictionary( preset );
+            }
+            deflater.setInput( uncompressed );
+            deflater.finish();
+
+            int length = 0;
+            while ( !deflater.finished() && length < limit )
+            {
+                length += deflater.deflate( scratch, HEADER_SIZE_BYTES + length, limit - length );
+            }
+            return deflater.finished() ? length : -1;
+        }
+        finally
+        {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Returns the serialized form of a stored value.
+     * <p>
+     * @param data the stored value
+     * @param offset the start of the value
+     * @param length the length of the value
+     * @return the serialized value, which is the stored value itself if it is not compressed and
+     *         covers the whole array
+     * @throws IOException if the compressed data is corrupt
+     */
+    private byte[] decompress( byte[] data, int offset, int length )
+        throws IOException
+    {
+        byte header = length > 0 ? data[offset] : 0;
+        if ( header == HEADER_ZLIB )
+        {
+            return CompressionUtil.decompressByteArray( Arrays.copyOfRange( data, offset, offset + length ) );
+        }
+        if ( header != HEADER_DEFLATE && header != HEADER_LZ4 && header != HEADER_DICTIONARY )
+        {
+            return offset == 0 && length == data.length ? data : Arrays.copyOfRange( data, offset, offset + length );
+        }
+        if ( length < HEADER_SIZE_BYTES )
+        {
+            throw new IOException( "Compressed value of " + length + " bytes is too short" );
+        }
+
+        int uncompressedLength = ( data[offset + 1] & 0xFF ) << 24 | ( data[offset + 2] & 0xFF ) << 16
+            | ( data[offset + 3] & 0xFF ) << 8 | data[offset + 4] & 0xFF;
+        int start = offset + HEADER_SIZE_BYTES;
+        int compressedLength = length - HEADER_SIZE_BYTES;
+        long maxLength = header == HEADER_LZ4 ? LZ4Codec.maxDecompressedLength( compressedLength )
+            : (long) compressedLength * MAX_DEFLATE_RATIO;
+        if ( uncompressedLength < 0 || uncompressedLength > maxLength )
+        {
+            throw new IOException( "Corrupt uncompressed length " + uncompressedLength + " of a "
+                + compressedLength + " byte value" );
+        }
+
+        byte[] uncompressed = new byte[uncompressedLength];
+        if ( header == HEADER_LZ4 )
+        {
+            LZ4Codec.decompress( data, start, compressedLength, uncompressed, 0, uncompressedLength );
+            return uncompressed;
+        }
+
+        Inflater inflater = INFLATER.get();
+        try
+        {
+            inflater.setInput( data, start, compressedLength );
+            int count = 0;
+            while ( count < uncompressedLength && !inflater.finished() )
+            {
+                int inflated = inflater.inflate( uncompressed, count, uncompressedLength - count );
+                if ( inflated == 0 && inflater.needsDictionary() )
+                {
+                    byte[] preset = dictionary;
+                    if ( preset == null || inflater.getAdler() != dictionaryId )
+                    {
+                        throw new IOException( "Value was compressed with an unknown dictionary "
+                            + Integer.toHexString( inflater.getAdler() ) );
+                    }
+                    inflater.setDictionary( preset );
+                    continue;
+                }
+                if ( inflated == 0 && inflater.needsInput() )
+                {
+                    break;
+                }
+                count += inflated;
+            }
+            if ( count != uncompressedLength || !inflater.finished() )
+            {
+                throw new IOException( "Corrupt deflated value, inflated " + count + " bytes instead of "
+                    + uncompressedLength );
+            }
+            return uncompressed;
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IOException( "Corrupt deflated value", e );
+        }
+        finally
+        {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Keeps a copy of a value for the training of the dictionary, and trains it once enough values
+     * are sampled. The dictionary is written to the dictionary file before it is used, so values
+     * compressed with it can be read after a restart. Without a dictionary file, no dictionary is
+     * trained. If writing fails, new samples are collected for another try.
+     * <p>
+     * @param uncompressed the serialized value
+     */
+    private void sample( byte[] uncompressed )
+    {
+        synchronized ( samples )
+        {
+            if ( dictionary != null )
+            {
+                return;
+            }
+            if ( dictionaryFile == null )
+            {
+                if ( !missingFileLogged )
+                {
+                    log.warn( "The dictionary codec needs a dictionaryFile, deflating without a dictionary" );
+                    missingFileLogged = true;
+                }
+                return;
+            }
+            samples.add( Arrays.copyOf( uncompressed, Math.min( uncompressed.length, dictionarySize ) ) );
+            if ( samples.size() < dictionarySampleCount )
+            {
+                return;
+            }
+
+            List<byte[]> trainingSet = new ArrayList<>( samples );
+            samples.clear();
+
+            byte[] trained = DictionaryTrainer.train( trainingSet, dictionarySize );
+            log.info( "Trained dictionary of {0} bytes from {1} values", trained.length, trainingSet.size() );
+            try
+            {
+                writeDictionary( trained );
+            }
+            catch ( IOException e )
+            {
+                log.error( "Could not write dictionary to {0}, deflating without it", dictionaryFile, e );
+                return;
+            }
+            setDictionary( trained );
+        }
+    }
+
+    /**
+     * Writes the dictionary to a temporary file, forces it to disk and renames it to the
+     * dictionary file.
+     * <p>
+     * @param trained the dictionary
+     * @throws IOException
+     */
+    private void writeDictionary( byte[] trained )
+        throws IOException
+    {
+        File temp = new File( dictionaryFile.getPath() + ".tmp" );
+        try (FileChannel fc = FileChannel.open( temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ))
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( trained );
+            while ( buffer.hasRemaining() )
+            {
+                fc.write( buffer );
+            }
+            fc.force( true );
+        }
+        Files.move( temp.toPath(), dictionaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Returns the scratch buffer of this thread, large enough for a compressed value that is
+     * smaller than the given length.
+     * <p>
+     * @param length the length of the uncompressed value
+     * @return the buffer
+     */
+    private static byte[] scratch( int length )
+    {
+        byte[] scratch = SCRATCH.get();
+        if ( scratch.length < length )
+        {
+            scratch = new byte[length];
+            if ( length <= MAX_RETAINED_BUFFER_SIZE )
+            {
+                SCRATCH.set( scratch );
+            }
+        }
+        return scratch;
+    }
+}
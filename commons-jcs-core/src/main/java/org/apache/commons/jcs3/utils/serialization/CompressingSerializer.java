@@ -20,7 +20,13 @@ package org.apache.commons.jcs3.utils.serialization;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+import org.apache.commons.jcs3.io.ByteBufferInputStream;
 import org.apache.commons.jcs3.utils.zip.CompressionUtil;
 
 /**
@@ -44,6 +50,31 @@ public class CompressingSerializer extends StandardSerializer
         return compressed;
     }
 
+    /**
+     * Serializes an object using default serialization and compresses it on the way into the
+     * stream, with the same deflate format as compressByteArray.
+     * <p>
+     * @param obj object
+     * @param out the stream, which is not closed
+     * @throws IOException on i/o problem
+     */
+    @Override
+    public <T> void serializeTo( T obj, OutputStream out )
+        throws IOException
+    {
+        Deflater compressor = new Deflater( Deflater.BEST_COMPRESSION );
+        try
+        {
+            DeflaterOutputStream dos = new DeflaterOutputStream( out, compressor );
+            writeObject( obj, dos );
+            dos.finish();
+        }
+        finally
+        {
+            compressor.end();
+        }
+    }
+
     /**
      * Uses default de-serialization to turn a byte array into an object. Decompresses the value
      * first. All exceptions are converted into IOExceptions.
@@ -66,4 +97,26 @@ public class CompressingSerializer extends StandardSerializer
         byte[] decompressedByteArray = CompressionUtil.decompressByteArray( data );
         return super.deSerialize(decompressedByteArray, loader);
     }
+
+    /**
+     * Decompresses the remaining bytes of the buffer while it de-serializes them, without copying
+     * the compressed or the decompressed data into an array first.
+     * <p>
+     * @param data the data
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException on i/o problem
+     * @throws ClassNotFoundException if class is not found during deserialization
+     */
+    @Override
+    public <T> T deSerializeFrom( ByteBuffer data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        if ( data == null )
+        {
+            return null;
+        }
+
+        return readObject( new InflaterInputStream( new ByteBufferInputStream( data ) ), loader );
+    }
 }
@@ -0,0 +1,838 @@
+package org.apache.commons.jcs3.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CacheElementSerialized;
+import org.apache.commons.jcs3.engine.ElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs3.engine.control.group.GroupId;
+import org.apache.commons.jcs3.io.ByteBufferInputStream;
+import org.apache.commons.jcs3.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs3.log.Log;
+import org.apache.commons.jcs3.log.LogManager;
+import org.apache.commons.jcs3.utils.config.OptionConverter;
+
+/**
+ * A binary serializer that writes each object as the id of its registered class followed by the
+ * fields its codec writes. There are no class descriptors in the output and no ObjectStreamClass
+ * lookups, which makes it much faster and smaller than Java serialization for the cache elements.
+ * <p>
+ * The cache element classes, their attributes, group keys, Strings, the boxed primitives, byte
+ * arrays, ArrayList and HashMap are registered by default. Other classes can be registered with a
+ * Codec, either in code or with the codecs property, which takes a comma separated list of codec
+ * class names. The ids are given in the order of registration, so all parties that exchange data
+ * must register the same codecs in the same order. Objects of classes without a codec are written
+ * with Java serialization.
+ * <p>
+ * Configure it for an auxiliary with
+ * <pre>
+ * jcs.auxiliary.NAME.serializer=org.apache.commons.jcs3.utils.serialization.RegistrationSerializer
+ * jcs.auxiliary.NAME.serializer.attributes.codecs=com.example.MyValueCodec
+ * </pre>
+ */
+public class RegistrationSerializer
+    implements IElementSerializer
+{
+    /** The logger */
+    private static final Log log = LogManager.getLog( RegistrationSerializer.class );
+
+    /** The first byte of the output, to detect data written by another serializer. */
+    private static final byte FORMAT = (byte) 0xA1;
+
+    /** Id of null */
+    private static final int ID_NULL = 0;
+
+    /** Id of an object written with Java serialization */
+    private static final int ID_SERIALIZED = 1;
+
+    /** Output buffers larger than this are not kept for the next call. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /** A reusable output buffer per thread. */
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial( Output::new );
+
+    /**
+     * Writes and reads the fields of the objects of one class.
+     * <p>
+     * @param <T> the class handled
+     */
+    public interface Codec<T>
+    {
+        /**
+         * @return the class handled by this codec, matched exactly
+         */
+        Class<T> getType();
+
+        /**
+         * Writes the fields of the value. Nested objects are written with
+         * serializer.writeObject.
+         * <p>
+         * @param out the output
+         * @param value the value, never null
+         * @param serializer the serializer, for nested objects
+         * @throws IOException
+         */
+        void write( DataOutput out, T value, RegistrationSerializer serializer )
+            throws IOException;
+
+        /**
+         * Reads the fields written by write.
+         * <p>
+         * @param in the input
+         * @param serializer the serializer, for nested objects
+         * @param loader the class loader to use
+         * @return the value
+         * @throws IOException
+         * @throws ClassNotFoundException
+         */
+        T read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException;
+    }
+
+    /** The codecs by id; the first two ids are null and Java serialization. */
+    private final List<Codec<?>> codecs = new CopyOnWriteArrayList<>();
+
+    /** The ids by class. */
+    private final Map<Class<?>, Integer> ids = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a serializer with the default codecs.
+     */
+    public RegistrationSerializer()
+    {
+        codecs.add( null );
+        codecs.add( null );
+
+        register( new StringCodec() );
+        register( new SimpleCodec<>( Integer.class, ( out, v ) -> out.writeInt( v.intValue() ),
+                in -> Integer.valueOf( in.readInt() ) ) );
+        register( new SimpleCodec<>( Long.class, ( out, v ) -> out.writeLong( v.longValue() ),
+                in -> Long.valueOf( in.readLong() ) ) );
+        register( new SimpleCodec<>( Boolean.class, ( out, v ) -> out.writeBoolean( v.booleanValue() ),
+                in -> Boolean.valueOf( in.readBoolean() ) ) );
+        register( new SimpleCodec<>( Double.class, ( out, v ) -> out.writeDouble( v.doubleValue() ),
+                in -> Double.valueOf( in.readDouble() ) ) );
+        register( new SimpleCodec<>( Float.class, ( out, v ) -> out.writeFloat( v.floatValue() ),
+                in -> Float.valueOf( in.readFloat() ) ) );
+        register( new SimpleCodec<>( Short.class, ( out, v ) -> out.writeShort( v.shortValue() ),
+                in -> Short.valueOf( in.readShort() ) ) );
+        register( new SimpleCodec<>( Byte.class, ( out, v ) -> out.writeByte( v.byteValue() ),
+                in -> Byte.valueOf( in.readByte() ) ) );
+        register( new SimpleCodec<>( Character.class, ( out, v ) -> out.writeChar( v.charValue() ),
+                in -> Character.valueOf( in.readChar() ) ) );
+        register( new SimpleCodec<>( byte[].class, ( out, v ) -> {
+                    writeVarInt( out, v.length );
+                    out.write( v );
+                }, in -> {
+                    byte[] bytes = new byte[readLength( in )];
+                    in.readFully( bytes );
+                    return bytes;
+                } ) );
+        register( new ElementAttributesCodec() );
+        register( new CacheElementCodec() );
+        register( new CacheElementSerializedCodec() );
+        register( new GroupIdCodec() );
+        register( new GroupAttrNameCodec() );
+        register( new ArrayListCodec() );
+        register( new HashMapCodec() );
+    }
+
+    /**
+     * Registers a codec under the next id.
+     * <p>
+     * @param codec the codec
+     */
+    public void register( Codec<?> codec )
+    {
+        if ( ids.putIfAbsent( codec.getType(), Integer.valueOf( codecs.size() ) ) == null )
+        {
+            codecs.add( codec );
+        }
+        else
+        {
+            log.warn( "A codec for {0} is already registered, ignoring {1}", codec.getType(), codec );
+        }
+    }
+
+    /**
+     * Registers the codecs of the given comma separated class names, in that order. This is the
+     * codecs property of the configuration.
+     * <p>
+     * @param codecClassNames the class names of Codec implementations
+     */
+    public void setCodecs( String codecClassNames )
+    {
+        for ( String className : codecClassNames.split( "," ) )
+        {
+            Codec<?> codec = OptionConverter.instantiateByClassName( className.trim(), null );
+            if ( codec != null )
+            {
+                register( codec );
+            }
+            else
+            {
+                log.error( "Could not create codec [{0}]", className );
+            }
+        }
+    }
+
+    /**
+     * Serializes an object into the registered binary format.
+     * <p>
+     * @param obj
+     * @return byte[]
+     * @throws IOException
+     */
+    @Override
+    public <T> byte[] serialize( T obj )
+        throws IOException
+    {
+        Output output = OUTPUT.get();
+        if ( output.inUse )
+        {
+            // a codec serializes a nested object on its own
+            output = new Output();
+        }
+
+        output.inUse = true;
+        try
+        {
+            output.reset();
+            output.data.writeByte( FORMAT );
+            writeObject( output.data, obj );
+            output.data.flush();
+            return output.toByteArray();
+        }
+        finally
+        {
+            output.inUse = false;
+            if ( output.capacity() > MAX_RETAINED_BUFFER_SIZE )
+            {
+                OUTPUT.remove();
+            }
+        }
+    }
+
+    /**
+     * Turns a byte array written by serialize into an object.
+     * <p>
+     * @param data data bytes
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public <T> T deSerialize( byte[] data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        return read( new DataInputStream( new ByteArrayInputStream( data ) ), data.length, loader );
+    }
+
+    /**
+     * Writes an object in the registered binary format straight into the stream.
+     * <p>
+     * @param obj
+     * @param out the stream, which is not closed
+     * @throws IOException
+     */
+    @Override
+    public <T> void serializeTo( T obj, OutputStream out )
+        throws IOException
+    {
+        DataOutputStream data = new DataOutputStream( out );
+        data.writeByte( FORMAT );
+        writeObject( data, obj );
+        data.flush();
+    }
+
+    /**
+     * Turns the remaining bytes of a buffer written by serialize into an object, reading them in
+     * place.
+     * <p>
+     * @param data the data
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public <T> T deSerializeFrom( ByteBuffer data, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        return read( new DataInputStream( new ByteBufferInputStream( data ) ), data.remaining(), loader );
+    }
+
+    /**
+     * Checks the format byte and reads the object.
+     * <p>
+     * @param in the data
+     * @param length the number of bytes of the data
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private <T> T read( DataInputStream in, int length, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        if ( length == 0 || in.readByte() != FORMAT )
+        {
+            throw new IOException( "Data was not written by the RegistrationSerializer" );
+        }
+
+        @SuppressWarnings("unchecked") // Need to cast from Object
+        T value = (T) readObject( in, loader );
+        return value;
+    }
+
+    /**
+     * Writes an object as its id followed by its fields.
+     * <p>
+     * @param out the output
+     * @param value the value, may be null
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked") // the codec was registered for the class of the value
+    public void writeObject( DataOutput out, Object value )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            writeVarInt( out, ID_NULL );
+            return;
+        }
+
+        Integer id = ids.get( value.getClass() );
+        if ( id == null )
+        {
+            writeVarInt( out, ID_SERIALIZED );
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream( baos ))
+            {
+                oos.writeObject( value );
+            }
+            writeVarInt( out, baos.size() );
+            out.write( baos.toByteArray() );
+            return;
+        }
+
+        writeVarInt( out, id.intValue() );
+        ( (Codec<Object>) codecs.get( id.intValue() ) ).write( out, value, this );
+    }
+
+    /**
+     * Reads an object written by writeObject.
+     * <p>
+     * @param in the input
+     * @param loader the class loader to use
+     * @return the object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Object readObject( DataInput in, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        int id = readVarInt( in );
+        switch ( id )
+        {
+            case ID_NULL:
+                return null;
+
+            case ID_SERIALIZED:
+                byte[] bytes = new byte[readLength( in )];
+                in.readFully( bytes );
+                try (ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(
+                        new ByteArrayInputStream( bytes ), loader ))
+                {
+                    return ois.readObject();
+                }
+
+            default:
+                if ( id >= codecs.size() )
+                {
+                    throw new IOException( "Unknown class id " + id + ", are the same codecs registered?" );
+                }
+                return codecs.get( id ).read( in, this, loader );
+        }
+    }
+
+    /**
+     * Writes a non negative int in as few bytes as possible, seven bits per byte.
+     * <p>
+     * @param out the output
+     * @param value the value
+     * @throws IOException
+     */
+    public static void writeVarInt( DataOutput out, int value )
+        throws IOException
+    {
+        int v = value;
+        while ( ( v & ~0x7F ) != 0 )
+        {
+            out.writeByte( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+        out.writeByte( v );
+    }
+
+    /**
+     * Reads an int written by writeVarInt.
+     * <p>
+     * @param in the input
+     * @return the value
+     * @throws IOException
+     */
+    public static int readVarInt( DataInput in )
+        throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 35; shift += 7 )
+        {
+            byte b = in.readByte();
+            value |= ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed variable length int" );
+    }
+
+    /**
+     * Reads a length or a count written by writeVarInt. Each unit takes at least one byte, so it
+     * cannot be more than the bytes left in the input.
+     * <p>
+     * @param in the input
+     * @return the length
+     * @throws IOException if the length is negative or more than the remaining input
+     */
+    public static int readLength( DataInput in )
+        throws IOException
+    {
+        int length = readVarInt( in );
+        if ( length < 0
+            || ( in instanceof InputStream && length > ( (InputStream) in ).available() ) )
+        {
+            throw new StreamCorruptedException( "Invalid length " + length );
+        }
+        return length;
+    }
+
+    /**
+     * The reusable buffer of a thread.
+     */
+    private static final class Output
+        extends ByteArrayOutputStream
+    {
+        /** Writes the primitive values into the buffer */
+        final DataOutputStream data = new DataOutputStream( this );
+
+        /** Set while a serialize call uses the buffer */
+        boolean inUse;
+
+        /** Constructor */
+        Output()
+        {
+            super( 1024 );
+        }
+
+        /** @return the size of the buffer */
+        int capacity()
+        {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Writes a value.
+     * <p>
+     * @param <T> the type of the value
+     */
+    private interface Writer<T>
+    {
+        void write( DataOutput out, T value )
+            throws IOException;
+    }
+
+    /**
+     * Reads a value.
+     * <p>
+     * @param <T> the type of the value
+     */
+    private interface Reader<T>
+    {
+        T read( DataInput in )
+            throws IOException;
+    }
+
+    /**
+     * A codec for a value without nested objects.
+     * <p>
+     * @param <T> the type of the value
+     */
+    private static final class SimpleCodec<T>
+        implements Codec<T>
+    {
+        private final Class<T> type;
+        private final Writer<T> writer;
+        private final Reader<T> reader;
+
+        SimpleCodec( Class<T> type, Writer<T> writer, Reader<T> reader )
+        {
+            this.type = type;
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        @Override
+        public Class<T> getType()
+        {
+            return type;
+        }
+
+        @Override
+        public void write( DataOutput out, T value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            writer.write( out, value );
+        }
+
+        @Override
+        public T read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException
+        {
+            return reader.read( in );
+        }
+    }
+
+    /**
+     * Strings as UTF-8, without the 64k limit of writeUTF.
+     */
+    private static final class StringCodec
+        implements Codec<String>
+    {
+        @Override
+        public Class<String> getType()
+        {
+            return String.class;
+        }
+
+        @Override
+        public void write( DataOutput out, String value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            writeVarInt( out, bytes.length );
+            out.write( bytes );
+        }
+
+        @Override
+        public String read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException
+        {
+            byte[] bytes = new byte[readLength( in )];
+            in.readFully( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+    }
+
+    /**
+     * The attributes of an element. The event handlers are transient and are not written.
+     */
+    private static final class ElementAttributesCodec
+        implements Codec<ElementAttributes>
+    {
+        @Override
+        public Class<ElementAttributes> getType()
+        {
+            return ElementAttributes.class;
+        }
+
+        @Override
+        public void write( DataOutput out, ElementAttributes value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            int flags = ( value.getIsSpool() ? 1 : 0 )
+                    | ( value.getIsLateral() ? 2 : 0 )
+                    | ( value.getIsRemote() ? 4 : 0 )
+                    | ( value.getIsEternal() ? 8 : 0 );
+            out.writeByte( flags );
+            out.writeLong( value.getMaxLife() );
+            out.writeLong( value.getIdleTime() );
+            out.writeInt( value.getSize() );
+            out.writeLong( value.getCreateTime() );
+            out.writeLong( value.getLastAccessTime() );
+            out.writeLong( value.getTimeFactorForMilliseconds() );
+        }
+
+        @Override
+        public ElementAttributes read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException
+        {
+            ElementAttributes attr = new ElementAttributes();
+            int flags = in.readByte();
+            attr.setIsSpool( ( flags & 1 ) != 0 );
+            attr.setIsLateral( ( flags & 2 ) != 0 );
+            attr.setIsRemote( ( flags & 4 ) != 0 );
+            attr.setIsEternal( ( flags & 8 ) != 0 );
+            attr.setMaxLife( in.readLong() );
+            attr.setIdleTime( in.readLong() );
+            attr.setSize( in.readInt() );
+            attr.setCreateTime( in.readLong() );
+            attr.setLastAccessTime( in.readLong() );
+            attr.setTimeFactorForMilliseconds( in.readLong() );
+            return attr;
+        }
+    }
+
+    /**
+     * A cache element with its name, key, value and attributes.
+     */
+    @SuppressWarnings("rawtypes") // the codec handles elements of any key and value type
+    private static final class CacheElementCodec
+        implements Codec<CacheElement>
+    {
+        @Override
+        public Class<CacheElement> getType()
+        {
+            return CacheElement.class;
+        }
+
+        @Override
+        public void write( DataOutput out, CacheElement value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            serializer.writeObject( out, value.getCacheName() );
+            serializer.writeObject( out, value.getKey() );
+            serializer.writeObject( out, value.getVal() );
+            serializer.writeObject( out, value.getElementAttributes() );
+        }
+
+        @Override
+        public CacheElement read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException
+        {
+            String cacheName = (String) serializer.readObject( in, loader );
+            Object key = serializer.readObject( in, loader );
+            Object val = serializer.readObject( in, loader );
+            IElementAttributes attr = (IElementAttributes) serializer.readObject( in, loader );
+            return new CacheElement<>( cacheName, key, val, attr );
+        }
+    }
+
+    /**
+     * A cache element with a serialized value.
+     */
+    @SuppressWarnings("rawtypes") // the codec handles elements of any key type
+    private static final class CacheElementSerializedCodec
+        implements Codec<CacheElementSerialized>
+    {
+        @Override
+        public Class<CacheElementSerialized> getType()
+        {
+            return CacheElementSerialized.class;
+        }
+
+        @Override
+        public void write( DataOutput out, CacheElementSerialized value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            serializer.writeObject( out, value.getCacheName() );
+            serializer.writeObject( out, value.getKey() );
+            serializer.writeObject( out, value.getSerializedValue() );
+            serializer.writeObject( out, value.getElementAttributes() );
+        }
+
+        @Override
+        public CacheElementSerialized read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException
+        {
+            String cacheName = (String) serializer.readObject( in, loader );
+            Object key = serializer.readObject( in, loader );
+            byte[] serializedValue = (byte[]) serializer.readObject( in, loader );
+            IElementAttributes attr = (IElementAttributes) serializer.readObject( in, loader );
+            return new CacheElementSerialized<>( cacheName, key, serializedValue, attr );
+        }
+    }
+
+    /**
+     * The id of a group.
+     */
+    private static final class GroupIdCodec
+        implements Codec<GroupId>
+    {
+        @Override
+        public Class<GroupId> getType()
+        {
+            return GroupId.class;
+        }
+
+        @Override
+        public void write( DataOutput out, GroupId value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            serializer.writeObject( out, value.cacheName );
+            serializer.writeObject( out, value.groupName );
+        }
+
+        @Override
+        public GroupId read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException
+        {
+            String cacheName = (String) serializer.readObject( in, loader );
+            String groupName = (String) serializer.readObject( in, loader );
+            return new GroupId( cacheName, groupName );
+        }
+    }
+
+    /**
+     * The key of an element in a group.
+     */
+    @SuppressWarnings("rawtypes") // the codec handles attribute names of any type
+    private static final class GroupAttrNameCodec
+        implements Codec<GroupAttrName>
+    {
+        @Override
+        public Class<GroupAttrName> getType()
+        {
+            return GroupAttrName.class;
+        }
+
+        @Override
+        public void write( DataOutput out, GroupAttrName value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            serializer.writeObject( out, value.groupId );
+            serializer.writeObject( out, value.attrName );
+        }
+
+        @Override
+        public GroupAttrName read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException
+        {
+            GroupId groupId = (GroupId) serializer.readObject( in, loader );
+            Object attrName = serializer.readObject( in, loader );
+            return new GroupAttrName<>( groupId, attrName );
+        }
+    }
+
+    /**
+     * An ArrayList with its elements.
+     */
+    @SuppressWarnings("rawtypes") // the codec handles lists of any element type
+    private static final class ArrayListCodec
+        implements Codec<ArrayList>
+    {
+        @Override
+        public Class<ArrayList> getType()
+        {
+            return ArrayList.class;
+        }
+
+        @Override
+        public void write( DataOutput out, ArrayList value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            writeVarInt( out, value.size() );
+            for ( Object element : value )
+            {
+                serializer.writeObject( out, element );
+            }
+        }
+
+        @Override
+        public ArrayList read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException
+        {
+            int size = readLength( in );
+            ArrayList<Object> list = new ArrayList<>( size );
+            for ( int i = 0; i < size; i++ )
+            {
+                list.add( serializer.readObject( in, loader ) );
+            }
+            return list;
+        }
+    }
+
+    /**
+     * A HashMap with its entries.
+     */
+    @SuppressWarnings("rawtypes") // the codec handles maps of any key and value type
+    private static final class HashMapCodec
+        implements Codec<HashMap>
+    {
+        @Override
+        public Class<HashMap> getType()
+        {
+            return HashMap.class;
+        }
+
+        @Override
+        public void write( DataOutput out, HashMap value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            writeVarInt( out, value.size() );
+            for ( Object entry : value.entrySet() )
+            {
+                serializer.writeObject( out, ( (Map.Entry) entry ).getKey() );
+                serializer.writeObject( out, ( (Map.Entry) entry ).getValue() );
+            }
+        }
+
+        @Override
+        public HashMap read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException, ClassNotFoundException
+        {
+            int size = readLength( in );
+            HashMap<Object, Object> map = new HashMap<>( Math.max( 16, (int) ( size / .75f ) + 1 ) );
+            for ( int i = 0; i < size; i++ )
+            {
+                Object key = serializer.readObject( in, loader );
+                map.put( key, serializer.readObject( in, loader ) );
+            }
+            return map;
+        }
+    }
+}
@@ -22,10 +22,14 @@ package org.apache.commons.jcs3.utils.serialization;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs3.io.ByteBufferInputStream;
 import org.apache.commons.jcs3.io.ObjectInputStreamClassLoaderAware;
 
 /**
@@ -48,13 +52,37 @@ public class StandardSerializer
         throws IOException
     {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeObject(obj, baos);
+        return baos.toByteArray();
+    }
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(baos))
-        {
-            oos.writeObject(obj);
-        }
+    /**
+     * Serializes an object using default serialization straight into the stream.
+     * <p>
+     * @param obj
+     * @param out the stream, which is not closed
+     * @throws IOException
+     */
+    @Override
+    public <T> void serializeTo(T obj, OutputStream out)
+        throws IOException
+    {
+        writeObject(obj, out);
+    }
 
-        return baos.toByteArray();
+    /**
+     * Writes one object with default serialization.
+     * <p>
+     * @param obj
+     * @param out the stream, which is not closed
+     * @throws IOException
+     */
+    protected <T> void writeObject(T obj, OutputStream out)
+        throws IOException
+    {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(obj);
+        oos.flush();
     }
 
     /**
@@ -71,8 +99,39 @@ public class StandardSerializer
     public <T> T deSerialize(byte[] data, ClassLoader loader)
         throws IOException, ClassNotFoundException
     {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
-             ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bais, loader))
+        return readObject(new ByteArrayInputStream(data), loader);
+    }
+
+    /**
+     * Uses default de-serialization to turn the remaining bytes of a buffer into an object. The
+     * bytes are read in place.
+     * <p>
+     * @param data the data
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @Override
+    public <T> T deSerializeFrom(ByteBuffer data, ClassLoader loader)
+        throws IOException, ClassNotFoundException
+    {
+        return readObject(new ByteBufferInputStream(data), loader);
+    }
+
+    /**
+     * Reads one object with default de-serialization.
+     * <p>
+     * @param in the stream, which is closed
+     * @param loader class loader to use
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected <T> T readObject(InputStream in, ClassLoader loader)
+        throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(in, loader))
         {
             @SuppressWarnings("unchecked") // Need to cast from Object
             T readObject = (T) ois.readObject();
@@ -249,10 +249,25 @@ public class ThreadPoolManager
      * @return The executor service configured for the name.
      */
     public ExecutorService getExecutorService( String name )
+    {
+        return getExecutorService( name, defaultConfig );
+    }
+
+    /**
+     * Returns an executor service by name. If a service by this name does not exist, one will be
+     * created using the given values, overridden by those in the configuration file or properties.
+     * <p>
+     * Services are lazily created.
+     * <p>
+     * @param name
+     * @param defaults the configuration to use for the values that are not configured
+     * @return The executor service configured for the name.
+     */
+    public ExecutorService getExecutorService( String name, PoolConfiguration defaults )
     {
     	ExecutorService pool = pools.computeIfAbsent(name, key -> {
             log.debug( "Creating pool for name [{0}]", key );
-            PoolConfiguration config = loadConfig( PROP_NAME_ROOT + "." + key, defaultConfig );
+            PoolConfiguration config = loadConfig( PROP_NAME_ROOT + "." + key, defaults );
             return createPool( config, "JCS-ThreadPoolManager-" + key + "-" );
     	});
 
@@ -0,0 +1,208 @@
+package org.apache.commons.jcs3.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset dictionary for deflate from sample values. The samples are split into epochs, and
+ * each epoch contributes the segment whose 8 byte grams occur in the most other samples. Grams
+ * that are covered are not counted again, so the dictionary holds different common strings. As
+ * deflate reaches the end of the dictionary with the shortest distances, the best segments are put
+ * last.
+ */
+public final class DictionaryTrainer
+{
+    /** The length of the grams that are counted */
+    private static final int GRAM = 8;
+
+    /** The length of the segments taken from the samples */
+    private static final int SEGMENT = 64;
+
+    /**
+     * no instances.
+     */
+    private DictionaryTrainer()
+    {
+        // NO OP
+    }
+
+    /**
+     * Builds a dictionary from the samples.
+     * <p>
+     * @param samples the sample values
+     * @param dictionarySize the largest size of the dictionary
+     * @return the dictionary, which is empty if the samples have nothing in common
+     */
+    public static byte[] train( List<byte[]> samples, int dictionarySize )
+    {
+        Map<Long, int[]> frequencies = new HashMap<>();
+        for ( byte[] sample : samples )
+        {
+            Set<Long> seen = new HashSet<>();
+            for ( int i = 0; i + GRAM <= sample.length; i++ )
+            {
+                Long gram = Long.valueOf( gram( sample, i ) );
+                if ( seen.add( gram ) )
+                {
+                    frequencies.computeIfAbsent( gram, k -> new int[1] )[0]++;
+                }
+            }
+        }
+
+        int epochs = Math.max( 1, Math.min( samples.size(), dictionarySize / SEGMENT ) );
+        List<Segment> selected = new ArrayList<>();
+        int size = 0;
+        boolean progress = true;
+        while ( size < dictionarySize && progress )
+        {
+            progress = false;
+            for ( int epoch = 0; epoch < epochs && size < dictionarySize; epoch++ )
+            {
+                Segment best = bestSegment( samples, epoch * samples.size() / epochs,
+                    ( epoch + 1 ) * samples.size() / epochs, frequencies );
+                if ( best == null )
+                {
+                    continue;
+                }
+
+                for ( int i = best.start; i + GRAM <= best.end; i++ )
+                {
+                    int[] frequency = frequencies.get( Long.valueOf( gram( best.sample, i ) ) );
+                    frequency[0] = 0;
+                }
+                selected.add( best );
+                size += best.end - best.start;
+                progress = true;
+            }
+        }
+
+        selected.sort( ( a, b ) -> Long.compare( a.score, b.score ) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream( size );
+        for ( Segment segment : selected )
+        {
+            out.write( segment.sample, segment.start, segment.end - segment.start );
+        }
+
+        byte[] dictionary = out.toByteArray();
+        if ( dictionary.length > dictionarySize )
+        {
+            byte[] tail = new byte[dictionarySize];
+            System.arraycopy( dictionary, dictionary.length - dictionarySize, tail, 0, dictionarySize );
+            return tail;
+        }
+        return dictionary;
+    }
+
+    /**
+     * Finds the segment of the samples in the range with the highest score. The score of a
+     * segment is the number of other samples that share each of its grams.
+     * <p>
+     * @return the segment, or null if no segment has a gram in common with another sample
+     */
+    private static Segment bestSegment( List<byte[]> samples, int from, int to, Map<Long, int[]> frequencies )
+    {
+        Segment best = null;
+        for ( int s = from; s < to; s++ )
+        {
+            byte[] sample = samples.get( s );
+            int grams = sample.length - GRAM + 1;
+            if ( grams <= 0 )
+            {
+                continue;
+            }
+
+            int[] scores = new int[grams];
+            for ( int i = 0; i < grams; i++ )
+            {
+                scores[i] = Math.max( 0, frequencies.get( Long.valueOf( gram( sample, i ) ) )[0] - 1 );
+            }
+
+            // sliding sum over the grams of a segment
+            int window = Math.min( grams, SEGMENT - GRAM + 1 );
+            long score = 0;
+            for ( int i = 0; i < window; i++ )
+            {
+                score += scores[i];
+            }
+            for ( int start = 0; start + window <= grams; start++ )
+            {
+                if ( start > 0 )
+                {
+                    score += scores[start + window - 1] - scores[start - 1];
+                }
+                if ( score > 0 && ( best == null || score > best.score ) )
+                {
+                    best = new Segment( sample, start, start + window + GRAM - 1, score );
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reads eight bytes as a long.
+     */
+    private static long gram( byte[] data, int pos )
+    {
+        long gram = 0;
+        for ( int i = 0; i < GRAM; i++ )
+        {
+            gram = gram << 8 | data[pos + i] & 0xFF;
+        }
+        return gram;
+    }
+
+    /** A range of a sample */
+    private static class Segment
+    {
+        /** The sample */
+        final byte[] sample;
+
+        /** The first byte */
+        final int start;
+
+        /** The end, exclusive */
+        final int end;
+
+        /** The score when it was selected */
+        final long score;
+
+        /**
+         * @param sample the sample
+         * @param start the first byte
+         * @param end the end, exclusive
+         * @param score the score
+         */
+        Segment( byte[] sample, int start, int end, long score )
+        {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.apache.commons.jcs3.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure Java compressor for the LZ4 block format. It finds matches with a single hash table probe
+ * and does no entropy coding, so it compresses far less than deflate but is many times faster in
+ * both directions. The block does not record the uncompressed length; callers have to store it.
+ */
+public final class LZ4Codec
+{
+    /** The shortest match */
+    private static final int MIN_MATCH = 4;
+
+    /** The last bytes of a block are always literals. */
+    private static final int LAST_LITERALS = 5;
+
+    /** The last match starts at least this many bytes before the end of the block. */
+    private static final int MF_LIMIT = 12;
+
+    /** The largest distance to a match */
+    private static final int MAX_DISTANCE = 65535;
+
+    /** The number of bits of the hash */
+    private static final int HASH_LOG = 12;
+
+    /** Literals after this many failed probes make the search step larger. */
+    private static final int SKIP_TRIGGER = 6;
+
+    /** Length values of this size continue in the next bytes. */
+    private static final int RUN_MASK = 15;
+
+    /**
+     * no instances.
+     */
+    private LZ4Codec()
+    {
+        // NO OP
+    }
+
+    /**
+     * The largest size of the compressed form of the given number of bytes.
+     * <p>
+     * @param length the uncompressed length
+     * @return the size of a buffer that can hold any compressed block of that length
+     */
+    public static int maxCompressedLength( int length )
+    {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * The largest length a block of the given size can decompress to. Each byte of a match
+     * length adds at most 255 bytes.
+     * <p>
+     * @param compressedLength the length of the block
+     * @return the largest possible uncompressed length
+     */
+    public static long maxDecompressedLength( int compressedLength )
+    {
+        return compressedLength * 255L;
+    }
+
+    /**
+     * Compresses a range of bytes.
+     * <p>
+     * @param src the data
+     * @param srcOff the start of the data
+     * @param srcLen the length of the data
+     * @return the compressed block
+     */
+    public static byte[] compress( byte[] src, int srcOff, int srcLen )
+    {
+        byte[] dst = new byte[maxCompressedLength( srcLen )];
+        int len = compress( src, srcOff, srcLen, dst, 0, dst.length );
+        return Arrays.copyOf( dst, len );
+    }
+
+    /**
+     * Compresses a range of bytes into a buffer. The compression gives up as soon as the output
+     * would not fit, so a small limit detects incompressible data early.
+     * <p>
+     * @param src the data
+     * @param srcOff the start of the data
+     * @param srcLen the length of the data
+     * @param dst the buffer for the compressed block
+     * @param dstOff the start of the block in the buffer
+     * @param maxDstLen the largest number of bytes to write
+     * @return the length of the block, or -1 if it would be longer than maxDstLen
+     */
+    public static int compress( byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int maxDstLen )
+    {
+        final int srcEnd = srcOff + srcLen;
+        final int dstLimit = dstOff + Math.min( maxDstLen, dst.length - dstOff );
+        int anchor = srcOff;
+        int dp = dstOff;
+
+        if ( srcLen > MF_LIMIT )
+        {
+            final int[] table = new int[1 << HASH_LOG];
+            Arrays.fill( table, -1 );
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            final int ipLimit = srcEnd - MF_LIMIT;
+
+            int ip = srcOff;
+            int searchCount = 1 << SKIP_TRIGGER;
+            while ( ip < ipLimit )
+            {
+                int sequence = readInt( src, ip );
+                int h = hash( sequence );
+                int ref = table[h];
+                table[h] = ip;
+                if ( ref < 0 || ip - ref > MAX_DISTANCE || readInt( src, ref ) != sequence )
+                {
+                    ip += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+
+                while ( ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1] )
+                {
+                    ip--;
+                    ref--;
+                }
+
+                int matchLen = MIN_MATCH;
+                while ( ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen] )
+                {
+                    matchLen++;
+                }
+
+                dp = writeSequence( src, anchor, ip - anchor, ip - ref, matchLen, dst, dp, dstLimit );
+                if ( dp < 0 )
+                {
+                    return -1;
+                }
+
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+
+        dp = writeSequence( src, anchor, srcEnd - anchor, 0, 0, dst, dp, dstLimit );
+        return dp < 0 ? -1 : dp - dstOff;
+    }
+
+    /**
+     * Decompresses a block.
+     * <p>
+     * @param src the compressed block
+     * @param srcOff the start of the block
+     * @param srcLen the length of the block
+     * @param dst the buffer for the data
+     * @param dstOff the start of the data in the buffer
+     * @param dstLen the uncompressed length, which must be exact
+     * @throws IOException if the block is corrupt or does not have the given length
+     */
+    public static void decompress( byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen )
+        throws IOException
+    {
+        if ( dstLen < 0 || dstLen > maxDecompressedLength( srcLen ) )
+        {
+            throw new IOException( "Corrupt LZ4 block, " + srcLen + " bytes cannot decompress to " + dstLen );
+        }
+        final int srcEnd = srcOff + srcLen;
+        final int dstEnd = dstOff + dstLen;
+        int ip = srcOff;
+        int op = dstOff;
+
+        try
+        {
+            while ( true )
+            {
+                int token = src[ip++] & 0xFF;
+
+                int literals = token >>> 4;
+                if ( literals == RUN_MASK )
+                {
+                    int b;
+                    do
+                    {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    }
+                    while ( b == 255 );
+                }
+                if ( ip + literals > srcEnd || op + literals > dstEnd )
+                {
+                    throw new IOException( "Corrupt LZ4 block, literals past the end" );
+                }
+                System.arraycopy( src, ip, dst, op, literals );
+                ip += literals;
+                op += literals;
+
+                if ( ip == srcEnd )
+                {
+                    break;
+                }
+
+                int distance = ( src[ip] & 0xFF ) | ( src[ip + 1] & 0xFF ) << 8;
+                ip += 2;
+                int ref = op - distance;
+                if ( distance == 0 || ref < dstOff )
+                {
+                    throw new IOException( "Corrupt LZ4 block, bad match distance " + distance );
+                }
+
+                int matchLen = token & RUN_MASK;
+                if ( matchLen == RUN_MASK )
+                {
+                    int b;
+                    do
+                    {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    }
+                    while ( b == 255 );
+                }
+                matchLen += MIN_MATCH;
+                if ( op + matchLen > dstEnd )
+                {
+                    throw new IOException( "Corrupt LZ4 block, match past the end" );
+                }
+
+                if ( distance >= matchLen )
+                {
+                    System.arraycopy( dst, ref, dst, op, matchLen );
+                    op += matchLen;
+                }
+                else
+                {
+                    // overlapping match, repeats the last distance bytes
+                    for ( int i = 0; i < matchLen; i++ )
+                    {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        }
+        catch ( ArrayIndexOutOfBoundsException e )
+        {
+            throw new IOException( "Corrupt LZ4 block, truncated", e );
+        }
+
+        if ( op != dstEnd )
+        {
+            throw new IOException( "Corrupt LZ4 block, decompressed " + ( op - dstOff )
+                + " bytes instead of " + dstLen );
+        }
+    }
+
+    /**
+     * Writes the literals and the match of one sequence. A match length of 0 writes the last
+     * sequence, which has literals only.
+     * <p>
+     * @return the position after the sequence, or -1 if it does not fit
+     */
+    private static int writeSequence( byte[] src, int literalStart, int literals, int distance, int matchLen,
+        byte[] dst, int dp, int dstLimit )
+    {
+        if ( dp + 1 + literals + literals / 255 + 1 + 2 + matchLen / 255 + 1 > dstLimit )
+        {
+            return -1;
+        }
+
+        int tokenPos = dp++;
+        int token;
+        if ( literals >= RUN_MASK )
+        {
+            token = RUN_MASK << 4;
+            dp = writeLength( literals - RUN_MASK, dst, dp );
+        }
+        else
+        {
+            token = literals << 4;
+        }
+
+        System.arraycopy( src, literalStart, dst, dp, literals );
+        dp += literals;
+
+        if ( matchLen > 0 )
+        {
+            dst[dp++] = (byte) distance;
+            dst[dp++] = (byte) ( distance >>> 8 );
+
+            int length = matchLen - MIN_MATCH;
+            if ( length >= RUN_MASK )
+            {
+                token |= RUN_MASK;
+                dp = writeLength( length - RUN_MASK, dst, dp );
+            }
+            else
+            {
+                token |= length;
+            }
+        }
+
+        dst[tokenPos] = (byte) token;
+        return dp;
+    }
+
+    /**
+     * Writes the rest of a length as a run of 255 bytes and a final smaller byte.
+     */
+    private static int writeLength( int length, byte[] dst, int dp )
+    {
+        while ( length >= 255 )
+        {
+            dst[dp++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    /**
+     * Reads four bytes in little endian order.
+     */
+    private static int readInt( byte[] src, int pos )
+    {
+        return ( src[pos] & 0xFF ) | ( src[pos + 1] & 0xFF ) << 8
+            | ( src[pos + 2] & 0xFF ) << 16 | ( src[pos + 3] & 0xFF ) << 24;
+    }
+
+    /**
+     * The hash of four bytes.
+     */
+    private static int hash( int sequence )
+    {
+        return ( sequence * -1640531535 ) >>> ( 32 - HASH_LOG );
+    }
+}
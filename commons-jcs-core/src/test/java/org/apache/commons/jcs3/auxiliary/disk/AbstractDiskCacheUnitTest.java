@@ -30,15 +30,22 @@ import java.util.Set;
 import junit.framework.TestCase;
 
 import org.apache.commons.jcs3.TestLogConfigurationUtil;
+import org.apache.commons.jcs3.auxiliary.AuxiliaryCache;
 import org.apache.commons.jcs3.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs3.auxiliary.disk.AbstractDiskCache;
 import org.apache.commons.jcs3.auxiliary.disk.behavior.IDiskCacheAttributes;
 import org.apache.commons.jcs3.auxiliary.disk.indexed.IndexedDiskCacheAttributes;
 import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CacheElementLazy;
 import org.apache.commons.jcs3.engine.CacheStatus;
+import org.apache.commons.jcs3.engine.CompositeCacheAttributes;
 import org.apache.commons.jcs3.engine.ElementAttributes;
 import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElementSerialized;
 import org.apache.commons.jcs3.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+import org.apache.commons.jcs3.utils.serialization.SerializationConversionUtil;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
 
 /** Tests for the abstract disk cache. It's largely tested by actual instances. */
 public class AbstractDiskCacheUnitTest
@@ -167,6 +174,188 @@ public class AbstractDiskCacheUnitTest
         assertNull( "Item should not be in the map.", diskCache.get( key ) );
     }
 
+    /**
+     * Verify that values stored serialized are de-serialized by get and handed on as they are by
+     * getSerialized.
+     * <p>
+     * @throws Exception
+     */
+    public void testStoreSerializedValues()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testStoreSerializedValues";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setStoreSerializedValues( true );
+
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<>( diskCacheAttributes );
+
+        String key = "myKey";
+        String value = "myValue";
+        diskCache.update( new CacheElement<>( cacheName, key, value, new ElementAttributes() ) );
+        for ( int i = 0; i < 100 && diskCache.getSize() == 0; i++ )
+        {
+            Thread.sleep( 50 );
+        }
+
+        // DO WORK
+        ICacheElement<String, String> result = diskCache.get( key );
+        ICacheElementSerialized<String, String> serialized = diskCache.getSerialized( key );
+
+        // VERIFY
+        assertTrue( "Should be stored serialized.", diskCache.map.get( key ) instanceof ICacheElementSerialized );
+        assertEquals( "Wrong value from get.", value, result.getVal() );
+        assertSame( "Stored bytes should be handed on.",
+            ( (ICacheElementSerialized<String, String>) diskCache.map.get( key ) ).getSerializedValue(),
+            serialized.getSerializedValue() );
+        assertEquals( "Wrong serialized value.", value,
+            diskCache.getElementSerializer().deSerialize( serialized.getSerializedValue(), null ) );
+    }
+
+    /**
+     * Verify that a lateral get only hands on a serialized element if the disk stores the values
+     * serialized, so peers with another serializer can read the others.
+     * <p>
+     * @throws Exception
+     */
+    public void testLocalGetSerialized()
+        throws Exception
+    {
+        for ( boolean storeSerialized : new boolean[] { false, true } )
+        {
+            // SETUP
+            String cacheName = "testLocalGetSerialized" + storeSerialized;
+            IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+            diskCacheAttributes.setCacheName( cacheName );
+            diskCacheAttributes.setStoreSerializedValues( storeSerialized );
+            AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<>( diskCacheAttributes );
+
+            CompositeCacheAttributes cattr = new CompositeCacheAttributes();
+            cattr.setCacheName( cacheName );
+            CompositeCache<String, String> cache = new CompositeCache<>( cattr, new ElementAttributes() );
+            @SuppressWarnings("unchecked")
+            AuxiliaryCache<String, String>[] aux = new AuxiliaryCache[] { diskCache };
+            cache.setAuxCaches( aux );
+
+            String key = "myKey";
+            diskCache.update( new CacheElement<>( cacheName, key, "myValue", new ElementAttributes() ) );
+            for ( int i = 0; i < 100 && diskCache.getSize() == 0; i++ )
+            {
+                Thread.sleep( 50 );
+            }
+
+            // DO WORK
+            ICacheElement<String, String> result = cache.localGetSerialized( key );
+
+            // VERIFY
+            assertEquals( "Wrong serialized form with StoreSerializedValues " + storeSerialized,
+                storeSerialized, result instanceof ICacheElementSerialized );
+            if ( !storeSerialized )
+            {
+                assertEquals( "Wrong value.", "myValue", result.getVal() );
+            }
+        }
+    }
+
+    /**
+     * Verify that with lazy de-serialization the value is de-serialized on the first getVal() and
+     * that the element can be stored again without serializing the value.
+     * <p>
+     * @throws Exception
+     */
+    public void testLazyDeserialization()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testLazyDeserialization";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setStoreSerializedValues( true );
+        diskCacheAttributes.setLazyDeserialization( true );
+
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<>( diskCacheAttributes );
+
+        String key = "myKey";
+        String value = "myValue";
+        diskCache.update( new CacheElement<>( cacheName, key, value, new ElementAttributes() ) );
+        for ( int i = 0; i < 100 && diskCache.getSize() == 0; i++ )
+        {
+            Thread.sleep( 50 );
+        }
+
+        // DO WORK
+        ICacheElement<String, String> result = diskCache.get( key );
+
+        // VERIFY
+        assertTrue( "Should be lazy.", result instanceof CacheElementLazy );
+        CacheElementLazy<String, String> lazy = (CacheElementLazy<String, String>) result;
+        assertFalse( "Should not be de-serialized by the get.", lazy.isDeSerialized() );
+        assertEquals( "Wrong value.", value, lazy.getVal() );
+        assertTrue( "Should be de-serialized by getVal.", lazy.isDeSerialized() );
+        assertSame( "Value should be kept.", lazy.getVal(), lazy.getVal() );
+        assertSame( "Stored bytes should be reused.", lazy.getSerializedValue(),
+            SerializationConversionUtil.getSerializedCacheElement( lazy, null ).getSerializedValue() );
+    }
+
+    /**
+     * Verify that a lazy element read from a disk that stores serialized values keeps its value
+     * when it is spooled to a disk that does not.
+     * <p>
+     * @throws Exception
+     */
+    public void testLazyElementSpooledToPlainDisk()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testLazyElementSpooledToPlainDisk";
+        IDiskCacheAttributes lazyAttributes = new IndexedDiskCacheAttributes();
+        lazyAttributes.setCacheName( cacheName );
+        lazyAttributes.setStoreSerializedValues( true );
+        lazyAttributes.setLazyDeserialization( true );
+        AbstractDiskCacheTestInstance<String, String> lazyDisk = new AbstractDiskCacheTestInstance<>( lazyAttributes );
+
+        IDiskCacheAttributes plainAttributes = new IndexedDiskCacheAttributes();
+        plainAttributes.setCacheName( cacheName );
+        // writes the elements out like a real disk does
+        AbstractDiskCacheTestInstance<String, String> plainDisk = new AbstractDiskCacheTestInstance<String, String>( plainAttributes )
+        {
+            @Override
+            protected void processUpdate( ICacheElement<String, String> cacheElement )
+                throws IOException
+            {
+                StandardSerializer serializer = new StandardSerializer();
+                try
+                {
+                    map.put( cacheElement.getKey(), serializer.deSerialize( serializer.serialize( cacheElement ), null ) );
+                }
+                catch ( ClassNotFoundException e )
+                {
+                    throw new IOException( e );
+                }
+            }
+        };
+
+        String key = "myKey";
+        String value = "myValue";
+        lazyDisk.update( new CacheElement<>( cacheName, key, value, new ElementAttributes() ) );
+        for ( int i = 0; i < 100 && lazyDisk.getSize() == 0; i++ )
+        {
+            Thread.sleep( 50 );
+        }
+
+        // DO WORK
+        plainDisk.update( lazyDisk.get( key ) );
+        for ( int i = 0; i < 100 && plainDisk.getSize() == 0; i++ )
+        {
+            Thread.sleep( 50 );
+        }
+        ICacheElement<String, String> result = plainDisk.get( key );
+
+        // VERIFY
+        assertEquals( "Wrong value.", value, result.getVal() );
+    }
+
     /** Concrete, testable instance. */
     protected static class AbstractDiskCacheTestInstance<K, V>
         extends AbstractDiskCache<K, V>
@@ -0,0 +1,264 @@
+package org.apache.commons.jcs3.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs3.engine.control.group.GroupId;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
+
+import junit.framework.TestCase;
+
+/** Tests for the binary key file format. */
+public class KeyFileFormatUnitTest
+    extends TestCase
+{
+    /** Writes a long value */
+    private static final KeyFileFormat.ValueCodec<Long> LONG_CODEC = new KeyFileFormat.ValueCodec<Long>()
+    {
+        @Override
+        public void write( DataOutput out, Long value ) throws IOException
+        {
+            out.writeLong( value.longValue() );
+        }
+
+        @Override
+        public Long read( DataInput in ) throws IOException
+        {
+            return Long.valueOf( in.readLong() );
+        }
+    };
+
+    /**
+     * Get an empty file.
+     * <p>
+     * @param fileName the file name
+     * @return the file
+     */
+    private File newFile( String fileName )
+    {
+        File dir = new File( "target/test-sandbox/keyfile" );
+        dir.mkdirs();
+        File file = new File( dir, fileName );
+        file.delete();
+        return file;
+    }
+
+    /**
+     * Verify that String and serialized keys survive a round trip.
+     * <p>
+     * @throws Exception
+     */
+    public void testRoundTrip()
+        throws Exception
+    {
+        // SETUP
+        File file = newFile( "testRoundTrip.key" );
+        Map<Object, Long> keys = new HashMap<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            keys.put( "key\u00e9" + i, Long.valueOf( i ) );
+        }
+        GroupAttrName<String> groupKey = new GroupAttrName<>( new GroupId( "region", "group" ), "attr" );
+        keys.put( groupKey, Long.valueOf( -1 ) );
+
+        // DO WORK
+        long written = KeyFileFormat.write( file, keys.entrySet(), new StandardSerializer(), LONG_CODEC );
+        Map<Object, Long> read = new HashMap<>();
+        long count = KeyFileFormat.read( file, new StandardSerializer(), LONG_CODEC, read::put );
+
+        // VERIFY
+        assertTrue( "Should be binary", KeyFileFormat.isBinaryFormat( file ) );
+        assertEquals( "Wrong number written", keys.size(), written );
+        assertEquals( "Wrong number read", keys.size(), count );
+        assertEquals( "Wrong entries", keys, read );
+        assertEquals( "Wrong group key value", Long.valueOf( -1 ), read.get( groupKey ) );
+    }
+
+    /**
+     * Verify that the chunked read decodes all keys and hands the chunks over in file order.
+     * <p>
+     * @throws Exception
+     */
+    public void testChunkedRead()
+        throws Exception
+    {
+        // SETUP
+        File file = newFile( "testChunkedRead.key" );
+        Map<Object, Long> keys = new HashMap<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            keys.put( "key" + i, Long.valueOf( i ) );
+        }
+        keys.put( new GroupAttrName<>( new GroupId( "region", "group" ), "attr" ), Long.valueOf( -1 ) );
+        KeyFileFormat.write( file, keys.entrySet(), new StandardSerializer(), LONG_CODEC );
+        Map<Object, Long> inFileOrder = new LinkedHashMap<>();
+        KeyFileFormat.read( file, new StandardSerializer(), LONG_CODEC, inFileOrder::put );
+
+        ExecutorService decoder = Executors.newFixedThreadPool( 3 );
+        try
+        {
+            // DO WORK
+            List<Object> readKeys = new ArrayList<>();
+            Map<Object, Long> read = new HashMap<>();
+            long count = KeyFileFormat.read( file, new StandardSerializer(), LONG_CODEC, 7, decoder,
+                    ( List<Map.Entry<Object, Long>> chunk ) -> {
+                        assertTrue( "Chunk too large", chunk.size() <= 7 );
+                        chunk.forEach( entry -> {
+                            readKeys.add( entry.getKey() );
+                            read.put( entry.getKey(), entry.getValue() );
+                        } );
+                    } );
+
+            // VERIFY
+            assertEquals( "Wrong number read", keys.size(), count );
+            assertEquals( "Wrong entries", keys, read );
+            assertEquals( "Wrong order", new ArrayList<>( inFileOrder.keySet() ), readKeys );
+        }
+        finally
+        {
+            decoder.shutdown();
+        }
+    }
+
+    /**
+     * Verify that a damaged file is detected by the checksum.
+     * <p>
+     * @throws Exception
+     */
+    public void testCorruptFileIsRejected()
+        throws Exception
+    {
+        // SETUP
+        File file = newFile( "testCorruptFileIsRejected.key" );
+        Map<String, Long> keys = new HashMap<>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            keys.put( "key" + i, Long.valueOf( i ) );
+        }
+        KeyFileFormat.write( file, keys.entrySet(), new StandardSerializer(), LONG_CODEC );
+
+        try (RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+        {
+            // flip a bit in the value of the first record
+            raf.seek( 5 + 1 + 4 + 4 + 3 );
+            int b = raf.read();
+            raf.seek( 5 + 1 + 4 + 4 + 3 );
+            raf.write( b ^ 1 );
+        }
+
+        // DO WORK
+        try
+        {
+            KeyFileFormat.read( file, new StandardSerializer(), LONG_CODEC, ( k, v ) -> {} );
+            fail( "Should have detected the corruption" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * A corrupt key length is rejected before anything is allocated for it.
+     * <p>
+     * @throws Exception
+     */
+    public void testCorruptLengthIsRejected()
+        throws Exception
+    {
+        // SETUP
+        File file = newFile( "testCorruptLengthIsRejected.key" );
+        Map<String, Long> keys = new HashMap<>();
+        keys.put( "key", Long.valueOf( 1 ) );
+        ExecutorService decoder = Executors.newSingleThreadExecutor();
+        try
+        {
+            for ( int length : new int[] { -1, Integer.MAX_VALUE } )
+            {
+                KeyFileFormat.write( file, keys.entrySet(), new StandardSerializer(), LONG_CODEC );
+                try (RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+                {
+                    // the length of the first key
+                    raf.seek( 5 + 1 );
+                    raf.writeInt( length );
+                }
+
+                // DO WORK
+                try
+                {
+                    KeyFileFormat.read( file, new StandardSerializer(), LONG_CODEC, ( k, v ) -> {} );
+                    fail( "Should have rejected the length " + length );
+                }
+                catch ( IOException e )
+                {
+                    // expected
+                }
+                try
+                {
+                    KeyFileFormat.read( file, new StandardSerializer(), LONG_CODEC, 10, decoder,
+                            ( List<Map.Entry<String, Long>> chunk ) -> {} );
+                    fail( "Should have rejected the length " + length + " in chunks" );
+                }
+                catch ( IOException e )
+                {
+                    // expected
+                }
+            }
+        }
+        finally
+        {
+            decoder.shutdown();
+        }
+    }
+
+    /**
+     * Verify that short and foreign files are not taken for binary key files.
+     * <p>
+     * @throws Exception
+     */
+    public void testIsBinaryFormat()
+        throws Exception
+    {
+        // SETUP
+        File file = newFile( "testIsBinaryFormat.key" );
+
+        // VERIFY
+        assertFalse( "Missing file", KeyFileFormat.isBinaryFormat( file ) );
+
+        try (RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+        {
+            raf.write( new StandardSerializer().serialize( new HashMap<String, Long>() ) );
+        }
+        assertFalse( "Serialized map", KeyFileFormat.isBinaryFormat( file ) );
+    }
+}
@@ -0,0 +1,141 @@
+package org.apache.commons.jcs3.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import junit.framework.TestCase;
+
+/** Tests for the memory mapped file reader. */
+public class MappedFileReaderUnitTest
+    extends TestCase
+{
+    /**
+     * Open an empty file for reading and writing.
+     * <p>
+     * @param fileName the file name
+     * @return the channel
+     * @throws IOException
+     */
+    private FileChannel open( String fileName )
+        throws IOException
+    {
+        File dir = new File( "target/test-sandbox/mapped" );
+        dir.mkdirs();
+        File file = new File( dir, fileName );
+        file.delete();
+        return FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE );
+    }
+
+    /**
+     * Verify that reads crossing region boundaries and reads of appended data work.
+     * <p>
+     * @throws IOException
+     */
+    public void testReadAcrossRegionsAndGrowth()
+        throws IOException
+    {
+        try (FileChannel fc = open( "testReadAcrossRegionsAndGrowth.data" ))
+        {
+            // SETUP
+            MappedFileReader reader = new MappedFileReader( fc, 16 );
+            byte[] data = new byte[40];
+            for ( int i = 0; i < data.length; i++ )
+            {
+                data[i] = (byte) i;
+            }
+            fc.write( ByteBuffer.wrap( data ), 0 );
+
+            // DO WORK
+            byte[] read = new byte[30];
+            reader.read( 5, read, 0, 30 );
+
+            // VERIFY
+            for ( int i = 0; i < read.length; i++ )
+            {
+                assertEquals( "Wrong byte at " + i, i + 5, read[i] );
+            }
+            assertEquals( "Wrong straddling int", ByteBuffer.wrap( data, 14, 4 ).getInt(), reader.getInt( 14 ) );
+
+            // grow the file past the partially mapped last region
+            ByteBuffer header = ByteBuffer.allocate( 4 );
+            header.putInt( 12345 ).flip();
+            fc.write( header, 46 );
+            assertEquals( "Wrong appended int", 12345, reader.getInt( 46 ) );
+
+            try
+            {
+                reader.getInt( 48 );
+                fail( "Should not read past the end of the file" );
+            }
+            catch ( IOException e )
+            {
+                // expected
+            }
+
+            reader.unmap();
+            fc.truncate( 0 );
+        }
+    }
+
+    /**
+     * Verify that a slice inside a region is a view and that a straddling slice is copied.
+     * <p>
+     * @throws IOException
+     */
+    public void testSlice()
+        throws IOException
+    {
+        try (FileChannel fc = open( "testSlice.data" ))
+        {
+            // SETUP
+            MappedFileReader reader = new MappedFileReader( fc, 16 );
+            byte[] data = new byte[40];
+            for ( int i = 0; i < data.length; i++ )
+            {
+                data[i] = (byte) i;
+            }
+            fc.write( ByteBuffer.wrap( data ), 0 );
+
+            // DO WORK
+            ByteBuffer inside = reader.slice( 17, 10 );
+            ByteBuffer straddling = reader.slice( 12, 10 );
+
+            // VERIFY
+            assertTrue( "Slice inside a region should be a view", inside.isDirect() );
+            assertTrue( "Slice should be read only", inside.isReadOnly() );
+            assertEquals( "Wrong slice length", 10, inside.remaining() );
+            assertEquals( "Wrong straddling slice length", 10, straddling.remaining() );
+            for ( int i = 0; i < 10; i++ )
+            {
+                assertEquals( "Wrong byte at " + i, i + 17, inside.get( i ) );
+                assertEquals( "Wrong straddling byte at " + i, i + 12, straddling.get( i ) );
+            }
+
+            reader.unmap();
+            fc.truncate( 0 );
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package org.apache.commons.jcs3.auxiliary.disk.block;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.jcs3.auxiliary.disk.KeyFileFormat;
 import org.apache.commons.jcs3.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs3.engine.CacheElement;
 
 
 /*
@@ -69,6 +76,20 @@ public class BlockDiskCacheKeyStoreUnitTest
         innerTestPutKeys(attributes);
     }
 
+    public void testPutKeysCompact()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testPutKeysCompact");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(-1);
+        attributes.setBlockSizeBytes(2000);
+        attributes.setCompactKeyStore(true);
+
+        innerTestPutKeys(attributes);
+    }
+
     private void innerTestPutKeys(BlockDiskCacheAttributes attributes)
     {
         BlockDiskCache<String, String> blockDiskCache = new BlockDiskCache<>(attributes);
@@ -124,6 +145,21 @@ public class BlockDiskCacheKeyStoreUnitTest
         testSaveLoadKeysInner(attributes);
     }
 
+    public void testSaveLoadKeysCompactOffHeap()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testSaveLoadKeysCompactOffHeap");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(-1);
+        attributes.setBlockSizeBytes(2000);
+        attributes.setCompactKeyStore(true);
+        attributes.setCompactKeyStoreOffHeap(true);
+
+        testSaveLoadKeysInner(attributes);
+    }
+
     private void testSaveLoadKeysInner(BlockDiskCacheAttributes attributes)
     {
         BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<>(attributes, null);
@@ -171,6 +207,179 @@ public class BlockDiskCacheKeyStoreUnitTest
         }
     }
 
+    /**
+     * Verify that a key file written as serialized descriptors is still read
+     * and is replaced by the binary format on the next save.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testLoadLegacyKeyFile()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testLoadLegacyKeyFile");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(10000);
+        attributes.setBlockSizeBytes(2000);
+
+        File keyFile = new File(rootDirName, "testLoadLegacyKeyFile.key");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(keyFile)))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                BlockDiskElementDescriptor<String> descriptor = new BlockDiskElementDescriptor<>();
+                descriptor.setKey(String.valueOf(i));
+                descriptor.setBlocks(new int[] { i });
+                oos.writeUnshared(descriptor);
+            }
+        }
+
+        // DO WORK
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<>(attributes, null);
+
+        // VERIFY
+        assertEquals("Wrong number of keys", 10, keyStore.size());
+        assertEquals("Wrong block", 3, keyStore.get("3")[0]);
+
+        // DO WORK
+        keyStore.saveKeys();
+        keyStore.loadKeys();
+
+        // VERIFY
+        assertTrue("Should be binary", KeyFileFormat.isBinaryFormat(keyFile));
+        assertEquals("Wrong number of keys after reload", 10, keyStore.size());
+    }
+
+    /**
+     * Verify that keys are loaded in the background, and that keys put or
+     * removed while loading keep their new state.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testAsyncLoadKeys()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testAsyncLoadKeys");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(-1);
+        attributes.setBlockSizeBytes(2000);
+        attributes.setKeyLoadThreads(3);
+
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<>(attributes, null);
+        int numElements = 10000;
+        for (int i = 0; i < numElements; i++)
+        {
+            keyStore.put(String.valueOf(i), new int[] { i });
+        }
+        keyStore.saveKeys();
+
+        // DO WORK
+        attributes.setAsyncKeyLoad(true);
+        BlockDiskKeyStore<String> warmingStore = new BlockDiskKeyStore<>(attributes, null);
+
+        // VERIFY
+        assertTrue("Should be warming", warmingStore.isWarming());
+        assertEquals("No keys should be loaded yet", 0, warmingStore.size());
+
+        // DO WORK
+        warmingStore.put("1", new int[] { numElements });
+        warmingStore.remove("2");
+        warmingStore.saveKeys();
+        assertTrue("Loading must pass", warmingStore.loadKeysWarming(new ReentrantLock()));
+
+        // VERIFY
+        assertFalse("Should be loaded", warmingStore.isWarming());
+        assertEquals("Wrong number of keys", numElements - 1, warmingStore.size());
+        assertEquals("Put key should keep its blocks", numElements, warmingStore.get("1")[0]);
+        assertNull("Removed key should stay removed", warmingStore.get("2"));
+        assertEquals("Wrong block", 3, warmingStore.get("3")[0]);
+    }
+
+    /**
+     * Verify that a reset stops the loading of the keys.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testAsyncLoadKeysReset()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testAsyncLoadKeysReset");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(-1);
+        attributes.setBlockSizeBytes(2000);
+
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<>(attributes, null);
+        for (int i = 0; i < 100; i++)
+        {
+            keyStore.put(String.valueOf(i), new int[] { i });
+        }
+        keyStore.saveKeys();
+
+        attributes.setAsyncKeyLoad(true);
+        BlockDiskKeyStore<String> warmingStore = new BlockDiskKeyStore<>(attributes, null);
+
+        // DO WORK
+        warmingStore.reset();
+
+        // VERIFY
+        assertTrue("Nothing to reset after loading", warmingStore.loadKeysWarming(new ReentrantLock()));
+        assertEquals("Wrong number of keys", 0, warmingStore.size());
+    }
+
+    /**
+     * Verify that a block disk cache becomes usable before its keys are loaded
+     * and serves all elements once they are.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testAsyncLoadKeysCache()
+            throws Exception
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testAsyncLoadKeysCache");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(-1);
+        attributes.setBlockSizeBytes(500);
+
+        BlockDiskCache<String, String> cache = new BlockDiskCache<>(attributes);
+        int numElements = 2000;
+        for (int i = 0; i < numElements; i++)
+        {
+            cache.processUpdate(new CacheElement<>("testAsyncLoadKeysCache",
+                    String.valueOf(i), "data " + i));
+        }
+        cache.processDispose();
+
+        // DO WORK
+        attributes.setAsyncKeyLoad(true);
+        cache = new BlockDiskCache<>(attributes);
+        cache.processUpdate(new CacheElement<>("testAsyncLoadKeysCache",
+                "new", "new data"));
+        for (int i = 0; i < 100 && cache.getSize() < numElements + 1; i++)
+        {
+            Thread.sleep(50);
+        }
+
+        // VERIFY
+        assertEquals("Wrong number of keys", numElements + 1, cache.getSize());
+        assertEquals("Wrong new value", "new data", cache.processGet("new").getVal());
+        for (int i = 0; i < numElements; i++)
+        {
+            assertEquals("Wrong value", "data " + i, cache.processGet(String.valueOf(i)).getVal());
+        }
+        cache.processDispose();
+    }
+
     public void testObjectLargerThanMaxSize()
     {
         BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
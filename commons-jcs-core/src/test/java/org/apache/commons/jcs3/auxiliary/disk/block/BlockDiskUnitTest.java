@@ -2,6 +2,7 @@ package org.apache.commons.jcs3.auxiliary.disk.block;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
@@ -357,6 +358,130 @@ public class BlockDiskUnitTest
         assertEquals( "Wrong item retured.", string, result );
     }
 
+    /**
+     * Verify that freed blocks are reused as a run, and that a free run at the end of the file is
+     * extended.
+     * <p>
+     * @throws Exception
+     */
+    public void testFreeBlocksReusedAsRun()
+        throws Exception
+    {
+        // SETUP
+        setUpBlockDisk("testFreeBlocksReusedAsRun");
+        disk.write( new byte[100] );
+        int[] two = disk.write( new byte[5000] );
+        disk.write( new byte[100] );
+        int[] last = disk.write( new byte[100] );
+        assertEquals( "Wrong number of blocks recorded.", 5, disk.getNumberOfBlocks() );
+
+        // DO WORK
+        disk.freeBlocks( two );
+        disk.freeBlocks( last );
+        int[] reused = disk.write( new byte[5000] );
+        int[] extended = disk.write( new byte[9000] );
+
+        // VERIFY
+        assertEquals( "Wrong first block reused.", 1, reused[0] );
+        assertEquals( "Wrong second block reused.", 2, reused[1] );
+        assertEquals( "Wrong number of blocks returned.", 3, extended.length );
+        for ( int i = 0; i < extended.length; i++ )
+        {
+            assertEquals( "Run should start at the free block.", 4 + i, extended[i] );
+        }
+        assertEquals( "Wrong number of blocks recorded.", 7, disk.getNumberOfBlocks() );
+        assertEquals( "Wrong number of empty blocks.", 0, disk.getEmptyBlocks() );
+        assertEquals( "Wrong item retured.", 9000, ((byte[]) disk.read( extended )).length );
+    }
+
+    /**
+     * Verify that freeing a block twice does not hand it out twice.
+     * <p>
+     * @throws Exception
+     */
+    public void testFreeBlocksTwice()
+        throws Exception
+    {
+        // SETUP
+        setUpBlockDisk("testFreeBlocksTwice");
+        int[] blocks = disk.write( new byte[100] );
+
+        // DO WORK
+        disk.freeBlocks( blocks );
+        disk.freeBlocks( blocks );
+
+        // VERIFY
+        assertEquals( "Wrong number of empty blocks.", 1, disk.getEmptyBlocks() );
+        assertEquals( "Wrong block reused.", 0, disk.write( new byte[100] )[0] );
+        assertEquals( "Should take a new block.", 1, disk.write( new byte[100] )[0] );
+    }
+
+    /**
+     * Verify that the lowest free block is reused first, also when it is freed after higher
+     * blocks were reused.
+     * <p>
+     * @throws Exception
+     */
+    public void testLowestFreeBlockReusedFirst()
+        throws Exception
+    {
+        // SETUP
+        setUpBlockDisk("testLowestFreeBlockReusedFirst");
+        int[][] small = new int[4][];
+        for ( int i = 0; i < small.length; i++ )
+        {
+            small[i] = disk.write( new byte[100] );
+        }
+
+        // DO WORK
+        disk.freeBlocks( small[2] );
+        int[] high = disk.write( new byte[100] );
+        disk.freeBlocks( small[0] );
+        int[] low = disk.write( new byte[100] );
+        int[] next = disk.write( new byte[100] );
+
+        // VERIFY
+        assertEquals( "Wrong block reused.", 2, high[0] );
+        assertEquals( "Wrong block reused.", 0, low[0] );
+        assertEquals( "Should take a new block.", 4, next[0] );
+        assertEquals( "Wrong number of empty blocks.", 0, disk.getEmptyBlocks() );
+    }
+
+    /**
+     * Verify that an element spread over runs of adjacent and single blocks is read back.
+     * <p>
+     * @throws Exception
+     */
+    public void testWriteAndRead_ScatteredBlocks()
+        throws Exception
+    {
+        // SETUP
+        setUpBlockDisk("testWriteAndRead_ScatteredBlocks");
+        int[][] small = new int[5][];
+        for ( int i = 0; i < small.length; i++ )
+        {
+            small[i] = disk.write( new byte[100] );
+        }
+        disk.freeBlocks( small[0] );
+        disk.freeBlocks( small[1] );
+        disk.freeBlocks( small[3] );
+
+        byte[] data = new byte[15000];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = (byte) i;
+        }
+
+        // DO WORK
+        int[] blocks = disk.write( data );
+        byte[] result = disk.read( blocks );
+
+        // VERIFY
+        assertEquals( "Wrong number of blocks returned.", 4, blocks.length );
+        assertEquals( "Wrong blocks returned.", "[0, 1, 3, 5]", Arrays.toString( blocks ) );
+        assertTrue( "Wrong item retured.", Arrays.equals( data, result ) );
+    }
+
     public void testJCS156() throws Exception
     {
         // SETUP
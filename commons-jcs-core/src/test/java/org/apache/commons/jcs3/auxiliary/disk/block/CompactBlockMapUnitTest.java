@@ -0,0 +1,174 @@
+package org.apache.commons.jcs3.auxiliary.disk.block;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the compact key to blocks map.
+ */
+public class CompactBlockMapUnitTest
+    extends TestCase
+{
+    /**
+     * Verify put, get, replace and remove.
+     */
+    public void testPutGetRemove()
+    {
+        // SETUP
+        CompactBlockMap<String> map = new CompactBlockMap<>();
+
+        // DO WORK
+        assertNull( "Should be new", map.put( "a", new int[] { 1, 2, 3 } ) );
+        assertNull( "Should be new", map.put( "b", new int[] { 4 } ) );
+        int[] old = map.put( "a", new int[] { 5, 6 } );
+
+        // VERIFY
+        assertTrue( "Wrong old value", Arrays.equals( new int[] { 1, 2, 3 }, old ) );
+        assertTrue( "Wrong value", Arrays.equals( new int[] { 5, 6 }, map.get( "a" ) ) );
+        assertEquals( "Wrong size", 2, map.size() );
+        assertTrue( "Wrong removed value", Arrays.equals( new int[] { 4 }, map.remove( "b" ) ) );
+        assertNull( "Should be gone", map.get( "b" ) );
+        assertNull( "Should not be present", map.remove( "c" ) );
+        assertEquals( "Wrong size", 1, map.size() );
+    }
+
+    /**
+     * Run a random mix of operations against a HashMap.
+     */
+    public void testMatchesHashMap()
+    {
+        verifyMatchesHashMap( new CompactBlockMap<>() );
+    }
+
+    /**
+     * Run a random mix of operations against a HashMap with the block lists off heap.
+     */
+    public void testMatchesHashMapOffHeap()
+    {
+        verifyMatchesHashMap( new CompactBlockMap<>( true ) );
+    }
+
+    /**
+     * Verify that the entries are all visited.
+     */
+    public void testEntrySet()
+    {
+        // SETUP
+        CompactBlockMap<Integer> map = new CompactBlockMap<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            map.put( Integer.valueOf( i ), new int[] { i, i + 1 } );
+        }
+
+        // DO WORK
+        int count = 0;
+        for ( Map.Entry<Integer, int[]> entry : map.entrySet() )
+        {
+            int i = entry.getKey().intValue();
+            assertTrue( "Wrong value for " + i, Arrays.equals( new int[] { i, i + 1 }, entry.getValue() ) );
+            count++;
+        }
+
+        // VERIFY
+        assertEquals( "Wrong number of entries", 1000, count );
+        assertEquals( "Wrong key set size", 1000, map.keySet().size() );
+    }
+
+    /**
+     * Verify that an iterator fails once a put moved the block lists it reads.
+     */
+    public void testPutWhileIterating()
+    {
+        // SETUP
+        CompactBlockMap<Integer> map = new CompactBlockMap<>( true );
+        for ( int i = 0; i < 100; i++ )
+        {
+            map.put( Integer.valueOf( i ), new int[] { i } );
+        }
+        Iterator<Map.Entry<Integer, int[]>> it = map.entrySet().iterator();
+        it.next();
+
+        // DO WORK
+        for ( int i = 100; i < 1000; i++ )
+        {
+            map.put( Integer.valueOf( i ), new int[] { i, i + 1, i + 2 } );
+        }
+
+        // VERIFY
+        try
+        {
+            it.next();
+            fail( "Should fail after the put" );
+        }
+        catch ( ConcurrentModificationException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Applies the same random operations to the map and to a HashMap and compares them.
+     * <p>
+     * @param map
+     */
+    private void verifyMatchesHashMap( CompactBlockMap<Integer> map )
+    {
+        Map<Integer, int[]> expected = new HashMap<>();
+        Random random = new Random( 89 );
+
+        for ( int i = 0; i < 200000; i++ )
+        {
+            Integer key = Integer.valueOf( random.nextInt( 5000 ) );
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                int[] removed = expected.remove( key );
+                assertTrue( "Wrong removed value", Arrays.equals( removed, map.remove( key ) ) );
+            }
+            else
+            {
+                int[] blocks = new int[random.nextInt( 5 )];
+                for ( int j = 0; j < blocks.length; j++ )
+                {
+                    blocks[j] = random.nextInt();
+                }
+                int[] old = expected.put( key, blocks );
+                assertTrue( "Wrong old value", Arrays.equals( old, map.put( key, blocks ) ) );
+            }
+        }
+
+        assertEquals( "Wrong size", expected.size(), map.size() );
+        for ( Map.Entry<Integer, int[]> entry : expected.entrySet() )
+        {
+            assertTrue( "Wrong value", Arrays.equals( entry.getValue(), map.get( entry.getKey() ) ) );
+        }
+
+        map.clear();
+        assertEquals( "Should be empty", 0, map.size() );
+        assertNull( "Should be empty", map.get( Integer.valueOf( 1 ) ) );
+    }
+}
@@ -0,0 +1,336 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the key journal of the indexed disk cache. A crash is simulated by opening the files
+ * again with a new cache without disposing the old one.
+ */
+public class IndexedDiskCacheKeyJournalUnitTest
+    extends TestCase
+{
+    /** The directory of the files */
+    private static final String DISK_PATH = "target/test-sandbox/KeyJournalUnitTest";
+
+    /**
+     * Create the attributes of a cache with a key journal.
+     * <p>
+     * @param cacheName the region name
+     * @return the attributes
+     */
+    private IndexedDiskCacheAttributes createAttributes( String cacheName )
+    {
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setMaxPurgatorySize( 0 );
+        cattr.setKeyJournalEnabled( true );
+        cattr.setDiskPath( DISK_PATH );
+        return cattr;
+    }
+
+    /**
+     * Create an empty cache with a key journal.
+     * <p>
+     * @param cacheName the region name
+     * @return the cache
+     */
+    private IndexedDiskCache<String, String> createEmptyCache( String cacheName )
+    {
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        disk.processRemoveAll();
+        return disk;
+    }
+
+    /**
+     * Verify the elements that should have survived.
+     * <p>
+     * @param disk the recovered cache
+     * @param from the first key expected
+     * @param to the key after the last key expected
+     * @throws Exception
+     */
+    private void verifyElements( IndexedDiskCache<String, String> disk, int from, int to )
+        throws Exception
+    {
+        assertEquals( "Wrong size", to - from, disk.getSize() );
+        for ( int i = from; i < to; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( "key:" + i );
+            assertNotNull( "Should have key:" + i, element );
+            assertEquals( "Wrong element", "data:" + i, element.getVal() );
+        }
+    }
+
+    /**
+     * Verify that puts and removes are recovered from the journal without a key file.
+     * <p>
+     * @throws Exception
+     */
+    public void testRecoveryWithoutKeyFile()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRecoveryWithoutKeyFile";
+        IndexedDiskCache<String, String> disk = createEmptyCache( cacheName );
+
+        // DO WORK
+        for ( int i = 0; i < 100; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            disk.processRemove( "key:" + i );
+        }
+
+        // VERIFY
+        assertFalse( "Should have no key file", new File( DISK_PATH, cacheName + ".key" ).exists() );
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( recovered, 10, 100 );
+        recovered.processDispose();
+    }
+
+    /**
+     * Verify that the journal is emptied by a compaction and that later changes are recovered on
+     * top of the key file.
+     * <p>
+     * @throws Exception
+     */
+    public void testRecoveryAfterCompaction()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRecoveryAfterCompaction";
+        IndexedDiskCacheAttributes cattr = createAttributes( cacheName );
+        cattr.setKeyJournalCompactionSizeBytes( 1 );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<>( cattr );
+        disk.processRemoveAll();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+
+        // DO WORK
+        disk.compactKeyJournalIfDue();
+        File journal = new File( DISK_PATH, cacheName + ".journal" );
+        long compactedLength = journal.length();
+        for ( int i = 50; i < 100; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+        disk.processRemove( "key:0" );
+
+        // VERIFY
+        assertTrue( "Should have a key file", new File( DISK_PATH, cacheName + ".key" ).length() > 0 );
+        assertTrue( "Journal should be almost empty", compactedLength < 10 );
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( recovered, 1, 100 );
+        recovered.processDispose();
+    }
+
+    /**
+     * Verify that elements moved by the optimization are found after a crash.
+     * <p>
+     * @throws Exception
+     */
+    public void testRecoveryAfterOptimization()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRecoveryAfterOptimization";
+        IndexedDiskCache<String, String> disk = createEmptyCache( cacheName );
+        for ( int i = 0; i < 100; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+        disk.saveKeys();
+        for ( int i = 0; i < 50; i++ )
+        {
+            disk.processRemove( "key:" + i );
+        }
+
+        // DO WORK
+        long before = disk.getDataFileSize();
+        disk.optimizeFile();
+
+        // VERIFY
+        assertTrue( "The file should shrink", disk.getDataFileSize() < before );
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( recovered, 50, 100 );
+        recovered.processDispose();
+    }
+
+    /**
+     * Verify that a crash after a concurrent optimization replaced the data file, but before it
+     * replaced the key file, uses the keys of the compacted file.
+     * <p>
+     * @throws Exception
+     */
+    public void testRecoveryAfterConcurrentOptimizationSwap()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRecoveryAfterConcurrentOptimizationSwap";
+        IndexedDiskCacheAttributes cattr = createAttributes( cacheName );
+        cattr.setConcurrentOptimization( true );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<>( cattr );
+        disk.processRemoveAll();
+        for ( int i = 0; i < 100; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+        disk.saveKeys();
+        for ( int i = 0; i < 50; i++ )
+        {
+            disk.processRemove( "key:" + i );
+        }
+        File keyFile = new File( DISK_PATH, cacheName + ".key" );
+        File journalFile = new File( DISK_PATH, cacheName + ".journal" );
+        File oldKeyFile = new File( DISK_PATH, cacheName + ".key.old" );
+        File oldJournalFile = new File( DISK_PATH, cacheName + ".journal.old" );
+        Files.copy( keyFile.toPath(), oldKeyFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        Files.copy( journalFile.toPath(), oldJournalFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        // DO WORK
+        long before = disk.getDataFileSize();
+        disk.optimizeFile();
+
+        // put back the key file and journal of the old data file
+        Files.move( keyFile.toPath(), new File( DISK_PATH, cacheName + ".compact.key" ).toPath(),
+                StandardCopyOption.REPLACE_EXISTING );
+        Files.move( oldKeyFile.toPath(), keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        Files.copy( oldJournalFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        // VERIFY
+        assertTrue( "The file should shrink", disk.getDataFileSize() < before );
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<>( cattr );
+        verifyElements( recovered, 50, 100 );
+        assertFalse( "The compacted keys should be in place",
+                new File( DISK_PATH, cacheName + ".compact.key" ).exists() );
+        recovered.processDispose();
+    }
+
+    /**
+     * Verify that the files of a concurrent optimization that did not replace the data file are
+     * ignored.
+     * <p>
+     * @throws Exception
+     */
+    public void testUnfinishedConcurrentOptimizationIsIgnored()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testUnfinishedConcurrentOptimizationIsIgnored";
+        IndexedDiskCache<String, String> disk = createEmptyCache( cacheName );
+        for ( int i = 0; i < 20; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+
+        // DO WORK
+        File compactFile = new File( DISK_PATH, cacheName + ".compact" );
+        File compactKeyFile = new File( DISK_PATH, cacheName + ".compact.key" );
+        try (FileOutputStream out = new FileOutputStream( compactFile ))
+        {
+            out.write( new byte[] { 1, 2, 3, 4 } );
+        }
+        try (FileOutputStream out = new FileOutputStream( compactKeyFile ))
+        {
+            out.write( new byte[] { 1, 2, 3, 4 } );
+        }
+
+        // VERIFY
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( recovered, 0, 20 );
+        assertFalse( "Should delete the compacted file", compactFile.exists() );
+        assertFalse( "Should delete the compacted keys", compactKeyFile.exists() );
+        recovered.processDispose();
+    }
+
+    /**
+     * Verify that a torn record at the end of the journal is ignored.
+     * <p>
+     * @throws Exception
+     */
+    public void testTornRecordIsIgnored()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testTornRecordIsIgnored";
+        IndexedDiskCache<String, String> disk = createEmptyCache( cacheName );
+        for ( int i = 0; i < 20; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+
+        // DO WORK
+        try (FileOutputStream out = new FileOutputStream( new File( DISK_PATH, cacheName + ".journal" ), true ))
+        {
+            out.write( new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 1, 1 } );
+        }
+
+        // VERIFY
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( recovered, 0, 20 );
+
+        recovered.processUpdate( new CacheElement<>( cacheName, "key:20", "data:20" ) );
+        IndexedDiskCache<String, String> recoveredAgain = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( recoveredAgain, 0, 21 );
+        recoveredAgain.processDispose();
+    }
+
+    /**
+     * Verify that a clean shutdown leaves an empty journal.
+     * <p>
+     * @throws Exception
+     */
+    public void testDisposeEmptiesJournal()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testDisposeEmptiesJournal";
+        IndexedDiskCache<String, String> disk = createEmptyCache( cacheName );
+        for ( int i = 0; i < 20; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+
+        // DO WORK
+        disk.processDispose();
+
+        // VERIFY
+        assertTrue( "Journal should be almost empty", new File( DISK_PATH, cacheName + ".journal" ).length() < 10 );
+        IndexedDiskCache<String, String> reopened = new IndexedDiskCache<>( createAttributes( cacheName ) );
+        verifyElements( reopened, 0, 20 );
+        reopened.processDispose();
+    }
+}
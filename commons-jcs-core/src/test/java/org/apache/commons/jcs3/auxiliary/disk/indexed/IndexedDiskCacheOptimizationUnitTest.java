@@ -92,4 +92,65 @@ public class IndexedDiskCacheOptimizationUnitTest
                 , sizeAfterRemove < sizeBeforeRemove );
         assertEquals( "The file size is not as expected size.", expectedSizeAfterRemove, sizeAfterRemove );
     }
+
+    /**
+     * Same as the basic optimization, but compacts into a new file. Verify that the remaining
+     * elements can be read from the compacted file and that the removed ones are gone.
+     * @throws Exception
+     */
+    public void testConcurrentOptimization()
+        throws Exception
+    {
+        // SETUP
+        int removeCount = 50;
+
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testConcurrentOptimization" );
+        cattr.setMaxKeySize( removeCount * 3 );
+        cattr.setOptimizeAtRemoveCount( removeCount * 10 );
+        cattr.setConcurrentOptimization( true );
+        cattr.setDiskPath( "target/test-sandbox/testConcurrentOptimization" );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<>( cattr );
+
+        disk.removeAll();
+
+        int numberToInsert = removeCount * 3;
+        ICacheElement<Integer, DiskTestObject>[] elements = DiskTestObjectUtil
+            .createCacheElementsWithTestObjectsOfVariableSizes( numberToInsert, cattr.getCacheName() );
+
+        for ( int i = 0; i < elements.length; i++ )
+        {
+            disk.processUpdate( elements[i] );
+        }
+
+        long sizeBeforeRemove = disk.getDataFileSize();
+
+        // DO WORK
+        for ( int i = 0; i < removeCount; i++ )
+        {
+            disk.processRemove( Integer.valueOf( i ) );
+        }
+
+        disk.optimizeFile();
+
+        // VERIFY
+        long sizeAfterRemove = disk.getDataFileSize();
+        long expectedSizeAfterRemove = DiskTestObjectUtil.totalSize( elements, removeCount, elements.length );
+
+        assertTrue( "The post optimization size should be smaller."
+                +"sizeAfterRemove=" + sizeAfterRemove + " sizeBeforeRemove= " +sizeBeforeRemove
+                , sizeAfterRemove < sizeBeforeRemove );
+        assertEquals( "The file size is not as expected size.", expectedSizeAfterRemove, sizeAfterRemove );
+
+        for ( int i = 0; i < removeCount; i++ )
+        {
+            assertNull( "Removed element should be gone " + i, disk.processGet( Integer.valueOf( i ) ) );
+        }
+        for ( int i = removeCount; i < elements.length; i++ )
+        {
+            ICacheElement<Integer, DiskTestObject> element = disk.processGet( Integer.valueOf( i ) );
+            assertNotNull( "Element should be on disk " + i, element );
+            assertEquals( "Wrong value for " + i, elements[i].getVal(), element.getVal() );
+        }
+    }
 }
@@ -0,0 +1,177 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the batched writes of the indexed disk cache.
+ */
+public class IndexedDiskCacheWriteBatchUnitTest
+    extends TestCase
+{
+    /**
+     * Create an empty cache that batches writes.
+     * <p>
+     * @param cacheName the region name
+     * @param batchSize the batch size
+     * @param latency the batch latency
+     * @return the cache
+     */
+    private IndexedDiskCache<String, String> createCache( String cacheName, int batchSize, long latency )
+    {
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMaxKeySize( 100 );
+        cattr.setMaxPurgatorySize( 0 );
+        cattr.setMaxWriteBatchSize( batchSize );
+        cattr.setMaxWriteBatchLatencyMillis( latency );
+        cattr.setDiskPath( "target/test-sandbox/WriteBatchUnitTest" );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<>( cattr );
+        disk.processRemoveAll();
+        return disk;
+    }
+
+    /**
+     * Verify that puts are served from the batch and written once the batch is full.
+     * <p>
+     * @throws Exception
+     */
+    public void testBatchIsWrittenWhenFull()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testBatchIsWrittenWhenFull";
+        IndexedDiskCache<String, String> disk = createCache( cacheName, 10, 60000 );
+
+        // DO WORK
+        for ( int i = 0; i < 9; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+
+        // VERIFY
+        assertEquals( "Nothing should be written yet", 0, disk.getDataFileSize() );
+        assertEquals( "Wrong size", 9, disk.getSize() );
+        assertEquals( "Wrong element from the batch", "data:3", disk.processGet( "key:3" ).getVal() );
+
+        disk.processUpdate( new CacheElement<>( cacheName, "key:9", "data:9" ) );
+        assertTrue( "The batch should be written", disk.getDataFileSize() > 0 );
+        assertEquals( "Wrong size", 10, disk.getSize() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( "key:" + i );
+            assertNotNull( "Should have key:" + i, element );
+            assertEquals( "Wrong element from disk", "data:" + i, element.getVal() );
+        }
+
+        disk.processDispose();
+    }
+
+    /**
+     * Verify that a put waiting longer than the latency gets written with the next put.
+     * <p>
+     * @throws Exception
+     */
+    public void testBatchIsWrittenAfterLatency()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testBatchIsWrittenAfterLatency";
+        IndexedDiskCache<String, String> disk = createCache( cacheName, 100, 10 );
+        disk.processUpdate( new CacheElement<>( cacheName, "key:0", "data:0" ) );
+
+        // DO WORK
+        Thread.sleep( 50 );
+        disk.writeBatchIfDue();
+
+        // VERIFY
+        assertTrue( "The batch should be written", disk.getDataFileSize() > 0 );
+        assertEquals( "Wrong element from disk", "data:0", disk.processGet( "key:0" ).getVal() );
+
+        disk.processDispose();
+    }
+
+    /**
+     * Verify that removals drop pending puts as well as written ones.
+     * <p>
+     * @throws Exception
+     */
+    public void testRemovePending()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRemovePending";
+        IndexedDiskCache<String, String> disk = createCache( cacheName, 5, 60000 );
+        for ( int i = 0; i < 8; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+
+        // DO WORK
+        assertTrue( "Should remove a pending put", disk.processRemove( "key:6" ) );
+        assertTrue( "Should remove a written put", disk.processRemove( "key:1" ) );
+        assertFalse( "Should not remove twice", disk.processRemove( "key:6" ) );
+
+        // VERIFY
+        assertNull( "Should not have key:6", disk.processGet( "key:6" ) );
+        assertEquals( "Wrong size", 6, disk.getSize() );
+
+        assertTrue( "Should remove the hierarchy", disk.processRemove( "key:" ) );
+        assertEquals( "Should be empty", 0, disk.getSize() );
+        assertNull( "Should not have key:7", disk.processGet( "key:7" ) );
+
+        disk.processDispose();
+    }
+
+    /**
+     * Verify that pending puts are written on dispose and found after a restart.
+     * <p>
+     * @throws Exception
+     */
+    public void testPendingWrittenOnDispose()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testPendingWrittenOnDispose";
+        IndexedDiskCache<String, String> disk = createCache( cacheName, 100, 60000 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            disk.processUpdate( new CacheElement<>( cacheName, "key:" + i, "data:" + i ) );
+        }
+        disk.processUpdate( new CacheElement<>( cacheName, "key:5", "updated" ) );
+
+        // DO WORK
+        disk.processDispose();
+
+        IndexedDiskCacheAttributes cattr = (IndexedDiskCacheAttributes) disk.getAuxiliaryCacheAttributes();
+        IndexedDiskCache<String, String> reopened = new IndexedDiskCache<>( cattr );
+
+        // VERIFY
+        assertEquals( "Wrong size", 20, reopened.getSize() );
+        assertEquals( "Wrong updated element", "updated", reopened.processGet( "key:5" ).getVal() );
+        assertEquals( "Wrong element", "data:19", reopened.processGet( "key:19" ).getVal() );
+
+        reopened.processDispose();
+    }
+}
@@ -0,0 +1,184 @@
+package org.apache.commons.jcs3.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs3.auxiliary.disk.DiskTestObject;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the size class recycle bin.
+ */
+public class SizeClassRecycleBinUnitTest
+    extends TestCase
+{
+    /**
+     * The space a record of the given length takes.
+     * <p>
+     * @param length the data length
+     * @return the slot size
+     */
+    private static int slot( int length )
+    {
+        return IndexedDisk.HEADER_SIZE_BYTES + length;
+    }
+
+    /**
+     * Verify that larger sizes never get a smaller class.
+     */
+    public void testSizeClassIsMonotonic()
+    {
+        int previous = 0;
+        for ( long size = 0; size < 100000; size++ )
+        {
+            int sizeClass = SizeClassRecycleBin.sizeClass( size );
+            assertTrue( "Class decreased at " + size, sizeClass >= previous );
+            previous = sizeClass;
+        }
+        assertTrue( "Largest size out of range", SizeClassRecycleBin.sizeClass( Long.MAX_VALUE ) < 64 * 8 );
+    }
+
+    /**
+     * Verify that a slot of the same size is reused.
+     */
+    public void testTakeSameSize()
+    {
+        // SETUP
+        SizeClassRecycleBin bin = new SizeClassRecycleBin();
+        bin.add( new IndexedDiskElementDescriptor( 0, 1000 ) );
+        bin.add( new IndexedDiskElementDescriptor( 5000, 1000 ) );
+
+        // DO WORK
+        IndexedDiskElementDescriptor ded = bin.take( 1000 );
+
+        // VERIFY
+        assertNotNull( "Should reuse a slot", ded );
+        assertEquals( "Wrong length", 1000, ded.len );
+        assertEquals( "One slot should be left", 1, bin.size() );
+        assertNotNull( "Should reuse the other slot", bin.take( 1000 ) );
+        assertNull( "Should be empty", bin.take( 1 ) );
+    }
+
+    /**
+     * Verify that the rest of a larger slot stays in the bin.
+     */
+    public void testTakeSplitsSlot()
+    {
+        // SETUP
+        SizeClassRecycleBin bin = new SizeClassRecycleBin();
+        bin.add( new IndexedDiskElementDescriptor( 100, 1000 ) );
+
+        // DO WORK
+        IndexedDiskElementDescriptor first = bin.take( 200 );
+        IndexedDiskElementDescriptor second = bin.take( 300 );
+
+        // VERIFY
+        assertEquals( "Wrong first position", 100, first.pos );
+        assertEquals( "Wrong second position", 100 + slot( 200 ), second.pos );
+        IndexedDiskElementDescriptor rest = bin.take( slot( 1000 ) - slot( 200 ) - slot( 300 ) - IndexedDisk.HEADER_SIZE_BYTES );
+        assertNotNull( "The rest should be left", rest );
+        assertEquals( "Wrong rest position", 100 + slot( 200 ) + slot( 300 ), rest.pos );
+        assertEquals( "Should be empty", 0, bin.size() );
+    }
+
+    /**
+     * Verify that a record does not take a slot that is too small.
+     */
+    public void testTakeTooLarge()
+    {
+        // SETUP
+        SizeClassRecycleBin bin = new SizeClassRecycleBin();
+        bin.add( new IndexedDiskElementDescriptor( 0, 1000 ) );
+
+        // DO WORK
+        IndexedDiskElementDescriptor ded = bin.take( 1001 );
+
+        // VERIFY
+        assertNull( "Should not fit", ded );
+        assertEquals( "The slot should be left", 1, bin.size() );
+    }
+
+    /**
+     * Verify that adjacent slots are merged, whatever the order they are added in.
+     */
+    public void testAddMergesAdjacentSlots()
+    {
+        // SETUP
+        SizeClassRecycleBin bin = new SizeClassRecycleBin();
+
+        // DO WORK
+        bin.add( new IndexedDiskElementDescriptor( 0, 100 ) );
+        bin.add( new IndexedDiskElementDescriptor( 2 * slot( 100 ), 100 ) );
+        bin.add( new IndexedDiskElementDescriptor( slot( 100 ), 100 ) );
+
+        // VERIFY
+        assertEquals( "Should be merged into one slot", 1, bin.size() );
+        IndexedDiskElementDescriptor ded = bin.take( 3 * slot( 100 ) - IndexedDisk.HEADER_SIZE_BYTES );
+        assertNotNull( "The merged slot should fit", ded );
+        assertEquals( "Wrong position", 0, ded.pos );
+        assertEquals( "Should be empty", 0, bin.size() );
+    }
+
+    /**
+     * Verify that the cache reuses the merged space of removed elements.
+     * <p>
+     * @throws Exception
+     */
+    public void testCacheReusesMergedSlots()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testCacheReusesMergedSlots" );
+        cattr.setDiskPath( "target/test-sandbox/SizeClassRecycleBinUnitTest" );
+        cattr.setRecycleBinClassName( SizeClassRecycleBin.class.getName() );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<>( cattr );
+        disk.processRemoveAll();
+
+        ICacheElement<Integer, DiskTestObject>[] small =
+            DiskTestObjectUtil.createCacheElementsWithTestObjects( 10, 100, cattr.getCacheName() );
+        for ( int i = 0; i < small.length; i++ )
+        {
+            disk.processUpdate( small[i] );
+        }
+        long fileSize = disk.getDataFileSize();
+
+        // DO WORK
+        for ( int i = 0; i < small.length; i++ )
+        {
+            disk.processRemove( small[i].getKey() );
+        }
+        ICacheElement<Integer, DiskTestObject>[] large =
+            DiskTestObjectUtil.createCacheElementsWithTestObjects( 2, 300, cattr.getCacheName() );
+        for ( int i = 0; i < large.length; i++ )
+        {
+            disk.processUpdate( large[i] );
+        }
+
+        // VERIFY
+        assertEquals( "The file should not grow", fileSize, disk.getDataFileSize() );
+        assertEquals( "Both should use recycled space", 2, disk.getRecyleCount() );
+        for ( int i = 0; i < large.length; i++ )
+        {
+            assertEquals( "Wrong value", large[i].getVal(), disk.processGet( large[i].getKey() ).getVal() );
+        }
+    }
+}
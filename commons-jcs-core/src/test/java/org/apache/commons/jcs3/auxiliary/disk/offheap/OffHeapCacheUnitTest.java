@@ -0,0 +1,146 @@
+package org.apache.commons.jcs3.auxiliary.disk.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the off-heap cache. */
+public class OffHeapCacheUnitTest
+    extends TestCase
+{
+    /**
+     * Create a cache with the given size.
+     * <p>
+     * @param cacheName the region name
+     * @param maxBytes the maximum amount of direct memory
+     * @return a live cache
+     */
+    private OffHeapCache<String, String> createCache( String cacheName, long maxBytes )
+    {
+        OffHeapCacheAttributes attributes = new OffHeapCacheAttributes();
+        attributes.setCacheName( cacheName );
+        attributes.setMaxBytes( maxBytes );
+        attributes.setSlabSizeBytes( 4096 );
+        attributes.setBlockSizeBytes( 256 );
+        return new OffHeapCache<>( attributes );
+    }
+
+    /**
+     * Verify that small and multi-block elements survive the round trip.
+     */
+    public void testPutGet()
+    {
+        // SETUP
+        String cacheName = "testPutGet";
+        OffHeapCache<String, String> cache = createCache( cacheName, 64 * 1024 );
+        StringBuilder large = new StringBuilder();
+        for ( int i = 0; i < 500; i++ )
+        {
+            large.append( "large value " ).append( i );
+        }
+
+        // DO WORK
+        cache.processUpdate( new CacheElement<>( cacheName, "small", "value" ) );
+        cache.processUpdate( new CacheElement<>( cacheName, "large", large.toString() ) );
+        cache.processUpdate( new CacheElement<>( cacheName, "small", "value2" ) );
+
+        // VERIFY
+        ICacheElement<String, String> small = cache.processGet( "small" );
+        assertNotNull( "Should have small", small );
+        assertEquals( "Wrong small value", "value2", small.getVal() );
+        assertEquals( "Wrong large value", large.toString(), cache.processGet( "large" ).getVal() );
+        assertNull( "Should not have missing", cache.processGet( "missing" ) );
+        assertEquals( "Wrong size", 2, cache.getSize() );
+    }
+
+    /**
+     * Verify that the least recently used elements are dropped once the store is full.
+     */
+    public void testLeastRecentlyUsedIsDropped()
+    {
+        // SETUP
+        String cacheName = "testLeastRecentlyUsedIsDropped";
+        // room for 8 single block elements
+        OffHeapCache<String, String> cache = createCache( cacheName, 8 * 256 );
+        for ( int i = 0; i < 8; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+        cache.processGet( "key0" );
+
+        // DO WORK
+        cache.processUpdate( new CacheElement<>( cacheName, "onemore", "onemore" ) );
+
+        // VERIFY
+        assertEquals( "Should be full", 8, cache.getSize() );
+        assertNotNull( "Recently used key0 should survive", cache.processGet( "key0" ) );
+        assertNull( "key1 should have been dropped", cache.processGet( "key1" ) );
+        assertNotNull( "Should have onemore", cache.processGet( "onemore" ) );
+    }
+
+    /**
+     * Verify that single, hierarchical and full removal free the blocks.
+     */
+    public void testRemove()
+    {
+        // SETUP
+        String cacheName = "testRemove";
+        OffHeapCache<String, String> cache = createCache( cacheName, 64 * 1024 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key:" + i, "value" + i ) );
+        }
+        cache.processUpdate( new CacheElement<>( cacheName, "other", "value" ) );
+
+        // DO WORK
+        assertTrue( "Should remove", cache.processRemove( "key:0" ) );
+        assertFalse( "Should not remove twice", cache.processRemove( "key:0" ) );
+        assertTrue( "Should remove hierarchy", cache.processRemove( "key:" ) );
+
+        // VERIFY
+        assertEquals( "Only other should be left", 1, cache.getSize() );
+        assertNotNull( "Should have other", cache.processGet( "other" ) );
+
+        cache.processRemoveAll();
+        assertEquals( "Should be empty", 0, cache.getSize() );
+        assertNull( "Should not have other", cache.processGet( "other" ) );
+    }
+
+    /**
+     * Verify that an element larger than the store is not kept.
+     */
+    public void testTooLarge()
+    {
+        // SETUP
+        String cacheName = "testTooLarge";
+        OffHeapCache<String, String> cache = createCache( cacheName, 2 * 256 );
+        cache.processUpdate( new CacheElement<>( cacheName, "small", "value" ) );
+
+        // DO WORK
+        cache.processUpdate( new CacheElement<>( cacheName, "large", new String( new char[2048] ) ) );
+
+        // VERIFY
+        assertNull( "Should not have large", cache.processGet( "large" ) );
+        assertNotNull( "Should have small", cache.processGet( "small" ) );
+    }
+}
@@ -0,0 +1,262 @@
+package org.apache.commons.jcs3.auxiliary.disk.segmented;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the segmented disk cache. */
+public class SegmentedDiskCacheUnitTest
+    extends TestCase
+{
+    /**
+     * Create an empty cache with the given segment size.
+     * <p>
+     * @param cacheName the region name
+     * @param segmentSizeBytes the size of a segment
+     * @param maxSegments the maximum number of segments
+     * @return a live cache
+     */
+    private SegmentedDiskCache<String, String> createCache( String cacheName, long segmentSizeBytes, int maxSegments )
+    {
+        SegmentedDiskCache<String, String> cache = openCache( cacheName, segmentSizeBytes, maxSegments );
+        cache.processRemoveAll();
+        return cache;
+    }
+
+    /**
+     * Open a cache, keeping what is stored on disk.
+     * <p>
+     * @param cacheName the region name
+     * @param segmentSizeBytes the size of a segment
+     * @param maxSegments the maximum number of segments
+     * @return a live cache
+     */
+    private SegmentedDiskCache<String, String> openCache( String cacheName, long segmentSizeBytes, int maxSegments )
+    {
+        SegmentedDiskCacheAttributes attributes = new SegmentedDiskCacheAttributes();
+        attributes.setCacheName( cacheName );
+        attributes.setDiskPath( "target/test-sandbox/SegmentedDiskCacheUnitTest" );
+        attributes.setSegmentSizeBytes( segmentSizeBytes );
+        attributes.setMaxSegments( maxSegments );
+        return new SegmentedDiskCache<>( attributes );
+    }
+
+    /**
+     * Count the segment files of a region.
+     * <p>
+     * @param cacheName the region name
+     * @return the number of segment files
+     */
+    private int countSegmentFiles( String cacheName )
+    {
+        File[] files = new File( "target/test-sandbox/SegmentedDiskCacheUnitTest" )
+            .listFiles( ( dir, name ) -> name.startsWith( cacheName + "." ) && name.endsWith( ".seg" ) );
+        return files == null ? 0 : files.length;
+    }
+
+    /**
+     * Verify that updates and elements spanning several segments survive the round trip.
+     */
+    public void testPutGet()
+    {
+        // SETUP
+        String cacheName = "testPutGet";
+        SegmentedDiskCache<String, String> cache = createCache( cacheName, 1024, -1 );
+
+        // DO WORK
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+        cache.processUpdate( new CacheElement<>( cacheName, "key0", "updated" ) );
+        cache.processUpdate( new CacheElement<>( cacheName, "large", new String( new char[4096] ) ) );
+
+        // VERIFY
+        assertEquals( "Wrong size", 101, cache.getSize() );
+        assertEquals( "Wrong updated value", "updated", cache.processGet( "key0" ).getVal() );
+        for ( int i = 1; i < 100; i++ )
+        {
+            ICacheElement<String, String> element = cache.processGet( "key" + i );
+            assertNotNull( "Should have key" + i, element );
+            assertEquals( "Wrong value", "value" + i, element.getVal() );
+        }
+        assertEquals( "Wrong large value", 4096, cache.processGet( "large" ).getVal().length() );
+        assertNull( "Should not have missing", cache.processGet( "missing" ) );
+        assertTrue( "Should use several segments", countSegmentFiles( cacheName ) > 1 );
+    }
+
+    /**
+     * Verify that single, hierarchical and full removal work.
+     */
+    public void testRemove()
+    {
+        // SETUP
+        String cacheName = "testRemove";
+        SegmentedDiskCache<String, String> cache = createCache( cacheName, 64 * 1024, -1 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key:" + i, "value" + i ) );
+        }
+        cache.processUpdate( new CacheElement<>( cacheName, "other", "value" ) );
+
+        // DO WORK
+        assertTrue( "Should remove", cache.processRemove( "key:0" ) );
+        assertFalse( "Should not remove twice", cache.processRemove( "key:0" ) );
+        assertTrue( "Should remove hierarchy", cache.processRemove( "key:" ) );
+
+        // VERIFY
+        assertEquals( "Only other should be left", 1, cache.getSize() );
+        assertNotNull( "Should have other", cache.processGet( "other" ) );
+
+        cache.processRemoveAll();
+        assertEquals( "Should be empty", 0, cache.getSize() );
+        assertNull( "Should not have other", cache.processGet( "other" ) );
+        assertEquals( "Should have no segment files", 0, countSegmentFiles( cacheName ) );
+    }
+
+    /**
+     * Verify that a full segment is deleted once none of its elements is referenced.
+     */
+    public void testUnreferencedSegmentIsDropped()
+    {
+        // SETUP
+        String cacheName = "testUnreferencedSegmentIsDropped";
+        SegmentedDiskCache<String, String> cache = createCache( cacheName, 1024, -1 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+        int segmentsBefore = countSegmentFiles( cacheName );
+
+        // DO WORK
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key" + i, "new value" + i ) );
+        }
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.processRemove( "key" + i );
+        }
+
+        // VERIFY
+        assertTrue( "Should have had several segments", segmentsBefore > 1 );
+        assertEquals( "Only the active segment should be left", 1, countSegmentFiles( cacheName ) );
+    }
+
+    /**
+     * Verify that the oldest segment is dropped with its elements once there are too many.
+     */
+    public void testOldestSegmentIsDropped()
+    {
+        // SETUP
+        String cacheName = "testOldestSegmentIsDropped";
+        SegmentedDiskCache<String, String> cache = createCache( cacheName, 1024, 3 );
+
+        // DO WORK
+        for ( int i = 0; i < 200; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong number of segments", 3, countSegmentFiles( cacheName ) );
+        assertNull( "The oldest element should be gone", cache.processGet( "key0" ) );
+        assertNotNull( "The newest element should be there", cache.processGet( "key199" ) );
+        assertTrue( "Should have dropped elements", cache.getSize() < 200 );
+    }
+
+    /**
+     * Verify that the keys are saved on dispose and loaded again.
+     */
+    public void testKeysSurviveDispose()
+    {
+        // SETUP
+        String cacheName = "testKeysSurviveDispose";
+        SegmentedDiskCache<String, String> cache = createCache( cacheName, 1024, -1 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.processUpdate( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+        cache.processRemove( "key0" );
+
+        // DO WORK
+        cache.processDispose();
+        SegmentedDiskCache<String, String> reopened = openCache( cacheName, 1024, -1 );
+
+        // VERIFY
+        assertEquals( "Wrong size", 49, reopened.getSize() );
+        assertNull( "Removed key should be gone", reopened.processGet( "key0" ) );
+        for ( int i = 1; i < 50; i++ )
+        {
+            assertEquals( "Wrong value", "value" + i, reopened.processGet( "key" + i ).getVal() );
+        }
+        reopened.processUpdate( new CacheElement<>( cacheName, "key0", "again" ) );
+        assertEquals( "Wrong new value", "again", reopened.processGet( "key0" ).getVal() );
+    }
+
+    /**
+     * Verify that several threads can put at the same time.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentPuts()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testConcurrentPuts";
+        SegmentedDiskCache<String, String> cache = createCache( cacheName, 8 * 1024, -1 );
+        List<Thread> threads = new ArrayList<>();
+        for ( int t = 0; t < 4; t++ )
+        {
+            String prefix = "thread" + t + ":";
+            threads.add( new Thread( () -> {
+                for ( int i = 0; i < 500; i++ )
+                {
+                    cache.processUpdate( new CacheElement<>( cacheName, prefix + i, prefix + "value" + i ) );
+                }
+            } ) );
+        }
+
+        // DO WORK
+        threads.forEach( Thread::start );
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", 2000, cache.getSize() );
+        for ( int t = 0; t < 4; t++ )
+        {
+            for ( int i = 0; i < 500; i++ )
+            {
+                String key = "thread" + t + ":" + i;
+                assertEquals( "Wrong value for " + key, "thread" + t + ":value" + i, cache.processGet( key ).getVal() );
+            }
+        }
+    }
+}
@@ -1,6 +1,16 @@
 package org.apache.commons.jcs3.auxiliary.lateral;
 
+import java.util.List;
+import java.util.Properties;
+
 import org.apache.commons.jcs3.auxiliary.lateral.behavior.ILateralCacheAttributes;
+import org.apache.commons.jcs3.auxiliary.lateral.socket.tcp.TCPLateralCacheAttributes;
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.utils.threadpool.PoolConfiguration;
+import org.apache.commons.jcs3.utils.threadpool.PoolConfiguration.WhenBlockedPolicy;
+import org.apache.commons.jcs3.utils.threadpool.ThreadPoolManager;
+import org.apache.commons.jcs3.utils.timing.SleepUtil;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one
@@ -29,6 +39,18 @@ import junit.framework.TestCase;
 public class LateralCacheNoWaitFacadeUnitTest
     extends TestCase
 {
+    /**
+     * Gives the parallel gets enough threads.
+     */
+    @Override
+    protected void setUp()
+    {
+        Properties props = new Properties();
+        props.setProperty( "thread_pool.lateral_cache_client.startUpSize", "10" );
+        props.setProperty( "thread_pool.lateral_cache_client.minimumPoolSize", "10" );
+        ThreadPoolManager.setProps( props );
+    }
+
     /**
      * Verify that we can remove an item.
      */
@@ -141,4 +163,171 @@ public class LateralCacheNoWaitFacadeUnitTest
         // VERIFY
         assertFalse( "Should not be in the list.", facade.containsNoWait( noWait ) );
     }
+
+    /**
+     * Creates a no wait that answers a get after a delay.
+     * <p>
+     * @param cache
+     * @param delay the delay in milliseconds
+     * @param val the value to answer, or null for none
+     * @return the no wait
+     */
+    private LateralCacheNoWait<String, String> createSlowNoWait( LateralCache<String, String> cache,
+                                                                 long delay, String val )
+    {
+        return new LateralCacheNoWait<String, String>( cache )
+        {
+            @Override
+            public ICacheElement<String, String> get( String key )
+            {
+                SleepUtil.sleepAtLeast( delay );
+                return val == null ? null : new CacheElement<>( "testCache1", key, val );
+            }
+        };
+    }
+
+    /**
+     * Verify that a parallel get returns the first element found, without waiting for the slow
+     * laterals.
+     */
+    public void testParallelGet_FirstFound()
+    {
+        // SETUP
+        ILateralCacheAttributes cattr = new LateralCacheAttributes();
+        cattr.setCacheName( "testCache1" );
+        cattr.setParallelGet( true );
+        LateralCache<String, String> cache = new LateralCache<>( cattr );
+
+        @SuppressWarnings("unchecked")
+        LateralCacheNoWait<String, String>[] noWaits = new LateralCacheNoWait[] {
+            createSlowNoWait( cache, 2000, null ),
+            createSlowNoWait( cache, 2000, null ),
+            createSlowNoWait( cache, 50, "value" ) };
+        LateralCacheNoWaitFacade<String, String> facade = new LateralCacheNoWaitFacade<>( null, noWaits, cattr );
+
+        // DO WORK
+        long start = System.currentTimeMillis();
+        ICacheElement<String, String> result = facade.get( "key" );
+        long time = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertEquals( "Wrong value", "value", result.getVal() );
+        assertTrue( "Should not wait for the slow laterals, took " + time, time < 1000 );
+    }
+
+    /**
+     * Verify that a parallel get returns null if no lateral has the element.
+     */
+    public void testParallelGet_NotFound()
+    {
+        // SETUP
+        ILateralCacheAttributes cattr = new LateralCacheAttributes();
+        cattr.setCacheName( "testCache1" );
+        cattr.setParallelGet( true );
+        LateralCache<String, String> cache = new LateralCache<>( cattr );
+
+        @SuppressWarnings("unchecked")
+        LateralCacheNoWait<String, String>[] noWaits = new LateralCacheNoWait[] {
+            createSlowNoWait( cache, 100, null ),
+            createSlowNoWait( cache, 100, null ),
+            createSlowNoWait( cache, 100, null ) };
+        LateralCacheNoWaitFacade<String, String> facade = new LateralCacheNoWaitFacade<>( null, noWaits, cattr );
+
+        // DO WORK
+        long start = System.currentTimeMillis();
+        ICacheElement<String, String> result = facade.get( "key" );
+        long time = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertNull( "Should not find it", result );
+        assertTrue( "Should ask the laterals at once, took " + time, time < 250 );
+    }
+
+    /**
+     * Verify that a parallel get asks the laterals in this thread if the pool rejects the gets.
+     */
+    public void testParallelGet_Rejected()
+    {
+        // SETUP
+        String poolName = "testParallelGet_Rejected";
+        PoolConfiguration config = new PoolConfiguration();
+        config.setWhenBlockedPolicy( WhenBlockedPolicy.ABORT );
+        ThreadPoolManager.getInstance().getExecutorService( poolName, config ).shutdown();
+
+        ILateralCacheAttributes cattr = new LateralCacheAttributes();
+        cattr.setCacheName( "testCache1" );
+        cattr.setParallelGet( true );
+        cattr.setThreadPoolName( poolName );
+        LateralCache<String, String> cache = new LateralCache<>( cattr );
+
+        @SuppressWarnings("unchecked")
+        LateralCacheNoWait<String, String>[] noWaits = new LateralCacheNoWait[] {
+            createSlowNoWait( cache, 10, null ),
+            createSlowNoWait( cache, 10, "value" ) };
+        LateralCacheNoWaitFacade<String, String> facade = new LateralCacheNoWaitFacade<>( null, noWaits, cattr );
+
+        // DO WORK
+        ICacheElement<String, String> result = facade.get( "key" );
+
+        // VERIFY
+        assertEquals( "Wrong value", "value", result.getVal() );
+    }
+
+    /**
+     * Verify that a parallel get waits no longer than the request timeout.
+     */
+    public void testParallelGet_Timeout()
+    {
+        // SETUP
+        TCPLateralCacheAttributes cattr = new TCPLateralCacheAttributes();
+        cattr.setCacheName( "testCache1" );
+        cattr.setParallelGet( true );
+        cattr.setRequestTimeoutMillis( 200 );
+        LateralCache<String, String> cache = new LateralCache<>( cattr );
+
+        @SuppressWarnings("unchecked")
+        LateralCacheNoWait<String, String>[] noWaits = new LateralCacheNoWait[] {
+            createSlowNoWait( cache, 2000, "value" ),
+            createSlowNoWait( cache, 2000, "value" ) };
+        LateralCacheNoWaitFacade<String, String> facade = new LateralCacheNoWaitFacade<>( null, noWaits, cattr );
+
+        // DO WORK
+        long start = System.currentTimeMillis();
+        ICacheElement<String, String> result = facade.get( "key" );
+        long time = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertNull( "Should time out", result );
+        assertTrue( "Should wait for the timeout, waited " + time, time >= 200 && time < 1000 );
+    }
+
+    /**
+     * Verify that the laterals for a key are chosen by its hash code.
+     */
+    public void testSelectNoWaits_Subset()
+    {
+        // SETUP
+        ILateralCacheAttributes cattr = new LateralCacheAttributes();
+        cattr.setCacheName( "testCache1" );
+        cattr.setParallelGet( true );
+        cattr.setParallelGetPeers( 2 );
+        LateralCache<String, String> cache = new LateralCache<>( cattr );
+
+        @SuppressWarnings("unchecked")
+        LateralCacheNoWait<String, String>[] noWaits = new LateralCacheNoWait[] {
+            new LateralCacheNoWait<>( cache ),
+            new LateralCacheNoWait<>( cache ),
+            new LateralCacheNoWait<>( cache ) };
+        LateralCacheNoWaitFacade<String, String> facade = new LateralCacheNoWaitFacade<>( null, noWaits, cattr );
+
+        // DO WORK
+        List<LateralCacheNoWait<String, String>> selected = facade.selectNoWaits( "key" );
+
+        // VERIFY
+        int start = ( "key".hashCode() & Integer.MAX_VALUE ) % 3;
+        assertEquals( "Wrong number of laterals", 2, selected.size() );
+        assertSame( "Wrong first lateral", noWaits[start], selected.get( 0 ) );
+        assertSame( "Wrong second lateral", noWaits[( start + 1 ) % 3], selected.get( 1 ) );
+        assertEquals( "Should be the same for the same key", selected, facade.selectNoWaits( "key" ) );
+    }
 }
@@ -0,0 +1,249 @@
+package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs3.auxiliary.lateral.LateralCommand;
+import org.apache.commons.jcs3.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CacheElementSerialized;
+import org.apache.commons.jcs3.engine.ElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElementSerialized;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
+
+/**
+ * Tests the binary message format.
+ */
+public class LateralTCPCodecUnitTest
+    extends TestCase
+{
+    /**
+     * @return a codec for the binary format
+     */
+    private LateralTCPCodec createCodec()
+    {
+        return new LateralTCPCodec( LateralTCPProtocol.VERSION_BINARY, new StandardSerializer() );
+    }
+
+    /**
+     * An update keeps its element and attributes.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdateRoundTrip()
+        throws Exception
+    {
+        // SETUP
+        LateralTCPCodec sender = createCodec();
+        LateralTCPCodec receiver = createCodec();
+
+        ElementAttributes attr = new ElementAttributes();
+        attr.setMaxLife( 600 );
+        attr.setIdleTime( -1 );
+        attr.setIsSpool( false );
+        attr.setIsEternal( false );
+        attr.setCreateTime( 1234567890123L );
+        attr.setLastAccessTime( 1234567899999L );
+        attr.setSize( 42 );
+        LateralElementDescriptor<String, String> led =
+            new LateralElementDescriptor<>( new CacheElement<>( "testRegion", "key", "value", attr ) );
+        led.requesterId = 987654321L;
+        led.valHashCode = 17;
+
+        // DO WORK
+        LateralElementDescriptor<String, String> result = receiver.decodeCommand( sender.encodeCommand( led ) );
+
+        // VERIFY
+        assertEquals( "Wrong command", LateralCommand.UPDATE, result.command );
+        assertEquals( "Wrong requester", 987654321L, result.requesterId );
+        assertEquals( "Wrong hash code", 17, result.valHashCode );
+        assertEquals( "Wrong region", "testRegion", result.ce.getCacheName() );
+        assertEquals( "Wrong key", "key", result.ce.getKey() );
+        assertEquals( "Wrong value", "value", result.ce.getVal() );
+        assertEquals( "Wrong max life", 600, result.ce.getElementAttributes().getMaxLife() );
+        assertEquals( "Wrong idle time", -1, result.ce.getElementAttributes().getIdleTime() );
+        assertFalse( "Wrong spool", result.ce.getElementAttributes().getIsSpool() );
+        assertFalse( "Wrong eternal", result.ce.getElementAttributes().getIsEternal() );
+        assertTrue( "Wrong lateral", result.ce.getElementAttributes().getIsLateral() );
+        assertEquals( "Wrong create time", 1234567890123L, result.ce.getElementAttributes().getCreateTime() );
+        assertEquals( "Wrong access time", 1234567899999L, result.ce.getElementAttributes().getLastAccessTime() );
+        assertEquals( "Wrong size", 42, result.ce.getElementAttributes().getSize() );
+    }
+
+    /**
+     * The region name is only written the first time.
+     * <p>
+     * @throws Exception
+     */
+    public void testRegionWrittenOnce()
+        throws Exception
+    {
+        // SETUP
+        LateralTCPCodec sender = createCodec();
+        LateralTCPCodec receiver = createCodec();
+        String region = "aRatherLongRegionNameForTheTest";
+
+        // DO WORK
+        byte[] first = sender.encodeCommand( remove( region, "key1" ) );
+        byte[] second = sender.encodeCommand( remove( region, "key2" ) );
+        LateralElementDescriptor<String, String> result1 = receiver.decodeCommand( first );
+        LateralElementDescriptor<String, String> result2 = receiver.decodeCommand( second );
+
+        // VERIFY
+        assertTrue( "Second message should be shorter", second.length < first.length - region.length() );
+        assertEquals( "Wrong command", LateralCommand.REMOVE, result2.command );
+        assertEquals( "Wrong region", region, result1.ce.getCacheName() );
+        assertEquals( "Wrong region", region, result2.ce.getCacheName() );
+        assertEquals( "Wrong key", "key2", result2.ce.getKey() );
+        assertNull( "Should have no value", result2.ce.getVal() );
+    }
+
+    /**
+     * The binary format is much smaller than Java serialization for small values.
+     * <p>
+     * @throws Exception
+     */
+    public void testSmallerThanSerialized()
+        throws Exception
+    {
+        // SETUP
+        LateralTCPCodec binary = createCodec();
+        LateralTCPCodec serialized =
+            new LateralTCPCodec( LateralTCPProtocol.VERSION_SERIALIZED, new StandardSerializer() );
+        LateralElementDescriptor<String, String> led =
+            new LateralElementDescriptor<>( new CacheElement<>( "testRegion", "key", "value", new ElementAttributes() ) );
+
+        // DO WORK
+        binary.encodeCommand( led );
+        int binaryLength = binary.encodeCommand( led ).length;
+        int serializedLength = serialized.encodeCommand( led ).length;
+
+        // VERIFY
+        assertTrue( "Binary " + binaryLength + " should be much smaller than serialized " + serializedLength,
+                    binaryLength * 5 < serializedLength );
+    }
+
+    /**
+     * Serialized values are written as they are.
+     * <p>
+     * @throws Exception
+     */
+    public void testSerializedValue()
+        throws Exception
+    {
+        // SETUP
+        LateralTCPCodec sender = createCodec();
+        LateralTCPCodec receiver = createCodec();
+        byte[] value = new StandardSerializer().serialize( "value" );
+        LateralElementDescriptor<String, String> led = new LateralElementDescriptor<>(
+            new CacheElementSerialized<>( "testRegion", "key", value, new ElementAttributes() ) );
+
+        // DO WORK
+        LateralElementDescriptor<String, String> result = receiver.decodeCommand( sender.encodeCommand( led ) );
+
+        // VERIFY
+        assertTrue( "Should still be serialized", result.ce instanceof ICacheElementSerialized );
+        assertTrue( "Wrong value", Arrays.equals( value,
+            ( (ICacheElementSerialized<String, String>) result.ce ).getSerializedValue() ) );
+    }
+
+    /**
+     * Responses to the gets.
+     * <p>
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public void testResponses()
+        throws Exception
+    {
+        // SETUP
+        LateralTCPCodec listener = createCodec();
+        LateralTCPCodec sender = createCodec();
+        Map<String, ICacheElement<String, String>> elements = new HashMap<>();
+        elements.put( "key1", new CacheElement<>( "testRegion", "key1", "value1", new ElementAttributes() ) );
+        elements.put( "key2", new CacheElement<>( "testRegion", "key2", "value2", new ElementAttributes() ) );
+        Set<String> keys = new HashSet<>( elements.keySet() );
+
+        // DO WORK
+        Object miss = sender.decodeResponse( listener.encodeResponse( 0, null ) );
+        ICacheElement<String, String> hit = (ICacheElement<String, String>) sender.decodeResponse(
+            listener.encodeResponse( 0, elements.get( "key1" ) ) );
+        Map<String, ICacheElement<String, String>> matching =
+            (Map<String, ICacheElement<String, String>>) sender.decodeResponse( listener.encodeResponse( 0, elements ) );
+        Set<String> keySet = (Set<String>) sender.decodeResponse( listener.encodeResponse( 0, keys ) );
+
+        // VERIFY
+        assertNull( "Should be a miss", miss );
+        assertEquals( "Wrong value", "value1", hit.getVal() );
+        assertEquals( "Wrong number of elements", 2, matching.size() );
+        assertEquals( "Wrong value", "value2", matching.get( "key2" ).getVal() );
+        assertEquals( "Wrong keys", keys, keySet );
+    }
+
+    /**
+     * Gets and their responses carry the request id on multiplexed connections.
+     * <p>
+     * @throws Exception
+     */
+    public void testRequestId()
+        throws Exception
+    {
+        // SETUP
+        LateralTCPCodec sender =
+            new LateralTCPCodec( LateralTCPProtocol.VERSION_MULTIPLEXED, new StandardSerializer() );
+        LateralTCPCodec listener =
+            new LateralTCPCodec( LateralTCPProtocol.VERSION_MULTIPLEXED, new StandardSerializer() );
+        LateralElementDescriptor<String, String> led =
+            new LateralElementDescriptor<>( new CacheElement<>( "testRegion", "key", null ) );
+        led.command = LateralCommand.GET;
+        led.requestId = 4711;
+
+        // DO WORK
+        LateralElementDescriptor<String, String> request = listener.decodeCommand( sender.encodeCommand( led ) );
+        byte[] response = listener.encodeResponse( request.requestId,
+            new CacheElement<>( "testRegion", "key", "value", new ElementAttributes() ) );
+
+        // VERIFY
+        assertEquals( "Wrong request id", 4711, request.requestId );
+        assertEquals( "Wrong response id", 4711, sender.getRequestId( response ) );
+        assertEquals( "Wrong value", "value", ( (ICacheElement<?, ?>) sender.decodeResponse( response ) ).getVal() );
+    }
+
+    /**
+     * @param region
+     * @param key
+     * @return a remove command
+     */
+    private static LateralElementDescriptor<String, String> remove( String region, String key )
+    {
+        LateralElementDescriptor<String, String> led =
+            new LateralElementDescriptor<>( new CacheElement<>( region, key, null ) );
+        led.command = LateralCommand.REMOVE;
+        return led;
+    }
+}
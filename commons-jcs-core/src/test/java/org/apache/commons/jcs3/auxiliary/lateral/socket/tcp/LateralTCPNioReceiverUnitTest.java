@@ -0,0 +1,457 @@
+package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs3.auxiliary.lateral.LateralCache;
+import org.apache.commons.jcs3.auxiliary.lateral.LateralElementDescriptor;
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+import org.apache.commons.jcs3.engine.control.MockCompositeCacheManager;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
+import org.apache.commons.jcs3.utils.timing.SleepUtil;
+
+/**
+ * Tests the non-blocking listener and the message protocol.
+ */
+public class LateralTCPNioReceiverUnitTest
+    extends TestCase
+{
+    /**
+     * Starts a listener on the port.
+     * <p>
+     * @param port
+     * @param selectorThreads
+     * @return the cache of the listener
+     */
+    private CompositeCache<String, String> startListener( int port, int selectorThreads )
+    {
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpListenerPort( port );
+        lattr.setTcpListenerSelectorThreads( selectorThreads );
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPListener.getInstance( lattr, cacheMgr );
+        return cache;
+    }
+
+    /**
+     * Creates a service that talks to the port.
+     * <p>
+     * @param port
+     * @param protocolVersion
+     * @return the service
+     * @throws Exception
+     */
+    private LateralTCPService<String, String> createService( int port, int protocolVersion )
+        throws Exception
+    {
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpServer( "localhost:" + port );
+        lattr.setProtocolVersion( protocolVersion );
+        LateralTCPService<String, String> service = new LateralTCPService<>( lattr );
+        service.setListenerId( 123456 );
+        return service;
+    }
+
+    /**
+     * Send updates with the message protocol to the non-blocking listener and get them back.
+     * <p>
+     * @throws Exception
+     */
+    public void testMessages()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = startListener( 1130, 2 );
+        LateralTCPService<String, String> service = createService( 1130, 1 );
+
+        // DO WORK
+        int cnt = 100;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+        }
+        SleepUtil.sleepAtLeast( 500 );
+
+        ICacheElement<String, String> hit = service.get( "test", "key7" );
+        long start = System.currentTimeMillis();
+        ICacheElement<String, String> miss = service.get( "test", "nothere" );
+        long missTime = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertEquals( "Didn't get the correct number", cnt, cache.getUpdateCount() );
+        assertEquals( "Wrong value", "value7", hit.getVal() );
+        assertNull( "Should not find it", miss );
+        assertTrue( "A miss should be answered at once, took " + missTime, missTime < 500 );
+    }
+
+    /**
+     * Send updates with the binary message protocol to the non-blocking listener and get them back.
+     * <p>
+     * @throws Exception
+     */
+    public void testBinaryMessages()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = startListener( 1133, 2 );
+        LateralTCPService<String, String> service = createService( 1133, 2 );
+
+        // DO WORK
+        int cnt = 100;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+        }
+        SleepUtil.sleepAtLeast( 500 );
+
+        ICacheElement<String, String> hit = service.get( "test", "key7" );
+        ICacheElement<String, String> miss = service.get( "test", "nothere" );
+        Map<String, ICacheElement<String, String>> matching = service.getMatching( "test", "key1." );
+        Set<String> keys = service.getKeySet( "test" );
+
+        // VERIFY
+        assertEquals( "Didn't get the correct number", cnt, cache.getUpdateCount() );
+        assertEquals( "Wrong value", "value7", hit.getVal() );
+        assertNull( "Should not find it", miss );
+        assertEquals( "Wrong number matching", 10, matching.size() );
+        assertEquals( "Wrong value", "value12", matching.get( "key12" ).getVal() );
+        assertEquals( "Wrong number of keys", cnt, keys.size() );
+    }
+
+    /**
+     * Many threads get over one multiplexed connection at once.
+     * <p>
+     * @throws Exception
+     */
+    public void testMultiplexedGets()
+        throws Exception
+    {
+        // SETUP
+        startListener( 1134, 2 );
+        LateralTCPService<String, String> service = createService( 1134, 3 );
+        int cnt = 100;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+        }
+        SleepUtil.sleepAtLeast( 500 );
+
+        // DO WORK
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[10];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            threads[t] = new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < cnt; i++ )
+                    {
+                        ICacheElement<String, String> element = service.get( "test", "key" + i );
+                        if ( element == null || !( "value" + i ).equals( element.getVal() ) )
+                        {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                }
+                catch ( IOException e )
+                {
+                    wrong.incrementAndGet();
+                }
+            } );
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        Set<String> keys = new HashSet<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            keys.add( "key" + i );
+        }
+        keys.add( "nothere" );
+        Map<String, ICacheElement<String, String>> multiple = service.getMultiple( "test", keys );
+
+        // VERIFY
+        assertEquals( "Wrong responses", 0, wrong.get() );
+        assertEquals( "Wrong number of elements", 20, multiple.size() );
+        assertEquals( "Wrong value", "value13", multiple.get( "key13" ).getVal() );
+    }
+
+    /**
+     * A lateral cache gets many keys with one call to the service.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetMultipleThroughLateralCache()
+        throws Exception
+    {
+        // SETUP
+        startListener( 1138, 2 );
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpServer( "localhost:1138" );
+        lattr.setProtocolVersion( 3 );
+        lattr.setCacheName( "test" );
+        lattr.setPutOnlyMode( false );
+        AtomicInteger singleGets = new AtomicInteger();
+        LateralTCPService<String, String> service = new LateralTCPService<String, String>( lattr )
+        {
+            @Override
+            public ICacheElement<String, String> get( String cacheName, String key, long requesterId )
+                throws IOException
+            {
+                singleGets.incrementAndGet();
+                return super.get( cacheName, key, requesterId );
+            }
+        };
+        service.setListenerId( 123456 );
+        LateralCache<String, String> cache = new LateralCache<>( lattr, service, null );
+
+        int cnt = 20;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+        }
+        SleepUtil.sleepAtLeast( 500 );
+
+        Set<String> keys = new HashSet<>();
+        for ( int i = 0; i < cnt; i++ )
+        {
+            keys.add( "key" + i );
+        }
+        keys.add( "nothere" );
+
+        // DO WORK
+        Map<String, ICacheElement<String, String>> multiple = cache.getMultiple( keys );
+
+        // VERIFY
+        assertEquals( "Wrong number of elements", cnt, multiple.size() );
+        assertEquals( "Wrong value", "value13", multiple.get( "key13" ).getVal() );
+        assertEquals( "Should not get the keys one by one", 0, singleGets.get() );
+    }
+
+    /**
+     * A get that gets no response returns null after the request timeout.
+     * <p>
+     * @throws Exception
+     */
+    public void testRequestTimeout()
+        throws Exception
+    {
+        // SETUP
+        try (ServerSocket server = new ServerSocket( 1135 ))
+        {
+            Thread silentListener = new Thread( () -> {
+                try (Socket socket = server.accept())
+                {
+                    socket.getInputStream().read( new byte[LateralTCPProtocol.HEADER_LENGTH] );
+                    socket.getOutputStream().write( LateralTCPProtocol.VERSION_MULTIPLEXED );
+                    socket.getOutputStream().flush();
+                    SleepUtil.sleepAtLeast( 2000 );
+                }
+                catch ( IOException e )
+                {
+                    // the test fails on its own
+                }
+            } );
+            silentListener.start();
+
+            TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+            lattr.setTcpServer( "localhost:1135" );
+            lattr.setProtocolVersion( 3 );
+            lattr.setRequestTimeoutMillis( 200 );
+            LateralTCPService<String, String> service = new LateralTCPService<>( lattr );
+
+            // DO WORK
+            long start = System.currentTimeMillis();
+            ICacheElement<String, String> result = service.get( "test", "key" );
+            long time = System.currentTimeMillis() - start;
+
+            // VERIFY
+            assertNull( "Should time out", result );
+            assertTrue( "Should wait for the timeout, waited " + time, time >= 200 && time < 1000 );
+            silentListener.join();
+        }
+    }
+
+    /**
+     * A get that times out on the message protocol closes the connection, so its late response
+     * is not taken for the response to the next get.
+     * <p>
+     * @throws Exception
+     */
+    public void testLateResponseAfterTimeout()
+        throws Exception
+    {
+        // SETUP
+        try (ServerSocket server = new ServerSocket( 1136 ))
+        {
+            Thread slowListener = new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < 2; i++ )
+                    {
+                        Socket socket = server.accept();
+                        Thread connection = new Thread( () -> answerGets( socket ) );
+                        connection.setDaemon( true );
+                        connection.start();
+                    }
+                }
+                catch ( IOException e )
+                {
+                    // the test fails on its own
+                }
+            } );
+            slowListener.setDaemon( true );
+            slowListener.start();
+
+            TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+            lattr.setTcpServer( "localhost:1136" );
+            lattr.setProtocolVersion( 1 );
+            lattr.setSocketTimeOut( 200 );
+            LateralTCPService<String, String> service = new LateralTCPService<>( lattr );
+
+            // DO WORK
+            try
+            {
+                service.get( "test", "slow" );
+                fail( "Should time out" );
+            }
+            catch ( IOException e )
+            {
+                // expected
+            }
+            SleepUtil.sleepAtLeast( 1000 );
+            ICacheElement<String, String> result = service.get( "test", "fast" );
+
+            // VERIFY
+            assertEquals( "Wrong key", "fast", result.getKey() );
+            assertEquals( "Wrong value", "value-fast", result.getVal() );
+        }
+    }
+
+    /**
+     * Answers the gets of a connection with the serialized message protocol, the get for "slow"
+     * after 500 ms.
+     * <p>
+     * @param socket
+     */
+    private static void answerGets( Socket socket )
+    {
+        LateralTCPCodec codec =
+            new LateralTCPCodec( LateralTCPProtocol.VERSION_SERIALIZED, new StandardSerializer() );
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream( s.getInputStream() );
+             DataOutputStream out = new DataOutputStream( s.getOutputStream() ))
+        {
+            LateralTCPProtocol.readHeader( in );
+            out.write( LateralTCPProtocol.VERSION_SERIALIZED );
+            out.flush();
+            while ( true )
+            {
+                LateralElementDescriptor<String, String> led =
+                    codec.decodeCommand( LateralTCPProtocol.readMessage( in ) );
+                String key = led.ce.getKey();
+                if ( "slow".equals( key ) )
+                {
+                    SleepUtil.sleepAtLeast( 500 );
+                }
+                LateralTCPProtocol.writeMessage( out, codec.encodeResponse( 0,
+                    new CacheElement<>( "test", key, "value-" + key ) ) );
+                out.flush();
+            }
+        }
+        catch ( IOException | ClassNotFoundException e )
+        {
+            // the connection was closed
+        }
+    }
+
+    /**
+     * Send updates with an object stream to the non-blocking listener.
+     * <p>
+     * @throws Exception
+     */
+    public void testObjectStreamHandOff()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = startListener( 1131, 1 );
+        LateralTCPService<String, String> service = createService( 1131, 0 );
+
+        // DO WORK
+        int cnt = 100;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+        }
+        SleepUtil.sleepAtLeast( 500 );
+
+        ICacheElement<String, String> hit = service.get( "test", "key7" );
+
+        // VERIFY
+        assertEquals( "Didn't get the correct number", cnt, cache.getUpdateCount() );
+        assertEquals( "Wrong value", "value7", hit.getVal() );
+    }
+
+    /**
+     * Send updates with the message protocol to the blocking listener.
+     * <p>
+     * @throws Exception
+     */
+    public void testMessagesToBlockingListener()
+        throws Exception
+    {
+        // SETUP
+        CompositeCache<String, String> cache = startListener( 1132, 0 );
+        LateralTCPService<String, String> service = createService( 1132, 1 );
+
+        // DO WORK
+        int cnt = 100;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+        }
+        SleepUtil.sleepAtLeast( 500 );
+
+        ICacheElement<String, String> hit = service.get( "test", "key7" );
+        ICacheElement<String, String> miss = service.get( "test", "nothere" );
+
+        // VERIFY
+        assertEquals( "Didn't get the correct number", cnt, cache.getUpdateCount() );
+        assertEquals( "Wrong value", "value7", hit.getVal() );
+        assertNull( "Should not find it", miss );
+    }
+}
@@ -1,7 +1,12 @@
 package org.apache.commons.jcs3.auxiliary.lateral.socket.tcp;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.jcs3.engine.control.MockCompositeCacheManager;
 import org.apache.commons.jcs3.utils.timing.SleepUtil;
@@ -16,6 +21,7 @@ import org.apache.commons.jcs3.engine.control.CompositeCache;
 import org.apache.commons.jcs3.engine.control.CompositeCacheManager;
 import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
 import org.apache.commons.jcs3.engine.control.group.GroupId;
+import org.apache.commons.jcs3.utils.serialization.StandardSerializer;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one
@@ -365,4 +371,139 @@ public class TestTCPLateralUnitTest
         assertNotNull( "Result should not be null.", result );
         assertEquals( "Wrong number returned 1:", numToInsertPrefix1, result.size() );
     }
+
+    /**
+     * Send repeated updates of the same keys with batching on. Only the last update of each key in
+     * a frame should be sent, and the frame should be written once it is full.
+     * <p>
+     * @throws Exception
+     */
+    public void testBatchedSend_Coalesced()
+        throws Exception
+    {
+        // SETUP
+        TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+        lattr.setTcpListenerPort( 1109 );
+        MockCompositeCacheManager cacheMgr = new MockCompositeCacheManager();
+        CompositeCache<String, String> cache = cacheMgr.getCache( "test" );
+        LateralTCPListener.getInstance( lattr, cacheMgr );
+
+        TCPLateralCacheAttributes lattr2 = new TCPLateralCacheAttributes();
+        lattr2.setTcpServer( "localhost:1109" );
+        lattr2.setBatchSize( 10 );
+        // long enough that only a full frame is written
+        lattr2.setBatchDelayMicros( 60 * 1000 * 1000 );
+        LateralTCPSender sender = new LateralTCPSender( lattr2 );
+
+        // DO WORK
+        int rounds = 10;
+        int keys = 9;
+        for ( int round = 0; round < rounds; round++ )
+        {
+            for ( int i = 0; i < keys; i++ )
+            {
+                LateralElementDescriptor<String, String> led =
+                    new LateralElementDescriptor<>( new CacheElement<>( "test", "key" + i, "value" + round ) );
+                led.requesterId = 1;
+                sender.send( led );
+            }
+        }
+        LateralElementDescriptor<String, String> last =
+            new LateralElementDescriptor<>( new CacheElement<>( "test", "last", "value" ) );
+        last.requesterId = 1;
+        sender.send( last );
+
+        SleepUtil.sleepAtLeast( 500 );
+
+        // VERIFY
+        assertEquals( "Wrong number of frames", 1, sender.getFrameCnt() );
+        assertEquals( "Wrong number coalesced", ( rounds - 1 ) * keys, sender.getCoalescedCnt() );
+        assertEquals( "Wrong number received", keys + 1, cache.getUpdateCount() );
+        assertEquals( "Should have the last value", "value" + ( rounds - 1 ), cache.get( "key0" ).getVal() );
+    }
+
+    /**
+     * A frame that cannot be written is kept and written again after reconnecting.
+     * <p>
+     * @throws Exception
+     */
+    public void testFailedFrameIsWrittenAgain()
+        throws Exception
+    {
+        // SETUP
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        try (ServerSocket server = new ServerSocket( 1137 ))
+        {
+            Thread resettingListener = new Thread( () -> {
+                try
+                {
+                    // the first connection is reset once the protocol is agreed on
+                    try (Socket socket = server.accept())
+                    {
+                        DataInputStream in = new DataInputStream( socket.getInputStream() );
+                        LateralTCPProtocol.readHeader( in );
+                        socket.getOutputStream().write( LateralTCPProtocol.VERSION_SERIALIZED );
+                        socket.getOutputStream().flush();
+                        socket.setSoLinger( true, 0 );
+                    }
+                    readCommands( server.accept(), received );
+                }
+                catch ( IOException e )
+                {
+                    // the test fails on its own
+                }
+            } );
+            resettingListener.setDaemon( true );
+            resettingListener.start();
+
+            TCPLateralCacheAttributes lattr = new TCPLateralCacheAttributes();
+            lattr.setTcpServer( "localhost:1137" );
+            lattr.setProtocolVersion( 1 );
+            lattr.setBatchSize( 100 );
+            lattr.setBatchDelayMicros( 100 * 1000 );
+            LateralTCPService<String, String> service = new LateralTCPService<>( lattr );
+            SleepUtil.sleepAtLeast( 200 );
+
+            // DO WORK
+            int cnt = 10;
+            for ( int i = 0; i < cnt; i++ )
+            {
+                service.update( new CacheElement<>( "test", "key" + i, "value" + i ) );
+            }
+            SleepUtil.sleepAtLeast( 2500 );
+
+            // VERIFY
+            assertEquals( "Wrong number of commands received", cnt, received.size() );
+            service.dispose( "test" );
+        }
+    }
+
+    /**
+     * Collects the keys of the commands of a connection with the serialized message protocol.
+     * <p>
+     * @param socket
+     * @param received
+     */
+    private static void readCommands( Socket socket, Set<String> received )
+    {
+        LateralTCPCodec codec =
+            new LateralTCPCodec( LateralTCPProtocol.VERSION_SERIALIZED, new StandardSerializer() );
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream( s.getInputStream() ))
+        {
+            LateralTCPProtocol.readHeader( in );
+            s.getOutputStream().write( LateralTCPProtocol.VERSION_SERIALIZED );
+            s.getOutputStream().flush();
+            while ( true )
+            {
+                LateralElementDescriptor<String, String> led =
+                    codec.decodeCommand( LateralTCPProtocol.readMessage( in ) );
+                received.add( led.ce.getKey() );
+            }
+        }
+        catch ( IOException | ClassNotFoundException e )
+        {
+            // the connection was closed
+        }
+    }
 }
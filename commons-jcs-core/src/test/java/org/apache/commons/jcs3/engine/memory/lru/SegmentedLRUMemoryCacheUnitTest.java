@@ -0,0 +1,216 @@
+package org.apache.commons.jcs3.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs3.engine.ElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the segmented LRU memory cache. */
+public class SegmentedLRUMemoryCacheUnitTest
+    extends TestCase
+{
+    /**
+     * Create a cache with the given size and number of segments.
+     * <p>
+     * @param cacheName the region name
+     * @param maxObjects the size
+     * @param segments the number of segments
+     * @return an initialized cache
+     */
+    private SegmentedLRUMemoryCache<String, String> createCache( String cacheName, int maxObjects,
+            final int segments )
+    {
+        ICompositeCacheAttributes attributes = new CompositeCacheAttributes();
+        attributes.setCacheName( cacheName );
+        attributes.setMaxObjects( maxObjects );
+        attributes.setSpoolChunkSize( 1 );
+
+        SegmentedLRUMemoryCache<String, String> cache = new SegmentedLRUMemoryCache<String, String>()
+        {
+            @Override
+            protected int computeSegmentCount( int max )
+            {
+                return segments;
+            }
+        };
+        cache.initialize( new CompositeCache<>( attributes, new ElementAttributes() ) );
+        return cache;
+    }
+
+    /**
+     * Verify that a single segment behaves like the LRUMemoryCache.
+     * <p>
+     * @throws IOException
+     */
+    public void testLeastRecentlyUsedIsSpooled()
+        throws IOException
+    {
+        // SETUP
+        int maxObjects = 10;
+        String cacheName = "testLeastRecentlyUsedIsSpooled";
+        SegmentedLRUMemoryCache<String, String> cache = createCache( cacheName, maxObjects, 1 );
+
+        for ( int i = 0; i < maxObjects; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+        cache.get( "key0" );
+
+        // DO WORK
+        cache.update( new CacheElement<>( cacheName, "onemore", "onemore" ) );
+
+        // VERIFY
+        assertEquals( "Should have max elements", maxObjects, cache.getSize() );
+        assertNotNull( "Recently used key0 should survive", cache.getQuiet( "key0" ) );
+        assertNull( "key1 should have been spooled", cache.getQuiet( "key1" ) );
+        assertNotNull( "Should have onemore", cache.getQuiet( "onemore" ) );
+    }
+
+    /**
+     * Verify that the size of the cache stays bounded with several segments.
+     * <p>
+     * @throws IOException
+     */
+    public void testSizeIsBounded()
+        throws IOException
+    {
+        // SETUP
+        int maxObjects = 400;
+        int segments = 4;
+        String cacheName = "testSizeIsBounded";
+        SegmentedLRUMemoryCache<String, String> cache = createCache( cacheName, maxObjects, segments );
+
+        // DO WORK
+        for ( int i = 0; i < maxObjects * 10; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        assertTrue( "Should be bounded by the segment capacity", cache.getSize() <= maxObjects );
+        assertTrue( "Should be nearly full", cache.getSize() > maxObjects - segments * 10 );
+    }
+
+    /**
+     * Verify that remove, removeAll and freeElements keep map and lists in sync.
+     * <p>
+     * @throws IOException
+     */
+    public void testRemoveAndFree()
+        throws IOException
+    {
+        // SETUP
+        int maxObjects = 64;
+        String cacheName = "testRemoveAndFree";
+        SegmentedLRUMemoryCache<String, String> cache = createCache( cacheName, maxObjects, 4 );
+
+        for ( int i = 0; i < 40; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "key:" + i, "value" + i ) );
+        }
+
+        // DO WORK
+        assertTrue( "Should remove", cache.remove( "key:0" ) );
+        assertFalse( "Should not remove twice", cache.remove( "key:0" ) );
+        int freed = cache.freeElements( 5 );
+
+        // VERIFY
+        assertEquals( "Should free 5", 5, freed );
+        assertEquals( "Wrong size", 34, cache.getSize() );
+
+        assertTrue( "Should remove hierarchy", cache.remove( "key:" ) );
+        assertEquals( "Should be empty", 0, cache.getSize() );
+        assertEquals( "Nothing to free", 0, cache.freeElements( 5 ) );
+
+        cache.update( new CacheElement<>( cacheName, "key", "value" ) );
+        cache.removeAll();
+        assertEquals( "Should be empty", 0, cache.getSize() );
+    }
+
+    /**
+     * Verify that concurrent readers and writers leave the cache consistent.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentAccess()
+        throws Exception
+    {
+        // SETUP
+        int maxObjects = 512;
+        String cacheName = "testConcurrentAccess";
+        SegmentedLRUMemoryCache<String, String> cache = createCache( cacheName, maxObjects, 8 );
+        AtomicInteger errors = new AtomicInteger();
+
+        // DO WORK
+        List<Thread> threads = new ArrayList<>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int seed = t;
+            Thread thread = new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < 20000; i++ )
+                    {
+                        String key = "key" + ( ( i * 31 + seed ) % 2000 );
+                        switch ( i % 8 )
+                        {
+                            case 0:
+                            case 1:
+                                cache.update( new CacheElement<>( cacheName, key, key ) );
+                                break;
+                            case 2:
+                                cache.remove( key );
+                                break;
+                            default:
+                                cache.get( key );
+                        }
+                    }
+                }
+                catch ( Exception e )
+                {
+                    errors.incrementAndGet();
+                }
+            } );
+            threads.add( thread );
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "No errors expected", 0, errors.get() );
+        assertTrue( "Should not exceed max elements", cache.getSize() <= maxObjects );
+        assertEquals( "Map and lists should agree", cache.getSize(),
+                cache.freeElements( Integer.MAX_VALUE ) );
+        assertEquals( "Should be empty", 0, cache.getSize() );
+    }
+}
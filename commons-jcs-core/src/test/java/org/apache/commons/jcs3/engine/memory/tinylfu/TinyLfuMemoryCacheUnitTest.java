@@ -0,0 +1,250 @@
+package org.apache.commons.jcs3.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs3.engine.ElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs3.engine.control.CompositeCache;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the W-TinyLFU memory cache. */
+public class TinyLfuMemoryCacheUnitTest
+    extends TestCase
+{
+    /**
+     * Create a cache with the given size.
+     * <p>
+     * @param cacheName the region name
+     * @param maxObjects the size
+     * @return an initialized cache
+     */
+    private TinyLfuMemoryCache<String, String> createCache( String cacheName, int maxObjects )
+    {
+        ICompositeCacheAttributes attributes = new CompositeCacheAttributes();
+        attributes.setCacheName( cacheName );
+        attributes.setMaxObjects( maxObjects );
+        attributes.setSpoolChunkSize( 1 );
+
+        TinyLfuMemoryCache<String, String> cache = new TinyLfuMemoryCache<>();
+        cache.initialize( new CompositeCache<>( attributes, new ElementAttributes() ) );
+        return cache;
+    }
+
+    /**
+     * Verify that the cache never grows over its maximum size.
+     * <p>
+     * @throws IOException
+     */
+    public void testSizeIsBounded()
+        throws IOException
+    {
+        // SETUP
+        int maxObjects = 100;
+        String cacheName = "testSizeIsBounded";
+        TinyLfuMemoryCache<String, String> cache = createCache( cacheName, maxObjects );
+
+        // DO WORK
+        for ( int i = 0; i < maxObjects * 10; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        assertEquals( "Should have max elements", maxObjects, cache.getSize() );
+        assertEquals( "Key set should match size", maxObjects, cache.getKeySet().size() );
+    }
+
+    /**
+     * Verify that frequently read elements survive a scan of new keys.
+     * <p>
+     * @throws IOException
+     */
+    public void testScanResistance()
+        throws IOException
+    {
+        // SETUP
+        int maxObjects = 100;
+        String cacheName = "testScanResistance";
+        TinyLfuMemoryCache<String, String> cache = createCache( cacheName, maxObjects );
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "hot" + i, "value" + i ) );
+        }
+        for ( int round = 0; round < 5; round++ )
+        {
+            for ( int i = 0; i < 50; i++ )
+            {
+                cache.get( "hot" + i );
+            }
+        }
+
+        // DO WORK
+        for ( int i = 0; i < maxObjects * 5; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "scan" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        int survivors = 0;
+        for ( int i = 0; i < 50; i++ )
+        {
+            if ( cache.getQuiet( "hot" + i ) != null )
+            {
+                survivors++;
+            }
+        }
+        assertTrue( "Most hot elements should survive the scan, but only " + survivors + " did",
+                survivors >= 45 );
+    }
+
+    /**
+     * Verify that remove, removeAll and freeElements keep map and policy in sync.
+     * <p>
+     * @throws IOException
+     */
+    public void testRemoveAndFree()
+        throws IOException
+    {
+        // SETUP
+        int maxObjects = 20;
+        String cacheName = "testRemoveAndFree";
+        TinyLfuMemoryCache<String, String> cache = createCache( cacheName, maxObjects );
+
+        for ( int i = 0; i < maxObjects; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+            cache.get( "key" + i );
+        }
+
+        // DO WORK
+        assertTrue( "Should remove", cache.remove( "key0" ) );
+        assertFalse( "Should not remove twice", cache.remove( "key0" ) );
+        int freed = cache.freeElements( 5 );
+
+        // VERIFY
+        assertEquals( "Should free 5", 5, freed );
+        assertEquals( "Wrong size", maxObjects - 6, cache.getSize() );
+
+        cache.removeAll();
+        assertEquals( "Should be empty", 0, cache.getSize() );
+        assertEquals( "Nothing to free", 0, cache.freeElements( 5 ) );
+
+        // reads of stale nodes must not corrupt the policy
+        for ( int i = 0; i < maxObjects * 2; i++ )
+        {
+            cache.update( new CacheElement<>( cacheName, "key" + i, "value" + i ) );
+            cache.get( "key" + ( i / 2 ) );
+        }
+        assertEquals( "Should have max elements", maxObjects, cache.getSize() );
+    }
+
+    /**
+     * Verify that concurrent readers and writers leave the cache consistent.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentAccess()
+        throws Exception
+    {
+        // SETUP
+        int maxObjects = 500;
+        String cacheName = "testConcurrentAccess";
+        TinyLfuMemoryCache<String, String> cache = createCache( cacheName, maxObjects );
+        AtomicInteger errors = new AtomicInteger();
+
+        // DO WORK
+        List<Thread> threads = new ArrayList<>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int seed = t;
+            Thread thread = new Thread( () -> {
+                try
+                {
+                    for ( int i = 0; i < 20000; i++ )
+                    {
+                        String key = "key" + ( ( i * 31 + seed ) % 2000 );
+                        if ( i % 4 == 0 )
+                        {
+                            cache.update( new CacheElement<>( cacheName, key, key ) );
+                        }
+                        else
+                        {
+                            cache.get( key );
+                        }
+                    }
+                }
+                catch ( Exception e )
+                {
+                    errors.incrementAndGet();
+                }
+            } );
+            threads.add( thread );
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "No errors expected", 0, errors.get() );
+        assertTrue( "Should not exceed max elements", cache.getSize() <= maxObjects );
+        assertEquals( "Map and policy should agree", cache.getSize(),
+                cache.freeElements( Integer.MAX_VALUE ) );
+        assertEquals( "Should be empty", 0, cache.getSize() );
+    }
+
+    /**
+     * Verify the frequency estimates of the sketch.
+     */
+    public void testFrequencySketch()
+    {
+        // SETUP
+        FrequencySketch sketch = new FrequencySketch( 512 );
+
+        // DO WORK
+        for ( int i = 0; i < 10; i++ )
+        {
+            sketch.increment( "popular" );
+        }
+        sketch.increment( "rare" );
+
+        // VERIFY
+        assertEquals( "Wrong popular frequency", 10, sketch.frequency( "popular" ) );
+        assertTrue( "Wrong rare frequency", sketch.frequency( "rare" ) >= 1 );
+        assertTrue( "Rare should be less popular",
+                sketch.frequency( "rare" ) < sketch.frequency( "popular" ) );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            sketch.increment( "popular" );
+        }
+        assertTrue( "Counter should saturate", sketch.frequency( "popular" ) <= 15 );
+    }
+}
@@ -0,0 +1,323 @@
+package org.apache.commons.jcs3.utils.serialization;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the adaptive compressing serializer.
+ */
+public class AdaptiveCompressingSerializerUnitTest
+    extends TestCase
+{
+    /**
+     * @return a compressible string of a few kilobytes
+     */
+    private static String text()
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            sb.append( "value " ).append( i % 10 );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Verify that both codecs compress a large value and read it back.
+     * <p>
+     * @throws Exception
+     */
+    public void testBackAndForth_codecs()
+        throws Exception
+    {
+        String before = text();
+        int plain = new StandardSerializer().serialize( before ).length;
+
+        for ( String codec : new String[] { "lz4", "deflate" } )
+        {
+            // SETUP
+            AdaptiveCompressingSerializer serializer = new AdaptiveCompressingSerializer();
+            serializer.setCodec( codec );
+
+            // DO WORK
+            byte[] data = serializer.serialize( before );
+            String after = serializer.deSerialize( data, null );
+
+            // VERIFY
+            assertTrue( codec + " should compress, length " + data.length, data.length < plain / 2 );
+            assertEquals( codec + " before and after should be the same.", before, after );
+        }
+    }
+
+    /**
+     * Verify that an uncompressed length the compressed value cannot hold is rejected before
+     * allocating.
+     * <p>
+     * @throws Exception
+     */
+    public void testCorruptLength()
+        throws Exception
+    {
+        for ( String codec : new String[] { "lz4", "deflate" } )
+        {
+            // SETUP
+            AdaptiveCompressingSerializer serializer = new AdaptiveCompressingSerializer();
+            serializer.setCodec( codec );
+            byte[] data = serializer.serialize( text() );
+            data[1] = 0x7F;
+            data[2] = (byte) 0xFF;
+            data[3] = (byte) 0xFF;
+            data[4] = (byte) 0xFF;
+
+            try
+            {
+                // DO WORK
+                serializer.deSerialize( data, null );
+
+                // VERIFY
+                fail( codec + " should have rejected the length" );
+            }
+            catch ( IOException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Verify that values below the threshold and incompressible values are stored as the standard
+     * serializer stores them.
+     * <p>
+     * @throws Exception
+     */
+    public void testUncompressed()
+        throws Exception
+    {
+        // SETUP
+        AdaptiveCompressingSerializer serializer = new AdaptiveCompressingSerializer();
+        StandardSerializer standard = new StandardSerializer();
+        byte[] random = new byte[4096];
+        new Random( 3 ).nextBytes( random );
+        String small = "small";
+
+        // DO WORK
+        byte[] smallData = serializer.serialize( small );
+        byte[] randomData = serializer.serialize( random );
+
+        // VERIFY
+        assertTrue( "Small value should not be compressed", Arrays.equals( standard.serialize( small ), smallData ) );
+        assertTrue( "Random value should not be compressed", Arrays.equals( standard.serialize( random ), randomData ) );
+        assertEquals( "Wrong small value", small, standard.deSerialize( smallData, null ) );
+        assertTrue( "Wrong random value", Arrays.equals( random, (byte[]) serializer.deSerialize( randomData, null ) ) );
+    }
+
+    /**
+     * Verify that data of the other serializers and codecs can be read.
+     * <p>
+     * @throws Exception
+     */
+    public void testMixedData()
+        throws Exception
+    {
+        // SETUP
+        String before = text();
+        AdaptiveCompressingSerializer lz4 = new AdaptiveCompressingSerializer();
+        AdaptiveCompressingSerializer deflate = new AdaptiveCompressingSerializer();
+        deflate.setCodec( "deflate" );
+
+        // DO WORK & VERIFY
+        assertEquals( "Deflated value", before, lz4.deSerialize( deflate.serialize( before ), null ) );
+        assertEquals( "LZ4 value", before, deflate.deSerialize( lz4.serialize( before ), null ) );
+        assertEquals( "Standard value", before, lz4.deSerialize( new StandardSerializer().serialize( before ), null ) );
+        assertEquals( "Compressing value", before,
+            lz4.deSerialize( new CompressingSerializer().serialize( before ), null ) );
+    }
+
+    /**
+     * Verify that the stream and buffer forms match the array forms.
+     * <p>
+     * @throws Exception
+     */
+    public void testStreamAndBuffer()
+        throws Exception
+    {
+        // SETUP
+        AdaptiveCompressingSerializer serializer = new AdaptiveCompressingSerializer();
+        String before = text();
+
+        // DO WORK
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeTo( before, out );
+        byte[] array = serializer.serialize( before );
+        ByteBuffer direct = ByteBuffer.allocateDirect( array.length );
+        direct.put( array ).flip();
+        String after = serializer.deSerializeFrom( direct, null );
+
+        // VERIFY
+        assertTrue( "Stream and array forms should be the same.", Arrays.equals( array, out.toByteArray() ) );
+        assertEquals( "Before and after should be the same.", before, after );
+        assertEquals( "The buffer position should not move.", 0, direct.position() );
+    }
+
+    /**
+     * @param i the number of the value
+     * @return a small JSON like value
+     */
+    private static String record( int i )
+    {
+        return "{\"id\":" + i + ",\"name\":\"user" + i + "\",\"email\":\"user" + i
+            + "@example.com\",\"active\":" + ( i % 2 == 0 ) + ",\"roles\":[\"reader\",\"writer\"]}";
+    }
+
+    /**
+     * Verify that small values shrink much more with a trained dictionary than with deflate, and
+     * that values written before the training stay readable.
+     * <p>
+     * @throws Exception
+     */
+    public void testDictionary()
+        throws Exception
+    {
+        // SETUP
+        File file = new File( "target/test-sandbox/AdaptiveCompressingSerializerUnitTest.testDictionary.dict" );
+        file.getParentFile().mkdirs();
+        file.delete();
+
+        AdaptiveCompressingSerializer serializer = new AdaptiveCompressingSerializer();
+        serializer.setCodec( "dictionary" );
+        serializer.setCompressionThreshold( 32 );
+        serializer.setDictionarySampleCount( 200 );
+        serializer.setDictionaryFile( file.getPath() );
+        AdaptiveCompressingSerializer deflate = new AdaptiveCompressingSerializer();
+        deflate.setCodec( "deflate" );
+        deflate.setCompressionThreshold( 32 );
+
+        byte[] first = serializer.serialize( record( 0 ) );
+        for ( int i = 1; i < 200; i++ )
+        {
+            serializer.serialize( record( i ) );
+        }
+        assertNotNull( "Dictionary should be trained", serializer.getDictionary() );
+
+        // DO WORK
+        int dictionarySize = 0;
+        int deflateSize = 0;
+        for ( int i = 1000; i < 1100; i++ )
+        {
+            byte[] data = serializer.serialize( record( i ) );
+            assertEquals( "Wrong value", record( i ), serializer.deSerialize( data, null ) );
+            dictionarySize += data.length;
+            deflateSize += deflate.serialize( record( i ) ).length;
+        }
+
+        // VERIFY
+        assertTrue( "Dictionary should save a lot, " + dictionarySize + " vs " + deflateSize,
+            dictionarySize * 2 < deflateSize );
+        assertEquals( "Value from before the training", record( 0 ), serializer.deSerialize( first, null ) );
+    }
+
+    /**
+     * Verify that the dictionary is kept in its file and that values need the same dictionary.
+     * <p>
+     * @throws Exception
+     */
+    public void testDictionaryFile()
+        throws Exception
+    {
+        // SETUP
+        File file = new File( "target/test-sandbox/AdaptiveCompressingSerializerUnitTest.dict" );
+        file.getParentFile().mkdirs();
+        file.delete();
+
+        AdaptiveCompressingSerializer serializer = new AdaptiveCompressingSerializer();
+        serializer.setCodec( "dictionary" );
+        serializer.setCompressionThreshold( 32 );
+        serializer.setDictionarySampleCount( 100 );
+        serializer.setDictionaryFile( file.getPath() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            serializer.serialize( record( i ) );
+        }
+        byte[] data = serializer.serialize( record( 5000 ) );
+
+        // DO WORK
+        AdaptiveCompressingSerializer restarted = new AdaptiveCompressingSerializer();
+        restarted.setDictionaryFile( file.getPath() );
+        AdaptiveCompressingSerializer other = new AdaptiveCompressingSerializer();
+
+        // VERIFY
+        assertTrue( "Dictionary file should exist", file.exists() );
+        assertEquals( "Value read with the stored dictionary", record( 5000 ), restarted.deSerialize( data, null ) );
+        try
+        {
+            other.deSerialize( data, null );
+            fail( "excepted an IOException without the dictionary" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Verify that no dictionary is used unless it can be written to its file, so the values stay
+     * readable after a restart.
+     * <p>
+     * @throws Exception
+     */
+    public void testDictionaryNotPersisted()
+        throws Exception
+    {
+        // SETUP
+        AdaptiveCompressingSerializer withoutFile = new AdaptiveCompressingSerializer();
+        withoutFile.setCodec( "dictionary" );
+        withoutFile.setCompressionThreshold( 32 );
+        withoutFile.setDictionarySampleCount( 10 );
+        AdaptiveCompressingSerializer unwritable = new AdaptiveCompressingSerializer();
+        unwritable.setCodec( "dictionary" );
+        unwritable.setCompressionThreshold( 32 );
+        unwritable.setDictionarySampleCount( 10 );
+        unwritable.setDictionaryFile( "target/test-sandbox/no/such/dir/unwritable.dict" );
+
+        // DO WORK
+        for ( int i = 0; i < 20; i++ )
+        {
+            withoutFile.serialize( record( i ) );
+            unwritable.serialize( record( i ) );
+        }
+        byte[] data1 = withoutFile.serialize( record( 5000 ) );
+        byte[] data2 = unwritable.serialize( record( 5000 ) );
+
+        // VERIFY
+        assertNull( "Should not train without a file", withoutFile.getDictionary() );
+        assertNull( "Should not use a dictionary that was not written", unwritable.getDictionary() );
+        AdaptiveCompressingSerializer restarted = new AdaptiveCompressingSerializer();
+        assertEquals( "Value should not need a dictionary", record( 5000 ), restarted.deSerialize( data1, null ) );
+        assertEquals( "Value should not need a dictionary", record( 5000 ), restarted.deSerialize( data2, null ) );
+    }
+}
@@ -21,7 +21,9 @@ package org.apache.commons.jcs3.utils.serialization;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Tests the compressing serializer.
@@ -116,4 +118,36 @@ public class CompressingSerializerUnitTest
         assertTrue( "Compressed should be smaller. compressed size = " + compressed.length + "nonCompressed size = "
             + nonCompressed.length, compressed.length < nonCompressed.length );
     }
+
+    /**
+     * Verify that the stream and buffer forms can be mixed with the array forms.
+     * <p>
+     * @throws Exception on error
+     */
+    public void testStreamAndBufferBackAndForth()
+        throws Exception
+    {
+        // SETUP
+        CompressingSerializer serializer = new CompressingSerializer();
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            sb.append( "value " ).append( i % 10 );
+        }
+        String before = sb.toString();
+
+        // DO WORK
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeTo( before, out );
+        String fromStream = (String) serializer.deSerialize( out.toByteArray(), null );
+
+        ByteBuffer direct = ByteBuffer.allocateDirect( 1024 * 16 );
+        direct.put( serializer.serialize( before ) ).flip();
+        String fromBuffer = (String) serializer.deSerializeFrom( direct, null );
+
+        // VERIFY
+        assertEquals( "Stream form should be readable as an array.", before, fromStream );
+        assertEquals( "Array form should be readable from a buffer.", before, fromBuffer );
+        assertTrue( "Stream form should be compressed.", out.size() < before.length() );
+    }
 }
@@ -0,0 +1,313 @@
+package org.apache.commons.jcs3.utils.serialization;
+
+
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.CacheElementSerialized;
+import org.apache.commons.jcs3.engine.ElementAttributes;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs3.engine.control.group.GroupId;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the registration serializer.
+ */
+public class RegistrationSerializerUnitTest
+    extends TestCase
+{
+    /**
+     * A value class with a codec.
+     */
+    public static class Point
+    {
+        final int x;
+        final int y;
+
+        public Point( int x, int y )
+        {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * The codec of Point, registered by name.
+     */
+    public static class PointCodec
+        implements RegistrationSerializer.Codec<Point>
+    {
+        @Override
+        public Class<Point> getType()
+        {
+            return Point.class;
+        }
+
+        @Override
+        public void write( DataOutput out, Point value, RegistrationSerializer serializer )
+            throws IOException
+        {
+            out.writeInt( value.x );
+            out.writeInt( value.y );
+        }
+
+        @Override
+        public Point read( DataInput in, RegistrationSerializer serializer, ClassLoader loader )
+            throws IOException
+        {
+            return new Point( in.readInt(), in.readInt() );
+        }
+    }
+
+    /**
+     * Verify that the built in types survive a round trip.
+     * <p>
+     * @throws Exception
+     */
+    public void testBuiltInTypes()
+        throws Exception
+    {
+        // SETUP
+        RegistrationSerializer serializer = new RegistrationSerializer();
+        List<Object> list = new ArrayList<>();
+        list.add( "aé" );
+        list.add( Integer.valueOf( -1 ) );
+        list.add( Long.valueOf( Long.MAX_VALUE ) );
+        list.add( Boolean.TRUE );
+        list.add( Double.valueOf( 1.5 ) );
+        list.add( Float.valueOf( 2.5f ) );
+        list.add( Short.valueOf( (short) 3 ) );
+        list.add( Byte.valueOf( (byte) 4 ) );
+        list.add( Character.valueOf( 'c' ) );
+        list.add( null );
+        Map<Object, Object> map = new HashMap<>();
+        map.put( "key", list );
+        map.put( new GroupAttrName<>( new GroupId( "region", "group" ), "attr" ), "grouped" );
+
+        // DO WORK
+        Map<Object, Object> after = serializer.deSerialize( serializer.serialize( map ), null );
+
+        // VERIFY
+        assertEquals( "Wrong map", map, after );
+        assertNull( "Should be null", serializer.deSerialize( serializer.serialize( null ), null ) );
+    }
+
+    /**
+     * Verify that a cache element keeps its key, value and attributes.
+     * <p>
+     * @throws Exception
+     */
+    public void testCacheElement()
+        throws Exception
+    {
+        // SETUP
+        RegistrationSerializer serializer = new RegistrationSerializer();
+        ElementAttributes attr = new ElementAttributes();
+        attr.setMaxLife( 34 );
+        attr.setIsEternal( false );
+        attr.setIsLateral( false );
+        attr.setCreateTime( 1234 );
+        attr.setLastAccessTime( 5678 );
+        ICacheElement<String, byte[]> before = new CacheElement<>( "region", "key", new byte[] { 1, 2, 3 }, attr );
+
+        // DO WORK
+        ICacheElement<String, byte[]> after = serializer.deSerialize( serializer.serialize( before ), null );
+
+        // VERIFY
+        assertEquals( "Wrong region", "region", after.getCacheName() );
+        assertEquals( "Wrong key", "key", after.getKey() );
+        assertEquals( "Wrong value length", 3, after.getVal().length );
+        assertEquals( "Wrong max life", 34, after.getElementAttributes().getMaxLife() );
+        assertFalse( "Wrong eternal", after.getElementAttributes().getIsEternal() );
+        assertFalse( "Wrong lateral", after.getElementAttributes().getIsLateral() );
+        assertTrue( "Wrong spool", after.getElementAttributes().getIsSpool() );
+        assertEquals( "Wrong create time", 1234, after.getElementAttributes().getCreateTime() );
+        assertEquals( "Wrong last access time", 5678, after.getElementAttributes().getLastAccessTime() );
+    }
+
+    /**
+     * Verify that a serialized element keeps its bytes.
+     * <p>
+     * @throws Exception
+     */
+    public void testCacheElementSerialized()
+        throws Exception
+    {
+        // SETUP
+        RegistrationSerializer serializer = new RegistrationSerializer();
+        CacheElementSerialized<String, String> before =
+            new CacheElementSerialized<>( "region", "key", new byte[] { 9, 8 }, new ElementAttributes() );
+
+        // DO WORK
+        CacheElementSerialized<String, String> after = serializer.deSerialize( serializer.serialize( before ), null );
+
+        // VERIFY
+        assertEquals( "Wrong key", "key", after.getKey() );
+        assertEquals( "Wrong bytes", 8, after.getSerializedValue()[1] );
+    }
+
+    /**
+     * Verify that classes without a codec fall back to Java serialization, and that registered
+     * codecs are used.
+     * <p>
+     * @throws Exception
+     */
+    public void testRegisteredAndFallback()
+        throws Exception
+    {
+        // SETUP
+        RegistrationSerializer serializer = new RegistrationSerializer();
+        serializer.setCodecs( PointCodec.class.getName() );
+        Date date = new Date( 42 );
+
+        // DO WORK
+        Point point = serializer.deSerialize( serializer.serialize( new Point( 3, 4 ) ), null );
+        Date after = serializer.deSerialize( serializer.serialize( date ), null );
+
+        // VERIFY
+        assertEquals( "Wrong x", 3, point.x );
+        assertEquals( "Wrong y", 4, point.y );
+        assertEquals( "Wrong date", date, after );
+    }
+
+    /**
+     * Verify that the output is smaller than with Java serialization.
+     * <p>
+     * @throws Exception
+     */
+    public void testSmallerThanStandard()
+        throws Exception
+    {
+        // SETUP
+        ICacheElement<String, String> element = new CacheElement<>( "region", "key", "value" );
+
+        // DO WORK
+        int registered = new RegistrationSerializer().serialize( element ).length;
+        int standard = new StandardSerializer().serialize( element ).length;
+
+        // VERIFY
+        assertTrue( "Should be smaller: " + registered + " vs " + standard, registered * 4 < standard );
+    }
+
+    /**
+     * Verify that data of another serializer is rejected.
+     * <p>
+     * @throws Exception
+     */
+    public void testForeignData()
+        throws Exception
+    {
+        // SETUP
+        byte[] standard = new StandardSerializer().serialize( "value" );
+
+        // DO WORK
+        try
+        {
+            new RegistrationSerializer().deSerialize( standard, null );
+            fail( "Should have rejected the data" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Verify that a negative length or one past the end of the data is rejected before allocating.
+     * <p>
+     * @throws Exception
+     */
+    public void testCorruptLength()
+        throws Exception
+    {
+        // SETUP
+        RegistrationSerializer serializer = new RegistrationSerializer();
+        byte[] data = serializer.serialize( "value" );
+        // the format byte and the id of String come before the length
+        byte[] negative = Arrays.copyOf( data, 7 );
+        byte[] tooLong = Arrays.copyOf( data, 7 );
+        for ( int i = 2; i < 6; i++ )
+        {
+            negative[i] = (byte) 0xFF;
+            tooLong[i] = (byte) 0xFF;
+        }
+        negative[6] = 0x0F;
+        tooLong[6] = 0x07;
+
+        // DO WORK
+        for ( byte[] corrupt : new byte[][] { negative, tooLong } )
+        {
+            try
+            {
+                serializer.deSerialize( corrupt, null );
+                fail( "Should have rejected the length" );
+            }
+            catch ( StreamCorruptedException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Verify that the stream form matches the array form and that a buffer is read in place.
+     * <p>
+     * @throws Exception
+     */
+    public void testStreamAndBuffer()
+        throws Exception
+    {
+        // SETUP
+        RegistrationSerializer serializer = new RegistrationSerializer();
+        ICacheElement<String, Object> before = new CacheElement<>( "region", "key", "value" );
+
+        // DO WORK
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeTo( before, out );
+        byte[] array = serializer.serialize( before );
+
+        ByteBuffer direct = ByteBuffer.allocateDirect( array.length );
+        direct.put( array ).flip();
+        @SuppressWarnings("unchecked")
+        ICacheElement<String, Object> after = (ICacheElement<String, Object>) serializer.deSerializeFrom( direct, null );
+
+        // VERIFY
+        assertTrue( "Stream and array forms should be the same.", Arrays.equals( array, out.toByteArray() ) );
+        assertEquals( "Wrong key", "key", after.getKey() );
+        assertEquals( "Wrong value", "value", after.getVal() );
+        assertEquals( "The buffer position should not move.", 0, direct.position() );
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.commons.jcs3.utils.serialization;
+
+
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs3.engine.CacheElement;
+import org.apache.commons.jcs3.engine.behavior.ICacheElement;
+import org.apache.commons.jcs3.engine.behavior.IElementSerializer;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the time to serialize and de-serialize cache elements with the registration serializer
+ * and with the standard serializer. The registration serializer should take well under half the
+ * time.
+ */
+public class SerializerPerformanceTest
+    extends TestCase
+{
+    /** registration / standard ratio */
+    float target = .5f;
+
+    /** Time to loop */
+    int loops = 10;
+
+    /** elements to serialize and de-serialize per loop */
+    int tries = 50000;
+
+    /**
+     * Runs the comparison.
+     * <p>
+     * @throws Exception
+     */
+    public void testSimpleLoad()
+        throws Exception
+    {
+        long registered = 0;
+        long standard = 0;
+
+        for ( int j = 0; j < loops; j++ )
+        {
+            registered += time( "Registration", new RegistrationSerializer() );
+            standard += time( "Standard    ", new StandardSerializer() );
+        }
+
+        float ratio = (float) registered / standard;
+        System.out.println( "Registration / Standard = " + ratio );
+        assertTrue( "Too slow: " + ratio, ratio < target );
+    }
+
+    /**
+     * Serializes and de-serializes the elements with one serializer.
+     * <p>
+     * @param name the name to print
+     * @param serializer the serializer
+     * @return the time in milliseconds
+     * @throws Exception
+     */
+    private long time( String name, IElementSerializer serializer )
+        throws Exception
+    {
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < tries; i++ )
+        {
+            ICacheElement<String, String> element = new CacheElement<>( "testRegion", "key:" + i, "data" + i );
+            ICacheElement<String, String> after = serializer.deSerialize( serializer.serialize( element ), null );
+            assertEquals( element.getKey(), after.getKey() );
+        }
+        long time = System.currentTimeMillis() - start;
+        System.out.println( name + " time for " + tries + " = " + time );
+        return time;
+    }
+}
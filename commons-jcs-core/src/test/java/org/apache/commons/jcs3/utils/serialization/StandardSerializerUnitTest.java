@@ -21,6 +21,11 @@ package org.apache.commons.jcs3.utils.serialization;
  * under the License.
  */
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.commons.jcs3.io.ByteBufferOutputStream;
+
 import junit.framework.TestCase;
 
 /**
@@ -101,4 +106,32 @@ public class StandardSerializerUnitTest
         // VERIFY
         assertEquals( "Before and after should be the same.", before, after );
     }
+
+    /**
+     * Verify that an object written to a stream is read back from a slice of a larger buffer.
+     *<p>
+     * @throws Exception
+     */
+    public void testStreamAndBufferBackAndForth()
+        throws Exception
+    {
+        // SETUP
+        StandardSerializer serializer = new StandardSerializer();
+        String before = "adsfdsafdsafdsafdsafdsafdsafdsagfdsafdsafdsfdsafdsafsa333 31231";
+
+        ByteBufferOutputStream out = new ByteBufferOutputStream();
+        out.write( new byte[7] );
+
+        // DO WORK
+        serializer.serializeTo( before, out );
+        ByteBuffer data = out.toByteBuffer();
+        data.position( 7 );
+        String after = (String) serializer.deSerializeFrom( data.slice(), null );
+
+        // VERIFY
+        assertEquals( "Before and after should be the same.", before, after );
+        assertEquals( "The buffer position should not move.", 7, data.position() );
+        assertTrue( "Stream and array forms should be the same.",
+                Arrays.equals( serializer.serialize( before ), Arrays.copyOfRange( out.toByteArray(), 7, out.size() ) ) );
+    }
 }
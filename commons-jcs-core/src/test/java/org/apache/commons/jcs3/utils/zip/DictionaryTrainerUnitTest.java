@@ -0,0 +1,75 @@
+package org.apache.commons.jcs3.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the dictionary trainer */
+public class DictionaryTrainerUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that the strings the samples share end up in the dictionary.
+     */
+    public void testTrain_commonStrings()
+    {
+        // SETUP
+        List<byte[]> samples = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            samples.add( ( "<order><customer>" + i + "</customer><status>shipped</status></order>" ).getBytes() );
+        }
+
+        // DO WORK
+        byte[] dictionary = DictionaryTrainer.train( samples, 1024 );
+
+        // VERIFY
+        String text = new String( dictionary );
+        assertTrue( "Dictionary should not exceed its size", dictionary.length <= 1024 );
+        assertTrue( "Dictionary should hold the common strings: " + text, text.contains( "</status></order>" ) );
+    }
+
+    /**
+     * Verify that unrelated random samples give an empty dictionary.
+     */
+    public void testTrain_nothingInCommon()
+    {
+        // SETUP
+        Random random = new Random( 7 );
+        List<byte[]> samples = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            byte[] sample = new byte[100];
+            random.nextBytes( sample );
+            samples.add( sample );
+        }
+
+        // DO WORK
+        byte[] dictionary = DictionaryTrainer.train( samples, 1024 );
+
+        // VERIFY
+        assertTrue( "Dictionary should be empty: " + Arrays.toString( dictionary ), dictionary.length == 0 );
+    }
+}
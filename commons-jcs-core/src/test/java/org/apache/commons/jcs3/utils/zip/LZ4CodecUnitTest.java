@@ -0,0 +1,126 @@
+package org.apache.commons.jcs3.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the LZ4 block codec */
+public class LZ4CodecUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that repetitive text is compressed and restored.
+     * <p>
+     * @throws IOException
+     */
+    public void testCompressDecompress_text()
+        throws IOException
+    {
+        // SETUP
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 500; i++ )
+        {
+            sb.append( "This is some text to compress, line " ).append( i % 17 ).append( '\n' );
+        }
+        byte[] input = sb.toString().getBytes();
+
+        // DO WORK
+        byte[] compressed = LZ4Codec.compress( input, 0, input.length );
+        byte[] output = new byte[input.length];
+        LZ4Codec.decompress( compressed, 0, compressed.length, output, 0, output.length );
+
+        // VERIFY
+        assertTrue( "Should be compressed, length " + compressed.length, compressed.length < input.length / 4 );
+        assertTrue( "Output should match the input", Arrays.equals( input, output ) );
+    }
+
+    /**
+     * Verify that short, run length and random data survive the round trip.
+     * <p>
+     * @throws IOException
+     */
+    public void testCompressDecompress_edgeCases()
+        throws IOException
+    {
+        Random random = new Random( 42 );
+        byte[] random1000 = new byte[1000];
+        random.nextBytes( random1000 );
+        byte[] run = new byte[70000];
+        Arrays.fill( run, (byte) 7 );
+
+        for ( byte[] input : new byte[][] { new byte[0], "abc".getBytes(), "abcdabcdabcdabcd".getBytes(),
+            random1000, run } )
+        {
+            // DO WORK
+            byte[] compressed = LZ4Codec.compress( input, 0, input.length );
+            byte[] output = new byte[input.length];
+            LZ4Codec.decompress( compressed, 0, compressed.length, output, 0, output.length );
+
+            // VERIFY
+            assertTrue( "Output should match the input of length " + input.length, Arrays.equals( input, output ) );
+            assertTrue( "Compressed length over the bound",
+                compressed.length <= LZ4Codec.maxCompressedLength( input.length ) );
+        }
+    }
+
+    /**
+     * Verify that compression gives up when the output does not fit the limit.
+     */
+    public void testCompress_limit()
+    {
+        // SETUP
+        byte[] input = new byte[1000];
+        new Random( 1 ).nextBytes( input );
+        byte[] dst = new byte[2000];
+
+        // DO WORK
+        int length = LZ4Codec.compress( input, 0, input.length, dst, 0, 900 );
+
+        // VERIFY
+        assertEquals( "Random data should not fit in 900 bytes", -1, length );
+    }
+
+    /**
+     * Verify that a truncated block is rejected.
+     */
+    public void testDecompress_corrupt()
+    {
+        // SETUP
+        byte[] input = "abcdabcdabcdabcdabcdabcdabcdabcd".getBytes();
+        byte[] compressed = LZ4Codec.compress( input, 0, input.length );
+
+        try
+        {
+            // DO WORK
+            LZ4Codec.decompress( compressed, 0, compressed.length - 2, new byte[input.length], 0, input.length );
+
+            // VERIFY
+            fail( "excepted an IOException" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+}